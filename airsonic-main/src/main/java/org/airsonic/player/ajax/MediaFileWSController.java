@@ -2,9 +2,10 @@ package org.airsonic.player.ajax;
 
 import com.google.common.collect.ImmutableMap;
 import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFileAnnotations;
 import org.airsonic.player.domain.MediaFileComparator;
+import org.airsonic.player.service.AnnotationService;
 import org.airsonic.player.service.MediaFileService;
-import org.airsonic.player.service.RatingService;
 import org.airsonic.player.service.SecurityService;
 import org.airsonic.player.service.SettingsService;
 import org.apache.commons.lang3.tuple.Pair;
@@ -32,7 +33,7 @@ public class MediaFileWSController {
     @Autowired
     private MediaFileService mediaFileService;
     @Autowired
-    private RatingService ratingService;
+    private AnnotationService annotationService;
     @Autowired
     private SecurityService securityService;
     @Autowired
@@ -72,8 +73,13 @@ public class MediaFileWSController {
                 subDirs.add(child);
             }
         }
-        MediaFileDirectoryEntry entry = new MediaFileDirectoryEntry(mediaFileService.toMediaFileEntryList(Collections.singletonList(dir), user.getName(), true, true, null, null, null).get(0));
-        entry.setFiles(mediaFileService.toMediaFileEntryList(files, user.getName(), true, false, null, null, null));
+        // starred dates and ratings of the directory and its files in one go
+        List<MediaFile> annotated = new ArrayList<>(files);
+        annotated.add(dir);
+        MediaFileAnnotations annotations = annotationService.getAnnotations(annotated, user.getName());
+
+        MediaFileDirectoryEntry entry = new MediaFileDirectoryEntry(mediaFileService.toMediaFileEntryList(Collections.singletonList(dir), user.getName(), annotations, true, null, null, null).get(0));
+        entry.setFiles(mediaFileService.toMediaFileEntryList(files, user.getName(), annotations, false, null, null, null));
         entry.setSubDirs(mediaFileService.toMediaFileEntryList(subDirs, user.getName(), false, false, null, null, null));
         entry.setAncestors(mediaFileService.toMediaFileEntryList(getAncestors(dir), user.getName(), false, false, null, null, null));
         entry.setComment(dir.getComment());
@@ -85,8 +91,8 @@ public class MediaFileWSController {
             entry.setMusicBrainzReleaseId(guessMusicBrainzReleaseId(children));
         }
 
-        Integer userRating = Optional.ofNullable(ratingService.getRatingForUser(user.getName(), dir)).orElse(0);
-        Double averageRating = Optional.ofNullable(ratingService.getAverageRating(dir)).orElse(0.0D);
+        Integer userRating = Optional.ofNullable(annotations.getUserRating(dir)).orElse(0);
+        Double averageRating = Optional.ofNullable(annotations.getAverageRating(dir)).orElse(0.0D);
 
         entry.setUserRating(10 * userRating);
         entry.setAverageRating(10.0D * averageRating);
@@ -46,6 +46,7 @@ public class AdvancedSettingsCommand {
     private String smtpFrom;
 
     private boolean captchaEnabled;
+    private boolean restFormattedOutput;
     private String recaptchaSiteKey;
     private String recaptchaSecretKey;
 
@@ -180,6 +181,14 @@ public class AdvancedSettingsCommand {
         this.captchaEnabled = captchaEnabled;
     }
 
+    public boolean isRestFormattedOutput() {
+        return restFormattedOutput;
+    }
+
+    public void setRestFormattedOutput(boolean restFormattedOutput) {
+        this.restFormattedOutput = restFormattedOutput;
+    }
+
     public String getRecaptchaSiteKey() {
         return recaptchaSiteKey;
     }
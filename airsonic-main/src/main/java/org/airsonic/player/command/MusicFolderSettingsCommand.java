@@ -56,6 +56,8 @@ public class MusicFolderSettingsCommand {
     private boolean hideVirtualTracks;
     private Boolean fullScan;
     private Boolean clearFullScanSettingAfterScan;
+    private boolean incrementalScan;
+    private boolean watchMusicFolders;
 
     public String getInterval() {
         return interval;
@@ -177,6 +179,22 @@ public class MusicFolderSettingsCommand {
         this.clearFullScanSettingAfterScan = clearFullScanSettingAfterScan;
     }
 
+    public boolean isIncrementalScan() {
+        return incrementalScan;
+    }
+
+    public void setIncrementalScan(boolean incrementalScan) {
+        this.incrementalScan = incrementalScan;
+    }
+
+    public boolean isWatchMusicFolders() {
+        return watchMusicFolders;
+    }
+
+    public void setWatchMusicFolders(boolean watchMusicFolders) {
+        this.watchMusicFolders = watchMusicFolders;
+    }
+
     public String getUploadsFolder() {
         return uploadsFolder;
     }
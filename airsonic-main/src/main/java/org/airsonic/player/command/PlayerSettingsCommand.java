@@ -44,6 +44,7 @@ public class PlayerSettingsCommand {
     private boolean m3uBomEnabled;
     private String technologyName;
     private String transcodeSchemeName;
+    private Long bandwidthLimit;
     private boolean transcodingSupported;
     private String transcodeDirectory;
     private List<Transcoding> allTranscodings;
@@ -125,6 +126,14 @@ public class PlayerSettingsCommand {
         this.transcodeSchemeName = transcodeSchemeName;
     }
 
+    public Long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    public void setBandwidthLimit(Long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
     public boolean isTranscodingSupported() {
         return transcodingSupported;
     }
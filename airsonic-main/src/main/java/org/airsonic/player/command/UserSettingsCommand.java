@@ -59,6 +59,7 @@ public class UserSettingsCommand {
     private int[] allowedMusicFolderIds;
 
     private String transcodeSchemeName;
+    private long bandwidthLimit;
     private EnumHolder[] transcodeSchemeHolders;
     private boolean transcodingSupported;
     private String transcodeDirectory;
@@ -263,6 +264,14 @@ public class UserSettingsCommand {
         this.transcodeSchemeName = transcodeSchemeName;
     }
 
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
     public EnumHolder[] getTranscodeSchemeHolders() {
         return transcodeSchemeHolders;
     }
@@ -0,0 +1,103 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+
+@Component
+@ConfigurationProperties(prefix = "airsonic.cache")
+@Validated
+public class AirsonicCacheConfig {
+
+    private static final long DEFAULT_MEDIA_FILE_HEAP_ENTRIES = 1000;
+    private static final long DEFAULT_MEDIA_FILE_OFF_HEAP_SIZE = 32;
+    private static final int DEFAULT_PREWARM_DIRECTORIES = 100;
+    private static final int DEFAULT_TELEMETRY_INTERVAL = 60;
+
+    @Positive
+    private Long mediaFileHeapEntries = DEFAULT_MEDIA_FILE_HEAP_ENTRIES;
+
+    @PositiveOrZero
+    private Long mediaFileOffHeapSize = DEFAULT_MEDIA_FILE_OFF_HEAP_SIZE;
+
+    @PositiveOrZero
+    private Integer prewarmDirectories = DEFAULT_PREWARM_DIRECTORIES;
+
+    @PositiveOrZero
+    private Integer telemetryInterval = DEFAULT_TELEMETRY_INTERVAL;
+
+    /**
+     * Get the number of media files of each media file cache which are kept on the heap.
+     *
+     * @return number of media files
+     */
+    public Long getMediaFileHeapEntries() {
+        return mediaFileHeapEntries;
+    }
+
+    /**
+     * Get the size in megabytes of each media file cache outside the heap. 0 keeps media files on the heap only.
+     *
+     * @return off-heap size in megabytes
+     */
+    public Long getMediaFileOffHeapSize() {
+        return mediaFileOffHeapSize;
+    }
+
+    /**
+     * Get the number of most recently played and most browsed directories whose media files are cached at startup.
+     * 0 disables prewarming.
+     *
+     * @return number of directories of each kind
+     */
+    public Integer getPrewarmDirectories() {
+        return prewarmDirectories;
+    }
+
+    /**
+     * Get the interval in seconds at which the statistics of the caches are sampled. 0 disables sampling.
+     *
+     * @return sampling interval in seconds
+     */
+    public Integer getTelemetryInterval() {
+        return telemetryInterval;
+    }
+
+    public void setMediaFileHeapEntries(Long mediaFileHeapEntries) {
+        this.mediaFileHeapEntries = mediaFileHeapEntries;
+    }
+
+    public void setMediaFileOffHeapSize(Long mediaFileOffHeapSize) {
+        this.mediaFileOffHeapSize = mediaFileOffHeapSize;
+    }
+
+    public void setPrewarmDirectories(Integer prewarmDirectories) {
+        this.prewarmDirectories = prewarmDirectories;
+    }
+
+    public void setTelemetryInterval(Integer telemetryInterval) {
+        this.telemetryInterval = telemetryInterval;
+    }
+}
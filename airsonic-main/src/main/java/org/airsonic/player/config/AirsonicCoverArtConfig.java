@@ -0,0 +1,67 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.PositiveOrZero;
+
+@Component
+@ConfigurationProperties(prefix = "airsonic.cover-art")
+@Validated
+public class AirsonicCoverArtConfig {
+
+    private static final long DEFAULT_MEMORY_CACHE_SIZE = 32;
+    private static final int DEFAULT_MEMORY_CACHE_MAX_IMAGE_SIZE = 300;
+
+    @PositiveOrZero
+    private Long memoryCacheSize = DEFAULT_MEMORY_CACHE_SIZE;
+
+    @PositiveOrZero
+    private Integer memoryCacheMaxImageSize = DEFAULT_MEMORY_CACHE_MAX_IMAGE_SIZE;
+
+    /**
+     * Get the maximum size in megabytes of the scaled cover art kept in memory. 0 disables the memory cache.
+     *
+     * @return memory cache size in megabytes
+     */
+    public Long getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    /**
+     * Get the largest width and height in pixels of scaled cover art which is kept in memory.
+     *
+     * @return image size in pixels
+     */
+    public Integer getMemoryCacheMaxImageSize() {
+        return memoryCacheMaxImageSize;
+    }
+
+    public void setMemoryCacheSize(Long memoryCacheSize) {
+        this.memoryCacheSize = memoryCacheSize;
+    }
+
+    public void setMemoryCacheMaxImageSize(Integer memoryCacheMaxImageSize) {
+        this.memoryCacheMaxImageSize = memoryCacheMaxImageSize;
+    }
+}
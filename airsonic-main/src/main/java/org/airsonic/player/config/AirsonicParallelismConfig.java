@@ -0,0 +1,101 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Positive;
+
+import java.util.Objects;
+
+@Component
+@ConfigurationProperties(prefix = "airsonic.parallelism")
+@Validated
+public class AirsonicParallelismConfig {
+
+    private static final int DEFAULT_SEQUENTIAL_THRESHOLD = 32;
+
+    @Positive
+    private Integer browse;
+
+    @Positive
+    private Integer scan;
+
+    @Positive
+    private Integer coverArt;
+
+    @Positive
+    private Integer sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+
+    /**
+     * Get the number of threads for parallel work of browse requests. If not set, use availableProcessors.
+     *
+     * @return browse parallelism
+     */
+    public Integer getBrowse() {
+        return Objects.requireNonNullElseGet(browse, () -> Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Get the number of threads for parallel scan work which is not started by the media scanner itself. If not set,
+     * use availableProcessors.
+     *
+     * @return scan parallelism
+     */
+    public Integer getScan() {
+        return Objects.requireNonNullElseGet(scan, () -> Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Get the number of threads for parallel work of cover art requests. If not set, use half of availableProcessors.
+     *
+     * @return cover art parallelism
+     */
+    public Integer getCoverArt() {
+        return Objects.requireNonNullElseGet(coverArt, () -> Math.max(Runtime.getRuntime().availableProcessors() / 2, 1));
+    }
+
+    /**
+     * Get the number of elements below which work is done sequentially in the calling thread.
+     *
+     * @return sequential threshold
+     */
+    public Integer getSequentialThreshold() {
+        return sequentialThreshold;
+    }
+
+    public void setBrowse(Integer browse) {
+        this.browse = browse;
+    }
+
+    public void setScan(Integer scan) {
+        this.scan = scan;
+    }
+
+    public void setCoverArt(Integer coverArt) {
+        this.coverArt = coverArt;
+    }
+
+    public void setSequentialThreshold(Integer sequentialThreshold) {
+        this.sequentialThreshold = sequentialThreshold;
+    }
+}
@@ -39,6 +39,9 @@ public class AirsonicScanConfig {
 
     private static final int DEFAULT_SCAN = 60 * 60;
     private static final int DEFAULT_FULLSCAN = 4 * 60 * 60;
+    private static final int DEFAULT_WRITE_BATCH_SIZE = 50;
+    private static final int DEFAULT_WATCH_DELAY = 5;
+    private static final int DEFAULT_INDEX_REFRESH_INTERVAL = 10;
 
     @Positive
     private Integer fullTimeout = DEFAULT_FULLSCAN;
@@ -49,6 +52,15 @@ public class AirsonicScanConfig {
     @Positive
     private Integer parallelism;
 
+    @Positive
+    private Integer writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
+
+    @Positive
+    private Integer watchDelay = DEFAULT_WATCH_DELAY;
+
+    @Positive
+    private Integer indexRefreshInterval = DEFAULT_INDEX_REFRESH_INTERVAL;
+
     public Integer getFullTimeout() {
         return fullTimeout;
     }
@@ -74,6 +86,33 @@ public class AirsonicScanConfig {
         return Runtime.getRuntime().availableProcessors() + 1;
     }
 
+    /**
+     * Get the number of entities written per batch while scanning.
+     *
+     * @return write batch size
+     */
+    public Integer getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Get the number of seconds without further changes in watched music folders before they are scanned.
+     *
+     * @return watch delay in seconds
+     */
+    public Integer getWatchDelay() {
+        return watchDelay;
+    }
+
+    /**
+     * Get the number of seconds between refreshes of the search index while it is updated.
+     *
+     * @return index refresh interval in seconds
+     */
+    public Integer getIndexRefreshInterval() {
+        return indexRefreshInterval;
+    }
+
     public void setFullTimeout(Integer fullTimeout) {
         this.fullTimeout = fullTimeout;
     }
@@ -85,4 +124,16 @@ public class AirsonicScanConfig {
     public void setParallelism(Integer parallelism) {
         this.parallelism = parallelism;
     }
+
+    public void setWriteBatchSize(Integer writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    public void setWatchDelay(Integer watchDelay) {
+        this.watchDelay = watchDelay;
+    }
+
+    public void setIndexRefreshInterval(Integer indexRefreshInterval) {
+        this.indexRefreshInterval = indexRefreshInterval;
+    }
 }
@@ -0,0 +1,278 @@
+/*
+ * This file is part of Airsonic.
+ *
+ * Airsonic is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Airsonic is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+@Component
+@ConfigurationProperties(prefix = "airsonic.transcode")
+@Validated
+public class AirsonicTranscodeConfig {
+
+    private static final long DEFAULT_CACHE_SIZE = 512;
+    private static final String DEFAULT_PRE_TRANSCODE_CRON = "0 */15 * * * *";
+    private static final int DEFAULT_PRE_TRANSCODE_ALBUM_COUNT = 20;
+    private static final int DEFAULT_PRE_TRANSCODE_PARALLELISM = 1;
+    private static final int DEFAULT_PRE_TRANSCODE_NICENESS = 10;
+    private static final int DEFAULT_PRE_TRANSCODE_CACHE_SHARE = 50;
+    private static final int DEFAULT_ADMISSION_TIMEOUT = 10;
+    private static final int DEFAULT_HLS_PREFETCH_SEGMENTS = 2;
+    private static final long DEFAULT_HLS_CACHE_SIZE = 2048;
+
+    /**
+     * Albums which are transcoded ahead of time.
+     */
+    public enum PreTranscodeSource {
+        NEWEST, RECENT, FREQUENT, STARRED
+    }
+
+    @PositiveOrZero
+    private Long cacheSize = DEFAULT_CACHE_SIZE;
+
+    @NotNull
+    private List<String> preTranscodeProfiles = new ArrayList<>();
+
+    @NotNull
+    private List<PreTranscodeSource> preTranscodeSources = new ArrayList<>(List.of(PreTranscodeSource.NEWEST, PreTranscodeSource.STARRED));
+
+    @Positive
+    private Integer preTranscodeAlbumCount = DEFAULT_PRE_TRANSCODE_ALBUM_COUNT;
+
+    @Positive
+    private Integer preTranscodeParallelism = DEFAULT_PRE_TRANSCODE_PARALLELISM;
+
+    @PositiveOrZero
+    private Integer preTranscodeNiceness = DEFAULT_PRE_TRANSCODE_NICENESS;
+
+    @Positive
+    @Max(100)
+    private Integer preTranscodeCacheShare = DEFAULT_PRE_TRANSCODE_CACHE_SHARE;
+
+    @NotNull
+    private String preTranscodeCron = DEFAULT_PRE_TRANSCODE_CRON;
+
+    @Positive
+    private Integer maxProcesses;
+
+    @PositiveOrZero
+    private Integer admissionTimeout = DEFAULT_ADMISSION_TIMEOUT;
+
+    @PositiveOrZero
+    private Integer admissionQueueLength;
+
+    @PositiveOrZero
+    private Integer hlsPrefetchSegments = DEFAULT_HLS_PREFETCH_SEGMENTS;
+
+    @Positive
+    private Long hlsCacheSize = DEFAULT_HLS_CACHE_SIZE;
+
+    /**
+     * Get the maximum size in megabytes of the transcode cache. 0 disables the cache.
+     *
+     * @return cache size in megabytes
+     */
+    public Long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Get the profiles, such as {@code mp3:128}, into which albums are transcoded ahead of time.
+     * Each profile consists of a target format and a bit rate. No albums are transcoded ahead of time if empty.
+     *
+     * @return pre-transcode profiles
+     */
+    public List<String> getPreTranscodeProfiles() {
+        return preTranscodeProfiles;
+    }
+
+    /**
+     * Get the album lists from which albums are transcoded ahead of time.
+     *
+     * @return pre-transcode sources
+     */
+    public List<PreTranscodeSource> getPreTranscodeSources() {
+        return preTranscodeSources;
+    }
+
+    /**
+     * Get the number of albums taken from each pre-transcode source.
+     *
+     * @return album count
+     */
+    public Integer getPreTranscodeAlbumCount() {
+        return preTranscodeAlbumCount;
+    }
+
+    /**
+     * Get the number of transcoders which run at the same time to transcode ahead of time.
+     *
+     * @return pre-transcode parallelism
+     */
+    public Integer getPreTranscodeParallelism() {
+        return preTranscodeParallelism;
+    }
+
+    /**
+     * Get the niceness of the transcoders which transcode ahead of time. 0 runs them with normal priority.
+     * Ignored on Windows.
+     *
+     * @return niceness
+     */
+    public Integer getPreTranscodeNiceness() {
+        return preTranscodeNiceness;
+    }
+
+    /**
+     * Get the percentage of the transcode cache which may be filled by transcoding ahead of time. Albums beyond it
+     * are not transcoded, so that they do not evict live transcodings and each other from the cache.
+     *
+     * @return pre-transcode cache share in percent
+     */
+    public Integer getPreTranscodeCacheShare() {
+        return preTranscodeCacheShare;
+    }
+
+    /**
+     * Get the cron expression of the task which looks for albums to transcode ahead of time.
+     *
+     * @return cron expression
+     */
+    public String getPreTranscodeCron() {
+        return preTranscodeCron;
+    }
+
+    /**
+     * Get the maximum number of transcoder processes which run at the same time. If not set, use
+     * availableProcessors * 2
+     *
+     * @return max processes
+     */
+    public Integer getMaxProcesses() {
+        if (Objects.nonNull(maxProcesses)) {
+            return maxProcesses;
+        }
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+
+    /**
+     * Get the number of seconds to wait for running transcoders to finish, when the maximum number of transcoder
+     * processes are running, before the transcoding is rejected.
+     *
+     * @return admission timeout in seconds
+     */
+    public Integer getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    /**
+     * Get the maximum number of transcodings which wait for running transcoders to finish. Further transcodings are
+     * rejected at once. If not set, use the maximum number of transcoder processes
+     *
+     * @return admission queue length
+     */
+    public Integer getAdmissionQueueLength() {
+        if (Objects.nonNull(admissionQueueLength)) {
+            return admissionQueueLength;
+        }
+        return getMaxProcesses();
+    }
+
+    /**
+     * Get the number of HLS segments the transcoder is kept ahead of the player. A request for a segment further
+     * ahead restarts the transcoder at that segment instead of waiting for it.
+     *
+     * @return prefetched segments
+     */
+    public Integer getHlsPrefetchSegments() {
+        return hlsPrefetchSegments;
+    }
+
+    /**
+     * Get the maximum size in megabytes of the HLS segments kept on disk. Segments are shared by all players.
+     *
+     * @return HLS cache size in megabytes
+     */
+    public Long getHlsCacheSize() {
+        return hlsCacheSize;
+    }
+
+    public void setCacheSize(Long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public void setPreTranscodeProfiles(List<String> preTranscodeProfiles) {
+        this.preTranscodeProfiles = preTranscodeProfiles;
+    }
+
+    public void setPreTranscodeSources(List<PreTranscodeSource> preTranscodeSources) {
+        this.preTranscodeSources = preTranscodeSources;
+    }
+
+    public void setPreTranscodeAlbumCount(Integer preTranscodeAlbumCount) {
+        this.preTranscodeAlbumCount = preTranscodeAlbumCount;
+    }
+
+    public void setPreTranscodeParallelism(Integer preTranscodeParallelism) {
+        this.preTranscodeParallelism = preTranscodeParallelism;
+    }
+
+    public void setPreTranscodeNiceness(Integer preTranscodeNiceness) {
+        this.preTranscodeNiceness = preTranscodeNiceness;
+    }
+
+    public void setPreTranscodeCacheShare(Integer preTranscodeCacheShare) {
+        this.preTranscodeCacheShare = preTranscodeCacheShare;
+    }
+
+    public void setPreTranscodeCron(String preTranscodeCron) {
+        this.preTranscodeCron = preTranscodeCron;
+    }
+
+    public void setMaxProcesses(Integer maxProcesses) {
+        this.maxProcesses = maxProcesses;
+    }
+
+    public void setAdmissionTimeout(Integer admissionTimeout) {
+        this.admissionTimeout = admissionTimeout;
+    }
+
+    public void setAdmissionQueueLength(Integer admissionQueueLength) {
+        this.admissionQueueLength = admissionQueueLength;
+    }
+
+    public void setHlsPrefetchSegments(Integer hlsPrefetchSegments) {
+        this.hlsPrefetchSegments = hlsPrefetchSegments;
+    }
+
+    public void setHlsCacheSize(Long hlsCacheSize) {
+        this.hlsCacheSize = hlsCacheSize;
+    }
+}
@@ -63,6 +63,7 @@ public class AdvancedSettingsController {
 
         command.setCaptchaEnabled(settingsService.isCaptchaEnabled());
         command.setRecaptchaSiteKey(settingsService.getRecaptchaSiteKey());
+        command.setRestFormattedOutput(settingsService.isRestFormattedOutput());
 
         model.addAttribute("command", command);
         return "advancedSettings";
@@ -106,6 +107,8 @@ public class AdvancedSettingsController {
             settingsService.setRecaptchaSecretKey(command.getRecaptchaSecretKey());
         }
 
+        settingsService.setRestFormattedOutput(command.isRestFormattedOutput());
+
         settingsService.save();
 
         return "redirect:advancedSettings.view";
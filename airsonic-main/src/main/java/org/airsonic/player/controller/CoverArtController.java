@@ -20,41 +20,34 @@
  */
 package org.airsonic.player.controller;
 
-import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.dto.CoverArtRequest;
-import org.airsonic.player.domain.dto.PlaylistCoverArtRequest;
-import org.airsonic.player.domain.dto.VideoCoverArtRequest;
 import org.airsonic.player.service.*;
-import org.airsonic.player.util.FileUtil;
+import org.airsonic.player.service.CoverArtThumbnailService.CachedImage;
 import org.airsonic.player.util.ImageUtil;
 import org.airsonic.player.util.StringUtil;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import jakarta.annotation.PostConstruct;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
 
 import java.awt.image.BufferedImage;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.concurrent.Semaphore;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller which produces cover art images.
@@ -70,10 +63,6 @@ public class CoverArtController {
     public static final String PLAYLIST_COVERART_PREFIX = "pl-";
     public static final String PODCAST_COVERART_PREFIX = "pod-";
 
-    // Version of the cover art generation algorithm.
-    // Increment this if the algorithm changes.
-    private static final int COVERART_VERSION = 1;
-
     static final Logger LOG = LoggerFactory.getLogger(CoverArtController.class);
 
     @Autowired
@@ -81,36 +70,14 @@ public class CoverArtController {
     @Autowired
     CoverArtService coverArtService;
     @Autowired
-    private SettingsService settingsService;
-    @Autowired
     PlaylistService playlistService;
     @Autowired
     private CoverArtCreateService coverArtCreateService;
     @Autowired
-    private AirsonicHomeConfig homeConfig;
-
-    private Semaphore semaphore;
-
-    @PostConstruct
-    public void init() {
-        semaphore = new Semaphore(settingsService.getCoverArtConcurrency());
-    }
+    private CoverArtThumbnailService coverArtThumbnailService;
 
-    /**
-     * get last modified time epoch millisecond
-     *
-     * @param coverArtRequest target coverArtRequest
-     * @return last modified time in epoch milliseconds. if coverArtRequest id null,
-     *         then return -1L
-     */
-    /*
-    private long getLastModifiedMiili(CoverArtRequest coverArtRequest) {
-        if (coverArtRequest == null) {
-            return -1L;
-        }
-        return coverArtRequest.lastModified().toEpochMilli();
-    }
-    */
+    // browsers revalidate cover art after this time
+    private static final CacheControl CACHE_CONTROL = CacheControl.maxAge(10, TimeUnit.HOURS).cachePrivate();
 
     @GetMapping
     public void get(
@@ -123,15 +90,22 @@ public class CoverArtController {
         CoverArtRequest coverArtRequest = createCoverArtRequest(id, offset);
         LOG.trace("handleRequest - {}", coverArtRequest);
 
-        // check modified by last modified
-        // if((new ServletWebRequest(request, response)).checkNotModified(getLastModifiedMiili(coverArtRequest))) return;
-
         // Send fallback image if no ID is given. (No need to cache it, since it will be cached in browser.)
         if (coverArtRequest == null) {
             sendFallback(size, response);
             return;
         }
 
+        // The image changes with the cover art, so the cover art identifies the image of this URL.
+        Instant lastModified = coverArtRequest.lastModified();
+        if (lastModified != null) {
+            String etag = DigestUtils.md5Hex(coverArtRequest.getKey() + "-" + lastModified.toEpochMilli());
+            if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified.toEpochMilli())) {
+                return;
+            }
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL.getHeaderValue());
+        }
+
         try {
             // Optimize if no scaling is required.
             if (size == null && coverArtRequest.getCoverArt() != null) {
@@ -144,10 +118,16 @@ public class CoverArtController {
             if (size == null) {
                 size = CoverArtScheme.LARGE.getSize() * 2;
             }
-            Path cachedImage = getCachedImage(coverArtRequest, size);
-            sendImage(cachedImage, response);
+            CachedImage cachedImage = coverArtThumbnailService.getCachedImage(coverArtRequest, size);
+            response.setContentType(cachedImage.getContentType());
+            response.setContentLengthLong(cachedImage.getLength());
+            cachedImage.writeTo(response.getOutputStream());
         } catch (Exception e) {
             LOG.debug("Sending fallback as an exception was encountered during normal cover art processing", e);
+            // the fallback must not be cached as the cover art
+            if (!response.isCommitted()) {
+                response.reset();
+            }
             sendFallback(size, response);
         }
 
@@ -174,11 +154,6 @@ public class CoverArtController {
     }
 
 
-    private void sendImage(Path file, HttpServletResponse response) throws IOException {
-        response.setContentType(StringUtil.getMimeType(FilenameUtils.getExtension(file.toString())));
-        Files.copy(file, response.getOutputStream());
-    }
-
     private void sendFallback(Integer size, HttpServletResponse response) throws IOException {
         if (response.getContentType() == null) {
             response.setContentType(StringUtil.getMimeType("jpeg"));
@@ -204,75 +179,4 @@ public class CoverArtController {
             IOUtils.copy(in, response.getOutputStream());
         }
     }
-
-    private Path getCachedImage(CoverArtRequest request, int size) throws IOException {
-        String hash = DigestUtils.md5Hex(request.getKey() + "-" + COVERART_VERSION);
-        String encoding = request.getCoverArt() != null ? "jpeg" : "png";
-        Path cachedImage = getImageCacheDirectory(size).resolve(hash + "." + encoding);
-
-        // Synchronize to avoid concurrent writing to the same file.
-        synchronized (hash.intern()) {
-
-            // Is cache missing or obsolete?
-            if (!Files.exists(cachedImage) || request.lastModified().isAfter(FileUtil.lastModified(cachedImage))) {
-//                LOG.info("Cache MISS - " + request + " (" + size + ")");
-                ImageWriter writer = null;
-
-                try (OutputStream os = Files.newOutputStream(cachedImage);
-                        BufferedOutputStream bos = new BufferedOutputStream(os);
-                        ImageOutputStream out = ImageIO.createImageOutputStream(bos)) {
-                    semaphore.acquire();
-                    BufferedImage image = null;
-                    if (request instanceof PlaylistCoverArtRequest pr) {
-                        image = coverArtCreateService.createPlaylistImage(pr, size);
-                    } else if (request instanceof VideoCoverArtRequest vr) {
-                        image = coverArtCreateService.createVideoImage(vr, size);
-                    } else {
-                        image = coverArtCreateService.createImage(request, size);
-                    }
-                    if (image == null) {
-                        throw new Exception("Unable to decode image.");
-                    }
-                    writer = ImageIO.getImageWritersByFormatName(encoding).next();
-
-                    float quality = (float) (settingsService.getCoverArtQuality() / 100.0);
-                    ImageWriteParam params = writer.getDefaultWriteParam();
-                    params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                    params.setCompressionQuality(quality); // default is 0.75
-
-                    writer.setOutput(out);
-                    writer.write(null, new IIOImage(image, null, null), params);
-
-                } catch (Throwable x) {
-                    // Delete corrupt (probably empty) thumbnail cache.
-                    LOG.warn("Failed to create thumbnail for {}", request, x);
-                    FileUtil.delete(cachedImage);
-                    throw new IOException("Failed to create thumbnail for " + request + ". " + x.getMessage());
-                } finally {
-                    if (writer != null) {
-                        writer.dispose();
-                        writer = null;
-                    }
-                    semaphore.release();
-                }
-            } else {
-//                LOG.info("Cache HIT - " + request + " (" + size + ")");
-            }
-            return cachedImage;
-        }
-    }
-
-    private synchronized Path getImageCacheDirectory(int size) {
-        Path dir = homeConfig.getAirsonicHome().resolve("thumbs").resolve(String.valueOf(size));
-        if (!Files.exists(dir)) {
-            try {
-                dir = Files.createDirectories(dir);
-                LOG.info("Created thumbnail cache {}", dir);
-            } catch (Exception e) {
-                LOG.error("Failed to create thumbnail cache {}", dir, e);
-            }
-        }
-
-        return dir;
-    }
 }
@@ -26,6 +26,8 @@ import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.io.PipeStreams;
+import org.airsonic.player.service.BandwidthScheduler;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
 import org.airsonic.player.service.DatabaseService;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
@@ -80,6 +82,8 @@ public class DatabaseSettingsController {
     @Autowired
     private StatusService statusService;
     @Autowired
+    private BandwidthScheduler bandwidthScheduler;
+    @Autowired
     private SecurityService securityService;
     @Autowired
     private AirsonicHomeConfig homeConfig;
@@ -121,7 +125,7 @@ public class DatabaseSettingsController {
         Resource res = new FileSystemResource(exportFile);
         Resource monitoredRes = new PipeStreams.MonitoredResource(
                 res,
-                settingsService.getDownloadBitrateLimiter(),
+                bandwidthScheduler.getLimiter(TrafficClass.DOWNLOAD),
                 statusSupplier,
                 statusCloser,
             (input, status) -> {
@@ -22,9 +22,10 @@ package org.airsonic.player.controller;
 
 import org.airsonic.player.domain.*;
 import org.airsonic.player.io.PipeStreams.MonitoredResource;
-import org.airsonic.player.io.PipeStreams.PipedInputStream;
-import org.airsonic.player.io.PipeStreams.PipedOutputStream;
+import org.airsonic.player.io.PipeStreams.RingPipedInputStream;
+import org.airsonic.player.io.PipeStreams.RingPipedOutputStream;
 import org.airsonic.player.service.*;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
 import org.airsonic.player.spring.KnownLengthInputStreamResource;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.LambdaUtils;
@@ -93,12 +94,12 @@ public class DownloadController {
     @Autowired
     private StatusService statusService;
     @Autowired
+    private BandwidthScheduler bandwidthScheduler;
+    @Autowired
     private SecurityService securityService;
     @Autowired
     private PlaylistService playlistService;
     @Autowired
-    private SettingsService settingsService;
-    @Autowired
     private MediaFileService mediaFileService;
     @Autowired
     private CoverArtService coverArtService;
@@ -209,7 +210,7 @@ public class DownloadController {
             return new ResponseDTO(
                     new MonitoredResource(
                             new FileSystemResource(path),
-                            settingsService.getDownloadBitrateLimiter(),
+                            bandwidthScheduler.getLimiter(TrafficClass.DOWNLOAD),
                             statusSupplier,
                             statusCloser,
                         (input, status) -> {}),
@@ -253,13 +254,13 @@ public class DownloadController {
                     .collect(Collectors.toCollection(LinkedHashSet::new));
 
             // zip to out
-            BiConsumer<InputStream, TransferStatus> poutInit = (input, status) -> {
-                PipedInputStream pin = (PipedInputStream) input;
+            BiConsumer<InputStream, TransferStatus> poutInit = LambdaUtils.uncheckBiConsumer((input, status) -> {
+                // connect before the feeding thread starts, so that reads wait for its data
+                RingPipedOutputStream pout = new RingPipedOutputStream((RingPipedInputStream) input);
 
                 // start a new thread to feed data in
                 new Thread(() -> {
-                    try (PipedOutputStream pout = new PipedOutputStream(pin);
-                            ZipOutputStream zout = new ZipOutputStream(pout)) {
+                    try (pout; ZipOutputStream zout = new ZipOutputStream(pout)) {
                         zout.setMethod(ZipOutputStream.STORED); // No compression.
                         pathsToZip.stream().forEach(LambdaUtils.uncheckConsumer(f -> {
                             status.setExternalFile(f.getLeft());
@@ -283,21 +284,16 @@ public class DownloadController {
                         LOG.debug("Error with output to zip", e1);
                     }
                 }, "DownloadControllerDatafeed").start();
-
-                // wait for src data thread to connect
-                while (pin.source == null) {
-                    // sit and wait and ponder life
-                }
-            };
+            });
 
             long size = zipSize(pathsToZip.stream().map(e -> e.getRight()));
 
-            PipedInputStream pin = new PipedInputStream(null, 16 * 1024); // 16 Kb buffer
+            RingPipedInputStream pin = new RingPipedInputStream(16 * 1024, false); // 16 Kb buffer
 
             return new ResponseDTO(
                     new MonitoredResource(
                             new KnownLengthInputStreamResource(pin, size),
-                            settingsService.getDownloadBitrateLimiter(),
+                            bandwidthScheduler.getLimiter(TrafficClass.DOWNLOAD),
                             statusSupplier,
                             statusCloser,
                             poutInit),
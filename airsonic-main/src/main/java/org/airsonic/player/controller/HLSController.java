@@ -22,19 +22,24 @@ package org.airsonic.player.controller;
 
 import com.auth0.jwt.interfaces.DecodedJWT;
 import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.io.PipeStreams.MonitoredResource;
 import org.airsonic.player.security.JWTAuthenticationToken;
+import org.airsonic.player.service.BandwidthScheduler;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
 import org.airsonic.player.service.JWTSecurityService;
 import org.airsonic.player.service.MediaFileService;
+import org.airsonic.player.service.PathWatcherService;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
-import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.StatusService;
+import org.airsonic.player.service.TranscoderExecutionService;
 import org.airsonic.player.service.TranscodingService;
+import org.airsonic.player.service.hls.HlsSegmentStore;
 import org.airsonic.player.service.hls.HlsSession;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.NetworkUtil;
@@ -103,19 +108,27 @@ public class HLSController {
     private final SecurityService securityService;
     private final JWTSecurityService jwtSecurityService;
     private final StatusService statusService;
-    private final SettingsService settingsService;
+    private final BandwidthScheduler bandwidthScheduler;
     private final TranscodingService transcodingService;
+    private final TranscoderExecutionService transcoderExecutionService;
     private final AirsonicHomeConfig homeConfig;
+    private final PathWatcherService pathWatcherService;
+    private final AirsonicTranscodeConfig transcodeConfig;
+    private final HlsSegmentStore segmentStore;
 
-    public HLSController(PlayerService playerService, MediaFileService mediaFileService, SecurityService securityService, JWTSecurityService jwtSecurityService, StatusService statusService, SettingsService settingsService, TranscodingService transcodingService, AirsonicHomeConfig homeConfig) {
+    public HLSController(PlayerService playerService, MediaFileService mediaFileService, SecurityService securityService, JWTSecurityService jwtSecurityService, StatusService statusService, BandwidthScheduler bandwidthScheduler, TranscodingService transcodingService, TranscoderExecutionService transcoderExecutionService, AirsonicHomeConfig homeConfig, PathWatcherService pathWatcherService, AirsonicTranscodeConfig transcodeConfig, HlsSegmentStore segmentStore) {
         this.playerService = playerService;
         this.mediaFileService = mediaFileService;
         this.securityService = securityService;
         this.jwtSecurityService = jwtSecurityService;
         this.statusService = statusService;
-        this.settingsService = settingsService;
+        this.bandwidthScheduler = bandwidthScheduler;
         this.transcodingService = transcodingService;
+        this.transcoderExecutionService = transcoderExecutionService;
         this.homeConfig = homeConfig;
+        this.pathWatcherService = pathWatcherService;
+        this.transcodeConfig = transcodeConfig;
+        this.segmentStore = segmentStore;
         init();
     }
 
@@ -336,7 +349,7 @@ public class HLSController {
         };
 
         Resource resource = new MonitoredResource(new PathResource(segmentFile),
-                settingsService.getDownloadBitrateLimiter(), statusSupplier, statusCloser, inputStreamInit);
+                bandwidthScheduler.getLimiter(TrafficClass.STREAM), statusSupplier, statusCloser, inputStreamInit);
 
         return ResponseEntity.ok().headers(headers).body(resource);
     }
@@ -350,7 +363,8 @@ public class HLSController {
                 }
             }
 
-            return new HlsSession(k, mediaFile, transcodingService, homeConfig.getAirsonicHome().resolve("hls"));
+            return new HlsSession(k, mediaFile, transcodingService, transcoderExecutionService, pathWatcherService, segmentStore,
+                    homeConfig.getAirsonicHome().resolve("hls"), transcodeConfig.getHlsPrefetchSegments());
         });
     }
 
@@ -36,6 +36,7 @@ import org.subsonic.restapi.ResponseStatus;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 import javax.xml.datatype.DatatypeFactory;
@@ -43,16 +44,26 @@ import javax.xml.datatype.XMLGregorianCalendar;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.EnumMap;
 import java.util.GregorianCalendar;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BooleanSupplier;
 
 import static org.airsonic.player.util.XMLUtil.createSAXBuilder;
 import static org.springframework.web.bind.ServletRequestUtils.getStringParameter;
 
 /**
+ * Writes REST API responses as XML, JSON or JSONP.
+ * <p>
+ * Responses are marshalled directly to the servlet output stream, with marshallers reused from a pool per format.
+ *
  * @author Sindre Mehus
  * @version $Id$
  */
@@ -60,13 +71,34 @@ public class JAXBWriter {
 
     private static final Logger LOG = LoggerFactory.getLogger(JAXBWriter.class);
 
+    // idle marshallers kept per format, more are created under load
+    private static final int MARSHALLER_POOL_SIZE = 16;
+
     private final jakarta.xml.bind.JAXBContext jaxbContext;
     private final DatatypeFactory datatypeFactory;
+    private final BooleanSupplier formattedOutput;
+    private final Map<Format, BlockingQueue<Marshaller>> marshallers = new EnumMap<>(Format.class);
     private static final String restProtocolVersion = parseRESTProtocolVersion();
 
     private final String SERVER_TYPE = "Airsonic-Advanced";
 
+    private enum Format {
+        XML, JSON
+    }
+
+    @FunctionalInterface
+    private interface MarshalAction {
+        void marshal(Marshaller marshaller) throws JAXBException, IOException;
+    }
+
     public JAXBWriter() {
+        this(() -> false);
+    }
+
+    /**
+     * @param formattedOutput whether responses are indented, evaluated for every response
+     */
+    public JAXBWriter(BooleanSupplier formattedOutput) {
         Map<String, Object> properties = Map.of(JAXBContext.JAXB_CONTEXT_FACTORY, "org.eclipse.persistence.jaxb.JAXBContextFactory");
         Class<?>[] classes = {Response.class};
         try {
@@ -75,6 +107,10 @@ public class JAXBWriter {
         } catch (Exception x) {
             throw new RuntimeException(x);
         }
+        this.formattedOutput = formattedOutput;
+        for (Format format : Format.values()) {
+            marshallers.put(format, new ArrayBlockingQueue<>(MARSHALLER_POOL_SIZE));
+        }
     }
 
     private Marshaller createXmlMarshaller() {
@@ -82,7 +118,6 @@ public class JAXBWriter {
         try {
             marshaller = jaxbContext.createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_ENCODING, StringUtil.ENCODING_UTF8);
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
             return marshaller;
         } catch (JAXBException e) {
             throw new RuntimeException(e);
@@ -94,7 +129,6 @@ public class JAXBWriter {
             Marshaller marshaller;
             marshaller = jaxbContext.createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_ENCODING, StringUtil.ENCODING_UTF8);
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
             marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
             marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, true);
             return marshaller;
@@ -103,6 +137,21 @@ public class JAXBWriter {
         }
     }
 
+    /**
+     * Marshals with a pooled marshaller of the given format. Marshallers are not thread safe,
+     * so each one is used by a single thread until it is returned to the pool.
+     */
+    private void marshal(Format format, MarshalAction action) throws JAXBException, IOException {
+        Marshaller marshaller = marshallers.get(format).poll();
+        if (marshaller == null) {
+            marshaller = format == Format.JSON ? createJsonMarshaller() : createXmlMarshaller();
+        }
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formattedOutput.getAsBoolean());
+        action.marshal(marshaller);
+        // a marshaller that failed is not reused, as its state is unknown
+        marshallers.get(format).offer(marshaller);
+    }
+
     private static String parseRESTProtocolVersion() {
         try (InputStream in = StringUtil.class.getResourceAsStream("/subsonic-rest-api.xsd")) {
             Document document = createSAXBuilder().build(in);
@@ -125,17 +174,46 @@ public class JAXBWriter {
         return response;
     }
 
+    /**
+     * Writes the response in the format requested by the f parameter, directly to the output stream
+     * of the servlet response. If the response fails while it is still in the buffer of the servlet response,
+     * the buffer is discarded and an error response is written instead. Once the buffer was committed,
+     * the client gets a truncated response.
+     */
     public void writeResponse(HttpServletRequest request, HttpServletResponse httpResponse, Response jaxbResponse) {
-        Entry<String, String> serializedResp = serializeForType(request, jaxbResponse);
+        try {
+            write(request, httpResponse, jaxbResponse);
+        } catch (JAXBException | IOException x) {
+            LOG.error("Failed to marshal JAXB", x);
+            if (httpResponse.isCommitted()) {
+                throw new RuntimeException(x);
+            }
+            httpResponse.resetBuffer();
+            try {
+                write(request, httpResponse, createErrorResponse(SubsonicRESTController.ErrorCode.GENERIC, "Failed to write response"));
+            } catch (JAXBException | IOException e) {
+                LOG.error("Failed to marshal JAXB", e);
+                throw new RuntimeException(x);
+            }
+        }
+    }
+
+    private void write(HttpServletRequest request, HttpServletResponse httpResponse, Response jaxbResponse)
+            throws JAXBException, IOException {
+        String jsonpCallback = getJsonpCallback(request);
+        Format format = getFormat(request);
 
         httpResponse.setCharacterEncoding(StringUtil.ENCODING_UTF8);
-        httpResponse.setContentType(serializedResp.getKey());
+        httpResponse.setContentType(getContentType(format, jsonpCallback));
 
-        try {
-            httpResponse.getWriter().append(serializedResp.getValue());
-        } catch (IOException x) {
-            LOG.error("Failed to marshal JAXB", x);
-            throw new RuntimeException(x);
+        JAXBElement<Response> element = new ObjectFactory().createSubsonicResponse(jaxbResponse);
+        OutputStream out = httpResponse.getOutputStream();
+        if (jsonpCallback != null) {
+            out.write((jsonpCallback + "(").getBytes(StandardCharsets.UTF_8));
+        }
+        marshal(format, marshaller -> marshaller.marshal(element, out));
+        if (jsonpCallback != null) {
+            out.write(");".getBytes(StandardCharsets.UTF_8));
         }
     }
 
@@ -158,40 +236,49 @@ public class JAXBWriter {
         return res;
     }
 
+    /**
+     * Serializes the response in the format requested by the f parameter.
+     * Prefer {@link #writeResponse} unless the response body must be returned as a String.
+     *
+     * @return the content type and the serialized response
+     */
     public Entry<String, String> serializeForType(HttpServletRequest request, Response resp) {
-        String format = getStringParameter(request, "f", "xml");
-        String jsonpCallback = request.getParameter("callback");
-        boolean json = "json".equals(format);
-        boolean jsonp = "jsonp".equals(format) && jsonpCallback != null;
-        Marshaller marshaller;
-        MediaType type;
-
-        if (json) {
-            marshaller = createJsonMarshaller();
-            type = MediaType.JSON_UTF_8;
-        } else if (jsonp) {
-            marshaller = createJsonMarshaller();
-            type = MediaType.JAVASCRIPT_UTF_8;
-        } else {
-            marshaller = createXmlMarshaller();
-            type = MediaType.XML_UTF_8;
-        }
+        String jsonpCallback = getJsonpCallback(request);
+        Format format = getFormat(request);
 
+        JAXBElement<Response> element = new ObjectFactory().createSubsonicResponse(resp);
         StringWriter writer = new StringWriter();
         try {
-            if (jsonp) {
+            if (jsonpCallback != null) {
                 writer.append(jsonpCallback).append('(');
             }
-            marshaller.marshal(new ObjectFactory().createSubsonicResponse(resp), writer);
-            if (jsonp) {
+            marshal(format, marshaller -> marshaller.marshal(element, writer));
+            if (jsonpCallback != null) {
                 writer.append(");");
             }
-        } catch (JAXBException x) {
+        } catch (JAXBException | IOException x) {
             LOG.error("Failed to marshal JAXB", x);
             throw new RuntimeException(x);
         }
 
-        return Pair.of(type.toString(), writer.toString());
+        return Pair.of(getContentType(format, jsonpCallback), writer.toString());
+    }
+
+    private static Format getFormat(HttpServletRequest request) {
+        String format = getStringParameter(request, "f", "xml");
+        return "json".equals(format) || getJsonpCallback(request) != null ? Format.JSON : Format.XML;
+    }
+
+    private static String getJsonpCallback(HttpServletRequest request) {
+        String format = getStringParameter(request, "f", "xml");
+        return "jsonp".equals(format) ? request.getParameter("callback") : null;
+    }
+
+    private static String getContentType(Format format, String jsonpCallback) {
+        if (jsonpCallback != null) {
+            return MediaType.JAVASCRIPT_UTF_8.toString();
+        }
+        return format == Format.JSON ? MediaType.JSON_UTF_8.toString() : MediaType.XML_UTF_8.toString();
     }
 
     public XMLGregorianCalendar convertDate(Instant date) {
@@ -32,6 +32,7 @@ import org.airsonic.player.service.CoverArtService;
 import org.airsonic.player.service.MediaFileService;
 import org.airsonic.player.service.MediaFolderService;
 import org.airsonic.player.service.MediaScannerService;
+import org.airsonic.player.service.MusicFolderWatcherService;
 import org.airsonic.player.service.PlaylistService;
 import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.search.IndexManager;
@@ -82,6 +83,8 @@ public class MusicFolderSettingsController {
     private PlaylistService playlistService;
     @Autowired
     private CoverArtService coverArtService;
+    @Autowired
+    private MusicFolderWatcherService musicFolderWatcherService;
 
     @GetMapping
     protected String displayForm() {
@@ -117,6 +120,8 @@ public class MusicFolderSettingsController {
         command.setHideVirtualTracks(settingsService.getHideVirtualTracks());
         command.setFullScan(settingsService.getFullScan());
         command.setClearFullScanSettingAfterScan(!settingsService.getFullScan() ? settingsService.getFullScan() : settingsService.getClearFullScanSettingAfterScan());
+        command.setIncrementalScan(settingsService.getIncrementalScan());
+        command.setWatchMusicFolders(settingsService.getWatchMusicFolders());
 
         model.addAttribute("command", command);
     }
@@ -128,11 +133,11 @@ public class MusicFolderSettingsController {
             LOG.info("Cleaning search index...");
             if (indexManager.startIndexing()) {
                 indexManager.expunge();
-                indexManager.stopIndexing(statistics);
                 LOG.info("Search index cleanup complete.");
             } else {
                 LOG.info("Search index is currently being updated. Skipping cleanup.");
             }
+            indexManager.stopIndexing(statistics);
         } else {
             LOG.warn("Missing index statistics - index probably hasn't been created yet. Not expunging index.");
         }
@@ -213,12 +218,15 @@ public class MusicFolderSettingsController {
         settingsService.setHideVirtualTracks(command.isHideVirtualTracks());
         settingsService.setFullScan(command.getFullScan());
         settingsService.setClearFullScanSettingAfterScan(!command.getFullScan() ? command.getFullScan() : command.getClearFullScanSettingAfterScan());
+        settingsService.setIncrementalScan(command.isIncrementalScan());
+        settingsService.setWatchMusicFolders(command.isWatchMusicFolders());
         settingsService.save();
 
         redirectAttributes.addFlashAttribute("settings_toast", success);
         redirectAttributes.addFlashAttribute("settings_reload", success);
 
         mediaScannerService.schedule();
+        musicFolderWatcherService.schedule();
         return "redirect:musicFolderSettings.view";
     }
 
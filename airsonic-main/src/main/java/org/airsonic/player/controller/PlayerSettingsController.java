@@ -92,6 +92,7 @@ public class PlayerSettingsController {
             command.setAutoControlEnabled(player.getAutoControlEnabled());
             command.setM3uBomEnabled(player.getM3uBomEnabled());
             command.setTranscodeSchemeName(player.getTranscodeScheme().name());
+            command.setBandwidthLimit(player.getBandwidthLimit());
             command.setTechnologyName(player.getTechnology().name());
             command.setAllTranscodings(transcodingService.getAllTranscodings());
             List<Transcoding> activeTranscodings = transcodingService.getTranscodingsForPlayer(player);
@@ -109,7 +110,11 @@ public class PlayerSettingsController {
     }
 
     @PostMapping
-    protected String doSubmitAction(@ModelAttribute("command") PlayerSettingsCommand command, RedirectAttributes redirectAttributes) {
+    protected String doSubmitAction(HttpServletRequest request, @ModelAttribute("command") PlayerSettingsCommand command, RedirectAttributes redirectAttributes) {
+        // only administrators may change the bandwidth limit
+        if (!securityService.getCurrentUser(request).isAdminRole()) {
+            command.setBandwidthLimit(null);
+        }
         Player original = playerService.getPlayerById(command.getPlayerId());
         Player updated = playerService.updateByCommand(command);
         if (original != null && updated != null) {
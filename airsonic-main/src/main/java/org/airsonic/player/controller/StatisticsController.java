@@ -4,6 +4,7 @@ import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.TransferStatus.SampleHistory;
+import org.airsonic.player.service.BandwidthScheduler.UserThroughput;
 import org.airsonic.player.service.StatusService;
 import org.airsonic.player.service.UserService;
 import org.airsonic.player.util.FileUtil;
@@ -37,6 +38,11 @@ public class StatisticsController {
         return userService.getAllUsers().stream().map(x -> new UserDataTransferStatistics(x.getUsername(), x.getBytesStreamed(), x.getBytesDownloaded(), x.getBytesUploaded())).collect(Collectors.toList());
     }
 
+    @GetMapping("/bandwidth")
+    public List<UserThroughput> getBandwidthStatistics() {
+        return statusService.getUserThroughputs();
+    }
+
     @GetMapping("/transfers")
     public List<TransferStatusHolder> getTransferStatistics(HttpServletRequest request) {
         List<TransferStatus> streamStatuses = statusService.getAllStreamStatuses();
@@ -23,13 +23,14 @@ package org.airsonic.player.controller;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import org.airsonic.player.domain.*;
+import org.airsonic.player.io.FileRangeWriter;
 import org.airsonic.player.io.PipeStreams.MonitoredInputStream;
-import org.airsonic.player.io.PipeStreams.PipedInputStream;
-import org.airsonic.player.io.PipeStreams.PipedOutputStream;
 import org.airsonic.player.io.PlayQueueInputStream;
-import org.airsonic.player.io.ShoutCastOutputStream;
+import org.airsonic.player.io.ShoutCastInputStream;
 import org.airsonic.player.security.JWTAuthenticationToken;
 import org.airsonic.player.service.*;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
+import org.airsonic.player.service.TranscoderExecutionService.TranscoderBusyException;
 import org.airsonic.player.service.sonos.SonosHelper;
 import org.airsonic.player.spring.KnownLengthInputStreamResource;
 import org.airsonic.player.util.FileUtil;
@@ -41,12 +42,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
-import org.springframework.util.StreamUtils;
 import org.springframework.web.bind.ServletRequestBindingException;
 import org.springframework.web.bind.ServletRequestUtils;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -57,11 +58,13 @@ import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.async.AsyncRequestNotUsableException;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 import java.awt.*;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -87,6 +90,8 @@ public class StreamController {
     @Autowired
     private StatusService statusService;
     @Autowired
+    private BandwidthScheduler bandwidthScheduler;
+    @Autowired
     private PlayerService playerService;
     @Autowired
     private PlaylistService playlistService;
@@ -151,6 +156,9 @@ public class StreamController {
         boolean isSingleFile = Objects.nonNull(file);
 
         Long byteOffset = null;
+        boolean isRawFile = false;
+        MediaFile firstFile = null;
+        InputStream firstStream = null;
 
         if (isSingleFile) {
 
@@ -179,21 +187,32 @@ public class StreamController {
             TranscodingService.Parameters parameters = transcodingService.getParameters(file, player, bitRate,
                     targetFormat, videoTranscodingSettings);
 
-            // Support ranges as long as we're not transcoding blindly
-            expectedSize = parameters.isRangeAllowed() ? parameters.getExpectedLength() : null;
+            isRawFile = parameters.getTranscoding() == null;
 
-            // roughly adjust for offset seconds
-            if (expectedSize != null && expectedSize > 0 && offsetSeconds != null && offsetSeconds > 0 && file.getDuration() != null) {
-                byteOffset = Math.round(expectedSize * offsetSeconds / file.getDuration());
-                expectedSize = Math.max(0, expectedSize - byteOffset);
-            }
+            // Support ranges as long as we're not transcoding blindly
+            Long expectedLength = parameters.isRangeAllowed() ? parameters.getExpectedLength() : null;
+            byteOffset = getByteOffset(expectedLength, offsetSeconds, file);
+            expectedSize = getExpectedSize(expectedLength, byteOffset);
 
+            // The length of a cached transcoding is looked up without opening it, so that 304 has no side effects
             if (swr.checkNotModified(
                     Optional.ofNullable(expectedSize).map(String::valueOf).orElse(null),
                     file.getChanged().toEpochMilli())) {
                 return null;
             }
 
+            if (!isRawFile) {
+                firstFile = file;
+                firstStream = transcodingService.getTranscodedInputStream(parameters);
+
+                // The cached file may have been evicted in the meantime, which updates the parameters
+                Long openedLength = parameters.isRangeAllowed() ? parameters.getExpectedLength() : null;
+                if (!Objects.equals(openedLength, expectedLength)) {
+                    byteOffset = getByteOffset(openedLength, offsetSeconds, file);
+                    expectedSize = getExpectedSize(openedLength, byteOffset);
+                }
+            }
+
             // Set content type of response
             suffix = transcodingService.getSuffix(player, file, targetFormat);
         }
@@ -212,6 +231,12 @@ public class StreamController {
         VideoTranscodingSettings videoTranscodingSettingsF = videoTranscodingSettings;
         TransferStatus status = statusService.createStreamStatus(player);
 
+        Supplier<TransferStatus> statusSupplier = () -> status;
+        Consumer<TransferStatus> statusCloser = s -> {
+            securityService.incrementBytesStreamed(user.getUsername(), s.getBytesTransferred());
+            statusService.removeStreamStatus(s);
+        };
+
         Consumer<MediaFile> fileStartListener = mediaFile -> {
             LOG.info("{}: {} listening to {} in folder {}", player.getIpAddress(), player.getUsername(), FileUtil.getShortPath(mediaFile.getRelativePath()), mediaFile.getFolder().getId());
             scrobble(mediaFile, player, false);
@@ -233,18 +258,44 @@ public class StreamController {
             mediaFile -> transcodingService.getTranscodedInputStream(
                     transcodingService.getParameters(mediaFile, player, bitRate, targetFormat, videoTranscodingSettingsF)));
 
+        boolean sonos = SonosHelper.AIRSONIC_CLIENT_ID.equals(player.getClientId());
+        MediaType contentType = MediaType.parseMediaType(StringUtil.getMimeType(suffix, sonos));
+        String clientId = Optional.ofNullable(swr.getParameter("c")).orElse("");
+        boolean shoutcast = !ICY_IGNORED_CLIENT.contains(clientId) && "1".equals(swr.getHeader("icy-metadata"));
+
+        // Untranscoded files are written from the file itself, including any requested byte ranges
+        if (isRawFile && !shoutcast) {
+            streamFile(file, byteOffset, contentType, status, statusCloser, fileStartListener, fileEndListener, swr);
+            return null;
+        }
+
+        // Open the first file before the response is committed, so that a busy transcoder is answered with 503
+        if (firstStream == null) {
+            firstFile = player.getPlayQueue().getCurrentFile();
+        }
+        if (firstStream == null && firstFile != null) {
+            try {
+                firstStream = transcodingService.getTranscodedInputStream(
+                        transcodingService.getParameters(firstFile, player, bitRate, targetFormat, videoTranscodingSettingsF));
+            } catch (IOException e) {
+                statusCloser.accept(status);
+                throw e;
+            }
+        }
+
         HttpHeaders headers = new HttpHeaders();
-        InputStream playStream = new PlayQueueInputStream(player.getPlayQueue(), fileStartListener, fileEndListener, streamGenerator);
+        InputStream playStream = new PlayQueueInputStream(player.getPlayQueue(), fileStartListener, fileEndListener,
+                streamGenerator, firstFile, firstStream);
         BiConsumer<InputStream, TransferStatus> streamInit = (i, s) -> {};
 
         // Enabled SHOUTcast, if requested.
-        String clientId = Optional.ofNullable(swr.getParameter("c")).orElse("");
-        if (!ICY_IGNORED_CLIENT.contains(clientId) && "1".equals(swr.getHeader("icy-metadata"))) {
+        if (shoutcast) {
             expectedSize = null;
-            ShoutcastDetails shoutcastDetails = getShoutcastDetails(playStream);
-            playStream = shoutcastDetails.getStream();
-            streamInit = shoutcastDetails.getStreamInit();
-            headers.addAll(shoutcastDetails.getHeaders());
+            playStream = new ShoutCastInputStream(playStream,
+                () -> Optional.ofNullable(status.getMediaFile())
+                        .map(MediaFile::getTitle)
+                        .orElseGet(settingsService::getWelcomeTitle));
+            headers.addAll(getShoutcastHeaders());
         }
 
         // Deal with offset seconds by skipping over bytes from the underlying stream
@@ -264,15 +315,9 @@ public class StreamController {
             playStream = new ThresholdInputStream(playStream, expectedSize);
         }
 
-        Supplier<TransferStatus> statusSupplier = () -> status;
-        Consumer<TransferStatus> statusCloser = s -> {
-            securityService.incrementBytesStreamed(user.getUsername(), s.getBytesTransferred());
-            statusService.removeStreamStatus(s);
-        };
-
         InputStream monitoredStream = new MonitoredInputStream(
                 playStream,
-                settingsService.getDownloadBitrateLimiter(),
+                bandwidthScheduler.getLimiter(TrafficClass.STREAM),
                 statusSupplier, statusCloser,
                 streamInit);
 
@@ -280,17 +325,58 @@ public class StreamController {
                 new InputStreamResource(monitoredStream) :
                 new KnownLengthInputStreamResource(monitoredStream, expectedSize);
 
-        boolean sonos = SonosHelper.AIRSONIC_CLIENT_ID.equals(player.getClientId());
-        headers.setContentType(MediaType.parseMediaType(StringUtil.getMimeType(suffix, sonos)));
+        headers.setContentType(contentType);
 
         return ResponseEntity.ok().headers(headers).body(resource);
     }
 
+    /**
+     * Roughly converts the offset in seconds to an offset in bytes.
+     */
+    private static Long getByteOffset(Long expectedLength, Double offsetSeconds, MediaFile file) {
+        if (expectedLength != null && expectedLength > 0 && offsetSeconds != null && offsetSeconds > 0 && file.getDuration() != null) {
+            return Math.round(expectedLength * offsetSeconds / file.getDuration());
+        }
+        return null;
+    }
+
+    private static Long getExpectedSize(Long expectedLength, Long byteOffset) {
+        if (expectedLength == null || byteOffset == null) {
+            return expectedLength;
+        }
+        return Math.max(0, expectedLength - byteOffset);
+    }
+
+    private void streamFile(MediaFile file, Long byteOffset, MediaType contentType, TransferStatus status,
+            Consumer<TransferStatus> statusCloser, Consumer<MediaFile> fileStartListener,
+            BiConsumer<Integer, MediaFile> fileEndListener, ServletWebRequest swr) throws IOException {
+        FileRangeWriter writer = new FileRangeWriter(file.getFullPath().toAbsolutePath(),
+                Optional.ofNullable(byteOffset).orElse(0L), bandwidthScheduler.getLimiter(TrafficClass.STREAM), status);
+        fileStartListener.accept(file);
+        try {
+            writer.write(swr.getRequest(), swr.getResponse(), contentType);
+        } catch (NoSuchFileException e) {
+            LOG.warn("File to stream not found: {}", e.getFile());
+            swr.getResponse().sendError(HttpServletResponse.SC_NOT_FOUND);
+        } catch (IOException e) {
+            LOG.info("{}: Streaming {} aborted: {}", swr.getRequest().getRemoteAddr(),
+                    FileUtil.getShortPath(file.getRelativePath()), e.toString());
+        } finally {
+            fileEndListener.accept(status.getBytesTransferred() > 0 ? 1 : 0, file);
+            statusCloser.accept(status);
+        }
+    }
+
     @ExceptionHandler(AsyncRequestNotUsableException.class)
     public void handleAsyncRequestNotUsableException(AsyncRequestNotUsableException e) {
         LOG.info("Client Aborted");
     }
 
+    @ExceptionHandler(TranscoderBusyException.class)
+    public ResponseEntity<String> handleTranscoderBusyException(TranscoderBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
     private void scrobble(MediaFile mediaFile, Player player, boolean submission) {
         // Don't scrobble REST players (except Sonos)
         if (player.getClientId() == null || player.getClientId().equals(SonosHelper.AIRSONIC_CLIENT_ID)) {
@@ -298,70 +384,15 @@ public class StreamController {
         }
     }
 
-    private ShoutcastDetails getShoutcastDetails(InputStream input) throws IOException {
+    private static HttpHeaders getShoutcastHeaders() {
         HttpHeaders responseHeaders = new HttpHeaders();
-        responseHeaders.set("icy-metaint", String.valueOf(ShoutCastOutputStream.META_DATA_INTERVAL));
+        responseHeaders.set("icy-metaint", String.valueOf(ShoutCastInputStream.META_DATA_INTERVAL));
         responseHeaders.set("icy-notice1", "This stream is served using Airsonic");
         responseHeaders.set("icy-notice2", "Airsonic - Free media streamer");
         responseHeaders.set("icy-name", "Airsonic");
         responseHeaders.set("icy-genre", "Mixed");
         responseHeaders.set("icy-url", "https://airsonic.github.io/");
-
-        return new ShoutcastDetails(new PipedInputStream(), (i, s) -> {
-            PipedInputStream pin = (PipedInputStream) i;
-
-            // start a new thread to feed data in
-            new Thread(() -> {
-                try (InputStream in = input;
-                        PipedOutputStream pout = new PipedOutputStream(pin);
-                        ShoutCastOutputStream shout = new ShoutCastOutputStream(pout,
-                            () -> Optional.ofNullable(s)
-                                    .map(TransferStatus::getMediaFile)
-                                    .map(MediaFile::getTitle)
-                                .orElseGet(settingsService::getWelcomeTitle))) {
-                    StreamUtils.copy(in, shout);
-                } catch (Exception e) {
-                    LOG.debug("Error with output to Shoutcast stream", e);
-                }
-            }, "ShoutcastStreamDatafeed").start();
-
-            // wait for src data thread to connect
-            while (pin.source == null) {
-                // sit and wait and ponder life
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    LOG.debug("Interrupted while waiting for PipedInputStream to connect", e);
-                    Thread.currentThread().interrupt();
-                    return;
-                }
-                LOG.debug("Waiting for a source {}", pin.source == null);
-            }
-        }, responseHeaders);
-    }
-
-    private static class ShoutcastDetails {
-        private final InputStream stream;
-        private final BiConsumer<InputStream, TransferStatus> streamInit;
-        private final HttpHeaders headers;
-
-        public ShoutcastDetails(InputStream stream, BiConsumer<InputStream, TransferStatus> streamInit, HttpHeaders headers) {
-            this.stream = stream;
-            this.streamInit = streamInit;
-            this.headers = headers;
-        }
-
-        public InputStream getStream() {
-            return stream;
-        }
-
-        public BiConsumer<InputStream, TransferStatus> getStreamInit() {
-            return streamInit;
-        }
-
-        public HttpHeaders getHeaders() {
-            return headers;
-        }
+        return responseHeaders;
     }
 
     /**
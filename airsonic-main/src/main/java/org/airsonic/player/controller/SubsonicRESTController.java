@@ -139,6 +139,8 @@ public class SubsonicRESTController {
     @Autowired
     private RatingService ratingService;
     @Autowired
+    private AnnotationService annotationService;
+    @Autowired
     private SearchService searchService;
     @Autowired
     private ArtistService artistService;
@@ -161,7 +163,7 @@ public class SubsonicRESTController {
     @Autowired
     private InternetRadioService internetRadioService;
 
-    private final JAXBWriter jaxbWriter = new JAXBWriter();
+    private final JAXBWriter jaxbWriter = new JAXBWriter(() -> settingsService.isRestFormattedOutput());
 
     private static final String NOT_YET_IMPLEMENTED = "Not yet implemented";
     private static final String NO_LONGER_SUPPORTED = "No longer supported";
@@ -251,6 +253,9 @@ public class SubsonicRESTController {
         }
 
         MusicFolderContent musicFolderContent = musicIndexService.getMusicFolderContent(musicFolders, false);
+        MediaFileAnnotations annotations = annotationService.getAnnotations(musicFolderContent.getIndexedArtists().values().stream()
+                .flatMap(List::stream).flatMap(artist -> artist.getMediaFiles().stream()).filter(MediaFile::isDirectory)
+                .collect(Collectors.toList()), username);
 
         for (Map.Entry<MusicIndex, List<MusicIndex.SortableArtistWithMediaFiles>> entry : musicFolderContent.getIndexedArtists().entrySet()) {
             Index index = new Index();
@@ -260,7 +265,7 @@ public class SubsonicRESTController {
             for (MusicIndex.SortableArtistWithMediaFiles artist : entry.getValue()) {
                 for (MediaFile mediaFile : artist.getMediaFiles()) {
                     if (mediaFile.isDirectory()) {
-                        Instant starredDate = mediaFileService.getMediaFileStarredDate(mediaFile, username);
+                        Instant starredDate = annotations.getStarredDate(mediaFile);
                         org.subsonic.restapi.Artist a = new org.subsonic.restapi.Artist();
                         index.getArtist().add(a);
                         a.setId(String.valueOf(mediaFile.getId()));
@@ -268,8 +273,8 @@ public class SubsonicRESTController {
                         a.setStarred(jaxbWriter.convertDate(starredDate));
 
                         if (mediaFile.isAlbum()) {
-                            a.setAverageRating(ratingService.getAverageRating(mediaFile));
-                            a.setUserRating(ratingService.getRatingForUser(username, mediaFile));
+                            a.setAverageRating(annotations.getAverageRating(mediaFile));
+                            a.setUserRating(annotations.getUserRating(mediaFile));
                         }
                     }
                 }
@@ -279,9 +284,7 @@ public class SubsonicRESTController {
         // Add children
         Player player = playerService.getPlayer(request, response, username);
 
-        for (MediaFile singleSong : musicFolderContent.getSingleSongs()) {
-            indexes.getChild().add(createJaxbChild(player, singleSong, username));
-        }
+        indexes.getChild().addAll(createJaxbChildren(player, musicFolderContent.getSingleSongs(), username));
 
         res.setIndexes(indexes);
         jaxbWriter.writeResponse(request, response, res);
@@ -319,9 +322,7 @@ public class SubsonicRESTController {
         Integer musicFolderId = getIntParameter(request, "musicFolderId");
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
 
-        for (MediaFile mediaFile : mediaFileService.getSongsByGenre(offset, count, genre, musicFolders)) {
-            songs.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        songs.getSong().addAll(createJaxbChildren(player, mediaFileService.getSongsByGenre(offset, count, genre, musicFolders), username));
         Response res = createResponse();
         res.setSongsByGenre(songs);
         jaxbWriter.writeResponse(request, response, res);
@@ -337,8 +338,7 @@ public class SubsonicRESTController {
         Integer musicFolderId = getIntParameter(request, "musicFolderId");
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username, musicFolderId);
 
-        List<org.airsonic.player.domain.Artist> artists = artistService.getAlphabeticalArtists(musicFolders);
-        SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> indexedArtists = musicIndexService.getIndexedArtists(artists);
+        SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> indexedArtists = musicIndexService.getIndexedArtistsID3(musicFolders);
         for (Map.Entry<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> entry : indexedArtists.entrySet()) {
             IndexID3 index = new IndexID3();
             result.getIndex().add(index);
@@ -371,9 +371,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> similarSongs = lastFmService.getSimilarSongsByMediaFile(mediaFile, count, musicFolders);
         Player player = playerService.getPlayer(request, response, username);
-        for (MediaFile similarSong : similarSongs) {
-            result.getSong().add(createJaxbChild(player, similarSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, similarSongs, username));
 
         Response res = createResponse();
         res.setSimilarSongs(result);
@@ -399,9 +397,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> similarSongs = lastFmService.getSimilarSongs(artist, count, musicFolders);
         Player player = playerService.getPlayer(request, response, username);
-        for (MediaFile similarSong : similarSongs) {
-            result.getSong().add(createJaxbChild(player, similarSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, similarSongs, username));
 
         Response res = createResponse();
         res.setSimilarSongs2(result);
@@ -421,9 +417,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
         List<MediaFile> topSongs = lastFmService.getTopSongs(artist, count, musicFolders);
         Player player = playerService.getPlayer(request, response, username);
-        for (MediaFile topSong : topSongs) {
-            result.getSong().add(createJaxbChild(player, topSong, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, topSongs, username));
 
         Response res = createResponse();
         res.setTopSongs(result);
@@ -602,9 +596,7 @@ public class SubsonicRESTController {
         }
 
         AlbumWithSongsID3 result = createJaxbAlbum(new AlbumWithSongsID3(), album, username);
-        for (MediaFile mediaFile : mediaFileService.getSongsForAlbum(album.getArtist(), album.getName())) {
-            result.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, mediaFileService.getSongsForAlbum(album.getArtist(), album.getName()), username));
 
         Response res = createResponse();
         res.setAlbum(result);
@@ -660,17 +652,22 @@ public class SubsonicRESTController {
         } catch (SecurityException x) {
             // Ignored.
         }
+        List<MediaFile> children = mediaFileService.getVisibleChildrenOf(dir, true, true);
+        List<MediaFile> annotated = new ArrayList<>(children);
+        annotated.add(dir);
+        MediaFileAnnotations annotations = annotationService.getAnnotations(annotated, username);
+
         directory.setName(dir.getName());
-        directory.setStarred(jaxbWriter.convertDate(mediaFileService.getMediaFileStarredDate(dir, username)));
+        directory.setStarred(jaxbWriter.convertDate(annotations.getStarredDate(dir)));
         directory.setPlayCount((long) dir.getPlayCount());
 
         if (dir.isAlbum()) {
-            directory.setAverageRating(ratingService.getAverageRating(dir));
-            directory.setUserRating(ratingService.getRatingForUser(username, dir));
+            directory.setAverageRating(annotations.getAverageRating(dir));
+            directory.setUserRating(annotations.getUserRating(dir));
         }
 
-        for (MediaFile child : mediaFileService.getVisibleChildrenOf(dir, true, true)) {
-            directory.getChild().add(createJaxbChild(player, child, username));
+        for (MediaFile child : children) {
+            directory.getChild().add(createJaxbChild(new Child(), player, child, username, annotations));
         }
 
         Response res = createResponse();
@@ -714,9 +711,7 @@ public class SubsonicRESTController {
         searchResult.setOffset(result.getOffset());
         searchResult.setTotalHits(result.getTotalHits());
 
-        for (MediaFile mediaFile : result.getMediaFiles()) {
-            searchResult.getMatch().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getMatch().addAll(createJaxbChildren(player, result.getMediaFiles(), username));
         Response res = createResponse();
         res.setSearchResult(searchResult);
         jaxbWriter.writeResponse(request, response, res);
@@ -745,16 +740,12 @@ public class SubsonicRESTController {
         criteria.setCount(getIntParameter(request, "albumCount", 20));
         criteria.setOffset(getIntParameter(request, "albumOffset", 0));
         org.airsonic.player.domain.SearchResult albums = searchService.search(criteria, musicFolders, IndexType.ALBUM);
-        for (MediaFile mediaFile : albums.getMediaFiles()) {
-            searchResult.getAlbum().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getAlbum().addAll(createJaxbChildren(player, albums.getMediaFiles(), username));
 
         criteria.setCount(getIntParameter(request, "songCount", 20));
         criteria.setOffset(getIntParameter(request, "songOffset", 0));
         org.airsonic.player.domain.SearchResult songs = searchService.search(criteria, musicFolders, IndexType.SONG);
-        for (MediaFile mediaFile : songs.getMediaFiles()) {
-            searchResult.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        searchResult.getSong().addAll(createJaxbChildren(player, songs.getMediaFiles(), username));
 
         Response res = createResponse();
         res.setSearchResult2(searchResult);
@@ -788,7 +779,7 @@ public class SubsonicRESTController {
                 albumService.getAlbums(musicFolders, albumCount, albumOffset).forEach(album -> searchResult.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username)));
             }
             if (songCount > 0) {
-                mediaFileService.getSongs(musicFolders, songCount, songOffset).forEach(song -> searchResult.getSong().add(createJaxbChild(player, song, username)));
+                searchResult.getSong().addAll(createJaxbChildren(player, mediaFileService.getSongs(musicFolders, songCount, songOffset), username));
             }
         } else {
             SearchCriteria criteria = new SearchCriteria();
@@ -810,9 +801,7 @@ public class SubsonicRESTController {
             criteria.setCount(songCount);
             criteria.setOffset(songOffset);
             result = searchService.search(criteria, musicFolders, IndexType.SONG);
-            for (MediaFile song : result.getMediaFiles()) {
-                searchResult.getSong().add(createJaxbChild(player, song, username));
-            }
+            searchResult.getSong().addAll(createJaxbChildren(player, result.getMediaFiles(), username));
         }
 
         Response res = createResponse();
@@ -864,11 +853,10 @@ public class SubsonicRESTController {
             return;
         }
         PlaylistWithSongs result = createJaxbPlaylist(new PlaylistWithSongs(), playlist);
-        for (MediaFile mediaFile : playlistService.getFilesInPlaylist(id)) {
-            if (securityService.isFolderAccessAllowed(mediaFile, username)) {
-                result.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
-        }
+        List<MediaFile> files = playlistService.getFilesInPlaylist(id).stream()
+                .filter(mediaFile -> securityService.isFolderAccessAllowed(mediaFile, username))
+                .collect(Collectors.toList());
+        result.getEntry().addAll(createJaxbChildren(player, files, username));
 
         Response res = createResponse();
         res.setPlaylist(result);
@@ -955,9 +943,7 @@ public class SubsonicRESTController {
             result.setPlaying(playing);
             result.setGain(gain);
             result.setPosition(position);
-            for (MediaFile mediaFile : playQueue.getFiles()) {
-                result.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
+            result.getEntry().addAll(createJaxbChildren(player, playQueue.getFiles(), username));
         } else {
             JukeboxStatus result = new JukeboxStatus();
             res.setJukeboxStatus(result);
@@ -1134,9 +1120,7 @@ public class SubsonicRESTController {
         }
 
         AlbumList result = new AlbumList();
-        for (MediaFile album : albums) {
-            result.getAlbum().add(createJaxbChild(player, album, username));
-        }
+        result.getAlbum().addAll(createJaxbChildren(player, albums, username));
 
         Response res = createResponse();
         res.setAlbumList(result);
@@ -1203,9 +1187,7 @@ public class SubsonicRESTController {
         RandomSearchCriteria criteria = new RandomSearchCriteria(size, genre, fromYear, toYear, musicFolders);
 
         Songs result = new Songs();
-        for (MediaFile mediaFile : searchService.getRandomSongs(criteria)) {
-            result.getSong().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, searchService.getRandomSongs(criteria), username));
         Response res = createResponse();
         res.setRandomSongs(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1222,9 +1204,7 @@ public class SubsonicRESTController {
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
 
         Videos result = new Videos();
-        for (MediaFile mediaFile : mediaFileService.getVideos(musicFolders, size, offset)) {
-            result.getVideo().add(createJaxbChild(player, mediaFile, username));
-        }
+        result.getVideo().addAll(createJaxbChildren(player, mediaFileService.getVideos(musicFolders, size, offset), username));
         Response res = createResponse();
         res.setVideos(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1257,6 +1237,18 @@ public class SubsonicRESTController {
     }
 
     private <T extends Child> T createJaxbChild(T child, Player player, MediaFile mediaFile, String username) {
+        return createJaxbChild(child, player, mediaFile, username, annotationService.getAnnotations(List.of(mediaFile), username));
+    }
+
+    /**
+     * Creates the children of a list response, loading the starred dates and ratings of all media files at once.
+     */
+    private List<Child> createJaxbChildren(Player player, List<MediaFile> mediaFiles, String username) {
+        MediaFileAnnotations annotations = annotationService.getAnnotations(mediaFiles, username);
+        return mediaFiles.stream().map(mediaFile -> createJaxbChild(new Child(), player, mediaFile, username, annotations)).collect(Collectors.toList());
+    }
+
+    private <T extends Child> T createJaxbChild(T child, Player player, MediaFile mediaFile, String username, MediaFileAnnotations annotations) {
         MediaFile parent = mediaFileService.getParentOf(mediaFile);
         child.setId(String.valueOf(mediaFile.getId()));
         try {
@@ -1274,9 +1266,9 @@ public class SubsonicRESTController {
         child.setYear(mediaFile.getYear());
         child.setGenre(mediaFile.getGenre());
         child.setCreated(jaxbWriter.convertDate(mediaFile.getCreated()));
-        child.setStarred(jaxbWriter.convertDate(mediaFileService.getMediaFileStarredDate(mediaFile, username)));
-        child.setUserRating(ratingService.getRatingForUser(username, mediaFile));
-        child.setAverageRating(ratingService.getAverageRating(mediaFile));
+        child.setStarred(jaxbWriter.convertDate(annotations.getStarredDate(mediaFile)));
+        child.setUserRating(annotations.getUserRating(mediaFile));
+        child.setAverageRating(annotations.getAverageRating(mediaFile));
         child.setPlayCount((long) mediaFile.getPlayCount());
 
         if (mediaFile.isFile()) {
@@ -1505,12 +1497,8 @@ public class SubsonicRESTController {
         for (MediaFile artist : mediaFileService.getStarredArtists(0, Integer.MAX_VALUE, username, musicFolders)) {
             result.getArtist().add(createJaxbArtist(artist, username));
         }
-        for (MediaFile album : mediaFileService.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getAlbum().add(createJaxbChild(player, album, username));
-        }
-        for (MediaFile song : mediaFileService.getStarredSongs(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getSong().add(createJaxbChild(player, song, username));
-        }
+        result.getAlbum().addAll(createJaxbChildren(player, mediaFileService.getStarredAlbums(0, Integer.MAX_VALUE, username, musicFolders), username));
+        result.getSong().addAll(createJaxbChildren(player, mediaFileService.getStarredSongs(0, Integer.MAX_VALUE, username, musicFolders), username));
         Response res = createResponse();
         res.setStarred(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1531,9 +1519,7 @@ public class SubsonicRESTController {
         for (Album album : albumService.getStarredAlbums(username, musicFolders)) {
             result.getAlbum().add(createJaxbAlbum(new AlbumID3(), album, username));
         }
-        for (MediaFile song : mediaFileService.getStarredSongs(0, Integer.MAX_VALUE, username, musicFolders)) {
-            result.getSong().add(createJaxbChild(player, song, username));
-        }
+        result.getSong().addAll(createJaxbChildren(player, mediaFileService.getStarredSongs(0, Integer.MAX_VALUE, username, musicFolders), username));
         Response res = createResponse();
         res.setStarred2(result);
         jaxbWriter.writeResponse(request, response, res);
@@ -1791,11 +1777,8 @@ public class SubsonicRESTController {
         restPlayQueue.setChanged(jaxbWriter.convertDate(playQueue.getChanged()));
         restPlayQueue.setChangedBy(playQueue.getChangedBy());
 
-        for (MediaFile mediaFile : playQueue.getMediaFiles()) {
-            if (mediaFile != null) {
-                restPlayQueue.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
-        }
+        List<MediaFile> files = playQueue.getMediaFiles().stream().filter(Objects::nonNull).collect(Collectors.toList());
+        restPlayQueue.getEntry().addAll(createJaxbChildren(player, files, username));
 
         Response res = createResponse();
         res.setPlayQueue(restPlayQueue);
@@ -1834,9 +1817,7 @@ public class SubsonicRESTController {
             org.subsonic.restapi.Share s = createJaxbShare(request, share);
             result.getShare().add(s);
 
-            for (MediaFile mediaFile : shareService.getSharedFiles(share.getId(), musicFolders)) {
-                s.getEntry().add(createJaxbChild(player, mediaFile, username));
-            }
+            s.getEntry().addAll(createJaxbChildren(player, shareService.getSharedFiles(share.getId(), musicFolders), username));
         }
         Response res = createResponse();
         res.setShares(result);
@@ -1874,9 +1855,7 @@ public class SubsonicRESTController {
 
         List<org.airsonic.player.domain.MusicFolder> musicFolders = mediaFolderService.getMusicFoldersForUser(username);
 
-        for (MediaFile mediaFile : shareService.getSharedFiles(share.getId(), musicFolders)) {
-            s.getEntry().add(createJaxbChild(player, mediaFile, username));
-        }
+        s.getEntry().addAll(createJaxbChildren(player, shareService.getSharedFiles(share.getId(), musicFolders), username));
 
         Response res = createResponse();
         res.setShares(result);
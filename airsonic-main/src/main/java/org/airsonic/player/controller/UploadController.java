@@ -25,15 +25,16 @@ import com.github.junrar.exception.RarException;
 import com.github.junrar.rarfile.FileHeader;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.MoreFiles;
-import com.google.common.util.concurrent.RateLimiter;
 import com.google.re2j.Pattern;
 import org.airsonic.player.ajax.UploadInfo;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
+import org.airsonic.player.io.BandwidthLimiter;
+import org.airsonic.player.service.BandwidthScheduler;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
-import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.StatusService;
 import org.airsonic.player.upload.MonitoredMultipartFile;
 import org.airsonic.player.upload.UploadListener;
@@ -94,7 +95,7 @@ public class UploadController {
     @Autowired
     private StatusService statusService;
     @Autowired
-    private SettingsService settingsService;
+    private BandwidthScheduler bandwidthScheduler;
     @Autowired
     private SimpMessagingTemplate brokerTemplate;
     @Autowired
@@ -143,7 +144,7 @@ public class UploadController {
 
             dir = Paths.get(pattern.matcher(dirString).replaceAll(""));
 
-            UploadListener listener = new UploadListenerImpl(status, settingsService.getUploadBitrateLimiter(), brokerTemplate);
+            UploadListener listener = new UploadListenerImpl(status, bandwidthScheduler.getLimiter(TrafficClass.UPLOAD), brokerTemplate);
 
             checkUploadAllowed(user, dir, false);
             if (!Files.exists(dir)) {
@@ -373,14 +374,14 @@ public class UploadController {
     private static class UploadListenerImpl implements UploadListener {
         private TransferStatus status;
         private SimpMessagingTemplate brokerTemplate;
-        private RateLimiter rateLimiter;
+        private BandwidthLimiter limiter;
         private volatile int lastBroadcastPercentage = 0;
 
-        private UploadListenerImpl(TransferStatus status, RateLimiter rateLimiter,
+        private UploadListenerImpl(TransferStatus status, BandwidthLimiter limiter,
                 SimpMessagingTemplate brokerTemplate) {
             this.status = status;
             this.brokerTemplate = brokerTemplate;
-            this.rateLimiter = rateLimiter;
+            this.limiter = limiter;
         }
 
         @Override
@@ -393,7 +394,7 @@ public class UploadController {
             status.addBytesTransferred(bytesRead);
             broadcast();
             // Throttle the upload speed to bytes per second
-            rateLimiter.acquire(bytesRead);
+            limiter.acquire(status, bytesRead);
         }
 
         private void broadcast() {
@@ -105,6 +105,7 @@ public class UserSettingsController {
                 command.setEmail(user.getEmail());
                 UserSettings userSettings = personalSettingsService.getUserSettings(user.getUsername());
                 command.setTranscodeSchemeName(userSettings.getTranscodeScheme().name());
+                command.setBandwidthLimit(userSettings.getBandwidthLimit());
                 command.setAllowedMusicFolderIds(Util.toIntArray(getAllowedMusicFolderIds(user)));
                 command.setCurrentUser(securityService.getCurrentUser(request).getUsername().equals(user.getUsername()));
             } else {
@@ -212,6 +213,7 @@ public class UserSettingsController {
         }
 
         personalSettingsService.updateTranscodeScheme(command.getUsername(), TranscodeScheme.valueOf(command.getTranscodeSchemeName()));
+        personalSettingsService.updateBandwidthLimit(command.getUsername(), command.getBandwidthLimit());
 
         // NOTE: This can happen if none of the configured media directories exist or if none are enabled.
         //       Primitive arrays are still behind a pointer technically, and that pointer is null if not initialized.
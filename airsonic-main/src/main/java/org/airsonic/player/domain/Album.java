@@ -131,6 +131,32 @@ public class Album {
         this.musicBrainzReleaseId = musicBrainzReleaseId;
     }
 
+    /**
+     * Creates a copy of the given album, e.g. to write its current state while the original is still changed.
+     *
+     * @param other the album to copy
+     */
+    public Album(Album other) {
+        this.id = other.id;
+        this.path = other.path;
+        this.name = other.name;
+        this.artist = other.artist;
+        this.songCount.set(other.songCount.get());
+        this.duration.set(other.duration.get());
+        this.year = other.year;
+        this.genre = other.genre;
+        this.playCount.set(other.playCount.get());
+        this.lastPlayed = other.lastPlayed;
+        this.comment = other.comment;
+        this.created = other.created;
+        this.lastScanned = other.lastScanned;
+        this.present = other.present;
+        this.starredAlbums = other.starredAlbums;
+        this.folder = other.folder;
+        this.musicBrainzReleaseId = other.musicBrainzReleaseId;
+        this.art = other.art;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -69,6 +69,21 @@ public class Artist {
         this.folder = folder;
     }
 
+    /**
+     * Creates a copy of the given artist, e.g. to write its current state while the original is still changed.
+     *
+     * @param other the artist to copy
+     */
+    public Artist(Artist other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.albumCount.set(other.albumCount.get());
+        this.lastScanned = other.lastScanned;
+        this.present = other.present;
+        this.folder = other.folder;
+        this.art = other.art;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -158,6 +158,50 @@ public class MediaFile {
     public MediaFile() {
     }
 
+    /**
+     * Creates a copy of the given media file, e.g. to write its current state while the original is still changed.
+     *
+     * @param other the media file to copy
+     */
+    public MediaFile(MediaFile other) {
+        this.id = other.id;
+        this.path = other.path;
+        this.folder = other.folder;
+        this.mediaType = other.mediaType;
+        this.startPosition = other.startPosition;
+        this.format = other.format;
+        this.title = other.title;
+        this.albumName = other.albumName;
+        this.artist = other.artist;
+        this.albumArtist = other.albumArtist;
+        this.discNumber = other.discNumber;
+        this.trackNumber = other.trackNumber;
+        this.year = other.year;
+        this.genre = other.genre;
+        this.bitRate = other.bitRate;
+        this.variableBitRate = other.variableBitRate;
+        this.duration = other.duration;
+        this.fileSize = other.fileSize;
+        this.width = other.width;
+        this.height = other.height;
+        this.parentPath = other.parentPath;
+        this.indexPath = other.indexPath;
+        this.playCount = other.playCount;
+        this.lastPlayed = other.lastPlayed;
+        this.comment = other.comment;
+        this.created = other.created;
+        this.changed = other.changed;
+        this.lastScanned = other.lastScanned;
+        this.starredDate = other.starredDate;
+        this.childrenLastUpdated = other.childrenLastUpdated;
+        this.present = other.present;
+        this.version = other.version;
+        this.musicBrainzReleaseId = other.musicBrainzReleaseId;
+        this.musicBrainzRecordingId = other.musicBrainzRecordingId;
+        this.averageRating = other.averageRating;
+        this.art = other.art;
+    }
+
     public Integer getId() {
         return id;
     }
@@ -500,6 +544,10 @@ public class MediaFile {
         return version;
     }
 
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public Double getAverageRating() {
         return averageRating;
     }
@@ -0,0 +1,60 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+package org.airsonic.player.domain;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Starred dates and ratings of a batch of media files for one user.
+ */
+public class MediaFileAnnotations {
+
+    private final Map<Integer, Instant> starredDates;
+    private final Map<Integer, Integer> userRatings;
+    private final Map<Integer, Double> averageRatings;
+
+    public MediaFileAnnotations(Map<Integer, Instant> starredDates, Map<Integer, Integer> userRatings,
+            Map<Integer, Double> averageRatings) {
+        this.starredDates = starredDates;
+        this.userRatings = userRatings;
+        this.averageRatings = averageRatings;
+    }
+
+    /**
+     * @return the date the user starred the media file, or <code>null</code> if not starred.
+     */
+    public Instant getStarredDate(MediaFile mediaFile) {
+        return mediaFile == null ? null : starredDates.get(mediaFile.getId());
+    }
+
+    /**
+     * @return the rating of the user, or <code>null</code> if no rating is set.
+     */
+    public Integer getUserRating(MediaFile mediaFile) {
+        return mediaFile == null ? null : userRatings.get(mediaFile.getId());
+    }
+
+    /**
+     * @return the average rating of all users, or <code>null</code> if no ratings are set.
+     */
+    public Double getAverageRating(MediaFile mediaFile) {
+        return mediaFile == null ? null : averageRatings.get(mediaFile.getId());
+    }
+}
@@ -39,6 +39,8 @@ public class MediaLibraryStatistics {
     private AtomicInteger songCount = new AtomicInteger(0);
     private AtomicLong totalLengthInBytes = new AtomicLong(0);
     private AtomicDouble totalDurationInSeconds = new AtomicDouble(0);
+    private AtomicInteger visitedDirectoryCount = new AtomicInteger(0);
+    private AtomicInteger skippedDirectoryCount = new AtomicInteger(0);
 
     public MediaLibraryStatistics() {}
 
@@ -66,12 +68,22 @@ public class MediaLibraryStatistics {
         this.totalDurationInSeconds.set(totalDurationInSeconds);
     }
 
+    public void setVisitedDirectoryCount(int visitedDirectoryCount) {
+        this.visitedDirectoryCount.set(visitedDirectoryCount);
+    }
+
+    public void setSkippedDirectoryCount(int skippedDirectoryCount) {
+        this.skippedDirectoryCount.set(skippedDirectoryCount);
+    }
+
     public void reset() {
         artistCount.set(0);
         albumCount.set(0);
         songCount.set(0);
         totalLengthInBytes.set(0);
         totalDurationInSeconds.set(0);
+        visitedDirectoryCount.set(0);
+        skippedDirectoryCount.set(0);
         scanDate = Instant.now();
     }
 
@@ -95,6 +107,20 @@ public class MediaLibraryStatistics {
         totalDurationInSeconds.addAndGet(n);
     }
 
+    /**
+     * Increments the number of directories whose children were read from disk.
+     */
+    public void incrementVisitedDirectories(int n) {
+        visitedDirectoryCount.addAndGet(n);
+    }
+
+    /**
+     * Increments the number of unchanged directories that an incremental scan did not read from disk.
+     */
+    public void incrementSkippedDirectories(int n) {
+        skippedDirectoryCount.addAndGet(n);
+    }
+
     public int getArtistCount() {
         return artistCount.get();
     }
@@ -115,6 +141,14 @@ public class MediaLibraryStatistics {
         return totalDurationInSeconds.get();
     }
 
+    public int getVisitedDirectoryCount() {
+        return visitedDirectoryCount.get();
+    }
+
+    public int getSkippedDirectoryCount() {
+        return skippedDirectoryCount.get();
+    }
+
     public Instant getScanDate() {
         return scanDate;
     }
@@ -129,12 +163,15 @@ public class MediaLibraryStatistics {
                 Objects.equals(songCount.get(), that.songCount.get()) &&
                 Objects.equals(totalLengthInBytes.get(), that.totalLengthInBytes.get()) &&
                 Objects.equals(totalDurationInSeconds.get(), that.totalDurationInSeconds.get()) &&
+                Objects.equals(visitedDirectoryCount.get(), that.visitedDirectoryCount.get()) &&
+                Objects.equals(skippedDirectoryCount.get(), that.skippedDirectoryCount.get()) &&
                 Objects.equals(scanDate, that.scanDate);
     }
 
     @Override
     public int hashCode() {
         return Objects.hash(artistCount.get(), albumCount.get(), songCount.get(),
-            totalLengthInBytes.get(), totalDurationInSeconds.get(), scanDate);
+            totalLengthInBytes.get(), totalDurationInSeconds.get(), visitedDirectoryCount.get(),
+            skippedDirectoryCount.get(), scanDate);
     }
 }
@@ -64,6 +64,9 @@ public class MusicFolder implements Serializable {
     @Column(name = "deleted")
     private boolean deleted;
 
+    @Column(name = "last_scanned")
+    private Instant lastScanned;
+
     @ManyToMany(mappedBy = "musicFolders")
     private List<User> users = new ArrayList<>();
 
@@ -193,6 +196,20 @@ public class MusicFolder implements Serializable {
         this.type = type;
     }
 
+    /**
+     * Returns the start time of the last scan that completed for this folder.
+     * Used as checkpoint by incremental scans.
+     *
+     * @return The scan checkpoint, or {@code null} if the folder has never been scanned completely.
+     */
+    public Instant getLastScanned() {
+        return lastScanned;
+    }
+
+    public void setLastScanned(Instant lastScanned) {
+        this.lastScanned = lastScanned;
+    }
+
     public boolean isDeleted() {
         return deleted;
     }
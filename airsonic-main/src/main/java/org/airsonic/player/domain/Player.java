@@ -78,6 +78,9 @@ public class Player {
     @Enumerated(EnumType.STRING)
     private TranscodeScheme transcodeScheme = TranscodeScheme.OFF;
 
+    @Column(name = "bandwidth_limit", nullable = false)
+    private long bandwidthLimit;
+
     @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
         name = "player_transcoding",
@@ -307,6 +310,24 @@ public class Player {
         this.transcodeScheme = transcodeScheme;
     }
 
+    /**
+     * Returns the bandwidth limit of the player.
+     *
+     * @return The bandwidth limit in Kbit/s. Zero if unlimited.
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * Sets the bandwidth limit of the player.
+     *
+     * @param bandwidthLimit The bandwidth limit in Kbit/s. Zero if unlimited.
+     */
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
     /**
      * Returns the IP address of the player.
      *
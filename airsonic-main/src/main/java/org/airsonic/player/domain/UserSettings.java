@@ -71,6 +71,7 @@ public class UserSettings {
     private int videoBookmarkFrequency = 40;
     private int audioBookmarkFrequency = 10;
     private int searchCount = 25;
+    private long bandwidthLimit;
 
     public UserSettings() {
     }
@@ -403,6 +404,17 @@ public class UserSettings {
         this.searchCount = searchCount;
     }
 
+    /**
+     * @return The bandwidth limit of the user in Kbit/s. Zero if unlimited.
+     */
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
     /**
      * Updates this instance based on the given {@link UserSettingDetail}.
      * @param settingDetail The user setting detail. not <code>null</code>.
@@ -445,5 +457,6 @@ public class UserSettings {
         this.videoBookmarkFrequency = settingDetail.getVideoBookmarkFrequency();
         this.audioBookmarkFrequency = settingDetail.getAudioBookmarkFrequency();
         this.searchCount = settingDetail.getSearchCount();
+        this.bandwidthLimit = settingDetail.getBandwidthLimit();
     }
 }
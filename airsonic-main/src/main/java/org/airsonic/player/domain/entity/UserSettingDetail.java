@@ -69,6 +69,7 @@ public class UserSettingDetail {
     private int videoBookmarkFrequency = 40;
     private int audioBookmarkFrequency = 10;
     private int searchCount = 25;
+    private long bandwidthLimit;
 
     public UserSettingDetail() {
     }
@@ -380,6 +381,14 @@ public class UserSettingDetail {
         this.searchCount = searchCount;
     }
 
+    public long getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    public void setBandwidthLimit(long bandwidthLimit) {
+        this.bandwidthLimit = bandwidthLimit;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -406,6 +415,7 @@ public class UserSettingDetail {
                 videoBookmarkFrequency == that.videoBookmarkFrequency &&
                 audioBookmarkFrequency == that.audioBookmarkFrequency &&
                 searchCount == that.searchCount &&
+                bandwidthLimit == that.bandwidthLimit &&
                 Objects.equals(locale, that.locale) &&
                 Objects.equals(themeId, that.themeId) &&
                 Objects.equals(mainVisibility, that.mainVisibility) &&
@@ -428,7 +438,8 @@ public class UserSettingDetail {
                 playqueueVisibility, lastFmEnabled, listenBrainzEnabled, listenBrainzUrl, podcastIndexEnabled,
                 podcastIndexUrl, transcodeScheme, selectedMusicFolderId, partyModeEnabled, nowPlayingAllowed,
                 keyboardShortcutsEnabled, autoHidePlayQueue, showSideBar, viewAsList, queueFollowingSongs,
-                avatarScheme, systemAvatarId, changed, videoBookmarkFrequency, audioBookmarkFrequency, searchCount);
+                avatarScheme, systemAvatarId, changed, videoBookmarkFrequency, audioBookmarkFrequency, searchCount,
+                bandwidthLimit);
     }
 
 }
@@ -0,0 +1,39 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.io;
+
+import org.airsonic.player.domain.TransferStatus;
+
+/**
+ * Limits the bandwidth of transfers. Blocks the transferring thread until the given number of bytes may be sent.
+ *
+ * @see org.airsonic.player.service.BandwidthScheduler
+ */
+@FunctionalInterface
+public interface BandwidthLimiter {
+
+    /**
+     * Waits until the given number of bytes of the transfer may be sent or received.
+     *
+     * @param status The status of the transfer.
+     * @param bytes  The number of bytes.
+     */
+    void acquire(TransferStatus status, int bytes);
+}
@@ -0,0 +1,168 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.io;
+
+import org.airsonic.player.domain.TransferStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.util.MimeTypeUtils;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a file, or the byte ranges of it requested by the {@code Range} header, to a response. The file is
+ * transferred with {@link FileChannel#transferTo} in chunks, instead of being copied through a chain of input
+ * streams. The transfer status and the bit rate limiter are updated for every chunk.
+ */
+public class FileRangeWriter {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final long offset;
+    private final BandwidthLimiter limiter;
+    private final TransferStatus status;
+
+    /**
+     * @param file        The file.
+     * @param offset      The number of bytes at the start of the file which are not written. Byte ranges are
+     *                    relative to this offset.
+     * @param limiter     The bandwidth limiter. May be {@code null}.
+     * @param status      The transfer status.
+     */
+    public FileRangeWriter(Path file, long offset, BandwidthLimiter limiter, TransferStatus status) {
+        this.file = file;
+        this.offset = offset;
+        this.limiter = limiter;
+        this.status = status;
+    }
+
+    /**
+     * Writes the file, or the requested byte ranges of it, to the response.
+     *
+     * @param request     The request, which may contain a {@code Range} header.
+     * @param response    The response.
+     * @param contentType The content type of the file.
+     * @throws IOException If an I/O error occurs, e.g. if the client aborts the download.
+     */
+    public void write(HttpServletRequest request, HttpServletResponse response, MediaType contentType) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = Math.max(0, channel.size() - offset);
+            status.addBytesSkipped(Math.min(offset, channel.size()));
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+            List<long[]> ranges = getRanges(request.getHeader(HttpHeaders.RANGE), length);
+            if (ranges == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+
+            ServletOutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            if (ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(contentType.toString());
+                response.setContentLengthLong(length);
+                transfer(channel, offset, length, target);
+            } else if (ranges.size() == 1) {
+                long[] range = ranges.get(0);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(contentType.toString());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, getContentRange(range, length));
+                response.setContentLengthLong(range[1] - range[0] + 1);
+                transfer(channel, offset + range[0], range[1] - range[0] + 1, target);
+            } else {
+                String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType("multipart/byteranges; boundary=" + boundary);
+                for (long[] range : ranges) {
+                    out.write(("\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                            + HttpHeaders.CONTENT_RANGE + ": " + getContentRange(range, length) + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    transfer(channel, offset + range[0], range[1] - range[0] + 1, target);
+                }
+                out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Returns the first and last byte of the satisfiable requested ranges, an empty list if the whole file is
+     * requested, or {@code null} if none of the ranges can be satisfied.
+     */
+    private static List<long[]> getRanges(String header, long length) {
+        List<HttpRange> requested;
+        try {
+            requested = HttpRange.parseRanges(header);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>();
+        for (HttpRange range : requested) {
+            long start = range.getRangeStart(length);
+            long end = range.getRangeEnd(length);
+            if (start < length && start <= end) {
+                ranges.add(new long[] {start, end});
+            }
+        }
+        return !requested.isEmpty() && ranges.isEmpty() ? null : ranges;
+    }
+
+    private static String getContentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * Transfers a region of the file in chunks, so that the transfer can be throttled and monitored.
+     *
+     * @return the number of bytes transferred, which is less than requested if the file is shorter
+     */
+    long transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long chunk = Math.min(CHUNK_SIZE, count - transferred);
+            if (limiter != null) {
+                limiter.acquire(status, (int) chunk);
+            }
+            long n = channel.transferTo(position + transferred, chunk, target);
+            if (n <= 0) {
+                break;
+            }
+            transferred += n;
+            status.addBytesTransferred(n);
+        }
+        return transferred;
+    }
+}
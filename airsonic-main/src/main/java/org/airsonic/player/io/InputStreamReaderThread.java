@@ -50,6 +50,17 @@ public class InputStreamReaderThread extends Thread {
     }
 
     public void run() {
+        read(input, name, log);
+    }
+
+    /**
+     * Reads everything from an input stream in the calling thread and optionally logs it.
+     *
+     * @param input The input stream, which is closed afterwards.
+     * @param name  The name to log the lines with.
+     * @param log   Whether to log the lines.
+     */
+    public static void read(InputStream input, String name, boolean log) {
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
             for (String line = reader.readLine(); line != null; line = reader.readLine()) {
                 if (log) {
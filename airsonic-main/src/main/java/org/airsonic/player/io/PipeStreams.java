@@ -1,6 +1,5 @@
 package org.airsonic.player.io;
 
-import com.google.common.util.concurrent.RateLimiter;
 import org.airsonic.player.domain.TransferStatus;
 import org.springframework.core.io.Resource;
 
@@ -8,9 +7,12 @@ import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -350,6 +352,273 @@ public class PipeStreams {
 
     } // PipedOutputStream
 
+    /**
+     * A pipe for exactly one writing and one reading thread, such as a thread which writes a zip file and the request
+     * thread which sends it. Unlike {@link PipedInputStream} it takes no locks. The bytes written and read are counted
+     * by two padded counters, so that the writer and the reader don't contend for the same cache line, and a thread
+     * which has to wait for the other one is parked until it is unparked by its counterpart. Blocks are copied in bulk
+     * into and out of a circular buffer, which may be allocated outside the heap.
+     * <p>
+     * A read returns as soon as some bytes are available, and a write returns once all bytes are in the buffer.
+     *
+     * @see RingPipedOutputStream
+     */
+    public static class RingPipedInputStream extends InputStream {
+
+        final ByteBuffer buffer;
+        final int mask;
+        // bytes read, only written by the reader
+        final Counter head = new Counter();
+        // bytes written, only written by the writer
+        final Counter tail = new Counter();
+
+        volatile boolean readerClosed;
+        volatile boolean writerClosed;
+        volatile Thread waitingReader;
+        volatile Thread waitingWriter;
+
+        public RingPipedOutputStream source;
+
+        /**
+         * Creates an unconnected RingPipedInputStream with a default buffer size.
+         */
+        public RingPipedInputStream() {
+            this(0x10000, false);
+        }
+
+        /**
+         * Creates an unconnected RingPipedInputStream.
+         *
+         * @param bufferSize The size of the buffer, which is rounded up to a power of two.
+         * @param direct     Whether to allocate the buffer outside the heap.
+         */
+        public RingPipedInputStream(int bufferSize, boolean direct) {
+            int capacity = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+            this.buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * @exception IOException It was already connected.
+         */
+        public void connect(RingPipedOutputStream source) throws IOException {
+            if (this.source != null || source.sink != null) {
+                throw new IOException("Pipe already connected");
+            }
+
+            this.source = source;
+            source.sink = this;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) (tail.value - head.value);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long h = head.value;
+            if (await(h) == 0) {
+                return -1;
+            }
+            int b = buffer.get((int) h & mask) & 0xff;
+            release(h + 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long h = head.value;
+            int amount = Math.min(len, await(h));
+            if (amount == 0) {
+                return -1;
+            }
+
+            // the available bytes may wrap around the end of the buffer
+            int position = (int) h & mask;
+            int first = Math.min(amount, buffer.capacity() - position);
+            buffer.get(position, b, off, first);
+            buffer.get(0, b, off + first, amount - first);
+            release(h + amount);
+            return amount;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long h = head.value;
+            long amount = Math.min(n, await(h));
+            release(h + amount);
+            return amount;
+        }
+
+        /**
+         * Waits until bytes are available to the reader.
+         *
+         * @return the number of available bytes, or 0 if the writer closed the pipe
+         */
+        private int await(long h) throws IOException {
+            if (source == null) {
+                throw new IOException("Unconnected pipe");
+            }
+            long available;
+            while ((available = tail.value - h) == 0) {
+                if (writerClosed) {
+                    // the last bytes may have been written just before closing
+                    available = tail.value - h;
+                    break;
+                }
+                waitingReader = Thread.currentThread();
+                if (tail.value == h && !writerClosed) {
+                    LockSupport.park(this);
+                }
+                waitingReader = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+            return (int) available;
+        }
+
+        private void release(long h) {
+            head.value = h;
+            Thread writer = waitingWriter;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source == null) {
+                throw new IOException("Unconnected pipe");
+            }
+
+            readerClosed = true;
+            // Release any pending writer.
+            Thread writer = waitingWriter;
+            if (writer != null) {
+                LockSupport.unpark(writer);
+            }
+        }
+
+    } // RingPipedInputStream
+
+    /**
+     * The writing side of a {@link RingPipedInputStream}. It must only be used by one thread at a time.
+     */
+    public static class RingPipedOutputStream extends OutputStream {
+
+        RingPipedInputStream sink;
+
+        /**
+         * Creates a RingPipedOutputStream and connects it to <code>sink</code>.
+         *
+         * @exception IOException It was already connected.
+         */
+        public RingPipedOutputStream(RingPipedInputStream sink) throws IOException {
+            sink.connect(this);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long t = sink.tail.value;
+            await(t, 1);
+            sink.buffer.put((int) t & sink.mask, (byte) b);
+            publish(t + 1);
+        }
+
+        /**
+         * @exception IOException A reader has closed the pipe.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = sink.buffer;
+            while (len > 0) {
+                long t = sink.tail.value;
+                int amount = Math.min(len, await(t, len));
+
+                // the free space may wrap around the end of the buffer
+                int position = (int) t & sink.mask;
+                int first = Math.min(amount, buffer.capacity() - position);
+                buffer.put(position, b, off, first);
+                buffer.put(0, b, off + first, amount - first);
+                publish(t + amount);
+
+                off += amount;
+                len -= amount;
+            }
+        }
+
+        /**
+         * Waits until there is space in the buffer.
+         *
+         * @return the free space
+         */
+        private int await(long t, int len) throws IOException {
+            if (sink.writerClosed) {
+                throw new IOException("Pipe closed");
+            }
+            int capacity = sink.buffer.capacity();
+            long free;
+            while ((free = capacity - (t - sink.head.value)) == 0) {
+                if (sink.readerClosed) {
+                    throw new IOException("Broken pipe");
+                }
+                sink.waitingWriter = Thread.currentThread();
+                if (t - sink.head.value == capacity && !sink.readerClosed) {
+                    LockSupport.park(this);
+                }
+                sink.waitingWriter = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (sink.readerClosed) {
+                throw new IOException("Broken pipe");
+            }
+            return (int) Math.min(free, len);
+        }
+
+        private void publish(long t) {
+            sink.tail.value = t;
+            Thread reader = sink.waitingReader;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            sink.writerClosed = true;
+            // Release any pending reader.
+            Thread reader = sink.waitingReader;
+            if (reader != null) {
+                LockSupport.unpark(reader);
+            }
+        }
+
+    } // RingPipedOutputStream
+
+    // Padding on both sides keeps a counter on a cache line of its own
+
+    abstract static class CounterLeftPadding {
+        long p01, p02, p03, p04, p05, p06, p07;
+    }
+
+    abstract static class CounterValue extends CounterLeftPadding {
+        volatile long value;
+    }
+
+    static final class Counter extends CounterValue {
+        long p11, p12, p13, p14, p15, p16, p17;
+    }
+
     public static class DelayedResource implements Resource {
         private final Resource delegate;
         private final Consumer<InputStream> inputStreamInit;
@@ -413,23 +682,23 @@ public class PipeStreams {
     }
 
     public static class MonitoredInputStream extends FilterInputStream {
-        private final RateLimiter rateLimiter;
+        private final BandwidthLimiter limiter;
         private final TransferStatus status;
         private final Consumer<TransferStatus> statusCloser;
 
-        public MonitoredInputStream(InputStream delegate, RateLimiter rateLimiter,
+        public MonitoredInputStream(InputStream delegate, BandwidthLimiter limiter,
                 Supplier<TransferStatus> statusSupplier, Consumer<TransferStatus> statusCloser,
                 BiConsumer<InputStream, TransferStatus> initAction) {
             super(delegate);
-            this.rateLimiter = rateLimiter;
+            this.limiter = limiter;
             this.status = statusSupplier.get();
             this.statusCloser = statusCloser;
             initAction.accept(delegate, status);
         }
 
         private void acquire(int len) {
-            if (rateLimiter != null) {
-                rateLimiter.acquire(len);
+            if (limiter != null) {
+                limiter.acquire(status, len);
             }
         }
 
@@ -471,15 +740,15 @@ public class PipeStreams {
 
     public static class MonitoredResource implements Resource {
         private final Resource delegate;
-        private final RateLimiter rateLimiter;
+        private final BandwidthLimiter limiter;
         private final Supplier<TransferStatus> statusSupplier;
         private final Consumer<TransferStatus> statusCloser;
         private final BiConsumer<InputStream, TransferStatus> inputStreamInit;
 
-        public MonitoredResource(Resource delegate, RateLimiter rateLimiter, Supplier<TransferStatus> statusSupplier,
+        public MonitoredResource(Resource delegate, BandwidthLimiter limiter, Supplier<TransferStatus> statusSupplier,
                 Consumer<TransferStatus> statusCloser, BiConsumer<InputStream, TransferStatus> inputStreamInit) {
             this.delegate = delegate;
-            this.rateLimiter = rateLimiter;
+            this.limiter = limiter;
             this.statusSupplier = statusSupplier;
             this.statusCloser = statusCloser;
             this.inputStreamInit = inputStreamInit;
@@ -487,7 +756,7 @@ public class PipeStreams {
 
         @Override
         public InputStream getInputStream() throws IOException {
-            return new MonitoredInputStream(delegate.getInputStream(), rateLimiter, statusSupplier, statusCloser, inputStreamInit);
+            return new MonitoredInputStream(delegate.getInputStream(), limiter, statusSupplier, statusCloser, inputStreamInit);
         }
 
         @Override
@@ -17,13 +17,29 @@ public class PlayQueueInputStream extends InputStream {
     private InputStream currentStream;
     private MediaFile currentFile;
     private Integer readCount = 0;
+    // opened in advance for the file at the head of the queue, until it is played or closed
+    private MediaFile openedFile;
+    private InputStream openedStream;
 
     public PlayQueueInputStream(PlayQueue queue, Consumer<MediaFile> fileStartListener,
             BiConsumer<Integer, MediaFile> fileEndListener, Function<MediaFile, InputStream> streamGenerator) {
+        this(queue, fileStartListener, fileEndListener, streamGenerator, null, null);
+    }
+
+    /**
+     * @param openedFile   the file whose stream was already opened, usually the current file of the queue
+     * @param openedStream the stream of the opened file, which is used instead of the stream generator when the file
+     *                     is played first, and closed otherwise
+     */
+    public PlayQueueInputStream(PlayQueue queue, Consumer<MediaFile> fileStartListener,
+            BiConsumer<Integer, MediaFile> fileEndListener, Function<MediaFile, InputStream> streamGenerator,
+            MediaFile openedFile, InputStream openedStream) {
         this.queue = queue;
         this.fileStartListener = fileStartListener;
         this.fileEndListener = fileEndListener;
         this.streamGenerator = streamGenerator;
+        this.openedFile = openedFile;
+        this.openedStream = openedStream;
     }
 
     @Override
@@ -72,12 +88,37 @@ public class PlayQueueInputStream extends InputStream {
             closeStream();
             currentFile = file;
             fileStartListener.accept(currentFile);
-            currentStream = streamGenerator.apply(currentFile);
+            if (openedStream != null && file.equals(openedFile)) {
+                currentStream = openedStream;
+                openedStream = null;
+            } else {
+                closeOpenedStream();
+                currentStream = openStream(currentFile);
+            }
         } else {
             readCount++;
         }
     }
 
+    private InputStream openStream(MediaFile file) throws IOException {
+        try {
+            return streamGenerator.apply(file);
+        } catch (RuntimeException e) {
+            // surface failures of the generator, such as a busy transcoder, as I/O errors of this stream
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void closeOpenedStream() throws IOException {
+        if (openedStream != null) {
+            openedStream.close();
+            openedStream = null;
+        }
+    }
+
     public void closeStream() throws IOException {
         if (currentStream != null) {
             currentStream.close();
@@ -92,6 +133,7 @@ public class PlayQueueInputStream extends InputStream {
 
     @Override
     public void close() throws IOException {
+        closeOpenedStream();
         closeStream();
         super.close();
     }
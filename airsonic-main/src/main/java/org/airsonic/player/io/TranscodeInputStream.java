@@ -29,6 +29,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -54,9 +55,10 @@ public class TranscodeInputStream extends InputStream {
      * @param processBuilder Used to create the external process.
      * @param in Data to feed to the process.  May be {@code null}.
      * @param tmpFile Temporary file to delete when this stream is closed.  May be {@code null}.
+     * @param executor Runs the tasks which copy data to the process and read its stderr.
      * @throws IOException If an I/O error occurs.
      */
-    public TranscodeInputStream(ProcessBuilder processBuilder, final InputStream in, Path tmpFile) throws IOException {
+    public TranscodeInputStream(ProcessBuilder processBuilder, final InputStream in, Path tmpFile, Executor executor) throws IOException {
         this.tmpFile = tmpFile;
         LOG.info("Starting transcoder: {}", processBuilder.command().stream().collect(Collectors.joining("][", "[", "]")));
 
@@ -66,23 +68,20 @@ public class TranscodeInputStream extends InputStream {
 
         // Must read stderr from the process, otherwise it may block.
         final String name = processBuilder.command().get(0);
-        new InputStreamReaderThread(process.getErrorStream(), name, true).start();
+        executor.execute(() -> InputStreamReaderThread.read(process.getErrorStream(), name, true));
 
-        // Copy data in a separate thread
+        // Copy data in a separate task
         if (in != null) {
-            new Thread(name + " TranscodedInputStream copy thread") {
-                @Override
-                public void run() {
-                    try {
-                        IOUtils.copy(in, processOutputStream);
-                    } catch (IOException x) {
-                        // Intentionally ignored. Will happen if the remote player closes the stream.
-                    } finally {
-                        FileUtil.closeQuietly(in);
-                        FileUtil.closeQuietly(processOutputStream);
-                    }
+            executor.execute(() -> {
+                try {
+                    IOUtils.copy(in, processOutputStream);
+                } catch (IOException x) {
+                    // Intentionally ignored. Will happen if the remote player closes the stream.
+                } finally {
+                    FileUtil.closeQuietly(in);
+                    FileUtil.closeQuietly(processOutputStream);
                 }
-            }.start();
+            });
         }
     }
 
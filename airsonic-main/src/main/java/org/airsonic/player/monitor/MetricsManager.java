@@ -1,5 +1,8 @@
 package org.airsonic.player.monitor;
 
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.jmx.JmxReporter;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -72,6 +75,29 @@ public class MetricsManager {
         return timer(ref.getClass(),name);
     }
 
+    /**
+     * Creates a {@link Histogram} whose name is based on a class name and a
+     * qualified name. If metrics are not activated, the histogram is not
+     * registered in the Metrics registry.
+     */
+    public Histogram histogram(Class<?> clazz, String name) {
+        if (metricsActivatedByConfiguration()) {
+            return metrics.histogram(MetricRegistry.name(clazz, name));
+        } else {
+            return new Histogram(new ExponentiallyDecayingReservoir());
+        }
+    }
+
+    /**
+     * Registers a {@link Gauge} whose name is based on a class name and a
+     * qualified name, if metrics are activated.
+     */
+    public <T> void gauge(Class<?> clazz, String name, Gauge<T> gauge) {
+        if (metricsActivatedByConfiguration()) {
+            metrics.gauge(MetricRegistry.name(clazz, name), () -> gauge);
+        }
+    }
+
     /**
      * Initiate a {@link TimerBuilder} using a condition.
      * If the condition is false, a void {@link Timer} will finally be built thus
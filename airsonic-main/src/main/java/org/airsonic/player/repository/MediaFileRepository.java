@@ -21,19 +21,24 @@ package org.airsonic.player.repository;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.domain.MusicFolder;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import jakarta.persistence.QueryHint;
+
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface MediaFileRepository extends JpaRepository<MediaFile, Integer> {
@@ -60,6 +65,12 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Integer> {
 
     public List<MediaFile> findByFolderAndPathStartsWith(MusicFolder folder, String path);
 
+    public List<MediaFile> findByFolderAndPathStartsWithAndPresentTrue(MusicFolder folder, String path, Sort sort);
+
+    // must be consumed in a transaction and closed
+    @QueryHints({ @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true") })
+    public Stream<MediaFile> streamByFolderAndPathStartsWithAndPresentTrue(MusicFolder folder, String path, Sort sort);
+
     // be carefull, this method can return more than Integer.MAX_VALUE results
     public List<MediaFile> findByFolderAndPathIn(MusicFolder folder, Iterable<String> path);
 
@@ -104,6 +115,10 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Integer> {
     public List<MediaFile> findByFolderInAndMediaTypeInAndPresentTrue(List<MusicFolder> folders,
             Iterable<MediaType> playableTypes, Pageable offsetBasedPageRequest);
 
+    public long countByLastScannedBeforeAndPresentTrue(Instant lastScanned);
+
+    public List<MediaFile> findByFolderAndParentPathInAndLastScannedBeforeAndPresentTrue(MusicFolder folder, Iterable<String> parentPaths, Instant lastScanned);
+
     @Modifying
     @Transactional
     @Query("UPDATE MediaFile m SET m.present = true, m.lastScanned = :lastScanned WHERE m.folder = :folder AND m.path IN :paths")
@@ -114,4 +129,9 @@ public interface MediaFileRepository extends JpaRepository<MediaFile, Integer> {
     @Query("UPDATE MediaFile m SET m.present = false, m.childrenLastUpdated = :childrenLastUpdated WHERE m.lastScanned < :lastScanned")
     public void markNonPresent(@Param("childrenLastUpdated") Instant childrenLastUpdated, @Param("lastScanned") Instant lastScanned);
 
+    @Modifying
+    @Transactional
+    @Query("UPDATE MediaFile m SET m.present = false, m.childrenLastUpdated = :childrenLastUpdated WHERE m.folder = :folder AND m.parentPath IN :parentPaths AND m.lastScanned < :lastScanned")
+    public int markNonPresent(@Param("folder") MusicFolder folder, @Param("parentPaths") Iterable<String> parentPaths, @Param("childrenLastUpdated") Instant childrenLastUpdated, @Param("lastScanned") Instant lastScanned);
+
 }
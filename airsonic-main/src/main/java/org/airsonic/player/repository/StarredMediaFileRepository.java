@@ -26,9 +26,12 @@ import org.airsonic.player.domain.MusicFolder;
 import org.airsonic.player.domain.entity.StarredMediaFile;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -42,6 +45,9 @@ public interface StarredMediaFileRepository extends JpaRepository<StarredMediaFi
 
     public List<StarredMediaFile> findByUsername(String username);
 
+    @Query("SELECT s.mediaFile.id AS mediaFileId, s.created AS created FROM StarredMediaFile s WHERE s.username = :username AND s.mediaFile.id IN :mediaFileIds")
+    public List<StarredDate> findStarredDates(@Param("username") String username, @Param("mediaFileIds") Iterable<Integer> mediaFileIds);
+
     public List<StarredMediaFile> findByUsernameAndMediaFileMediaTypeAndMediaFileFolderInAndMediaFilePresentTrue(
             String username, MediaType mediaType, Iterable<MusicFolder> folders, Pageable page);
 
@@ -51,4 +57,13 @@ public interface StarredMediaFileRepository extends JpaRepository<StarredMediaFi
     @Transactional
     public void deleteAllByMediaFileIdInAndUsername(List<Integer> mediaFileIds, String username);
 
+    /**
+     * Starred date of a media file, without loading the media file itself.
+     */
+    public interface StarredDate {
+
+        Integer getMediaFileId();
+
+        Instant getCreated();
+    }
 }
@@ -37,6 +37,8 @@ public interface UserRatingRepository extends JpaRepository<UserRating, UserRati
 
     public Integer countByUsernameAndMediaFileIdIn(String username, Iterable<Integer> mediaFileIds);
 
+    public List<UserRating> findByMediaFileIdIn(Iterable<Integer> mediaFileIds);
+
     public List<UserRating> findByUsernameAndRatingBetween(String username, Integer fromRating, Integer toRating);
 
     @Query("SELECT AVG(u.rating) FROM UserRating u WHERE u.mediaFileId = :mediaFileId")
@@ -379,4 +379,14 @@ public class AlbumService {
         return album;
     }
 
+    /**
+     * Save albums to database in a single transaction
+     *
+     * @param albums albums to save
+     */
+    @Transactional
+    public void saveAll(List<Album> albums) {
+        albumRepository.saveAll(albums);
+    }
+
 }
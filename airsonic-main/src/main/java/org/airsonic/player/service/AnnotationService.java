@@ -0,0 +1,92 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFileAnnotations;
+import org.airsonic.player.domain.entity.UserRating;
+import org.airsonic.player.repository.StarredMediaFileRepository;
+import org.airsonic.player.repository.UserRatingRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Loads the starred dates and ratings of many media files at once, with one query per table
+ * for every chunk of media files instead of several queries per media file.
+ */
+@Service
+public class AnnotationService {
+
+    // keeps IN lists well below the bind parameter limits of all supported databases
+    private static final int CHUNK_SIZE = 1000;
+
+    private final StarredMediaFileRepository starredMediaFileRepository;
+    private final UserRatingRepository userRatingRepository;
+
+    public AnnotationService(StarredMediaFileRepository starredMediaFileRepository, UserRatingRepository userRatingRepository) {
+        this.starredMediaFileRepository = starredMediaFileRepository;
+        this.userRatingRepository = userRatingRepository;
+    }
+
+    /**
+     * Returns the starred dates and ratings of the given media files.
+     *
+     * @param mediaFiles The media files.
+     * @param username   The user whose starred dates and ratings are returned.
+     * @return The annotations of the media files.
+     */
+    @Transactional(readOnly = true)
+    public MediaFileAnnotations getAnnotations(Collection<MediaFile> mediaFiles, String username) {
+        List<Integer> ids = mediaFiles.stream().filter(Objects::nonNull).map(MediaFile::getId)
+                .filter(Objects::nonNull).distinct().collect(Collectors.toCollection(ArrayList::new));
+
+        Map<Integer, Instant> starredDates = new HashMap<>();
+        Map<Integer, Integer> userRatings = new HashMap<>();
+        Map<Integer, List<Integer>> ratings = new HashMap<>();
+        for (int i = 0; i < ids.size(); i += CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(i, Math.min(i + CHUNK_SIZE, ids.size()));
+            if (username != null) {
+                starredMediaFileRepository.findStarredDates(username, chunk)
+                        .forEach(starred -> starredDates.put(starred.getMediaFileId(), starred.getCreated()));
+            }
+            for (UserRating rating : userRatingRepository.findByMediaFileIdIn(chunk)) {
+                if (rating.getRating() == null) {
+                    continue;
+                }
+                ratings.computeIfAbsent(rating.getMediaFileId(), k -> new ArrayList<>()).add(rating.getRating());
+                if (rating.getUsername().equals(username)) {
+                    userRatings.put(rating.getMediaFileId(), rating.getRating());
+                }
+            }
+        }
+
+        Map<Integer, Double> averageRatings = new HashMap<>();
+        ratings.forEach((id, values) -> averageRatings.put(id, values.stream().mapToInt(Integer::intValue).average().orElse(0)));
+        return new MediaFileAnnotations(starredDates, userRatings, averageRatings);
+    }
+}
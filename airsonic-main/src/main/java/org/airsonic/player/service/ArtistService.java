@@ -221,6 +221,16 @@ public class ArtistService {
         return artist;
     }
 
+    /**
+     * Save artists to database in a single transaction
+     *
+     * @param artists artists to save
+     */
+    @Transactional
+    public void saveAll(List<Artist> artists) {
+        artistRepository.saveAll(artists);
+    }
+
     /**
      * Get artist image URL
      *
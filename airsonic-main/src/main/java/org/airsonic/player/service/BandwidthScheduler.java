@@ -0,0 +1,391 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.airsonic.player.domain.Player;
+import org.airsonic.player.domain.TransferStatus;
+import org.airsonic.player.io.BandwidthLimiter;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules the bandwidth of streams, downloads and uploads. A transfer takes its bytes from the token bucket of its
+ * player, then from the one of its user, and finally from the global one of its direction, so that a single user or
+ * player can't take the bandwidth of everyone else. The limits come from the player and user settings and from the
+ * global download and upload limits.
+ * <p/>
+ * When transfers of different classes wait for the same bucket, the bucket is shared between them by the weight of
+ * their class. Live streams have the largest weight, so that they keep playing while files are downloaded or uploaded.
+ * <p/>
+ * The throughput of every user is measured and shown on the status page, the throughput of each class is also
+ * published as metrics.
+ *
+ * @see StatusService#getUserThroughputs()
+ */
+@Service
+public class BandwidthScheduler {
+
+    // how long the limits of a bucket are used before they are read again
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // the number of seconds throughput is averaged over
+    private static final int THROUGHPUT_SECONDS = 5;
+
+    /**
+     * The classes of transfers, in order of precedence.
+     */
+    public enum TrafficClass {
+        STREAM(8), DOWNLOAD(2), UPLOAD(1);
+
+        private final int weight;
+
+        TrafficClass(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    private final SettingsService settingsService;
+    private final PersonalSettingsService personalSettingsService;
+
+    private final TokenBucket downloadBucket = new TokenBucket();
+    private final TokenBucket uploadBucket = new TokenBucket();
+    private final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    private final Map<Integer, TokenBucket> playerBuckets = new ConcurrentHashMap<>();
+    // by username, users are removed once they are idle
+    private final Map<String, Throughput> throughputs = new ConcurrentHashMap<>();
+    private final Throughput totalThroughput = new Throughput();
+
+    private final Map<TrafficClass, Counter> transferred = new EnumMap<>(TrafficClass.class);
+    private final Map<TrafficClass, Timer> throttled = new EnumMap<>(TrafficClass.class);
+
+    public BandwidthScheduler(SettingsService settingsService, PersonalSettingsService personalSettingsService,
+            MeterRegistry meterRegistry) {
+        this.settingsService = settingsService;
+        this.personalSettingsService = personalSettingsService;
+        for (TrafficClass trafficClass : TrafficClass.values()) {
+            String tag = trafficClass.name().toLowerCase();
+            transferred.put(trafficClass, Counter.builder("airsonic.bandwidth.bytes").tag("class", tag).baseUnit("bytes")
+                    .description("Bytes transferred").register(meterRegistry));
+            throttled.put(trafficClass, Timer.builder("airsonic.bandwidth.throttled").tag("class", tag)
+                    .description("Time transfers waited for bandwidth").register(meterRegistry));
+            Gauge.builder("airsonic.bandwidth.throughput", totalThroughput, t -> t.get(trafficClass, System.nanoTime()))
+                    .tag("class", tag).baseUnit("bytes").description("Bytes per second transferred").register(meterRegistry);
+        }
+    }
+
+    /**
+     * Returns a limiter for transfers of the given class.
+     */
+    public BandwidthLimiter getLimiter(TrafficClass trafficClass) {
+        return (status, bytes) -> acquire(trafficClass, status, bytes);
+    }
+
+    /**
+     * Waits until the given number of bytes may be transferred by the player and the user of the transfer.
+     */
+    void acquire(TrafficClass trafficClass, TransferStatus status, int bytes) {
+        long start = System.nanoTime();
+        boolean waited = false;
+
+        Player player = status == null ? null : status.getPlayer();
+        String username = player == null ? null : player.getUsername();
+        if (player != null && player.getId() != null) {
+            TokenBucket bucket = playerBuckets.computeIfAbsent(player.getId(), k -> new TokenBucket());
+            bucket.setLimit(player.getBandwidthLimit());
+            waited |= bucket.acquire(trafficClass, bytes);
+        }
+        if (username != null) {
+            TokenBucket bucket = userBuckets.computeIfAbsent(username, k -> new TokenBucket());
+            bucket.refresh(() -> personalSettingsService.getUserSettings(username).getBandwidthLimit());
+            waited |= bucket.acquire(trafficClass, bytes);
+        }
+        TokenBucket bucket = trafficClass == TrafficClass.UPLOAD ? uploadBucket : downloadBucket;
+        bucket.refresh(trafficClass == TrafficClass.UPLOAD ? settingsService::getUploadBitrateLimit : settingsService::getDownloadBitrateLimit);
+        waited |= bucket.acquire(trafficClass, bytes);
+
+        transferred.get(trafficClass).increment(bytes);
+        if (waited) {
+            throttled.get(trafficClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        long now = System.nanoTime();
+        totalThroughput.add(trafficClass, bytes, now);
+        if (username != null) {
+            Throughput throughput = throughputs.get(username);
+            if (throughput == null) {
+                removeIdleThroughputs(now);
+                throughput = throughputs.computeIfAbsent(username, k -> new Throughput());
+            }
+            throughput.add(trafficClass, bytes, now);
+        }
+    }
+
+    /**
+     * Forgets the users who didn't transfer anything recently.
+     */
+    private void removeIdleThroughputs(long nanos) {
+        throughputs.values().removeIf(throughput -> throughput.isIdle(nanos));
+    }
+
+    /**
+     * Returns the current throughput of the users who transferred anything recently, highest first.
+     */
+    public List<UserThroughput> getUserThroughputs() {
+        long now = System.nanoTime();
+        removeIdleThroughputs(now);
+        List<UserThroughput> result = new ArrayList<>();
+        throughputs.forEach((username, throughput) -> {
+            UserThroughput userThroughput = new UserThroughput(username, throughput.get(TrafficClass.STREAM, now),
+                    throughput.get(TrafficClass.DOWNLOAD, now), throughput.get(TrafficClass.UPLOAD, now));
+            if (userThroughput.getTotal() > 0) {
+                result.add(userThroughput);
+            }
+        });
+        result.sort(Comparator.comparingLong(UserThroughput::getTotal).reversed());
+        return result;
+    }
+
+    /**
+     * A token bucket whose tokens are bytes. A transfer takes its bytes as soon as the bucket isn't in debt, which
+     * lets the bucket go into debt, and later transfers wait until the debt is paid back. When transfers of several
+     * classes wait, they are served in start-time fair queueing order, weighted by their class.
+     */
+    static class TokenBucket {
+
+        // the longest time to wait for a transfer of another class to be served
+        private static final long PREEMPTED_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // bytes per second
+        private volatile double rate = Double.POSITIVE_INFINITY;
+        private volatile long refreshed;
+        private double tokens;
+        private long updated = System.nanoTime();
+
+        // virtual time, and the finish tags of the last bytes of each class
+        private double virtualTime;
+        private final double[] finishTags = new double[TrafficClass.values().length];
+        private final int[] waiting = new int[TrafficClass.values().length];
+
+        /**
+         * Reads the limit again if it wasn't read recently.
+         */
+        void refresh(LongSupplier limit) {
+            long now = System.nanoTime();
+            if (refreshed == 0 || now - refreshed > REFRESH_NANOS) {
+                refreshed = now;
+                setLimit(limit.getAsLong());
+            }
+        }
+
+        /**
+         * @param limit The limit in Kbit/s. Zero if unlimited.
+         */
+        void setLimit(long limit) {
+            double newRate = limit <= 0 ? Double.POSITIVE_INFINITY : limit * 1024.0;
+            if (newRate == rate) {
+                return;
+            }
+            synchronized (this) {
+                long now = System.nanoTime();
+                refill(now);
+                rate = newRate;
+                tokens = Double.isInfinite(newRate) ? 0 : Math.min(Math.max(tokens, 0), newRate);
+                updated = now;
+                notifyAll();
+            }
+        }
+
+        double getRate() {
+            return rate;
+        }
+
+        private void refill(long now) {
+            if (!Double.isInfinite(rate)) {
+                // at most one second of bytes is saved up
+                tokens = Math.min(rate, tokens + (now - updated) * rate / TimeUnit.SECONDS.toNanos(1));
+            }
+            updated = now;
+        }
+
+        /**
+         * Waits until the bucket isn't in debt and no transfer of another class is to be served first, and takes the
+         * given number of bytes.
+         *
+         * @return whether the transfer had to wait
+         */
+        boolean acquire(TrafficClass trafficClass, int bytes) {
+            if (Double.isInfinite(rate)) {
+                return false;
+            }
+            int index = trafficClass.ordinal();
+            boolean waited = false;
+            synchronized (this) {
+                waiting[index]++;
+                try {
+                    while (!Double.isInfinite(rate)) {
+                        long now = System.nanoTime();
+                        refill(now);
+                        boolean preempted = isPreempted(index);
+                        if (tokens >= 0 && !preempted) {
+                            take(index, bytes, trafficClass.getWeight());
+                            break;
+                        }
+                        long nanos = tokens < 0 ? (long) Math.ceil(-tokens * TimeUnit.SECONDS.toNanos(1) / rate) : PREEMPTED_WAIT_NANOS;
+                        waited = true;
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, Math.max(nanos, 1));
+                        } catch (InterruptedException e) {
+                            // let the transfer go on, it is probably about to be aborted
+                            Thread.currentThread().interrupt();
+                            take(index, bytes, trafficClass.getWeight());
+                            break;
+                        }
+                    }
+                } finally {
+                    waiting[index]--;
+                    notifyAll();
+                }
+            }
+            return waited;
+        }
+
+        /**
+         * Whether a waiting transfer of another class has an earlier start tag. Ties go to the class of precedence.
+         */
+        private boolean isPreempted(int index) {
+            double start = Math.max(virtualTime, finishTags[index]);
+            for (int i = 0; i < waiting.length; i++) {
+                if (i != index && waiting[i] > 0) {
+                    double other = Math.max(virtualTime, finishTags[i]);
+                    if (other < start || (other == start && i < index)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void take(int index, int bytes, int weight) {
+            double start = Math.max(virtualTime, finishTags[index]);
+            finishTags[index] = start + (double) bytes / weight;
+            virtualTime = start;
+            tokens -= bytes;
+        }
+    }
+
+    /**
+     * The bytes transferred per class in each of the last seconds.
+     */
+    static class Throughput {
+
+        private final long[][] bytes = new long[TrafficClass.values().length][THROUGHPUT_SECONDS + 1];
+        private final long[] seconds = new long[THROUGHPUT_SECONDS + 1];
+
+        synchronized void add(TrafficClass trafficClass, long count, long nanos) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(nanos);
+            int slot = (int) Math.floorMod(second, (long) seconds.length);
+            if (seconds[slot] != second) {
+                seconds[slot] = second;
+                for (long[] classBytes : bytes) {
+                    classBytes[slot] = 0;
+                }
+            }
+            bytes[trafficClass.ordinal()][slot] += count;
+        }
+
+        /**
+         * @return the average bytes per second over the last completed seconds
+         */
+        synchronized long get(TrafficClass trafficClass, long nanos) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(nanos);
+            long sum = 0;
+            for (int slot = 0; slot < seconds.length; slot++) {
+                if (seconds[slot] < second && seconds[slot] >= second - THROUGHPUT_SECONDS) {
+                    sum += bytes[trafficClass.ordinal()][slot];
+                }
+            }
+            return sum / THROUGHPUT_SECONDS;
+        }
+
+        /**
+         * @return whether nothing was transferred in the current second and the seconds averaged over
+         */
+        synchronized boolean isIdle(long nanos) {
+            long second = TimeUnit.NANOSECONDS.toSeconds(nanos);
+            for (long slotSecond : seconds) {
+                if (slotSecond >= second - THROUGHPUT_SECONDS) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The current throughput of a user in bytes per second.
+     */
+    public static class UserThroughput {
+        private final String username;
+        private final long stream;
+        private final long download;
+        private final long upload;
+
+        public UserThroughput(String username, long stream, long download, long upload) {
+            this.username = username;
+            this.stream = stream;
+            this.download = download;
+            this.upload = upload;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getStream() {
+            return stream;
+        }
+
+        public long getDownload() {
+            return download;
+        }
+
+        public long getUpload() {
+            return upload;
+        }
+
+        public long getTotal() {
+            return stream + download + upload;
+        }
+    }
+}
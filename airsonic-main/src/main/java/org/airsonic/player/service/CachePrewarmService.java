@@ -0,0 +1,114 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicCacheConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.service.cache.MediaFileCache;
+import org.airsonic.player.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills the media file cache after startup with the directories which are likely to be browsed first: the most
+ * recently played albums and the most browsed directories, together with their children. The media files are read
+ * from the database in the background, without looking at the disk.
+ *
+ * @see AirsonicCacheConfig#getPrewarmDirectories()
+ */
+@Service
+public class CachePrewarmService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachePrewarmService.class);
+
+    private final MediaFileService mediaFileService;
+    private final MediaFolderService mediaFolderService;
+    private final MediaFileCache mediaFileCache;
+    private final AirsonicCacheConfig cacheConfig;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(Util.getDaemonThreadfactory("cache-prewarm"));
+
+    public CachePrewarmService(MediaFileService mediaFileService, MediaFolderService mediaFolderService,
+            MediaFileCache mediaFileCache, AirsonicCacheConfig cacheConfig) {
+        this.mediaFileService = mediaFileService;
+        this.mediaFolderService = mediaFolderService;
+        this.mediaFileCache = mediaFileCache;
+        this.cacheConfig = cacheConfig;
+    }
+
+    @EventListener
+    public void init(ApplicationReadyEvent event) {
+        executor.execute(() -> {
+            try {
+                prewarm();
+            } catch (Exception e) {
+                LOG.warn("Failed to prewarm the media file cache", e);
+            }
+        });
+    }
+
+    /**
+     * Caches the most recently played albums and the most browsed directories, and their children.
+     *
+     * @return the number of cached media files
+     */
+    public int prewarm() {
+        int count = cacheConfig.getPrewarmDirectories();
+        if (count == 0) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Set<MediaFile> directories = new LinkedHashSet<>(mediaFileService.getMostRecentlyPlayedAlbums(0, count, mediaFolderService.getAllMusicFolders()));
+        mediaFileCache.getMostBrowsedDirectories(count).stream()
+                .map(id -> mediaFileService.getMediaFile(id))
+                .filter(Objects::nonNull)
+                .filter(MediaFile::isPresent)
+                .forEach(directories::add);
+
+        int cached = 0;
+        for (MediaFile directory : directories) {
+            mediaFileCache.putMediaFile(directory);
+            List<MediaFile> children = mediaFileService.getChildrenOf(directory, true, true, false, true);
+            children.forEach(mediaFileCache::putMediaFile);
+            cached += children.size() + 1;
+        }
+        LOG.info("Cached {} media files of {} directories in {} ms", cached, directories.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return cached;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
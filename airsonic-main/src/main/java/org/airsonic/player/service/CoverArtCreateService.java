@@ -37,6 +37,7 @@ import org.airsonic.player.domain.dto.PodcastCoverArtRequest;
 import org.airsonic.player.domain.dto.VideoCoverArtRequest;
 import org.airsonic.player.repository.AlbumRepository;
 import org.airsonic.player.repository.ArtistRepository;
+import org.airsonic.player.service.ParallelExecutionService.Workload;
 import org.airsonic.player.service.metadata.JaudiotaggerParser;
 import org.airsonic.player.util.ImageUtil;
 import org.airsonic.player.util.StringUtil;
@@ -91,6 +92,9 @@ public class CoverArtCreateService {
     @Autowired
     private TranscodingService transcodingService;
 
+    @Autowired
+    private ParallelExecutionService parallelExecutionService;
+
     private static final Logger LOG = LoggerFactory.getLogger(CoverArtCreateService.class);
 
     /**
@@ -225,9 +229,9 @@ public class CoverArtCreateService {
                 if (in == null) {
                     reason = "getImageInputStream";
                 } else {
-                    BufferedImage bimg = ImageIO.read(in);
+                    BufferedImage bimg = ImageUtil.read(in, size);
                     if (bimg == null) {
-                        reason = "ImageIO.read";
+                        reason = "ImageUtil.read";
                     } else {
                         return ImageUtil.scaleToSquare(bimg, size);
                     }
@@ -253,12 +257,12 @@ public class CoverArtCreateService {
      */
     @Nonnull
     public BufferedImage createPlaylistImage(PlaylistCoverArtRequest request, int size) {
-        List<MediaFile> albums = playlistService.getFilesInPlaylist(request.getPlaylist().getId())
-                .parallelStream()
+        List<MediaFile> albums = parallelExecutionService.execute(Workload.COVER_ART,
+                playlistService.getFilesInPlaylist(request.getPlaylist().getId()), files -> files
                 .map(mediaFileService::getParentOf)
                 .filter(album -> album != null && !mediaFileService.isRoot(album))
                 .distinct()
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
 
         if (albums.isEmpty()) {
             return createAutoCover(request, size, size);
@@ -0,0 +1,371 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.airsonic.player.config.AirsonicCoverArtConfig;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.domain.dto.CoverArtRequest;
+import org.airsonic.player.domain.dto.PlaylistCoverArtRequest;
+import org.airsonic.player.domain.dto.VideoCoverArtRequest;
+import org.airsonic.player.util.FileUtil;
+import org.airsonic.player.util.StringUtil;
+import org.airsonic.player.util.Util;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the scaled cover art images which are cached in the thumbnail directory. An image is created once however
+ * many requests ask for it at the same time: the requests wait for the same creation, which runs on an executor
+ * whose size is the configured cover art concurrency. The images are written to a temporary file which is moved in
+ * place when complete, so a cached image is never read while it is written. Small images, as shown in album lists,
+ * are also kept in memory, and the least recently used ones are dropped when the memory cache is full.
+ *
+ * @see SettingsService#getCoverArtConcurrency()
+ * @see AirsonicCoverArtConfig#getMemoryCacheSize()
+ */
+@Service
+public class CoverArtThumbnailService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CoverArtThumbnailService.class);
+
+    // Version of the cover art generation algorithm.
+    // Increment this if the algorithm changes.
+    private static final int COVERART_VERSION = 1;
+
+    private static final int MAX_QUEUED = 1000;
+    private static final String PART_SUFFIX = ".part";
+
+    private final CoverArtCreateService coverArtCreateService;
+    private final SettingsService settingsService;
+    private final AirsonicHomeConfig homeConfig;
+    private final long memoryCacheSize;
+    private final int memoryCacheMaxImageSize;
+
+    private final ThreadPoolExecutor executor;
+    // images being created, by cache file
+    private final Map<Path, CompletableFuture<Path>> creating = new ConcurrentHashMap<>();
+    // images in memory by cache file, in access order
+    private final LinkedHashMap<Path, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize;
+
+    private final Timer creationTimer;
+    private final Counter rejected;
+    private final Counter memoryHits;
+    private final Counter memoryMisses;
+
+    public CoverArtThumbnailService(CoverArtCreateService coverArtCreateService, SettingsService settingsService,
+            AirsonicHomeConfig homeConfig, AirsonicCoverArtConfig coverArtConfig, MeterRegistry meterRegistry) {
+        this.coverArtCreateService = coverArtCreateService;
+        this.settingsService = settingsService;
+        this.homeConfig = homeConfig;
+        this.memoryCacheSize = coverArtConfig.getMemoryCacheSize() * 1024 * 1024;
+        this.memoryCacheMaxImageSize = coverArtConfig.getMemoryCacheMaxImageSize();
+        int threads = Math.max(settingsService.getCoverArtConcurrency(), 1);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED), Util.getDaemonThreadfactory("coverart"));
+        this.creationTimer = Timer.builder("airsonic.coverart.thumbnails.creation")
+                .description("Time to create scaled cover art images").register(meterRegistry);
+        this.rejected = Counter.builder("airsonic.coverart.thumbnails.rejected")
+                .description("Scaled cover art images not created because too many were queued").register(meterRegistry);
+        Gauge.builder("airsonic.coverart.thumbnails.queued", executor, e -> e.getQueue().size())
+                .description("Scaled cover art images waiting to be created").register(meterRegistry);
+        Gauge.builder("airsonic.coverart.thumbnails.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Scaled cover art images being created").register(meterRegistry);
+        this.memoryHits = Counter.builder("airsonic.coverart.memory.requests").tag("result", "hit")
+                .description("Scaled cover art requests served from memory").register(meterRegistry);
+        this.memoryMisses = Counter.builder("airsonic.coverart.memory.requests").tag("result", "miss")
+                .description("Scaled cover art requests not served from memory").register(meterRegistry);
+        Gauge.builder("airsonic.coverart.memory.hit.ratio", this, CoverArtThumbnailService::getMemoryHitRatio)
+                .description("Share of scaled cover art requests served from memory").register(meterRegistry);
+        Gauge.builder("airsonic.coverart.memory.size", this, CoverArtThumbnailService::getMemorySize).baseUnit("bytes")
+                .description("Size of the scaled cover art kept in memory").register(meterRegistry);
+    }
+
+    /**
+     * Returns the cached image of the given size, creating it if it is missing or older than the cover art. Small
+     * images are served from memory. Larger images are not read into memory, but streamed from their cache file.
+     *
+     * @param request The cover art.
+     * @param size    The width and height of the image.
+     * @return the image
+     * @throws IOException If the image could not be created or read.
+     */
+    public CachedImage getCachedImage(CoverArtRequest request, int size) throws IOException {
+        boolean inMemory = memoryCacheSize > 0 && size <= memoryCacheMaxImageSize;
+        Path cachedImage = getCacheFile(request, size);
+        if (inMemory) {
+            MemoryEntry entry = getMemoryEntry(cachedImage);
+            if (entry != null && !request.lastModified().isAfter(entry.lastModified)) {
+                memoryHits.increment();
+                return entry.image;
+            }
+            memoryMisses.increment();
+        }
+
+        Path file = getThumbnail(request, size);
+        String contentType = StringUtil.getMimeType(FilenameUtils.getExtension(file.toString()));
+        if (!inMemory) {
+            return new CachedImage(file, Files.size(file), contentType);
+        }
+        Instant lastModified = FileUtil.lastModified(file);
+        CachedImage image = new CachedImage(Files.readAllBytes(file), contentType);
+        putMemoryEntry(cachedImage, new MemoryEntry(image, lastModified));
+        return image;
+    }
+
+    /**
+     * Returns the cached image of the given size, creating it if it is missing or older than the cover art.
+     *
+     * @param request The cover art.
+     * @param size    The width and height of the image.
+     * @return the cached image file
+     * @throws IOException If the image could not be created.
+     */
+    public Path getThumbnail(CoverArtRequest request, int size) throws IOException {
+        Path cachedImage = getCacheFile(request, size);
+        String encoding = FilenameUtils.getExtension(cachedImage.toString());
+
+        if (Files.exists(cachedImage) && !request.lastModified().isAfter(FileUtil.lastModified(cachedImage))) {
+            return cachedImage;
+        }
+
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> running = creating.putIfAbsent(cachedImage, future);
+        if (running == null) {
+            running = future;
+            try {
+                executor.execute(() -> create(request, size, encoding, cachedImage, future));
+            } catch (RejectedExecutionException e) {
+                rejected.increment();
+                creating.remove(cachedImage, future);
+                future.completeExceptionally(e);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating thumbnail for " + request, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to create thumbnail for " + request + ". " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void create(CoverArtRequest request, int size, String encoding, Path cachedImage, CompletableFuture<Path> future) {
+        Path part = cachedImage.resolveSibling(cachedImage.getFileName() + PART_SUFFIX);
+        long start = System.nanoTime();
+        try {
+            write(request, size, encoding, part);
+            Files.move(part, cachedImage, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            creationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            creating.remove(cachedImage, future);
+            future.complete(cachedImage);
+        } catch (Throwable x) {
+            LOG.warn("Failed to create thumbnail for {}", request, x);
+            FileUtil.delete(part);
+            creating.remove(cachedImage, future);
+            future.completeExceptionally(x);
+        }
+    }
+
+    private void write(CoverArtRequest request, int size, String encoding, Path file) throws IOException {
+        BufferedImage image;
+        if (request instanceof PlaylistCoverArtRequest pr) {
+            image = coverArtCreateService.createPlaylistImage(pr, size);
+        } else if (request instanceof VideoCoverArtRequest vr) {
+            image = coverArtCreateService.createVideoImage(vr, size);
+        } else {
+            image = coverArtCreateService.createImage(request, size);
+        }
+        if (image == null) {
+            throw new IOException("Unable to decode image.");
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(encoding).next();
+        try (OutputStream os = Files.newOutputStream(file);
+                BufferedOutputStream bos = new BufferedOutputStream(os);
+                ImageOutputStream out = ImageIO.createImageOutputStream(bos)) {
+            float quality = (float) (settingsService.getCoverArtQuality() / 100.0);
+            ImageWriteParam params = writer.getDefaultWriteParam();
+            params.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            params.setCompressionQuality(quality); // default is 0.75
+
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), params);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private Path getCacheFile(CoverArtRequest request, int size) {
+        String hash = DigestUtils.md5Hex(request.getKey() + "-" + COVERART_VERSION);
+        String encoding = request.getCoverArt() != null ? "jpeg" : "png";
+        return getImageCacheDirectory(size).resolve(hash + "." + encoding);
+    }
+
+    private synchronized MemoryEntry getMemoryEntry(Path cachedImage) {
+        return memory.get(cachedImage);
+    }
+
+    private synchronized void putMemoryEntry(Path cachedImage, MemoryEntry entry) {
+        long length = entry.image.getData().length;
+        if (length > memoryCacheSize) {
+            return;
+        }
+        MemoryEntry previous = memory.put(cachedImage, entry);
+        memorySize += length - (previous == null ? 0 : previous.image.getData().length);
+        Iterator<MemoryEntry> iterator = memory.values().iterator();
+        while (memorySize > memoryCacheSize && iterator.hasNext()) {
+            memorySize -= iterator.next().image.getData().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the size in bytes of the images in memory.
+     */
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    private double getMemoryHitRatio() {
+        double hits = memoryHits.count();
+        double total = hits + memoryMisses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private Path getImageCacheDirectory(int size) {
+        Path dir = homeConfig.getAirsonicHome().resolve("thumbs").resolve(String.valueOf(size));
+        if (!Files.exists(dir)) {
+            try {
+                dir = Files.createDirectories(dir);
+                LOG.info("Created thumbnail cache {}", dir);
+            } catch (Exception e) {
+                LOG.error("Failed to create thumbnail cache {}", dir, e);
+            }
+        }
+        return dir;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A scaled cover art image, either in memory or in its cache file.
+     */
+    public static class CachedImage {
+
+        private final byte[] data;
+        private final Path file;
+        private final long length;
+        private final String contentType;
+
+        public CachedImage(byte[] data, String contentType) {
+            this.data = data;
+            this.file = null;
+            this.length = data.length;
+            this.contentType = contentType;
+        }
+
+        public CachedImage(Path file, long length, String contentType) {
+            this.data = null;
+            this.file = file;
+            this.length = length;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Returns the image data, or {@code null} if the image is streamed from its cache file.
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Writes the image data to the given stream.
+         *
+         * @param out The stream to write to.
+         * @throws IOException If an I/O error occurs.
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            if (data != null) {
+                out.write(data);
+            } else {
+                Files.copy(file, out);
+            }
+        }
+    }
+
+    private static class MemoryEntry {
+
+        private final CachedImage image;
+        // last modified time of the cache file the image was read from
+        private final Instant lastModified;
+
+        MemoryEntry(CachedImage image, Instant lastModified) {
+            this.image = image;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import org.airsonic.player.repository.MediaFileSpecifications;
 import org.airsonic.player.repository.MusicFileInfoRepository;
 import org.airsonic.player.repository.OffsetBasedPageRequest;
 import org.airsonic.player.repository.StarredMediaFileRepository;
+import org.airsonic.player.service.ParallelExecutionService.Workload;
 import org.airsonic.player.service.cache.MediaFileCache;
 import org.airsonic.player.service.metadata.Chapter;
 import org.airsonic.player.service.metadata.FFmpegParser;
@@ -64,18 +65,27 @@ import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.CollectionUtils;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 
 import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -84,6 +94,7 @@ import java.time.format.FormatStyle;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -116,6 +127,8 @@ public class MediaFileService {
     @Autowired
     private StarredMediaFileRepository starredMediaFileRepository;
     @Autowired
+    private AnnotationService annotationService;
+    @Autowired
     private LocaleResolver localeResolver;
     @Autowired
     private MessageSource messageSource;
@@ -127,6 +140,10 @@ public class MediaFileService {
     private MediaFileCache mediaFileCache;
     @Autowired
     private FFmpegParser ffmpegParser;
+    @Autowired
+    private ParallelExecutionService parallelExecutionService;
+    @PersistenceContext
+    private EntityManager entityManager;
 
     private final double DURATION_EPSILON = 1e-2;
 
@@ -134,6 +151,11 @@ public class MediaFileService {
 
     private final Map<Integer, Pair<Integer, Instant>> lastPlayed = new ConcurrentHashMap<>();
 
+    private volatile boolean scanning;
+
+    // above this number of media files marked non-present, the whole cache is cleared instead of the single files
+    private static final long MAX_NON_PRESENT_EVICTIONS = 10000;
+
     private boolean hasBOM(byte[] bom, int bytesRead) {
         return bytesRead == 3 && bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF;
     }
@@ -182,6 +204,10 @@ public class MediaFileService {
             return null;
         }
         MediaFile result = mediaFileCache.getMediaFileByPath(relativePath, folder, startPosition);
+        if (result != null && scanning && !minimizeDiskAccess) {
+            // the scan has to see changes on disk like for files read from the database
+            result = checkLastModified(result, false);
+        }
 
         // Look in database.
         if (result == null) {
@@ -280,7 +306,14 @@ public class MediaFileService {
         return checkLastModified(mediaFile, settingsService.isFastCacheEnabled());
     }
 
-    private MediaFile checkLastModified(MediaFile mediaFile, boolean minimizeDiskAccess) {
+    /**
+     * Return the media file for checking last modified.
+     *
+     * @param mediaFile The media file.
+     * @param minimizeDiskAccess Whether to refrain from checking for new or changed files
+     * @return updated media file.
+     */
+    public MediaFile checkLastModified(MediaFile mediaFile, boolean minimizeDiskAccess) {
         MusicFolder folder = mediaFile.getFolder();
         if (!needsUpdate(mediaFile, minimizeDiskAccess)) {
             LOG.debug("Detected unmodified file (id {}, path {} in folder {} ({}))", mediaFile.getId(), mediaFile.getPath(), folder.getId(), folder.getName());
@@ -330,6 +363,7 @@ public class MediaFileService {
      * @return All children media files which pass this::showMediaFile
      */
     public List<MediaFile> getVisibleChildrenOf(MediaFile parent, boolean includeDirectories, boolean sort) {
+        mediaFileCache.recordBrowse(parent);
         return getChildrenOf(parent, true, includeDirectories, sort).stream()
                 .filter(this::showMediaFile)
                 .collect(Collectors.toList());
@@ -362,33 +396,44 @@ public class MediaFileService {
             return Collections.emptyList();
         }
 
-        Stream<MediaFile> resultStream = null;
-
         // Make sure children are stored and up-to-date in the database.
         try {
-            if (!minimizeDiskAccess) {
-                resultStream = Optional.ofNullable(updateChildren(parent)).map(x -> x.parallelStream()).orElse(null);
-            }
-
-            if (resultStream == null) {
-                resultStream = mediaFileRepository.findByFolderAndParentPathAndPresentTrue(parent.getFolder(), parent.getPath(), Sort.by("startPosition")).parallelStream()
-                        .map(x -> checkLastModified(x, minimizeDiskAccess))
-                        .filter(this::includeMediaFile);
-            }
-
-            resultStream = resultStream.filter(x -> (includeDirectories && x.isDirectory()) || (includeFiles && x.isFile()));
-
-            if (sort) {
-                resultStream = resultStream.sorted(new MediaFileComparator(settingsService.isSortAlbumsByYear()));
-            }
-
-            return resultStream.collect(Collectors.toList());
+            List<MediaFile> updated = minimizeDiskAccess ? null : updateChildren(parent);
+            List<MediaFile> children = updated != null ? updated
+                    : mediaFileRepository.findByFolderAndParentPathAndPresentTrue(parent.getFolder(), parent.getPath(), Sort.by("startPosition"));
+            MediaFileComparator comparator = sort ? new MediaFileComparator(settingsService.isSortAlbumsByYear()) : null;
+
+            return parallelExecutionService.execute(Workload.BROWSE, children, stream -> {
+                Stream<MediaFile> resultStream = stream;
+                if (updated == null) {
+                    resultStream = resultStream.map(x -> checkLastModified(x, minimizeDiskAccess)).filter(this::includeMediaFile);
+                }
+                resultStream = resultStream.filter(x -> (includeDirectories && x.isDirectory()) || (includeFiles && x.isFile()));
+                if (comparator != null) {
+                    resultStream = resultStream.sorted(comparator);
+                }
+                return resultStream.collect(Collectors.toList());
+            });
         } catch (Exception e) {
             LOG.error("get children of {} failed", parent.getPath(), e);
             return Collections.emptyList();
         }
     }
 
+    /**
+     * Returns the present children of a given directory as stored in the database, without touching the disk.
+     * Used by incremental scans for directories that did not change since the last scan.
+     *
+     * @param parent The directory.
+     * @return All stored children, including directories.
+     */
+    public List<MediaFile> getStoredChildrenOf(MediaFile parent) {
+        if (!parent.isDirectory()) {
+            return Collections.emptyList();
+        }
+        return mediaFileRepository.findByFolderAndParentPathAndPresentTrue(parent.getFolder(), parent.getPath(), Sort.by("startPosition"));
+    }
+
     /**
      * Returns all media files that are in given folders.
      *
@@ -549,7 +594,7 @@ public class MediaFileService {
      */
     public boolean isRoot(MediaFile mediaFile) {
         return StringUtils.isEmpty(mediaFile.getPath()) &&
-                mediaFolderService.getAllMusicFolders(true, true).parallelStream()
+                mediaFolderService.getAllMusicFolders(true, true).stream()
                         .anyMatch(x -> mediaFile.getFolder().getId().equals(x.getId()));
     }
 
@@ -713,14 +758,26 @@ public class MediaFileService {
      */
     @Transactional(isolation = Isolation.READ_COMMITTED)
     public List<MediaFile> getRandomSongsForParent(MediaFile parent, int count) {
-        List<MediaFile> children = getDescendantsOf(parent, false);
-        removeVideoFiles(children);
-
-        if (children.isEmpty()) {
-            return children;
-        }
-        Collections.shuffle(children);
-        return children.subList(0, Math.min(count, children.size()));
+        // reservoir sampling, so that only the returned songs are kept
+        List<MediaFile> songs = new ArrayList<>();
+        Random random = new Random();
+        int[] seen = new int[1];
+        forEachDescendantOf(parent, file -> {
+            if (file.isVideo() || count <= 0) {
+                return;
+            }
+            seen[0]++;
+            if (songs.size() < count) {
+                songs.add(file);
+            } else {
+                int index = random.nextInt(seen[0]);
+                if (index < count) {
+                    songs.set(index, file);
+                }
+            }
+        });
+        Collections.shuffle(songs);
+        return songs;
     }
 
     /**
@@ -747,8 +804,9 @@ public class MediaFileService {
     }
 
     public void populateStarredDate(List<MediaFile> mediaFiles, String username) {
+        MediaFileAnnotations annotations = annotationService.getAnnotations(mediaFiles, username);
         for (MediaFile mediaFile : mediaFiles) {
-            populateStarredDate(mediaFile, username);
+            mediaFile.setStarredDate(annotations.getStarredDate(mediaFile));
         }
     }
 
@@ -766,7 +824,7 @@ public class MediaFileService {
         }
 
         MusicFolder folder = parent.getFolder();
-        Map<Pair<String, Double>, MediaFile> storedChildrenMap = mediaFileRepository.findByFolderAndParentPath(folder, parent.getPath(), Sort.by("startPosition")).parallelStream()
+        Map<Pair<String, Double>, MediaFile> storedChildrenMap = mediaFileRepository.findByFolderAndParentPath(folder, parent.getPath(), Sort.by("startPosition")).stream()
             .collect(Collectors.toConcurrentMap(i -> Pair.of(i.getPath(), i.getStartPosition()), i -> i));
 
         boolean isEnableCueIndexing = settingsService.getEnableCueIndexing();
@@ -778,21 +836,32 @@ public class MediaFileService {
         // m4b files are treated as audio books
         Map<String, MediaFile> audioBooks = new ConcurrentHashMap<>();
 
-        // Collect all children.
-        try (Stream<Path> children = Files.list(parent.getFullPath())) {
-            children.parallel()
-                .filter(x -> mediaFolderService.getMusicFolderForFile(x, true, true).map(f -> f.equals(folder)).orElse(false))
+        // media files which changed, persisted in one batch
+        Set<MediaFile> changed = ConcurrentHashMap.newKeySet();
+
+        // Read all children and their attributes at once.
+        Map<Path, BasicFileAttributes> childAttributes;
+        try {
+            childAttributes = readDirectory(parent.getFullPath());
+        } catch (IOException e) {
+            LOG.warn("Could not retrieve and update all the children for {} in folder {}. Will skip", parent.getPath(), folder.getId(), e);
+            return null;
+        }
+        parallelExecutionService.execute(Workload.BROWSE, childAttributes.entrySet(), children -> {
+            children
+                .filter(x -> mediaFolderService.getMusicFolderForFile(x.getKey(), true, true).map(f -> f.equals(folder)).orElse(false))
                 .forEach(x -> {
-                    Path relativePath = folder.getPath().relativize(x);
-                    if (includeMediaFileByPath(x)) {
+                    Path relativePath = folder.getPath().relativize(x.getKey());
+                    if (includeMediaFileByAttributes(x.getKey(), x.getValue())) {
                         MediaFile mediaFile = storedChildrenMap.remove(Pair.of(relativePath.toString(), MediaFile.NOT_INDEXED));
                         if (mediaFile == null) { // Not found in database, must read from disk.
                             mediaFile = createMediaFileByFile(relativePath, folder);
                             if (mediaFile != null) {
-                                updateMediaFile(mediaFile);
+                                changed.add(mediaFile);
                             }
-                        } else if (!mediaFile.hasIndex()) {
-                            mediaFile = checkLastModified(mediaFile, false); // has to be false, only time it's called
+                        } else if (!mediaFile.hasIndex() && needsUpdate(mediaFile, x.getValue())) {
+                            mediaFile = updateMediaFileByFile(mediaFile, true);
+                            changed.add(mediaFile);
                         }
                         // Add children that are not already stored.
                         if (mediaFile != null) {
@@ -803,25 +872,23 @@ public class MediaFileService {
                             }
                         }
                     }
-                    if (isEnableCueIndexing && includeCueSheetByPath(x)) {
+                    if (isEnableCueIndexing && includeCueSheetByPath(x.getKey())) {
                         LOG.debug("Cue indexing enabled");
-                        CueSheet cueSheet = getCueSheet(x);
+                        CueSheet cueSheet = getCueSheet(x.getKey());
                         if (cueSheet != null) {
                             cueSheets.put(relativePath.toString(), cueSheet);
                         }
                     }
                 });
-        } catch (IOException e) {
-            LOG.warn("Could not retrieve and update all the children for {} in folder {}. Will skip", parent.getPath(), folder.getId(), e);
             return null;
-        }
+        });
 
         // collect indexed tracks, if any
         List<MediaFile> result = new ArrayList<>();
 
         // cue tracks
         if (isEnableCueIndexing) {
-            List<MediaFile> indexedTracks = cueSheets.entrySet().parallelStream().flatMap(e -> {
+            List<MediaFile> indexedTracks = parallelExecutionService.execute(Workload.BROWSE, cueSheets.entrySet(), entries -> entries.flatMap(e -> {
                 String indexPath = e.getKey();
                 CueSheet cueSheet = e.getValue();
 
@@ -829,11 +896,15 @@ public class MediaFileService {
                 MediaFile base = bareFiles.remove(FilenameUtils.getName(filePath));
 
                 if (Objects.nonNull(base)) {
-                    base.setIndexPath(indexPath); // update indexPath in mediaFile
-                    Instant mediaChanged = FileUtil.lastModified(base.getFullPath());
-                    Instant cueChanged = FileUtil.lastModified(base.getFullIndexPath());
-                    base.setChanged(mediaChanged.compareTo(cueChanged) >= 0 ? mediaChanged : cueChanged);
-                    updateMediaFile(base);
+                    Instant mediaChanged = getLastModified(childAttributes, base.getFullPath());
+                    Instant cueChanged = getLastModified(childAttributes, folder.getPath().resolve(indexPath));
+                    Instant baseChanged = mediaChanged.compareTo(cueChanged) >= 0 ? mediaChanged : cueChanged;
+                    if (!indexPath.equals(base.getIndexPath()) || base.getChanged() == null
+                            || !baseChanged.truncatedTo(ChronoUnit.MICROS).equals(base.getChanged().truncatedTo(ChronoUnit.MICROS))) {
+                        base.setIndexPath(indexPath); // update indexPath in mediaFile
+                        base.setChanged(baseChanged);
+                        changed.add(base);
+                    }
                     List<MediaFile> tracks = createIndexedTracks(base, cueSheet);
                     // remove stored children that are now indexed
                     tracks.forEach(t -> storedChildrenMap.remove(Pair.of(t.getPath(), t.getStartPosition())));
@@ -843,48 +914,93 @@ public class MediaFileService {
                     LOG.warn("Could not find base file '{}' for cue sheet {}", filePath, indexPath);
                     return Stream.empty();
                 }
-            }).collect(Collectors.toList());
+            }).collect(Collectors.toList()));
             result.addAll(indexedTracks);
         }
 
         // m4b audio books
-        List<MediaFile> audioBookTracks = audioBooks.entrySet().parallelStream().flatMap(e -> {
+        List<MediaFile> audioBookTracks = parallelExecutionService.execute(Workload.BROWSE, audioBooks.entrySet(), entries -> entries.flatMap(e -> {
             String basePath = e.getKey();
             MediaFile base = e.getValue();
             List<MediaFile> tracks = createAudioBookTracks(base);
-            if (!CollectionUtils.isEmpty(tracks)) {
+            if (!CollectionUtils.isEmpty(tracks) && !basePath.equals(base.getIndexPath())) {
                 base.setIndexPath(basePath); // update indexPath in mediaFile
-                updateMediaFile(base);
+                changed.add(base);
             }
             tracks.forEach(t -> storedChildrenMap.remove(Pair.of(t.getPath(), t.getStartPosition())));
             tracks.add(base);
             return tracks.stream();
-        }).collect(Collectors.toList());
+        }).collect(Collectors.toList()));
         result.addAll(audioBookTracks);
 
         // remove indexPath for deleted cuesheets, if any
-        List<MediaFile> nonIndexedTracks = bareFiles.values().stream().parallel()
+        List<MediaFile> nonIndexedTracks = parallelExecutionService.execute(Workload.BROWSE, bareFiles.values(), tracks -> tracks
             .map(m -> {
                 if (m.hasIndex()) {
                     m.setIndexPath(null);
-                    updateMediaFile(m);
+                    changed.add(m);
                 }
                 return m;
             })
-            .collect(Collectors.toList());
+            .collect(Collectors.toList()));
         result.addAll(nonIndexedTracks);
 
         // Delete children that no longer exist on disk.
-        storedChildrenMap.values().forEach(f -> delete(f));
+        storedChildrenMap.values().stream().filter(MediaFile::isPresent).forEach(f -> delete(f));
 
         // Update timestamp in parent.
         parent.setChildrenLastUpdated(parent.getChanged());
         parent.setPresent(true);
-        updateMediaFile(parent);
+        changed.add(parent);
+        updateMediaFiles(new ArrayList<>(changed));
 
         return result;
     }
 
+    /**
+     * Reads the entries of a directory together with their attributes, instead of reading the attributes of every
+     * entry on its own. Symbolic links are followed. Entries whose attributes cannot be read are skipped.
+     *
+     * @param directory The directory.
+     * @return The attributes by entry.
+     * @throws IOException If the directory cannot be read.
+     */
+    private Map<Path, BasicFileAttributes> readDirectory(Path directory) throws IOException {
+        Map<Path, BasicFileAttributes> entries = new LinkedHashMap<>();
+        Files.walkFileTree(directory, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                entries.put(file, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (file.equals(directory)) {
+                    throw e;
+                }
+                LOG.debug("Could not read the attributes of {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Returns whether a stored child has to be read from disk again, using the attributes read with its directory.
+     */
+    private boolean needsUpdate(MediaFile mediaFile, BasicFileAttributes attributes) {
+        return mediaFile.getVersion() < MediaFile.VERSION
+                || settingsService.getFullScan()
+                || !mediaFile.isPresent()
+                || mediaFile.getChanged().truncatedTo(ChronoUnit.MICROS).compareTo(attributes.lastModifiedTime().toInstant().truncatedTo(ChronoUnit.MICROS)) < 0;
+    }
+
+    private static Instant getLastModified(Map<Path, BasicFileAttributes> attributes, Path file) {
+        BasicFileAttributes fileAttributes = attributes.get(file);
+        return fileAttributes == null ? FileUtil.lastModified(file) : fileAttributes.lastModifiedTime().toInstant();
+    }
+
     /**
      * hide specific file types in player and API
      */
@@ -903,6 +1019,11 @@ public class MediaFileService {
         return (!isExcluded(candidate) && (Files.isDirectory(candidate) || isAudioFile(suffix) || isVideoFile(suffix)));
     }
 
+    private boolean includeMediaFileByAttributes(Path candidate, BasicFileAttributes attributes) {
+        String suffix = FilenameUtils.getExtension(candidate.toString()).toLowerCase();
+        return (!isExcluded(candidate) && (attributes.isDirectory() || isAudioFile(suffix) || isVideoFile(suffix)));
+    }
+
     private boolean includeCueSheetByPath(Path candidate) {
         String suffix = FilenameUtils.getExtension(candidate.toString()).toLowerCase();
         return CUE_EXTENSIONS.contains(suffix);
@@ -922,7 +1043,7 @@ public class MediaFileService {
      * @param file The child file in question.
      * @return Whether the child file is excluded.
      */
-    private boolean isExcluded(Path file) {
+    public boolean isExcluded(Path file) {
         if (settingsService.getIgnoreSymLinks() && Files.isSymbolicLink(file)) {
             LOG.info("excluding symbolic link {}", file);
             return true;
@@ -1037,11 +1158,11 @@ public class MediaFileService {
             // Is this an album?
             if (!isRoot(mediaFile)) {
                 try (Stream<Path> stream = Files.list(file)) {
-                    List<Path> children = stream.parallel().collect(Collectors.toList());
-                    Path firstChild = children.parallelStream()
+                    List<Path> children = stream.collect(Collectors.toList());
+                    Path firstChild = parallelExecutionService.execute(Workload.BROWSE, children, paths -> paths
                             .filter(this::includeMediaFileByPath)
                             .filter(x -> Files.isRegularFile(x))
-                            .findFirst().orElse(null);
+                            .findFirst().orElse(null));
 
                     if (firstChild != null) {
                         mediaFile.setMediaType(MediaFile.MediaType.ALBUM);
@@ -1100,7 +1221,7 @@ public class MediaFileService {
             // get existing children
             MusicFolder baseFolder = base.getFolder();
             String basePath = base.getPath();
-            storedChildrenMap = mediaFileRepository.findByFolderAndPath(baseFolder, basePath).parallelStream()
+            storedChildrenMap = mediaFileRepository.findByFolderAndPath(baseFolder, basePath).stream()
                     .filter(MediaFile::isIndexedTrack)
                     .collect(Collectors.toConcurrentMap(i -> Math.round(i.getStartPosition() * 10), i -> i));
 
@@ -1177,7 +1298,7 @@ public class MediaFileService {
     @Nonnull
     private List<MediaFile> createIndexedTracks(@Nonnull MediaFile base, @Nullable CueSheet cueSheet) {
 
-        Map<Pair<String, Double>, MediaFile> storedChildrenMap = mediaFileRepository.findByFolderAndPath(base.getFolder(), base.getPath()).parallelStream()
+        Map<Pair<String, Double>, MediaFile> storedChildrenMap = mediaFileRepository.findByFolderAndPath(base.getFolder(), base.getPath()).stream()
             .filter(MediaFile::isIndexedTrack).collect(Collectors.toConcurrentMap(i -> Pair.of(i.getPath(), i.getStartPosition()), i -> i));
 
         List<MediaFile> children = new ArrayList<>();
@@ -1325,9 +1446,15 @@ public class MediaFileService {
         updateMediaFile(mediaFile);
     }
 
-    public void setMemoryCacheEnabled(boolean memoryCacheEnabled) {
-        mediaFileCache.clear();
-        mediaFileCache.setEnabled(memoryCacheEnabled);
+    /**
+     * Sets whether the media library is being scanned. While it is, media files found in the cache are checked for
+     * changes on disk like the ones read from the database, unless disk access is minimized. The cache stays in use,
+     * and is kept coherent by caching the media files the scan persists.
+     *
+     * @param scanning whether a scan is running
+     */
+    public void setScanning(boolean scanning) {
+        this.scanning = scanning;
     }
 
     /**
@@ -1435,10 +1562,10 @@ public class MediaFileService {
 
     private Path findFileCover(Collection<Path> candidates) {
         for (String mask : settingsService.getCoverArtFileTypesSet()) {
-            Path cand = candidates.parallelStream().filter(c -> {
+            Path cand = parallelExecutionService.execute(Workload.COVER_ART, candidates, paths -> paths.filter(c -> {
                 String candidate = c.getFileName().toString().toLowerCase();
                 return candidate.endsWith(mask) && !candidate.startsWith(".") && Files.isRegularFile(c);
-            }).findAny().orElse(null);
+            }).findAny().orElse(null));
 
             if (cand != null) {
                 return cand;
@@ -1460,8 +1587,11 @@ public class MediaFileService {
      * Returns all media files that are children, grand-children etc of a given media file.
      * Directories are not included in the result.
      *
+     * The whole subtree is read with one query and filtered by visibility in memory. Unless the fast cache is
+     * enabled, directories which changed on disk are updated first.
+     *
      * @param sort Whether to sort files in the same directory.
-     * @return All descendant music files.
+     * @return All descendant music files, directory by directory in depth-first order.
      */
     public List<MediaFile> getDescendantsOf(MediaFile ancestor, boolean sort) {
 
@@ -1469,16 +1599,136 @@ public class MediaFileService {
             return Arrays.asList(ancestor);
         }
 
-        List<MediaFile> result = new ArrayList<MediaFile>();
+        List<MediaFile> subtree;
+        if (settingsService.isFastCacheEnabled()) {
+            subtree = getStoredSubtreeOf(ancestor);
+        } else {
+            Set<String> checked = new HashSet<>();
+            updateChangedDirectories(List.of(ancestor), checked);
+            subtree = getStoredSubtreeOf(ancestor);
+            // directories found by an update are checked in the next round
+            while (updateChangedDirectories(subtree, checked)) {
+                subtree = getStoredSubtreeOf(ancestor);
+            }
+        }
 
-        for (MediaFile child : getVisibleChildrenOf(ancestor, true, sort)) {
+        // the children of each directory, in query order
+        Map<String, List<MediaFile>> childrenByParent = new HashMap<>();
+        for (MediaFile mediaFile : subtree) {
+            if (isVisibleDescendant(mediaFile)) {
+                childrenByParent.computeIfAbsent(mediaFile.getParentPath(), k -> new ArrayList<>()).add(mediaFile);
+            }
+        }
+        Comparator<MediaFile> comparator = sort ? new MediaFileComparator(settingsService.isSortAlbumsByYear()) : null;
+        List<MediaFile> result = new ArrayList<>();
+        addDescendants(ancestor.getPath(), childrenByParent, comparator, result);
+        return result;
+    }
+
+    /**
+     * Passes all visible media files that are children, grand-children etc of a given directory to the given action
+     * while they are read from the database, without holding the whole subtree in memory. Directories are not
+     * passed. The files of a directory are passed one after another, but the directories are in no particular
+     * order. Nothing is updated from disk. Each file is detached from the persistence context once the action
+     * returned, so that the enclosing transaction does not keep the subtree either, and changes to it are not saved.
+     *
+     * @param ancestor The directory.
+     * @param action   The action to perform on each file.
+     */
+    @Transactional(readOnly = true)
+    public void forEachDescendantOf(MediaFile ancestor, Consumer<MediaFile> action) {
+        if (ancestor.isFile()) {
+            action.accept(ancestor);
+            return;
+        }
+        try (Stream<MediaFile> subtree = mediaFileRepository.streamByFolderAndPathStartsWithAndPresentTrue(ancestor.getFolder(),
+                getSubtreePrefix(ancestor), Sort.by("parentPath", "startPosition", "path"))) {
+            subtree.forEach(mediaFile -> {
+                try {
+                    if (mediaFile.isFile() && isVisibleDescendant(mediaFile)) {
+                        action.accept(mediaFile);
+                    }
+                } finally {
+                    entityManager.detach(mediaFile);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the media files which are children, grand-children etc of a given directory as stored in the database,
+     * including the ones which are no longer present. Nothing is read from disk.
+     *
+     * @param ancestor The directory.
+     * @return All stored descendants, including directories.
+     */
+    public List<MediaFile> getStoredDescendantsOf(MediaFile ancestor) {
+        if (!ancestor.isDirectory()) {
+            return Collections.emptyList();
+        }
+        return mediaFileRepository.findByFolderAndPathStartsWith(ancestor.getFolder(), getSubtreePrefix(ancestor));
+    }
+
+    private List<MediaFile> getStoredSubtreeOf(MediaFile ancestor) {
+        return mediaFileRepository.findByFolderAndPathStartsWithAndPresentTrue(ancestor.getFolder(), getSubtreePrefix(ancestor),
+                Sort.by("startPosition"));
+    }
+
+    private static String getSubtreePrefix(MediaFile ancestor) {
+        return StringUtils.isEmpty(ancestor.getPath()) ? "" : ancestor.getPath() + File.separator;
+    }
+
+    /**
+     * Updates the children of the given directories which changed on disk or whose children were never read.
+     *
+     * @param directories The media files to check. Files are ignored.
+     * @param checked     The paths of the directories checked before, which are not checked again.
+     * @return whether any children were updated
+     */
+    private boolean updateChangedDirectories(List<MediaFile> directories, Set<String> checked) {
+        boolean updated = false;
+        for (MediaFile directory : directories) {
+            if (!directory.isDirectory() || !checked.add(directory.getPath())) {
+                continue;
+            }
+            MediaFile checkedDirectory = checkLastModified(directory, false);
+            if (checkedDirectory.isPresent() && checkedDirectory.getChildrenLastUpdated().isBefore(checkedDirectory.getChanged())) {
+                updateChildren(checkedDirectory);
+                updated = true;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * The in-memory equivalent of the filters of {@link #getVisibleChildrenOf}, using the stored media type instead
+     * of looking at the disk.
+     */
+    private boolean isVisibleDescendant(MediaFile mediaFile) {
+        String name = FilenameUtils.getName(mediaFile.getPath());
+        if (settingsService.getExcludePattern() != null && settingsService.getExcludePattern().matcher(name).find()) {
+            return false;
+        }
+        if ((name.startsWith(".") && !name.startsWith("..")) || name.startsWith("@eaDir") || "Thumbs.db".equals(name)) {
+            return false;
+        }
+        String suffix = FilenameUtils.getExtension(name).toLowerCase();
+        return (mediaFile.isDirectory() || isAudioFile(suffix) || isVideoFile(suffix)) && showMediaFile(mediaFile);
+    }
+
+    private void addDescendants(String parentPath, Map<String, List<MediaFile>> childrenByParent, Comparator<MediaFile> comparator,
+            List<MediaFile> result) {
+        List<MediaFile> children = childrenByParent.getOrDefault(parentPath, Collections.emptyList());
+        if (comparator != null) {
+            children.sort(comparator);
+        }
+        for (MediaFile child : children) {
             if (child.isDirectory()) {
-                result.addAll(getDescendantsOf(child, sort));
+                addDescendants(child.getPath(), childrenByParent, comparator, result);
             } else {
                 result.add(child);
             }
         }
-        return result;
     }
 
     public void setMetaDataParserFactory(MetaDataParserFactory metaDataParserFactory) {
@@ -1487,8 +1737,25 @@ public class MediaFileService {
 
     @Transactional(isolation = Isolation.READ_COMMITTED)
     public void updateMediaFile(@Nonnull MediaFile mediaFile) {
+        persistMediaFile(mediaFile, mediaFile.getId() != null && mediaFileRepository.existsById(mediaFile.getId()));
+    }
+
+    /**
+     * Updates the given media files in a single transaction, so that the statements can be sent in JDBC batches.
+     *
+     * @param mediaFiles media files to update
+     */
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public void updateMediaFiles(@Nonnull List<MediaFile> mediaFiles) {
+        // load the stored rows with one query instead of one existence check and one merge select per file
+        List<Integer> ids = mediaFiles.stream().map(MediaFile::getId).filter(Objects::nonNull).toList();
+        Set<Integer> existingIds = mediaFileRepository.findAllById(ids).stream().map(MediaFile::getId).collect(Collectors.toSet());
+        mediaFiles.forEach(mediaFile -> persistMediaFile(mediaFile, mediaFile.getId() != null && existingIds.contains(mediaFile.getId())));
+    }
+
+    private void persistMediaFile(@Nonnull MediaFile mediaFile, boolean exists) {
         mediaFileCache.removeMediaFile(mediaFile);
-        if (mediaFile.getId() != null && mediaFileRepository.existsById(mediaFile.getId())) {
+        if (exists) {
             mediaFileRepository.save(mediaFile);
         } else {
             mediaFileRepository.findByPathAndFolderAndStartPosition(mediaFile.getPath(), mediaFile.getFolder(), mediaFile.getStartPosition()).ifPresentOrElse(m -> {
@@ -1509,6 +1776,18 @@ public class MediaFileService {
 
         // persist cover art if not overridden
         coverArtService.persistIfNeeded(mediaFile);
+
+        // update the cache once the changes are visible to others
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    mediaFileCache.putMediaFile(mediaFile);
+                }
+            });
+        } else {
+            mediaFileCache.putMediaFile(mediaFile);
+        }
     }
 
     /**
@@ -1550,6 +1829,16 @@ public class MediaFileService {
     public List<MediaFileEntry> toMediaFileEntryList(List<MediaFile> files, String username, boolean calculateStarred, boolean calculateFolderAccess,
             Function<MediaFile, String> streamUrlGenerator, Function<MediaFile, String> remoteStreamUrlGenerator,
             Function<MediaFile, String> remoteCoverArtUrlGenerator) {
+        MediaFileAnnotations annotations = calculateStarred && username != null ? annotationService.getAnnotations(files, username) : null;
+        return toMediaFileEntryList(files, username, annotations, calculateFolderAccess, streamUrlGenerator, remoteStreamUrlGenerator, remoteCoverArtUrlGenerator);
+    }
+
+    /**
+     * @param annotations the already loaded starred dates of the files, or <code>null</code> to not calculate whether they are starred
+     */
+    public List<MediaFileEntry> toMediaFileEntryList(List<MediaFile> files, String username, @Nullable MediaFileAnnotations annotations, boolean calculateFolderAccess,
+            Function<MediaFile, String> streamUrlGenerator, Function<MediaFile, String> remoteStreamUrlGenerator,
+            Function<MediaFile, String> remoteCoverArtUrlGenerator) {
         Locale locale = Optional.ofNullable(username).map(localeResolver::resolveLocale).orElse(null);
         List<MediaFileEntry> entries = new ArrayList<>(files.size());
         for (MediaFile file : files) {
@@ -1557,7 +1846,7 @@ public class MediaFileService {
             String remoteStreamUrl = Optional.ofNullable(remoteStreamUrlGenerator).map(g -> g.apply(file)).orElse(null);
             String remoteCoverArtUrl = Optional.ofNullable(remoteCoverArtUrlGenerator).map(g -> g.apply(file)).orElse(null);
 
-            boolean starred = calculateStarred && username != null && getMediaFileStarredDate(file, username) != null;
+            boolean starred = annotations != null && annotations.getStarredDate(file) != null;
             boolean folderAccess = !calculateFolderAccess || username == null || securityService.isFolderAccessAllowed(file, username);
             entries.add(MediaFileEntry.fromMediaFile(file, locale, starred, folderAccess, streamUrl, remoteStreamUrl, remoteCoverArtUrl));
         }
@@ -1639,7 +1928,7 @@ public class MediaFileService {
             return true;
         }
         try {
-            paths.entrySet().parallelStream().map(e -> {
+            parallelExecutionService.execute(Workload.SCAN, paths.entrySet(), entries -> entries.map(e -> {
                 MusicFolder folder = mediaFolderService.getMusicFolderById(e.getKey());
                 if (folder == null) {
                     return true;
@@ -1647,7 +1936,8 @@ public class MediaFileService {
                 Set<String> pathsInFolder = e.getValue();
                 int batches = (pathsInFolder.size() - 1) / BATCH_SIZE;
                 List<String> pathsInFolderList = new ArrayList<>(pathsInFolder);
-                Integer savedCount = IntStream.rangeClosed(0, batches).parallel().map(b -> {
+                List<Integer> batchIndexes = IntStream.rangeClosed(0, batches).boxed().collect(Collectors.toList());
+                int savedCount = parallelExecutionService.execute(Workload.SCAN, batchIndexes, indexes -> indexes.mapToInt(b -> {
                     try {
                         List<String> subList = pathsInFolderList.subList(b * BATCH_SIZE, Math.min((b + 1) * BATCH_SIZE, pathsInFolderList.size()));
                         return mediaFileRepository.markPresent(folder, subList, lastScanned);
@@ -1655,9 +1945,9 @@ public class MediaFileService {
                         LOG.warn("Error marking media files present", ex);
                         return 0;
                     }
-                }).sum();
+                }).sum());
                 return savedCount == pathsInFolder.size();
-            }).reduce(true, (a, b) -> a && b);
+            }).reduce(true, (a, b) -> a && b));
             return true;
         } catch (Exception e) {
             LOG.warn("Error marking media files present", e);
@@ -1671,9 +1961,43 @@ public class MediaFileService {
      */
     @Transactional
     public void markNonPresent(Instant lastScanned) {
+        if (mediaFileRepository.countByLastScannedBeforeAndPresentTrue(lastScanned) > MAX_NON_PRESENT_EVICTIONS) {
+            mediaFileCache.clear();
+        } else {
+            mediaFileRepository.findByLastScannedBeforeAndPresentTrue(lastScanned).forEach(mediaFileCache::removeMediaFile);
+        }
         mediaFileRepository.markNonPresent(Instant.ofEpochMilli(1), lastScanned);
     }
 
+    /**
+     * mark media files non present, restricted to the children of the given directories
+     *
+     * @param parentPaths directories whose children were read from disk, by folder id
+     * @param lastScanned last scanned time before which media files are marked non present
+     */
+    @Transactional
+    public void markNonPresent(Map<Integer, Set<String>> parentPaths, Instant lastScanned) {
+
+        final int BATCH_SIZE = 30000;
+
+        if (CollectionUtils.isEmpty(parentPaths)) {
+            return;
+        }
+        parentPaths.forEach((folderId, pathsInFolder) -> {
+            MusicFolder folder = mediaFolderService.getMusicFolderById(folderId);
+            if (folder == null || pathsInFolder.isEmpty()) {
+                return;
+            }
+            List<String> pathsInFolderList = new ArrayList<>(pathsInFolder);
+            for (int b = 0; b < pathsInFolderList.size(); b += BATCH_SIZE) {
+                List<String> subList = pathsInFolderList.subList(b, Math.min(b + BATCH_SIZE, pathsInFolderList.size()));
+                mediaFileRepository.findByFolderAndParentPathInAndLastScannedBeforeAndPresentTrue(folder, subList, lastScanned)
+                        .forEach(mediaFileCache::removeMediaFile);
+                mediaFileRepository.markNonPresent(folder, subList, Instant.ofEpochMilli(1), lastScanned);
+            }
+        });
+    }
+
     /**
      * soft delete media file
      *
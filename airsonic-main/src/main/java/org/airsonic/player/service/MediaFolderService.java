@@ -338,6 +338,10 @@ public class MediaFolderService {
                     }
                 })
                 .ifPresentOrElse(f -> {
+                    if (!f.getPath().equals(musicFolder.getPath())) {
+                        // scan checkpoint is meaningless for a different path
+                        f.setLastScanned(null);
+                    }
                     f.setName(musicFolder.getName());
                     f.setPath(musicFolder.getPath());
                     f.setType(musicFolder.getType());
@@ -351,6 +355,20 @@ public class MediaFolderService {
         }
     }
 
+    /**
+     * Records the scan checkpoint of the given music folders.
+     *
+     * @param folders     Music folders that were scanned completely.
+     * @param lastScanned Start time of the completed scan.
+     */
+    @Transactional
+    public void updateLastScanned(List<MusicFolder> folders, Instant lastScanned) {
+        List<MusicFolder> updated = musicFolderRepository.findAllById(MusicFolder.toIdList(folders));
+        updated.forEach(f -> f.setLastScanned(lastScanned));
+        musicFolderRepository.saveAll(updated);
+        clearMusicFolderCache();
+    }
+
     public List<MusicFolder> getDeletedMusicFolders() {
         return musicFolderRepository.findByDeleted(true);
     }
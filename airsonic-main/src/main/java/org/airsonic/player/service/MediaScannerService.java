@@ -24,6 +24,8 @@ import org.airsonic.player.config.AirsonicScanConfig;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.CoverArt.EntityType;
 import org.airsonic.player.service.search.IndexManager;
+import org.airsonic.player.util.FileUtil;
+import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -31,6 +33,7 @@ import org.springframework.stereotype.Service;
 import org.subsonic.restapi.ScanStatus;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
@@ -46,6 +49,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -72,7 +76,8 @@ public class MediaScannerService {
         AlbumService albumService,
         TaskSchedulingService taskService,
         SimpMessagingTemplate messagingTemplate,
-        AirsonicScanConfig scanConfig
+        AirsonicScanConfig scanConfig,
+        MusicIndexService musicIndexService
     ) {
         this.settingsService = settingsService;
         this.indexManager = indexManager;
@@ -85,6 +90,7 @@ public class MediaScannerService {
         this.taskService = taskService;
         this.messagingTemplate = messagingTemplate;
         this.scanConfig = scanConfig;
+        this.musicIndexService = musicIndexService;
         init();
     }
 
@@ -99,6 +105,7 @@ public class MediaScannerService {
     private final TaskSchedulingService taskService;
     private final SimpMessagingTemplate messagingTemplate;
     private final AirsonicScanConfig scanConfig;
+    private final MusicIndexService musicIndexService;
 
     private int scannerParallelism;
     private AtomicInteger scanCount = new AtomicInteger(0);
@@ -165,6 +172,10 @@ public class MediaScannerService {
 
     private void setScanning(boolean scanning) {
         this.scanning.set(scanning);
+        if (!scanning) {
+            // the music index is built from the scanned library
+            musicIndexService.invalidate();
+        }
         broadcastScanStatus();
     }
 
@@ -212,11 +223,12 @@ public class MediaScannerService {
         ForkJoinPool pool = new ForkJoinPool(scannerParallelism, mediaScannerThreadFactory, null, true);
 
         boolean isFullScan = settingsService.getFullScan();
+        boolean isIncrementalScan = !isFullScan && settingsService.getIncrementalScan();
         long timeoutSeconds = isFullScan ? scanConfig.getFullTimeout() : scanConfig.getTimeout();
         MediaLibraryStatistics statistics = new MediaLibraryStatistics();
-        LOG.info("Starting media library scan with timeout {} seconds.", timeoutSeconds);
+        LOG.info("Starting {} media library scan with timeout {} seconds.", isFullScan ? "full" : isIncrementalScan ? "incremental" : "smart", timeoutSeconds);
         CompletableFuture.runAsync(() -> {
-            doScanLibrary(pool, statistics);
+            doScanLibrary(pool, statistics, isIncrementalScan);
         }, pool)
                 .orTimeout(timeoutSeconds, TimeUnit.SECONDS)
                 .whenComplete((r,e) -> {
@@ -238,7 +250,111 @@ public class MediaScannerService {
                 });
     }
 
-    private void doScanLibrary(ForkJoinPool pool, MediaLibraryStatistics statistics) {
+    /**
+     * Rescans the given directories of a music folder, e.g. after the file system reported changes in them.
+     * The children of these directories are read from disk again, their subdirectories are only read
+     * if they changed since the last completed scan of the folder, as in an incremental scan.
+     * Albums containing affected files are recounted from the database. Genre counts are only updated by library scans.
+     *
+     * @param musicFolder music folder containing the directories
+     * @param directories directories to rescan, relative to the music folder
+     * @return false if the directories were not scanned because a scan is in progress or the library was never scanned
+     */
+    public boolean scanDirectories(MusicFolder musicFolder, Collection<Path> directories) {
+        synchronized (this) {
+            if (isScanning() || neverScanned()) {
+                return false;
+            }
+            setScanning(true);
+            setMediaScanning(true);
+        }
+
+        MediaLibraryStatistics libraryStatistics = indexManager.getStatistics();
+        MediaLibraryStatistics statistics = new MediaLibraryStatistics();
+        ForkJoinPool pool = new ForkJoinPool(scannerParallelism, mediaScannerThreadFactory, null, true);
+        Map<String, AtomicInteger> albumCount = new ConcurrentHashMap<>();
+        Map<String, Artist> artists = new ConcurrentHashMap<>();
+        Map<String, Album> albums = new ConcurrentHashMap<>();
+        Set<Integer> albumsInDb = ConcurrentHashMap.newKeySet();
+        Set<Pair<String, String>> affectedAlbums = ConcurrentHashMap.newKeySet();
+        scanCount.set(0);
+        LOG.info("Scanning {} changed directories in music folder {}.", directories.size(), musicFolder.getName());
+        indexManager.startIndexing();
+        try (ScanWriteBuffer writeBuffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, scanConfig.getWriteBatchSize())) {
+            for (Path directory : directories) {
+                MediaFile dir = mediaFileService.getMediaFile(directory, musicFolder, false);
+                if (dir == null || !dir.isDirectory() || !dir.isPresent()) {
+                    // removed directories are handled by the scan of their parent
+                    continue;
+                }
+                List<MediaFile> storedChildren = mediaFileService.getStoredChildrenOf(dir);
+                storedChildren.forEach(child -> addAlbumKey(child, affectedAlbums));
+
+                // children are read from disk again, even if only file contents changed
+                dir.setChildrenLastUpdated(Instant.ofEpochMilli(1));
+                MediaFile parent = mediaFileService.getParentOf(dir, true);
+                MediaFile grandParent = parent == null ? null : mediaFileService.getParentOf(parent, true);
+                pool.submit(() -> scanFile(pool, grandParent, parent, dir, musicFolder, musicFolder.getLastScanned(), false,
+                        statistics, albumCount, artists, albums, albumsInDb, new Genres(), null, writeBuffer)).join();
+
+                Set<Integer> presentIds = mediaFileService.getStoredChildrenOf(dir).stream().map(MediaFile::getId).collect(Collectors.toSet());
+                storedChildren.stream().filter(child -> !presentIds.contains(child.getId())).forEach(removed -> {
+                    indexManager.delete(removed);
+                    if (removed.isDirectory()) {
+                        // the files below a removed directory were removed with it
+                        mediaFileService.getStoredDescendantsOf(removed).forEach(descendant -> {
+                            addAlbumKey(descendant, affectedAlbums);
+                            indexManager.delete(descendant);
+                        });
+                    }
+                });
+            }
+            writeBuffer.flush();
+
+            // the scanned files are only a part of the albums, so count them again
+            albums.values().forEach(album -> affectedAlbums.add(Pair.of(album.getArtist(), album.getName())));
+            affectedAlbums.forEach(key -> albumService.getAlbumByArtistAndName(key.getLeft(), key.getRight()).ifPresent(album -> {
+                List<MediaFile> songs = mediaFileService.getSongsForAlbum(album.getArtist(), album.getName());
+                album.setSongCount(songs.size());
+                album.setDuration(songs.stream().map(MediaFile::getDuration).filter(Objects::nonNull).mapToDouble(Double::doubleValue).sum());
+                album.setPresent(!songs.isEmpty());
+                writeBuffer.saveAlbum(album, saved -> {
+                    coverArtService.persistIfNeeded(saved);
+                    if (saved.isPresent()) {
+                        indexManager.index(saved);
+                    } else {
+                        indexManager.delete(saved);
+                    }
+                });
+            }));
+            artists.values().forEach(artist -> writeBuffer.saveArtist(artist, coverArtService::persistIfNeeded));
+        } catch (Exception e) {
+            LOG.warn("Failed to scan changed directories in music folder {}", musicFolder.getName(), e);
+        } finally {
+            indexManager.stopIndexing(libraryStatistics);
+            setMediaScanning(false);
+            setScanning(false);
+            pool.shutdown();
+        }
+        LOG.info("Scanned {} entries in changed directories of music folder {}.", scanCount.get(), musicFolder.getName());
+        return true;
+    }
+
+    private static void addAlbumKey(MediaFile file, Set<Pair<String, String>> albumKeys) {
+        String artist = file.getAlbumArtist() != null ? file.getAlbumArtist() : file.getArtist();
+        if (file.isAudio() && artist != null && file.getAlbumName() != null) {
+            albumKeys.add(Pair.of(artist, file.getAlbumName()));
+        }
+    }
+
+    /**
+     * Scans the media library.
+     *
+     * @param pool        pool to run the scan in
+     * @param statistics  statistics to collect
+     * @param incremental whether to skip directories that did not change since the last completed scan of their folder
+     */
+    private void doScanLibrary(ForkJoinPool pool, MediaLibraryStatistics statistics, boolean incremental) {
         LOG.info("Starting to scan media library.");
         LOG.debug("New last scan date is {}", statistics.getScanDate());
 
@@ -246,6 +362,9 @@ public class MediaScannerService {
         Map<String, Artist> artists = new ConcurrentHashMap<>();
         Map<String, Album> albums = new ConcurrentHashMap<>();
         Set<Integer> albumsInDb = Collections.synchronizedSet(new HashSet<>());
+        // directories whose children were read from disk, by folder id. Only tracked for incremental scans.
+        Map<Integer, Set<String>> visitedDirectories = incremental ? new ConcurrentHashMap<>() : null;
+        ScanWriteBuffer writeBuffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, scanConfig.getWriteBatchSize());
         try {
             // Maps from artist name to album count.
             Genres genres = new Genres();
@@ -253,20 +372,27 @@ public class MediaScannerService {
             scanCount.set(0);
 
             indexManager.startIndexing();
-            mediaFileService.setMemoryCacheEnabled(false);
+            mediaFileService.setScanning(true);
+
+            List<MusicFolder> musicFolders = mediaFolderService.getAllMusicFolders();
 
             // Recurse through all files on disk.
             pool.submit(() -> {
-                mediaFolderService.getAllMusicFolders()
+                musicFolders
                         .parallelStream()
                         .forEach(musicFolder -> scanFile(pool, null, null, mediaFileService.getMediaFile(Paths.get(""), musicFolder, false),
-                                musicFolder, statistics, albumCount, artists, albums, albumsInDb, genres));
+                                musicFolder, incremental ? musicFolder.getLastScanned() : null, false, statistics, albumCount, artists,
+                                albums, albumsInDb, genres, visitedDirectories, writeBuffer));
                 // Update statistics
                 statistics.incrementArtists(albumCount.size());
                 statistics.incrementAlbums(albumCount.values().parallelStream().mapToInt(x -> x.get()).sum());
             }).join();
 
             LOG.info("Scanned media library with {} entries.", scanCount.get());
+            if (incremental) {
+                LOG.info("Incremental scan read {} directories from disk and skipped {} unchanged directories.",
+                        statistics.getVisitedDirectoryCount(), statistics.getSkippedDirectoryCount());
+            }
 
             if (!isMediaScanning()) {
                 LOG.info("Scan cancelled.");
@@ -274,57 +400,53 @@ public class MediaScannerService {
             }
 
             LOG.info("Persisting albums");
+            albums.values().stream().distinct().forEach(a -> writeBuffer.saveAlbum(a, coverArtService::persistIfNeeded));
+            LOG.info("Persisting artists");
+            artists.values().stream().distinct().forEach(a -> writeBuffer.saveArtist(a, coverArtService::persistIfNeeded));
+            LOG.info("Persisting genres");
+            genres.getGenres().forEach(writeBuffer::updateGenre);
+            // everything has to be written before entities not seen by this scan are marked
+            writeBuffer.flush();
+            LOG.info("Album, artist and genre persistence complete");
+
             CompletableFuture<Void> albumPersistence = CompletableFuture
-                    .allOf(albums.values().stream()
-                            .distinct()
-                            .map(a -> CompletableFuture.supplyAsync(() -> {
-                                return albumService.save(a);
-                            }, pool).thenAcceptAsync(coverArtService::persistIfNeeded))
-                            .toArray(CompletableFuture[]::new))
-                    .thenRunAsync(() -> {
+                    .runAsync(() -> {
                         LOG.info("Marking non-present albums.");
                         albumService.markNonPresent(statistics.getScanDate());
-                    }, pool)
-                    .thenRunAsync(() -> LOG.info("Album persistence complete"), pool);
+                    }, pool);
 
-            LOG.info("Persisting artists");
             CompletableFuture<Void> artistPersistence = CompletableFuture
-                    .allOf(artists.values().stream()
-                            .distinct()
-                            .map(a -> CompletableFuture.supplyAsync(() -> {
-                                return artistService.save(a);
-                            }, pool).thenAcceptAsync(coverArtService::persistIfNeeded))
-                            .toArray(CompletableFuture[]::new))
-                    .thenRunAsync(() -> {
+                    .runAsync(() -> {
                         LOG.info("Marking non-present artists.");
                         artistService.markNonPresent(statistics.getScanDate());
-                    }, pool)
-                    .thenRunAsync(() -> LOG.info("Artist persistence complete"), pool);
+                    }, pool);
 
-            LOG.info("Persisting media files");
             CompletableFuture<Void> mediaFilePersistence = CompletableFuture
                     .runAsync(() -> {
                         LOG.info("Marking non-present media files.");
-                        mediaFileService.markNonPresent(statistics.getScanDate());
+                        if (incremental) {
+                            // files in skipped directories were not touched, only look at what has been read from disk
+                            mediaFileService.markNonPresent(visitedDirectories, statistics.getScanDate());
+                        } else {
+                            mediaFileService.markNonPresent(statistics.getScanDate());
+                        }
                     }, pool)
                     .thenRunAsync(() -> LOG.info("Media file persistence complete"), pool);
 
-            LOG.info("Persisting genres");
-            CompletableFuture<Void> genrePersistence = CompletableFuture
-                    .runAsync(() -> {
-                        LOG.info("Updating genres");
-                        long count = mediaFileService.updateGenres(genres.getGenres()).size();
-                        boolean genresSuccessful = count == genres.getGenres().size();
-                        LOG.info("Genre persistence successfully complete: {}", genresSuccessful);
-                    }, pool);
+            CompletableFuture.allOf(albumPersistence, artistPersistence, mediaFilePersistence).join();
 
-            CompletableFuture.allOf(albumPersistence, artistPersistence, mediaFilePersistence, genrePersistence).join();
+            LOG.info("Removing non-present entries from the search index.");
+            indexManager.expunge();
+
+            // checkpoint for subsequent incremental scans
+            mediaFolderService.updateLastScanned(musicFolders, statistics.getScanDate());
             LOG.info("Completed media library scan.");
 
         } catch (Throwable x) {
             LOG.error("Failed to scan media library.", x);
         } finally {
-            mediaFileService.setMemoryCacheEnabled(true);
+            writeBuffer.close();
+            mediaFileService.setScanning(false);
             if (settingsService.getClearFullScanSettingAfterScan()) {
                 settingsService.setClearFullScanSettingAfterScan(null);
                 settingsService.setFullScan(null);
@@ -335,13 +457,25 @@ public class MediaScannerService {
             artists.clear();
             albumsInDb.clear();
             albums.clear();
+            if (visitedDirectories != null) {
+                visitedDirectories.clear();
+            }
             LOG.info("Media library scan took {}s", ChronoUnit.SECONDS.between(statistics.getScanDate(), Instant.now()));
         }
     }
 
-    private void scanFile(ForkJoinPool pool, MediaFile grandParent, MediaFile parent, MediaFile file, MusicFolder musicFolder, MediaLibraryStatistics statistics,
+    /**
+     * Scans a file and, for directories, its children.
+     *
+     * @param checkpoint      start of the last completed scan of the music folder, or null if every directory has to be read from disk
+     * @param parentUnchanged whether the parent directory was skipped as unchanged. Files of such directories are only aggregated.
+     * @param visitedDirectories directories read from disk, by folder id. May be null if not tracked.
+     * @param writeBuffer     buffer to queue database writes to
+     */
+    private void scanFile(ForkJoinPool pool, MediaFile grandParent, MediaFile parent, MediaFile file, MusicFolder musicFolder,
+            Instant checkpoint, boolean parentUnchanged, MediaLibraryStatistics statistics,
             Map<String, AtomicInteger> albumCount, Map<String, Artist> artists, Map<String, Album> albums,
-            Set<Integer> albumsInDb, Genres genres) {
+            Set<Integer> albumsInDb, Genres genres, Map<Integer, Set<String>> visitedDirectories, ScanWriteBuffer writeBuffer) {
 
         if (!isMediaScanning()) {
             LOG.debug("Scan cancelled.");
@@ -356,30 +490,47 @@ public class MediaScannerService {
         // Update the root folder if it has changed
         if (!musicFolder.getId().equals(file.getFolder().getId())) {
             file.setFolder(musicFolder);
-            mediaFileService.updateMediaFile(file);
+            writeBuffer.updateMediaFile(file);
         }
 
-        indexManager.index(file, musicFolder);
+        // files of unchanged directories are neither parsed nor indexed again
+        boolean unchangedFile = parentUnchanged && file.isFile();
+        if (!unchangedFile) {
+            indexManager.index(file, musicFolder);
+        }
 
         try {
             pool.submit(() -> {
                 if (file.isDirectory()) {
-                    try (Stream<MediaFile> children = mediaFileService.getChildrenOf(file, true, true, false, false)
-                            .parallelStream()) {
-                        children.forEach(child -> scanFile(pool, parent, file, child, musicFolder, statistics, albumCount,
-                                artists, albums, albumsInDb, genres));
+                    boolean unchanged = isUnchangedDirectory(file, checkpoint);
+                    List<MediaFile> children;
+                    if (unchanged) {
+                        statistics.incrementSkippedDirectories(1);
+                        children = mediaFileService.getStoredChildrenOf(file);
+                    } else {
+                        statistics.incrementVisitedDirectories(1);
+                        if (visitedDirectories != null) {
+                            visitedDirectories.computeIfAbsent(musicFolder.getId(), k -> ConcurrentHashMap.newKeySet()).add(file.getPath());
+                        }
+                        // loaded without disk access by an unchanged parent, so refresh it first
+                        MediaFile directory = parentUnchanged ? mediaFileService.checkLastModified(file, false) : file;
+                        children = mediaFileService.getChildrenOf(directory, true, true, false, false);
+                    }
+                    try (Stream<MediaFile> childStream = children.parallelStream()) {
+                        childStream.forEach(child -> scanFile(pool, parent, file, child, musicFolder, checkpoint, unchanged,
+                                statistics, albumCount, artists, albums, albumsInDb, genres, visitedDirectories, writeBuffer));
                     }
                 } else {
                     if (musicFolder.getType() == MusicFolder.Type.MEDIA) {
-                        updateAlbum(parent, file, musicFolder, statistics.getScanDate(), albumCount, albums, albumsInDb);
-                        updateArtist(grandParent, file, musicFolder, statistics.getScanDate(), albumCount, artists);
+                        updateAlbum(parent, file, musicFolder, statistics.getScanDate(), albumCount, albums, albumsInDb, writeBuffer);
+                        updateArtist(grandParent, file, musicFolder, statistics.getScanDate(), albumCount, artists, writeBuffer);
                     }
                     statistics.incrementSongs(1);
                 }
 
-                if (file.isPresent() && (file.getLastScanned() == null || file.getLastScanned().isBefore(statistics.getScanDate()))) {
+                if (!unchangedFile && file.isPresent() && (file.getLastScanned() == null || file.getLastScanned().isBefore(statistics.getScanDate()))) {
                     file.setLastScanned(statistics.getScanDate());
-                    mediaFileService.updateMediaFile(file);
+                    writeBuffer.updateMediaFile(file);
                 }
                 updateGenres(file, genres);
 
@@ -397,6 +548,28 @@ public class MediaScannerService {
         }
     }
 
+    /**
+     * Returns whether the given directory can be skipped by an incremental scan, i.e. its children have been
+     * read for the stored modification time, which neither moved since nor is after the checkpoint.
+     * Note that the modification time of a directory only reflects added, removed or renamed entries.
+     *
+     * @param directory  the directory as stored in the database
+     * @param checkpoint start of the last completed scan of the music folder, may be null
+     * @return true if the children of the directory need not be read from disk
+     */
+    boolean isUnchangedDirectory(MediaFile directory, Instant checkpoint) {
+        if (checkpoint == null || directory.getVersion() < MediaFile.VERSION || directory.getChanged() == null) {
+            return false;
+        }
+        // children have never been read for the stored modification time, e.g. a directory just moved into the library
+        if (directory.getChildrenLastUpdated() == null || directory.getChildrenLastUpdated().isBefore(directory.getChanged())) {
+            return false;
+        }
+        Instant lastModified = FileUtil.lastModified(directory.getFullPath()).truncatedTo(ChronoUnit.MICROS);
+        return !lastModified.isAfter(checkpoint)
+                && !directory.getChanged().truncatedTo(ChronoUnit.MICROS).isBefore(lastModified);
+    }
+
     private void updateGenres(MediaFile file, Genres genres) {
         String genre = file.getGenre();
         if (genre == null) {
@@ -418,10 +591,11 @@ public class MediaScannerService {
      * @param albumCount album count
      * @param albums albums
      * @param albumsInDb albums in db
+     * @param writeBuffer buffer to queue database writes to
      */
     private void updateAlbum(MediaFile parent, MediaFile file, MusicFolder musicFolder,
             Instant lastScanned, Map<String, AtomicInteger> albumCount, Map<String, Album> albums,
-            Set<Integer> albumsInDb) {
+            Set<Integer> albumsInDb, ScanWriteBuffer writeBuffer) {
 
         String artist = file.getAlbumArtist() != null ? file.getAlbumArtist() : file.getArtist();
         if (file.getAlbumName() == null || artist == null || file.getParentPath() == null || !file.isAudio()) {
@@ -488,15 +662,15 @@ public class MediaScannerService {
 
         if (firstEncounter.get()) {
             album.setFolder(musicFolder);
-            albumService.save(album);
             albumCount.computeIfAbsent(artist, k -> new AtomicInteger(0)).incrementAndGet();
-            indexManager.index(album);
+            // new albums need their id before they can be indexed
+            writeBuffer.saveAlbum(album, indexManager::index);
         }
 
         // Update the file's album artist, if necessary.
         if (!Objects.equals(album.getArtist(), file.getAlbumArtist())) {
             file.setAlbumArtist(album.getArtist());
-            mediaFileService.updateMediaFile(file);
+            writeBuffer.updateMediaFile(file);
         }
     }
 
@@ -509,9 +683,10 @@ public class MediaScannerService {
      * @param lastScanned last scanned time
      * @param albumCount  album count
      * @param artists     artists
+     * @param writeBuffer buffer to queue database writes to
      */
     private void updateArtist(MediaFile grandParent, MediaFile file, MusicFolder musicFolder, Instant lastScanned,
-            Map<String, AtomicInteger> albumCount, Map<String, Artist> artists) {
+            Map<String, AtomicInteger> albumCount, Map<String, Artist> artists, ScanWriteBuffer writeBuffer) {
         if (file.getAlbumArtist() == null || !file.isAudio()) {
             return;
         }
@@ -542,8 +717,7 @@ public class MediaScannerService {
 
         if (firstEncounter.get()) {
             artist.setFolder(musicFolder);
-            artistService.save(artist);
-            indexManager.index(artist, musicFolder);
+            writeBuffer.saveArtist(artist, a -> indexManager.index(a, musicFolder));
         }
 
         // directory structure is /artist/album/track
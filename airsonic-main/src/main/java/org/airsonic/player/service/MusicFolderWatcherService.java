@@ -0,0 +1,232 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicScanConfig;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the directories of all music folders and rescans the directories with changes,
+ * once no further changes were reported for a while. Excluded and hidden directories are not watched.
+ * If a directory of a music folder cannot be watched, e.g. because the limit of inotify watches is reached,
+ * the music folder is not watched at all and its changes are only found by scheduled scans.
+ * Enabled by the WatchMusicFolders setting.
+ */
+@Service
+public class MusicFolderWatcherService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MusicFolderWatcherService.class);
+
+    private static final String WATCHER_PREFIX = "Music folder watcher ";
+
+    private final SettingsService settingsService;
+    private final MediaFolderService mediaFolderService;
+    private final MediaFileService mediaFileService;
+    private final MediaScannerService mediaScannerService;
+    private final PathWatcherService pathWatcherService;
+    private final AirsonicScanConfig scanConfig;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Util.getDaemonThreadfactory("music-folder-watcher"));
+
+    // watched directories and their music folder id
+    private final Map<Path, Integer> watchedDirectories = new ConcurrentHashMap<>();
+    // directories to rescan, relative to their music folder, by music folder id
+    private final Map<Integer, Set<Path>> pendingDirectories = new ConcurrentHashMap<>();
+    // ids of the music folders which could not be watched
+    private final Set<Integer> unwatchedFolders = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean scanScheduled = new AtomicBoolean(false);
+    private volatile long lastChange;
+
+    public MusicFolderWatcherService(SettingsService settingsService, MediaFolderService mediaFolderService,
+            MediaFileService mediaFileService, MediaScannerService mediaScannerService, PathWatcherService pathWatcherService,
+            AirsonicScanConfig scanConfig) {
+        this.settingsService = settingsService;
+        this.mediaFolderService = mediaFolderService;
+        this.mediaFileService = mediaFileService;
+        this.mediaScannerService = mediaScannerService;
+        this.pathWatcherService = pathWatcherService;
+        this.scanConfig = scanConfig;
+    }
+
+    @EventListener
+    public void init(ApplicationStartedEvent event) {
+        schedule();
+    }
+
+    /**
+     * Updates the watched directories to the current music folders, or stops watching if disabled.
+     * Watchers are registered in the background.
+     */
+    public void schedule() {
+        executor.execute(this::refreshWatchers);
+    }
+
+    private void refreshWatchers() {
+        Set<Path> directories = new HashSet<>();
+        if (settingsService.getWatchMusicFolders()) {
+            mediaFolderService.getAllMusicFolders().forEach(folder -> directories.addAll(watchTree(folder, folder.getPath())));
+            LOG.info("Watching {} directories of music folders for changes.", directories.size());
+        } else {
+            pendingDirectories.clear();
+            unwatchedFolders.clear();
+        }
+        watchedDirectories.keySet().stream().filter(dir -> !directories.contains(dir)).toList().forEach(this::unwatch);
+    }
+
+    /**
+     * Returns the ids of the music folders which could not be watched, so that their changes are only found by
+     * scheduled scans.
+     */
+    public Set<Integer> getUnwatchedFolders() {
+        return Collections.unmodifiableSet(unwatchedFolders);
+    }
+
+    Set<Path> getWatchedDirectories() {
+        return Collections.unmodifiableSet(watchedDirectories.keySet());
+    }
+
+    /**
+     * Watches the given directory and all directories below it. If a directory cannot be watched, no directory of
+     * the music folder is watched any more.
+     *
+     * @return the watched directories
+     */
+    private Set<Path> watchTree(MusicFolder folder, Path root) {
+        Set<Path> directories = new HashSet<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    if (!dir.equals(folder.getPath()) && mediaFileService.isExcluded(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    watch(folder, dir);
+                    directories.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOG.debug("Could not visit {}", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            if (unwatchedFolders.add(folder.getId())) {
+                LOG.warn("Could not watch the directories of music folder {}: {}. Changes will only be found by scheduled scans.",
+                        folder.getName(), e.toString());
+            }
+            watchedDirectories.entrySet().stream().filter(entry -> folder.getId().equals(entry.getValue()))
+                    .map(Map.Entry::getKey).toList().forEach(this::unwatch);
+            return Collections.emptySet();
+        }
+        unwatchedFolders.remove(folder.getId());
+        return directories;
+    }
+
+    private void watch(MusicFolder folder, Path dir) throws IOException {
+        pathWatcherService.setWatcher(WATCHER_PREFIX + dir, dir,
+                (d, e) -> onChange(folder, d, e), (d, e) -> onChange(folder, d, e), (d, e) -> onChange(folder, d, e),
+                (d, e) -> onOverflow(folder));
+        watchedDirectories.put(dir, folder.getId());
+    }
+
+    private void unwatch(Path dir) {
+        pathWatcherService.invalidateWatcher(WATCHER_PREFIX + dir);
+        watchedDirectories.remove(dir);
+    }
+
+    private void onChange(MusicFolder folder, Path dir, WatchEvent<Path> event) {
+        Path changed = dir.resolve(event.context());
+        if (mediaFileService.isExcluded(changed)) {
+            return;
+        }
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+            executor.execute(() -> watchTree(folder, changed));
+        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            watchedDirectories.keySet().stream().filter(d -> d.startsWith(changed)).toList().forEach(this::unwatch);
+        }
+        LOG.debug("{} in watched directory: {}", event.kind(), changed);
+        addPending(folder, folder.getPath().relativize(dir));
+    }
+
+    private void onOverflow(MusicFolder folder) {
+        // changes have been lost, scan the folder incrementally from its root
+        LOG.info("Too many changes in music folder {}, scanning it incrementally.", folder.getName());
+        addPending(folder, Paths.get(""));
+    }
+
+    private void addPending(MusicFolder folder, Path directory) {
+        pendingDirectories.computeIfAbsent(folder.getId(), k -> ConcurrentHashMap.newKeySet()).add(directory);
+        lastChange = System.currentTimeMillis();
+        if (scanScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::scanPending, scanConfig.getWatchDelay(), TimeUnit.SECONDS);
+        }
+    }
+
+    private void scanPending() {
+        long remaining = lastChange + TimeUnit.SECONDS.toMillis(scanConfig.getWatchDelay()) - System.currentTimeMillis();
+        if (remaining > 0) {
+            // still changing, e.g. while an album is copied
+            executor.schedule(this::scanPending, remaining, TimeUnit.MILLISECONDS);
+            return;
+        }
+        scanScheduled.set(false);
+        for (Integer folderId : pendingDirectories.keySet()) {
+            Set<Path> directories = pendingDirectories.remove(folderId);
+            MusicFolder folder = mediaFolderService.getMusicFolderById(folderId);
+            if (directories == null || folder == null) {
+                continue;
+            }
+            try {
+                if (!mediaScannerService.scanDirectories(folder, directories)) {
+                    LOG.debug("Scan in progress, postponing scan of {} changed directories.", directories.size());
+                    directories.forEach(dir -> addPending(folder, dir));
+                }
+            } catch (Exception e) {
+                LOG.warn("Failed to scan changed directories of music folder {}", folder.getName(), e);
+            }
+        }
+    }
+}
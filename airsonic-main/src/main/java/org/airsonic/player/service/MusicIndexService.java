@@ -22,13 +22,27 @@ package org.airsonic.player.service;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.MusicIndex.SortableArtist;
 import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
 import java.io.Serializable;
 import java.nio.file.Paths;
 import java.text.Collator;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -36,15 +50,31 @@ import static java.util.stream.Collectors.toList;
 
 /**
  * Provides services for grouping artists by index.
+ * <p>
+ * The indexes of each set of music folders are kept in memory as snapshots. Snapshots are rebuilt
+ * after a scan, or when the music folders or the index settings changed.
  *
  * @author Sindre Mehus
  */
 @Service
 public class MusicIndexService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MusicIndexService.class);
+
     @Autowired
     private SettingsService settingsService;
     @Autowired
     private MediaFileService mediaFileService;
+    @Autowired
+    private ArtistService artistService;
+
+    // snapshots by the ids of their music folders
+    private final Map<List<Integer>, IndexSnapshot<MusicFolderContent>> contentSnapshots = new ConcurrentHashMap<>();
+    private final Map<List<Integer>, IndexSnapshot<SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>>>> artistSnapshots = new ConcurrentHashMap<>();
+    // snapshots being built by the ids of their music folders
+    private final Map<List<Integer>, CompletableFuture<IndexSnapshot<MusicFolderContent>>> contentBuilds = new ConcurrentHashMap<>();
+    private final Map<List<Integer>, CompletableFuture<IndexSnapshot<SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>>>>> artistBuilds = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
 
     /**
      * Returns a map from music indexes to sorted lists of artists that are direct children of the given music folders.
@@ -63,10 +93,114 @@ public class MusicIndexService {
         return sortArtists(sortableArtists);
     }
 
+    /**
+     * Returns the indexed artists and single songs of the given music folders from the snapshot of these folders.
+     *
+     * @param musicFoldersToUse The music folders.
+     * @param refresh Whether to rebuild the snapshot, looking for updates by checking the last-modified timestamp of the music folders.
+     * @return The content of the music folders. Must not be modified.
+     */
     public MusicFolderContent getMusicFolderContent(List<MusicFolder> musicFoldersToUse, boolean refresh) {
-        SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithMediaFiles>> indexedArtists = getIndexedArtists(musicFoldersToUse, refresh);
-        List<MediaFile> singleSongs = getSingleSongs(musicFoldersToUse, refresh);
-        return new MusicFolderContent(indexedArtists, singleSongs);
+        return getSnapshot(contentSnapshots, contentBuilds, musicFoldersToUse, refresh, () -> {
+            SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithMediaFiles>> indexedArtists = getIndexedArtists(musicFoldersToUse, refresh);
+            List<MediaFile> singleSongs = getSingleSongs(musicFoldersToUse, refresh);
+            return new MusicFolderContent(Collections.unmodifiableSortedMap(indexedArtists), Collections.unmodifiableList(singleSongs));
+        }, content -> countArtists(content.getIndexedArtists()) + content.getSingleSongs().size());
+    }
+
+    /**
+     * Returns the ID3 artists of the given music folders grouped by index, from the snapshot of these folders.
+     *
+     * @param musicFolders The music folders.
+     * @return The indexed artists. Must not be modified.
+     */
+    public SortedMap<MusicIndex, List<MusicIndex.SortableArtistWithArtist>> getIndexedArtistsID3(List<MusicFolder> musicFolders) {
+        return getSnapshot(artistSnapshots, artistBuilds, musicFolders, false,
+            () -> Collections.unmodifiableSortedMap(getIndexedArtists(artistService.getAlphabeticalArtists(musicFolders))),
+            MusicIndexService::countArtists);
+    }
+
+    /**
+     * Discards all snapshots, e.g. after the media library was scanned.
+     */
+    public void invalidate() {
+        version.incrementAndGet();
+        contentSnapshots.clear();
+        artistSnapshots.clear();
+    }
+
+    private <T> T getSnapshot(Map<List<Integer>, IndexSnapshot<T>> snapshots,
+            Map<List<Integer>, CompletableFuture<IndexSnapshot<T>>> builds, List<MusicFolder> folders, boolean rebuild,
+            Supplier<T> builder, ToIntFunction<T> sizer) {
+        List<Integer> key = folders.stream().map(MusicFolder::getId).sorted().collect(toList());
+        long currentVersion = version.get();
+        String fingerprint = createFingerprint(folders);
+        Instant requested = Instant.now();
+
+        IndexSnapshot<T> snapshot = snapshots.get(key);
+        if (!rebuild && snapshot != null && snapshot.isValid(currentVersion, fingerprint)) {
+            return snapshot.value;
+        }
+        // concurrent requests for the same folders wait for a single build, which runs outside of the maps
+        while (true) {
+            CompletableFuture<IndexSnapshot<T>> future = new CompletableFuture<>();
+            CompletableFuture<IndexSnapshot<T>> running = builds.computeIfAbsent(key, k -> future);
+            if (running == future) {
+                return build(snapshots, builds, key, future, rebuild, currentVersion, fingerprint, builder, sizer).value;
+            }
+            try {
+                snapshot = running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+            // a build started before this request may be outdated
+            if (snapshot.isValid(currentVersion, fingerprint) && (!rebuild || !snapshot.built.isBefore(requested))) {
+                return snapshot.value;
+            }
+        }
+    }
+
+    private <T> IndexSnapshot<T> build(Map<List<Integer>, IndexSnapshot<T>> snapshots,
+            Map<List<Integer>, CompletableFuture<IndexSnapshot<T>>> builds, List<Integer> key,
+            CompletableFuture<IndexSnapshot<T>> future, boolean rebuild, long currentVersion, String fingerprint,
+            Supplier<T> builder, ToIntFunction<T> sizer) {
+        try {
+            IndexSnapshot<T> snapshot = snapshots.get(key);
+            if (rebuild || snapshot == null || !snapshot.isValid(currentVersion, fingerprint)) {
+                Instant start = Instant.now();
+                T value = builder.get();
+                Duration buildDuration = Duration.between(start, Instant.now());
+                LOG.debug("Built music index of music folders {} in {} ms", key, buildDuration.toMillis());
+                snapshot = new IndexSnapshot<>(value, currentVersion, fingerprint, start, buildDuration, sizer.applyAsInt(value));
+                snapshots.put(key, snapshot);
+            }
+            builds.remove(key, future);
+            future.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            builds.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Describes everything a snapshot depends on, apart from the media library itself.
+     */
+    private String createFingerprint(List<MusicFolder> folders) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (MusicFolder folder : folders) {
+            fingerprint.append(folder.getId()).append(':').append(folder.getPath()).append(':')
+                    .append(folder.isEnabled()).append(':').append(folder.getChanged()).append('|');
+        }
+        return fingerprint.append(settingsService.getIndexString()).append('|')
+                .append(settingsService.getIgnoredArticles()).append('|')
+                .append(settingsService.getShortcuts()).append('|')
+                .append(settingsService.getLocale()).toString();
+    }
+
+    private static int countArtists(SortedMap<MusicIndex, ? extends List<?>> indexedArtists) {
+        return indexedArtists.values().stream().mapToInt(List::size).sum();
     }
 
     private List<MediaFile> getSingleSongs(List<MusicFolder> folders, boolean refresh) {
@@ -235,6 +369,61 @@ public class MusicIndexService {
         this.mediaFileService = mediaFileService;
     }
 
+    public void setArtistService(ArtistService artistService) {
+        this.artistService = artistService;
+    }
+
+    private static class IndexSnapshot<T> {
+
+        private final T value;
+        private final long version;
+        private final String fingerprint;
+        private final Instant built;
+        private final Duration buildDuration;
+        private final int size;
+
+        IndexSnapshot(T value, long version, String fingerprint, Instant built, Duration buildDuration, int size) {
+            this.value = value;
+            this.version = version;
+            this.fingerprint = fingerprint;
+            this.built = built;
+            this.buildDuration = buildDuration;
+            this.size = size;
+        }
+
+        boolean isValid(long currentVersion, String currentFingerprint) {
+            return version == currentVersion && fingerprint.equals(currentFingerprint);
+        }
+
+        Map<String, Object> toMap(List<Integer> musicFolderIds) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("musicFolders", musicFolderIds);
+            map.put("version", version);
+            map.put("built", built);
+            map.put("buildMillis", buildDuration.toMillis());
+            map.put("size", size);
+            return map;
+        }
+    }
+
+    @Component
+    @Endpoint(id = "musicindex")
+    public static class MusicIndexEndpoint {
+        @Autowired
+        private MusicIndexService musicIndexService;
+
+        @ReadOperation
+        public WebEndpointResponse<Map<String, Object>> info() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("version", musicIndexService.version.get());
+            map.put("folders", musicIndexService.contentSnapshots.entrySet().stream()
+                    .map(e -> e.getValue().toMap(e.getKey())).collect(toList()));
+            map.put("artists", musicIndexService.artistSnapshots.entrySet().stream()
+                    .map(e -> e.getValue().toMap(e.getKey())).collect(toList()));
+            return new WebEndpointResponse<>(map);
+        }
+    }
+
     private static class MusicIndexComparator implements Comparator<MusicIndex>, Serializable {
 
         private List<MusicIndex> indexes;
@@ -0,0 +1,146 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.airsonic.player.config.AirsonicParallelismConfig;
+import org.airsonic.player.config.AirsonicScanConfig;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runs parallel streams in bounded pools which are dedicated to a kind of work, instead of the common pool which is
+ * shared by every request. A large directory which is browsed therefore only competes with other browse requests,
+ * and not with a running scan or the creation of cover art.
+ * <p>
+ * Inputs smaller than a threshold are processed sequentially in the calling thread. Work which is started by a thread
+ * of a dedicated pool, e.g. by the media scanner, stays in that pool.
+ *
+ * @see AirsonicParallelismConfig
+ */
+@Service
+public class ParallelExecutionService {
+
+    /**
+     * The kinds of parallel work, each of which runs in its own pool.
+     */
+    public enum Workload {
+        BROWSE("browse", Thread.NORM_PRIORITY),
+        SCAN("scan", Thread.MIN_PRIORITY),
+        COVER_ART("coverart", Thread.NORM_PRIORITY);
+
+        private final String poolName;
+        private final int priority;
+
+        Workload(String poolName, int priority) {
+            this.poolName = poolName;
+            this.priority = priority;
+        }
+
+        public String getPoolName() {
+            return poolName;
+        }
+    }
+
+    private final int sequentialThreshold;
+    private final Map<Workload, ForkJoinPool> pools = new EnumMap<>(Workload.class);
+    private final Map<Workload, Timer> parallelTimers = new EnumMap<>(Workload.class);
+    private final Map<Workload, Timer> sequentialTimers = new EnumMap<>(Workload.class);
+
+    public ParallelExecutionService(AirsonicParallelismConfig parallelismConfig, AirsonicScanConfig scanConfig, MeterRegistry meterRegistry) {
+        this.sequentialThreshold = parallelismConfig.getSequentialThreshold();
+        createPool(Workload.BROWSE, parallelismConfig.getBrowse(), meterRegistry);
+        createPool(Workload.SCAN, Math.min(parallelismConfig.getScan(), scanConfig.getParallelism()), meterRegistry);
+        createPool(Workload.COVER_ART, parallelismConfig.getCoverArt(), meterRegistry);
+    }
+
+    private void createPool(Workload workload, int parallelism, MeterRegistry meterRegistry) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            worker.setName(workload.getPoolName() + "-worker-" + worker.getPoolIndex());
+            worker.setPriority(workload.priority);
+            return worker;
+        }, null, false);
+        pools.put(workload, pool);
+
+        String name = workload.getPoolName();
+        Gauge.builder("airsonic.parallel.pool.active", pool, ForkJoinPool::getActiveThreadCount).tag("pool", name)
+                .description("Threads of the pool which run tasks").register(meterRegistry);
+        Gauge.builder("airsonic.parallel.pool.queued", pool, p -> p.getQueuedSubmissionCount() + p.getQueuedTaskCount())
+                .tag("pool", name).description("Tasks waiting in the pool").register(meterRegistry);
+        FunctionCounter.builder("airsonic.parallel.pool.steals", pool, ForkJoinPool::getStealCount).tag("pool", name)
+                .description("Tasks stolen by idle threads of the pool").register(meterRegistry);
+        parallelTimers.put(workload, Timer.builder("airsonic.parallel.tasks").tag("pool", name).tag("mode", "parallel")
+                .description("Duration of parallel work, including the wait for a thread").register(meterRegistry));
+        sequentialTimers.put(workload, Timer.builder("airsonic.parallel.tasks").tag("pool", name).tag("mode", "sequential")
+                .description("Duration of parallel work, including the wait for a thread").register(meterRegistry));
+    }
+
+    /**
+     * Applies a stream pipeline to the given elements in the pool of the given workload, and waits for its result.
+     *
+     * @param workload The kind of work.
+     * @param source   The elements to process.
+     * @param pipeline Builds the result from a stream of the elements. The stream is parallel unless the elements are
+     *                 fewer than the sequential threshold.
+     * @return the result of the pipeline
+     */
+    public <T, R> R execute(Workload workload, Collection<T> source, Function<Stream<T>, R> pipeline) {
+        if (source.size() < sequentialThreshold) {
+            return sequentialTimers.get(workload).record(() -> pipeline.apply(source.stream()));
+        }
+        return parallelTimers.get(workload).record(() -> {
+            if (isDedicatedWorker(Thread.currentThread())) {
+                // a parallel stream runs in the pool of the thread which starts it
+                return pipeline.apply(source.parallelStream());
+            }
+            return pools.get(workload).submit(() -> pipeline.apply(source.parallelStream())).join();
+        });
+    }
+
+    private static boolean isDedicatedWorker(Thread thread) {
+        return thread instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) thread).getPool() != ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Returns the number of threads of the pool of the given workload.
+     */
+    public int getParallelism(Workload workload) {
+        return pools.get(workload).getParallelism();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(ForkJoinPool::shutdownNow);
+    }
+}
@@ -327,6 +327,27 @@ public class PersonalSettingsService {
         userSettingsCache.removeUserSettings(username);
     }
 
+    /**
+     * Updates the bandwidth limit for the given user.
+     *
+     * @param username The username.
+     * @param limit The bandwidth limit in Kbit/s. Zero if unlimited.
+     */
+    @Transactional
+    public void updateBandwidthLimit(String username, long limit) {
+
+        UserSetting userSetting = getUserSetting(username);
+        UserSettingDetail settingDetail = userSetting.getSettings();
+        limit = Math.max(limit, 0L);
+        if (settingDetail.getBandwidthLimit() == limit) {
+            return;
+        }
+        settingDetail.setBandwidthLimit(limit);
+        settingDetail.setChanged(Instant.now());
+        userSettingRepository.save(userSetting);
+        userSettingsCache.removeUserSettings(username);
+    }
+
     /**
      * Updates the selected music folder id for the given user.
      *
@@ -400,6 +400,7 @@ public class PlayerService {
         clone.setM3uBomEnabled(player.getM3uBomEnabled());
         clone.setLastSeen(player.getLastSeen());
         clone.setTranscodeScheme(player.getTranscodeScheme());
+        clone.setBandwidthLimit(player.getBandwidthLimit());
         clone.setTranscodings(player.getTranscodings());
         if (player.getName() != null) {
             clone.setName(player.getName() + " (copy)");
@@ -487,6 +488,9 @@ public class PlayerService {
             player.setDynamicIp(command.getDynamicIp());
             player.setAutoControlEnabled(command.getAutoControlEnabled());
             player.setTranscodeScheme(TranscodeScheme.valueOf(command.getTranscodeSchemeName()));
+            if (command.getBandwidthLimit() != null) {
+                player.setBandwidthLimit(Math.max(command.getBandwidthLimit(), 0L));
+            }
             player.setTechnology(PlayerTechnology.valueOf(command.getTechnologyName()));
             player.setTranscodings(transcodingRepository.findAllById(command.getActiveTranscodingIds()));
             playerRepository.save(player);
@@ -0,0 +1,253 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig.PreTranscodeSource;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.domain.User;
+import org.airsonic.player.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.config.CronTask;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Transcodes albums ahead of time into the configured profiles, so that streams which match a profile are served
+ * from the transcode cache instead of starting a transcoder on demand. Albums are looked for periodically, and not
+ * while the media library is scanned, so newly scanned albums are picked up by the first run after a scan.
+ * Transcoders run in the background with a bounded parallelism and a lowered priority. The albums are taken in the
+ * order of the configured sources until the transcoded files would fill the configured share of the transcode cache,
+ * so that they do not evict live transcodings and each other from the cache.
+ *
+ * @see AirsonicTranscodeConfig#getPreTranscodeProfiles()
+ */
+@Service
+public class PreTranscodeService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PreTranscodeService.class);
+
+    private static final String TASK_NAME = "pretranscode-Task";
+
+    private final TranscodingService transcodingService;
+    private final TranscodeCacheService transcodeCacheService;
+    private final MediaFileService mediaFileService;
+    private final MediaFolderService mediaFolderService;
+    private final MediaScannerService mediaScannerService;
+    private final UserService userService;
+    private final TaskSchedulingService taskService;
+    private final AirsonicTranscodeConfig transcodeConfig;
+
+    private final ExecutorService executor;
+    // cache keys of the queued and running jobs
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    public PreTranscodeService(TranscodingService transcodingService, TranscodeCacheService transcodeCacheService,
+            MediaFileService mediaFileService, MediaFolderService mediaFolderService, MediaScannerService mediaScannerService,
+            UserService userService, TaskSchedulingService taskService, AirsonicTranscodeConfig transcodeConfig) {
+        this.transcodingService = transcodingService;
+        this.transcodeCacheService = transcodeCacheService;
+        this.mediaFileService = mediaFileService;
+        this.mediaFolderService = mediaFolderService;
+        this.mediaScannerService = mediaScannerService;
+        this.userService = userService;
+        this.taskService = taskService;
+        this.transcodeConfig = transcodeConfig;
+        this.executor = Executors.newFixedThreadPool(transcodeConfig.getPreTranscodeParallelism(), Util.getDaemonThreadfactory("pretranscode"));
+    }
+
+    @EventListener
+    public void init(ApplicationStartedEvent event) {
+        schedule();
+    }
+
+    /**
+     * Schedules the search for albums to transcode, if any profiles are configured.
+     */
+    public void schedule() {
+        if (getProfiles().isEmpty() || !transcodeCacheService.isEnabled()) {
+            LOG.info("Pre-transcoding disabled.");
+            taskService.unscheduleTask(TASK_NAME);
+            return;
+        }
+        taskService.scheduleTask(TASK_NAME, r -> r.scheduleCronTask(new CronTask(this::queueJobs, transcodeConfig.getPreTranscodeCron())));
+        LOG.info("Pre-transcoding into {} scheduled with cron expression {}", transcodeConfig.getPreTranscodeProfiles(),
+                transcodeConfig.getPreTranscodeCron());
+    }
+
+    /**
+     * Queues the songs of the albums of the configured sources which are not yet transcoded into all profiles.
+     *
+     * @return the number of queued jobs
+     */
+    public int queueJobs() {
+        if (mediaScannerService.isScanning()) {
+            LOG.debug("Media library is being scanned. Pre-transcoding postponed.");
+            return 0;
+        }
+        List<Profile> profiles = getProfiles();
+        if (profiles.isEmpty()) {
+            return 0;
+        }
+        List<Transcoding> transcodings = transcodingService.getAllTranscodings();
+        long budget = transcodeCacheService.getMaxSize() / 100 * transcodeConfig.getPreTranscodeCacheShare();
+        long planned = 0;
+        int count = 0;
+        albums:
+        for (MediaFile album : getAlbums()) {
+            for (MediaFile song : mediaFileService.getChildrenOf(album, true, false, false)) {
+                if (!song.isAudio()) {
+                    continue;
+                }
+                for (Profile profile : profiles) {
+                    TranscodingService.Parameters parameters = transcodingService.getPreTranscodeParameters(song,
+                            transcodings, profile.getFormat(), profile.getBitRate());
+                    if (parameters == null) {
+                        continue;
+                    }
+                    // cached files count as well, as they are kept in the cache by being transcoded ahead of time
+                    Long cachedLength = transcodeCacheService.getCachedLength(parameters.getCacheKey());
+                    planned += cachedLength != null ? cachedLength : getEstimatedLength(parameters);
+                    if (planned > budget) {
+                        LOG.info("Pre-transcoded files would exceed {}% of the transcode cache. Skipping album {} and the following",
+                                transcodeConfig.getPreTranscodeCacheShare(), album.getPath());
+                        break albums;
+                    }
+                    if (cachedLength == null && queued.add(parameters.getCacheKey())) {
+                        executor.execute(() -> preTranscode(parameters));
+                        count++;
+                    }
+                }
+            }
+        }
+        if (count > 0) {
+            LOG.info("Queued {} files for pre-transcoding", count);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the estimated length of the transcoded file, or the length of the original file if the duration is
+     * unknown.
+     */
+    private static long getEstimatedLength(TranscodingService.Parameters parameters) {
+        return Optional.ofNullable(parameters.getExpectedLength())
+                .orElseGet(() -> Optional.ofNullable(parameters.getMediaFile().getFileSize()).orElse(0L));
+    }
+
+    private Set<MediaFile> getAlbums() {
+        List<MusicFolder> folders = mediaFolderService.getAllMusicFolders();
+        int count = transcodeConfig.getPreTranscodeAlbumCount();
+        Set<MediaFile> albums = new LinkedHashSet<>();
+        for (PreTranscodeSource source : transcodeConfig.getPreTranscodeSources()) {
+            switch (source) {
+                case NEWEST:
+                    albums.addAll(mediaFileService.getNewestAlbums(0, count, folders));
+                    break;
+                case RECENT:
+                    albums.addAll(mediaFileService.getMostRecentlyPlayedAlbums(0, count, folders));
+                    break;
+                case FREQUENT:
+                    albums.addAll(mediaFileService.getMostFrequentlyPlayedAlbums(0, count, folders));
+                    break;
+                case STARRED:
+                    for (User user : userService.getAllUsers()) {
+                        albums.addAll(mediaFileService.getStarredAlbums(0, count, user.getUsername(),
+                                mediaFolderService.getMusicFoldersForUser(user.getUsername())));
+                    }
+                    break;
+            }
+        }
+        return albums;
+    }
+
+    private void preTranscode(TranscodingService.Parameters parameters) {
+        try {
+            if (transcodingService.preTranscode(parameters, transcodeConfig.getPreTranscodeNiceness())) {
+                LOG.debug("Pre-transcoded {} into {}", parameters.getMediaFile().getPath(), parameters.getCacheKey());
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to pre-transcode {}", parameters.getMediaFile().getPath(), e);
+        } finally {
+            queued.remove(parameters.getCacheKey());
+        }
+    }
+
+    /**
+     * Returns the number of queued and running jobs.
+     */
+    public int getQueuedJobCount() {
+        return queued.size();
+    }
+
+    private List<Profile> getProfiles() {
+        List<Profile> profiles = new ArrayList<>();
+        for (String spec : transcodeConfig.getPreTranscodeProfiles()) {
+            String[] parts = spec.trim().split(":");
+            try {
+                if (parts.length != 2 || parts[0].isBlank()) {
+                    throw new IllegalArgumentException();
+                }
+                profiles.add(new Profile(parts[0].trim(), Integer.parseInt(parts[1].trim())));
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Ignoring invalid pre-transcode profile {}. Expected format:bitrate, e.g. mp3:128", spec);
+            }
+        }
+        return profiles;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static class Profile {
+        private final String format;
+        private final int bitRate;
+
+        Profile(String format, int bitRate) {
+            this.format = format;
+            this.bitRate = bitRate;
+        }
+
+        public String getFormat() {
+            return format;
+        }
+
+        public int getBitRate() {
+            return bitRate;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+package org.airsonic.player.service;
+
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.Artist;
+import org.airsonic.player.domain.Genre;
+import org.airsonic.player.domain.MediaFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind buffer used by a single media library scan.
+ * Dirty media files, albums, artists and genres are queued by the scanner threads and written
+ * by a dedicated writer thread in batches, each batch in its own transaction.
+ * The queue is bounded, so scanner threads only wait when the writer falls behind.
+ * <p>
+ * Media files, albums and artists are still changed by the scanner threads after they have been queued, so a copy of
+ * their current state is queued and written instead of the instance itself. The writer thread never reads the
+ * instances of the scanner, except for their id: the id assigned to a new album or artist is passed back to the
+ * instance of the scanner, and copies queued before are given it when they are written, so that they are not
+ * inserted twice. Genres are only queued once the scanner threads are done, and are written as they are.
+ */
+public class ScanWriteBuffer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScanWriteBuffer.class);
+
+    private final MediaFileService mediaFileService;
+    private final AlbumService albumService;
+    private final ArtistService artistService;
+    private final int batchSize;
+
+    private final BlockingQueue<PendingWrite<?>> queue;
+    private final ExecutorService writer;
+    private final CompletableFuture<Void> writerLoop;
+    private volatile boolean closed = false;
+
+    public ScanWriteBuffer(MediaFileService mediaFileService, AlbumService albumService, ArtistService artistService, int batchSize) {
+        this.mediaFileService = mediaFileService;
+        this.albumService = albumService;
+        this.artistService = artistService;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<>(batchSize * 20);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MediaLibraryScanWriter");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writerLoop = CompletableFuture.runAsync(this::writeLoop, writer);
+    }
+
+    public void updateMediaFile(MediaFile mediaFile) {
+        enqueue(new PendingWrite<>(MediaFile.class, mediaFile, new MediaFile(mediaFile), null));
+    }
+
+    /**
+     * Queues the album for saving.
+     *
+     * @param album   album to save
+     * @param onSaved called on the writer thread with the saved copy of the album, may be null
+     */
+    public void saveAlbum(Album album, Consumer<Album> onSaved) {
+        enqueue(new PendingWrite<>(Album.class, album, new Album(album), onSaved));
+    }
+
+    /**
+     * Queues the artist for saving.
+     *
+     * @param artist  artist to save
+     * @param onSaved called on the writer thread with the saved copy of the artist, may be null
+     */
+    public void saveArtist(Artist artist, Consumer<Artist> onSaved) {
+        enqueue(new PendingWrite<>(Artist.class, artist, new Artist(artist), onSaved));
+    }
+
+    public void updateGenre(Genre genre) {
+        enqueue(new PendingWrite<>(Genre.class, genre, genre, null));
+    }
+
+    /**
+     * Waits until everything queued so far has been written.
+     */
+    public void flush() {
+        CompletableFuture<Void> barrier = new CompletableFuture<>();
+        enqueue(new PendingWrite<>(Void.class, null, null, x -> barrier.complete(null)));
+        CompletableFuture.anyOf(barrier, writerLoop).join();
+    }
+
+    /**
+     * Writes the remaining entries and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            flush();
+            closed = true;
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void enqueue(PendingWrite<?> write) {
+        if (closed || writerLoop.isDone()) {
+            throw new IllegalStateException("Scan write buffer is closed");
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing scan write", e);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingWrite<?>> batch = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes consecutive entries of the same type together, so that the queueing order is kept.
+     */
+    private void write(List<PendingWrite<?>> batch) {
+        int start = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).type != batch.get(start).type) {
+                writeRun(batch.subList(start, i));
+                start = i;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeRun(List<PendingWrite<?>> run) {
+        Class<?> type = run.get(0).type;
+        // the same instance may be queued several times, only its latest copy is written
+        Map<Object, Object> latest = new IdentityHashMap<>();
+        List<Object> entities = new ArrayList<>(run.size());
+        for (int i = run.size() - 1; i >= 0; i--) {
+            PendingWrite<?> w = run.get(i);
+            if (w.original != null && !latest.containsKey(w.original)) {
+                latest.put(w.original, w.entity);
+                copyId(w.original, w.entity);
+                entities.add(w.entity);
+            }
+        }
+        Collections.reverse(entities);
+        if (!entities.isEmpty()) {
+            try {
+                saveAll(type, entities);
+            } catch (Exception e) {
+                LOG.warn("Batch write of {} {} failed, writing them one by one", entities.size(), type.getSimpleName(), e);
+                entities.forEach(entity -> {
+                    try {
+                        saveAll(type, List.of(entity));
+                    } catch (Exception ex) {
+                        LOG.warn("Could not write {} during scan", entity, ex);
+                    }
+                });
+            }
+            latest.forEach((original, written) -> copyId(written, original));
+        }
+        run.forEach(w -> {
+            if (w.onWritten != null) {
+                try {
+                    ((Consumer<Object>) w.onWritten).accept(latest.get(w.original));
+                } catch (Exception e) {
+                    LOG.warn("Post write action failed for {}", w.entity, e);
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private void saveAll(Class<?> type, List<Object> entities) {
+        if (type == MediaFile.class) {
+            mediaFileService.updateMediaFiles((List<MediaFile>) (List<?>) entities);
+        } else if (type == Album.class) {
+            albumService.saveAll((List<Album>) (List<?>) entities);
+        } else if (type == Artist.class) {
+            artistService.saveAll((List<Artist>) (List<?>) entities);
+        } else if (type == Genre.class) {
+            mediaFileService.updateGenres((List<Genre>) (List<?>) entities);
+        }
+    }
+
+    /**
+     * Gives an entity the id of another instance of it, unless it already has one.
+     */
+    private static void copyId(Object from, Object to) {
+        if (from instanceof MediaFile source && to instanceof MediaFile target && target.getId() == null) {
+            target.setId(source.getId());
+        } else if (from instanceof Album source && to instanceof Album target && target.getId() == null) {
+            target.setId(source.getId());
+        } else if (from instanceof Artist source && to instanceof Artist target && target.getId() == null) {
+            target.setId(source.getId());
+        }
+    }
+
+    private static class PendingWrite<T> {
+        private final Class<?> type;
+        // the instance of the scanner
+        private final T original;
+        // the state of the instance when it was queued
+        private final T entity;
+        private final Consumer<T> onWritten;
+
+        PendingWrite(Class<?> type, T original, T entity, Consumer<T> onWritten) {
+            this.type = type;
+            this.original = original;
+            this.entity = entity;
+            this.onWritten = onWritten;
+        }
+    }
+}
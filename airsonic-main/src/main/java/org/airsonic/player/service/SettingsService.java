@@ -23,7 +23,6 @@ package org.airsonic.player.service;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.RateLimiter;
 import org.airsonic.player.config.AirsonicCueConfig;
 import org.airsonic.player.config.AirsonicFolderConfig;
 import org.airsonic.player.config.AirsonicHomeConfig;
@@ -87,6 +86,8 @@ public class SettingsService {
     private static final String KEY_FAST_CACHE_ENABLED = "FastCacheEnabled";
     private static final String KEY_FULL_SCAN = "FullScan";
     private static final String KEY_CLEAR_FULL_SCAN_SETTING_AFTER_SCAN = "ClearFullScanSettingAfterScan";
+    private static final String KEY_INCREMENTAL_SCAN = "IncrementalScan";
+    private static final String KEY_WATCH_MUSIC_FOLDERS = "WatchMusicFolders";
     private static final String KEY_TRANSCODE_ESTIMATE_TIME_PADDING = "TranscodeEstimateTimePadding";
     private static final String KEY_TRANSCODE_ESTIMATE_BYTE_PADDING = "TranscodeEstimateBytePadding";
     private static final String KEY_DB_BACKUP_INTERVAL = "DbBackupUpdateInterval";
@@ -148,6 +149,8 @@ public class SettingsService {
     private static final String KEY_RECAPTCHA_SITE_KEY = "ReCaptchaSiteKey";
     private static final String KEY_RECAPTCHA_SECRET_KEY = "ReCaptchaSecretKey";
 
+    private static final String KEY_REST_FORMATTED_OUTPUT = "RestFormattedOutput";
+
     // Database Settings
     private static final String KEY_DATABASE_DRIVER = "spring.datasource.driver-class-name";
     public static final String KEY_DATABASE_URL = "spring.datasource.url";
@@ -194,6 +197,8 @@ public class SettingsService {
     private static final boolean DEFAULT_FAST_CACHE_ENABLED = false;
     private static final boolean DEFAULT_FULL_SCAN = false;
     private static final boolean DEFAULT_CLEAR_FULL_SCAN_SETTING_AFTER_SCAN = false;
+    private static final boolean DEFAULT_INCREMENTAL_SCAN = false;
+    private static final boolean DEFAULT_WATCH_MUSIC_FOLDERS = false;
     private static final long DEFAULT_TRANSCODE_ESTIMATE_TIME_PADDING = 2000;
     private static final long DEFAULT_TRANSCODE_ESTIMATE_BYTE_PADDING = 0;
     private static final int DEFAULT_DB_BACKUP_INTERVAL = -1;
@@ -247,6 +252,8 @@ public class SettingsService {
     private static final String DEFAULT_RECAPTCHA_SITE_KEY = "6LeIxAcTAAAAAJcZVRqyHh71UMIEGNQ_MXjiZKhI";
     private static final String DEFAULT_RECAPTCHA_SECRET_KEY = "6LeIxAcTAAAAAGG-vFI1TnRWxMZNFuojJ4WifJWe";
 
+    private static final boolean DEFAULT_REST_FORMATTED_OUTPUT = false;
+
     private static final String DEFAULT_DATABASE_DRIVER = null;
     private static final String DEFAULT_DATABASE_URL = null;
     private static final String DEFAULT_DATABASE_USERNAME = null;
@@ -799,6 +806,29 @@ public class SettingsService {
         setBoolean(KEY_CLEAR_FULL_SCAN_SETTING_AFTER_SCAN, clear);
     }
 
+    /**
+     * Returns whether scans should skip directories whose modification time did not change
+     * since the last completed scan. Ignored when a full scan is requested.
+     */
+    public boolean getIncrementalScan() {
+        return getBoolean(KEY_INCREMENTAL_SCAN, DEFAULT_INCREMENTAL_SCAN);
+    }
+
+    public void setIncrementalScan(Boolean incremental) {
+        setBoolean(KEY_INCREMENTAL_SCAN, incremental);
+    }
+
+    /**
+     * Returns whether music folders are watched for changes, which are then scanned right away.
+     */
+    public boolean getWatchMusicFolders() {
+        return getBoolean(KEY_WATCH_MUSIC_FOLDERS, DEFAULT_WATCH_MUSIC_FOLDERS);
+    }
+
+    public void setWatchMusicFolders(Boolean watchMusicFolders) {
+        setBoolean(KEY_WATCH_MUSIC_FOLDERS, watchMusicFolders);
+    }
+
     public long getTranscodeEstimateTimePadding() {
         return getLong(KEY_TRANSCODE_ESTIMATE_TIME_PADDING, DEFAULT_TRANSCODE_ESTIMATE_TIME_PADDING);
     };
@@ -882,29 +912,11 @@ public class SettingsService {
         return getLong(KEY_DOWNLOAD_BITRATE_LIMIT, DEFAULT_DOWNLOAD_BITRATE_LIMIT);
     }
 
-    public RateLimiter getDownloadBitrateLimiter() {
-        return (RateLimiter) derivativeSettingsCache.computeIfAbsent(KEY_DOWNLOAD_BITRATE_LIMIT,
-            k -> RateLimiter.create(adjustBitrateLimit(getDownloadBitrateLimit())));
-    }
-
-    /**
-     * Convert rate given in KB to bytes and accounts for 0 (meaning no bitrate)
-     */
-    private static Double adjustBitrateLimit(double rate) {
-        double rateLimitInBytes = rate * 1024.0;
-        if (rate == 0) {
-            rateLimitInBytes = Double.POSITIVE_INFINITY;
-        }
-
-        return rateLimitInBytes;
-    }
-
     /**
      * @param limit The download bitrate limit in Kbit/s. Zero if unlimited.
      */
     public void setDownloadBitrateLimit(long limit) {
         setLong(KEY_DOWNLOAD_BITRATE_LIMIT, limit);
-        getDownloadBitrateLimiter().setRate(adjustBitrateLimit(limit));
     }
 
     /**
@@ -914,17 +926,11 @@ public class SettingsService {
         return getLong(KEY_UPLOAD_BITRATE_LIMIT, DEFAULT_UPLOAD_BITRATE_LIMIT);
     }
 
-    public RateLimiter getUploadBitrateLimiter() {
-        return (RateLimiter) derivativeSettingsCache.computeIfAbsent(KEY_UPLOAD_BITRATE_LIMIT,
-            k -> RateLimiter.create(adjustBitrateLimit(getUploadBitrateLimit())));
-    }
-
     /**
      * @param limit The upload bitrate limit in Kbit/s. Zero if unlimited.
      */
     public void setUploadBitrateLimit(long limit) {
         setLong(KEY_UPLOAD_BITRATE_LIMIT, limit);
-        getUploadBitrateLimiter().setRate(adjustBitrateLimit(limit));
     }
 
     public String getSplitOptions() {
@@ -1391,6 +1397,17 @@ public class SettingsService {
         setString(KEY_RECAPTCHA_SECRET_KEY, recaptchaSecretKey);
     }
 
+    /**
+     * @return whether REST API responses are indented for readability.
+     */
+    public boolean isRestFormattedOutput() {
+        return getBoolean(KEY_REST_FORMATTED_OUTPUT, DEFAULT_REST_FORMATTED_OUTPUT);
+    }
+
+    public void setRestFormattedOutput(boolean restFormattedOutput) {
+        setBoolean(KEY_REST_FORMATTED_OUTPUT, restFormattedOutput);
+    }
+
     public String getDatabaseDriver() {
         return getString(KEY_DATABASE_DRIVER, DEFAULT_DATABASE_DRIVER);
     }
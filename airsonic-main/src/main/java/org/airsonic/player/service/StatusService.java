@@ -63,17 +63,20 @@ public class StatusService {
     private final PersonalSettingsService personalSettingsService;
     private final AsyncWebSocketClient asyncWebSocketClient;
     private final TaskSchedulingService taskService;
+    private final BandwidthScheduler bandwidthScheduler;
 
     public StatusService(
         MediaFileService mediaFileService,
         AsyncWebSocketClient asyncWebSocketClient,
         TaskSchedulingService taskService,
-        PersonalSettingsService personalSettingsService
+        PersonalSettingsService personalSettingsService,
+        BandwidthScheduler bandwidthScheduler
     ) {
         this.mediaFileService = mediaFileService;
         this.taskService = taskService;
         this.asyncWebSocketClient = asyncWebSocketClient;
         this.personalSettingsService = personalSettingsService;
+        this.bandwidthScheduler = bandwidthScheduler;
     }
 
     @EventListener
@@ -158,6 +161,13 @@ public class StatusService {
         return new ArrayList<>(uploadStatuses);
     }
 
+    /**
+     * Returns the current throughput of the users who are streaming, downloading or uploading, highest first.
+     */
+    public List<BandwidthScheduler.UserThroughput> getUserThroughputs() {
+        return bandwidthScheduler.getUserThroughputs();
+    }
+
     public void cleanupRemotePlays() {
         Set<PlayStatus> expired = remotePlays.values().parallelStream().filter(PlayStatus::isExpired).collect(Collectors.toSet());
         expired.forEach(e -> {
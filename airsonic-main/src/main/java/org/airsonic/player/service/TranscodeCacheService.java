@@ -0,0 +1,424 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.io.TranscodeInputStream;
+import org.airsonic.player.util.DiskLruIndex;
+import org.airsonic.player.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size bounded on-disk cache of transcoded media. The output of a transcoder is written to a cache file while it is
+ * streamed, and later requests for the same media file, transcoding, bit rate and format are served from the
+ * completed file, which has a known length and therefore supports HTTP range requests.
+ * The least recently used files are evicted when the cache exceeds its maximum size.
+ *
+ * @see AirsonicTranscodeConfig#getCacheSize()
+ */
+@Service
+public class TranscodeCacheService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TranscodeCacheService.class);
+
+    private static final String PART_SUFFIX = ".part";
+    private static final long TRANSCODER_EXIT_TIMEOUT_SECONDS = 10;
+
+    private final Path directory;
+    private final long maxSize;
+
+    // cached files by key
+    private final DiskLruIndex index;
+
+    // keys of the cache files currently being written
+    private final Set<String> writing = ConcurrentHashMap.newKeySet();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bytesServed;
+    private final Counter bytesWritten;
+
+    public TranscodeCacheService(AirsonicHomeConfig homeConfig, AirsonicTranscodeConfig transcodeConfig, MeterRegistry meterRegistry) {
+        this.directory = homeConfig.getAirsonicHome().resolve("transcode-cache");
+        this.maxSize = Optional.ofNullable(transcodeConfig.getCacheSize()).orElse(0L) * 1024L * 1024L;
+        this.index = new DiskLruIndex(directory, maxSize);
+        this.hits = Counter.builder("airsonic.transcode.cache.requests").tag("result", "hit")
+                .description("Transcoded streams served from the cache").register(meterRegistry);
+        this.misses = Counter.builder("airsonic.transcode.cache.requests").tag("result", "miss")
+                .description("Cacheable transcoded streams not found in the cache").register(meterRegistry);
+        this.bytesServed = Counter.builder("airsonic.transcode.cache.bytes").tag("operation", "read").baseUnit("bytes")
+                .description("Bytes read from the cache").register(meterRegistry);
+        this.bytesWritten = Counter.builder("airsonic.transcode.cache.bytes").tag("operation", "write").baseUnit("bytes")
+                .description("Bytes written to the cache").register(meterRegistry);
+        Gauge.builder("airsonic.transcode.cache.size", this, TranscodeCacheService::getSize).baseUnit("bytes")
+                .description("Size of the cached files").register(meterRegistry);
+        Gauge.builder("airsonic.transcode.cache.entries", this, TranscodeCacheService::getEntryCount)
+                .description("Number of cached files").register(meterRegistry);
+    }
+
+    /**
+     * Loads the files left by a previous run, least recently used first, and removes incomplete ones.
+     */
+    @PostConstruct
+    public void init() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> stream = Files.list(directory)) {
+                for (Path file : stream.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    if (file.getFileName().toString().endsWith(PART_SUFFIX)) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        files.add(file);
+                    }
+                }
+            }
+            index.load(files);
+            LOG.info("Transcode cache contains {} files with {} bytes", getEntryCount(), getSize());
+        } catch (IOException e) {
+            LOG.warn("Failed to initialize transcode cache directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Returns the maximum size of the cached files.
+     *
+     * @return the maximum size in bytes, 0 if the cache is disabled
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Creates the key of the transcoded output of a media file. The key changes whenever the media file or the
+     * commands of the transcoding are changed.
+     *
+     * @param mediaFile   The media file.
+     * @param transcoding The transcoding.
+     * @param maxBitRate  The bit rate passed to the transcoder. May be {@code null}.
+     * @return the key, which is also the name of the cache file
+     */
+    public static String createKey(MediaFile mediaFile, Transcoding transcoding, Integer maxBitRate) {
+        long changed = Optional.ofNullable(mediaFile.getChanged()).map(Instant::toEpochMilli).orElse(0L);
+        String transcodingId = transcoding.getId() != null ? String.valueOf(transcoding.getId()) : transcoding.getName();
+        String format = transcoding.getTargetFormat();
+        return sanitize(String.format("%d-%d-%s-%08x-%s.%s", mediaFile.getId(), changed, transcodingId,
+                getCommandHash(transcoding), maxBitRate == null ? "0" : maxBitRate, format));
+    }
+
+    /**
+     * Returns a hash of the commands of a transcoding, for keys which change when the commands are edited.
+     *
+     * @param transcoding The transcoding. May be {@code null}.
+     * @return the hash
+     */
+    public static int getCommandHash(Transcoding transcoding) {
+        if (transcoding == null) {
+            return 0;
+        }
+        return Objects.hash(transcoding.getStep1(), transcoding.getStep2(), transcoding.getStep3());
+    }
+
+    private static String sanitize(String key) {
+        return key.replaceAll("[^A-Za-z0-9.\\-]", "_");
+    }
+
+    /**
+     * Returns the length of a completely cached file.
+     *
+     * @param key The cache key.
+     * @return the length in bytes, or {@code null} if the file is not cached
+     */
+    public Long getCachedLength(String key) {
+        return index.get(key);
+    }
+
+    /**
+     * Opens a cached file.
+     *
+     * @param key The cache key.
+     * @return the content of the cached file, or {@code null} if the file is not cached
+     * @throws IOException If an I/O error occurs.
+     */
+    public InputStream open(String key) throws IOException {
+        if (getCachedLength(key) == null) {
+            return null;
+        }
+        Path file = directory.resolve(key);
+        InputStream in;
+        try {
+            in = Files.newInputStream(file);
+        } catch (NoSuchFileException e) {
+            index.remove(key);
+            return null;
+        }
+        index.touch(key);
+        hits.increment();
+        return new BufferedInputStream(new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    bytesServed.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytesServed.increment(n);
+                }
+                return n;
+            }
+        });
+    }
+
+    /**
+     * Returns a stream which writes the data read from the given transcoder output to the cache. The cache file is
+     * only kept if the transcoder output is read completely and the transcoder exited normally. If the file is
+     * already being written by another stream, the transcoder output is returned as is.
+     *
+     * @param key The cache key.
+     * @param in  The transcoder output.
+     * @return the transcoder output
+     */
+    public InputStream tee(String key, InputStream in) {
+        misses.increment();
+        if (!writing.add(key)) {
+            return in;
+        }
+        return createCachingStream(key, in);
+    }
+
+    /**
+     * Reads the given transcoder output completely into the cache, without serving it.
+     *
+     * @param key The cache key.
+     * @param in  The transcoder output, which is closed by this method.
+     * @return whether the output was cached
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean store(String key, InputStream in) throws IOException {
+        if (!writing.add(key)) {
+            in.close();
+            return false;
+        }
+        try (InputStream caching = createCachingStream(key, in)) {
+            if (caching == in) {
+                return false;
+            }
+            caching.transferTo(OutputStream.nullOutputStream());
+        }
+        return getCachedLength(key) != null;
+    }
+
+    private InputStream createCachingStream(String key, InputStream in) {
+        Path part = directory.resolve(key + PART_SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            return new CachingInputStream(in, key, part, Files.newOutputStream(part));
+        } catch (IOException e) {
+            LOG.warn("Failed to create transcode cache file {}", part, e);
+            writing.remove(key);
+            return in;
+        }
+    }
+
+    private void complete(String key, Path part, long length) {
+        try {
+            Files.move(part, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.put(key, length);
+            LOG.debug("Cached {} bytes of transcoded data in {}", length, key);
+        } catch (IOException e) {
+            LOG.warn("Failed to complete transcode cache file {}", part, e);
+            FileUtil.delete(part);
+        } finally {
+            writing.remove(key);
+        }
+    }
+
+    private void abort(String key, Path part) {
+        FileUtil.delete(part);
+        writing.remove(key);
+    }
+
+    public long getSize() {
+        return index.getSize();
+    }
+
+    public int getEntryCount() {
+        return index.getEntryCount();
+    }
+
+    /**
+     * Copies the data read from a transcoder into a cache file.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final String key;
+        private final Path part;
+        private OutputStream out;
+        private long length;
+        private boolean done;
+
+        CachingInputStream(InputStream in, String key, Path part, OutputStream out) {
+            super(in);
+            this.key = key;
+            this.part = part;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish(true);
+            } else if (out != null) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                finish(true);
+            } else if (n > 0) {
+                write(b, off, n);
+            }
+            return n;
+        }
+
+        /**
+         * Skipped data is read as well, since it is part of the cached file.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            if (out == null) {
+                return super.skip(n);
+            }
+            byte[] buffer = new byte[8192];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                finish(false);
+            }
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.write(b, off, len);
+                length += len;
+                bytesWritten.increment(len);
+            } catch (IOException e) {
+                LOG.warn("Failed to write transcode cache file {}", part, e);
+                finish(false);
+            }
+        }
+
+        private void finish(boolean eof) {
+            if (done) {
+                return;
+            }
+            done = true;
+            FileUtil.closeQuietly(out);
+            out = null;
+            if (eof && exitedNormally()) {
+                complete(key, part, length);
+            } else {
+                abort(key, part);
+            }
+        }
+
+        private boolean exitedNormally() {
+            if (!(in instanceof TranscodeInputStream)) {
+                return true;
+            }
+            Process process = ((TranscodeInputStream) in).getProcess();
+            try {
+                return process.waitFor(TRANSCODER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS) && process.exitValue() == 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
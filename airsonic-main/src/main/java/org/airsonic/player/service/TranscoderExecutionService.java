@@ -0,0 +1,249 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.io.InputStreamReaderThread;
+import org.airsonic.player.io.TranscodeInputStream;
+import org.airsonic.player.util.Util;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts transcoder processes. The number of processes which run at the same time is limited. A transcoding waits a
+ * bounded time for running processes to exit and is rejected if none do, or at once if too many transcodings are
+ * waiting already. The stdin and stderr of the processes, and the stdout of processes whose output is not streamed,
+ * are pumped by a shared executor, and the wall and CPU time of every process is recorded as metrics.
+ *
+ * @see AirsonicTranscodeConfig#getMaxProcesses()
+ */
+@Service
+public class TranscoderExecutionService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TranscoderExecutionService.class);
+
+    private static final long CPU_SAMPLE_INTERVAL_SECONDS = 1;
+
+    private final int maxProcesses;
+    private final long admissionTimeoutSeconds;
+    private final int maxWaiting;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final ExecutorService pumpers = Executors.newCachedThreadPool(Util.getDaemonThreadfactory("transcoder-io"));
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(Util.getDaemonThreadfactory("transcoder-cpu"));
+
+    // last sampled CPU time of the running processes
+    private final Map<Process, Duration> running = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Counter rejected;
+
+    public TranscoderExecutionService(AirsonicTranscodeConfig transcodeConfig, MeterRegistry meterRegistry) {
+        this.maxProcesses = transcodeConfig.getMaxProcesses();
+        this.admissionTimeoutSeconds = transcodeConfig.getAdmissionTimeout();
+        this.maxWaiting = transcodeConfig.getAdmissionQueueLength();
+        this.permits = new Semaphore(maxProcesses, true);
+        this.meterRegistry = meterRegistry;
+        this.rejected = Counter.builder("airsonic.transcode.processes.rejected")
+                .description("Transcodings rejected because too many transcoders were running").register(meterRegistry);
+        Gauge.builder("airsonic.transcode.processes.active", running, Map::size)
+                .description("Running transcoder processes").register(meterRegistry);
+        Gauge.builder("airsonic.transcode.processes.waiting", waiting, AtomicInteger::get)
+                .description("Transcodings waiting for running transcoders to exit").register(meterRegistry);
+        sampler.scheduleWithFixedDelay(this::sampleCpuTimes, CPU_SAMPLE_INTERVAL_SECONDS, CPU_SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Reserves the given number of transcoder processes, waiting for running ones to exit if necessary.
+     *
+     * @param processes The number of processes, e.g. the number of steps of a transcoding.
+     * @return the admission, which must be closed once the processes are started
+     * @throws TranscoderBusyException If the processes could not be reserved in time, or the wait queue is full.
+     */
+    public Admission admit(int processes) throws TranscoderBusyException {
+        // a transcoding with more steps than allowed processes may run alone
+        int count = Math.min(Math.max(processes, 1), maxProcesses);
+        try {
+            // a zero timeout respects the fairness of the semaphore, unlike tryAcquire without one
+            if (permits.tryAcquire(count, 0, TimeUnit.SECONDS)) {
+                return new Admission(count);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranscoderBusyException(maxProcesses);
+        }
+        // do not tie up more request threads than the queue allows
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            throw new TranscoderBusyException(maxProcesses);
+        }
+        try {
+            if (!permits.tryAcquire(count, admissionTimeoutSeconds, TimeUnit.SECONDS)) {
+                rejected.increment();
+                throw new TranscoderBusyException(maxProcesses);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranscoderBusyException(maxProcesses);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        return new Admission(count);
+    }
+
+    private void onStart(Process process, String executable, boolean permitted) {
+        long start = System.nanoTime();
+        running.put(process, Duration.ZERO);
+        process.onExit().whenComplete((p, e) -> onExit(process, executable, start, permitted));
+    }
+
+    private void onExit(Process process, String executable, long start, boolean permitted) {
+        Duration cpu = running.get(process);
+        long wall = System.nanoTime() - start;
+        LOG.debug("Transcoder {} exited after {} ms using {} ms of CPU time", executable, TimeUnit.NANOSECONDS.toMillis(wall),
+                cpu == null ? null : cpu.toMillis());
+        Timer.builder("airsonic.transcode.process.wall").tag("executable", executable)
+                .description("Wall time of transcoder processes").register(meterRegistry)
+                .record(wall, TimeUnit.NANOSECONDS);
+        if (cpu != null) {
+            Timer.builder("airsonic.transcode.process.cpu").tag("executable", executable)
+                    .description("CPU time of transcoder processes, sampled every second").register(meterRegistry)
+                    .record(cpu);
+        }
+        running.remove(process);
+        if (permitted) {
+            permits.release();
+        }
+    }
+
+    /**
+     * Reads and discards the output of a process whose output files are used instead, so that it does not block.
+     *
+     * @param in   The output of the process, which is closed afterwards.
+     * @param name The name to log the lines with.
+     */
+    public void drain(InputStream in, String name) {
+        pumpers.execute(() -> InputStreamReaderThread.read(in, name, true));
+    }
+
+    /**
+     * The CPU time of a process is not available after it exited, so it is sampled while it runs.
+     */
+    void sampleCpuTimes() {
+        running.replaceAll((process, last) -> process.info().totalCpuDuration().orElse(last));
+    }
+
+    /**
+     * Returns the number of running transcoder processes.
+     */
+    public int getActiveProcessCount() {
+        return running.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sampler.shutdownNow();
+        pumpers.shutdownNow();
+    }
+
+    /**
+     * Transcoder processes reserved by {@link #admit}. Reserved processes which are not started are released on close.
+     */
+    public class Admission implements AutoCloseable {
+
+        private int remaining;
+
+        private Admission(int remaining) {
+            this.remaining = remaining;
+        }
+
+        /**
+         * Starts one of the reserved processes.
+         *
+         * @param processBuilder Used to create the process.
+         * @param in             Data to feed to the process. May be {@code null}.
+         * @param tmpFile        Temporary file to delete when the stream is closed. May be {@code null}.
+         * @param niceness       The niceness of the process. 0 runs it with normal priority. Ignored on Windows.
+         * @return the output of the process
+         * @throws IOException If an I/O error occurs.
+         */
+        public synchronized TranscodeInputStream start(ProcessBuilder processBuilder, InputStream in, Path tmpFile, int niceness) throws IOException {
+            String executable = StringUtils.substringAfterLast(processBuilder.command().get(0).replace('\\', '/'), "/");
+            if (executable.isEmpty()) {
+                executable = processBuilder.command().get(0);
+            }
+            if (niceness > 0 && !Util.isWindows()) {
+                List<String> command = new ArrayList<>(List.of("nice", "-n", String.valueOf(niceness)));
+                command.addAll(processBuilder.command());
+                processBuilder.command(command);
+            }
+            TranscodeInputStream stream = new TranscodeInputStream(processBuilder, in, tmpFile, pumpers);
+            boolean permitted = remaining > 0;
+            if (permitted) {
+                remaining--;
+            }
+            onStart(stream.getProcess(), executable, permitted);
+            return stream;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (remaining > 0) {
+                permits.release(remaining);
+                remaining = 0;
+            }
+        }
+    }
+
+    /**
+     * Thrown when a transcoding is rejected because the maximum number of transcoders are running.
+     */
+    public static class TranscoderBusyException extends IOException {
+
+        public TranscoderBusyException(int maxProcesses) {
+            super("Too many concurrent transcoders. All " + maxProcesses + " transcoder processes are in use, try again later.");
+        }
+    }
+}
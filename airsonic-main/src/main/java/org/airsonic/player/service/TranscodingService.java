@@ -74,6 +74,10 @@ public class TranscodingService {
     private TranscodingRepository transcodingRepository;
     @Autowired
     private PersonalSettingsService personalSettingsService;
+    @Autowired
+    private TranscodeCacheService transcodeCacheService;
+    @Autowired
+    private TranscoderExecutionService transcoderExecutionService;
 
     /**
      * Returns all transcodings.
@@ -258,11 +262,76 @@ public class TranscodingService {
         }
 
         parameters.setMaxBitRate(maxBitRate);
-        parameters.setExpectedLength(getExpectedLength(parameters));
-        parameters.setRangeAllowed(isRangeAllowed(parameters));
+        parameters.setCacheKey(getCacheKey(parameters));
+
+        // The length of a cached transcoding is known exactly
+        Long cachedLength = parameters.getCacheKey() == null ? null : transcodeCacheService.getCachedLength(parameters.getCacheKey());
+        if (cachedLength != null) {
+            parameters.setExpectedLength(cachedLength);
+            parameters.setRangeAllowed(true);
+        } else {
+            parameters.setExpectedLength(getExpectedLength(parameters));
+            parameters.setRangeAllowed(isRangeAllowed(parameters));
+        }
         return parameters;
     }
 
+    /**
+     * Returns the transcoding which produces the HLS segments of a video.
+     *
+     * @param mediaFile The video.
+     * @return the transcoding
+     */
+    public Transcoding getHlsTranscoding(MediaFile mediaFile) {
+        return getTranscoding(mediaFile, null, "ts", true);
+    }
+
+    /**
+     * Creates parameters for transcoding the given audio file ahead of time into the given format and bit rate.
+     * The first of the given transcodings which converts the format of the file into the target format is used,
+     * so that the output is served to players which use the same transcoding and bit rate.
+     *
+     * @param mediaFile    The audio file.
+     * @param transcodings The transcodings to choose from.
+     * @param targetFormat The target format.
+     * @param maxBitRate   The bit rate.
+     * @return Parameters to be used in the {@link #preTranscode} method, with the estimated length of the output,
+     *         or {@code null} if no transcoding is applicable or the output can not be cached.
+     */
+    public Parameters getPreTranscodeParameters(MediaFile mediaFile, List<Transcoding> transcodings, String targetFormat, int maxBitRate) {
+        if (mediaFile.isVideo()) {
+            return null;
+        }
+        for (Transcoding transcoding : transcodings) {
+            if (transcoding.getTargetFormat().equalsIgnoreCase(targetFormat)
+                    && Arrays.stream(transcoding.getSourceFormatsAsArray()).anyMatch(f -> f.equalsIgnoreCase(mediaFile.getFormat()))
+                    && isTranscodingInstalled(transcoding)) {
+                Parameters parameters = new Parameters(mediaFile, null, maxBitRate);
+                parameters.setTranscoding(transcoding);
+                parameters.setCacheKey(getCacheKey(parameters));
+                parameters.setExpectedLength(getExpectedLength(parameters));
+                return parameters.getCacheKey() == null ? null : parameters;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Transcodes a file into the transcode cache, unless it is cached already.
+     *
+     * @param parameters As returned by {@link #getPreTranscodeParameters}.
+     * @param niceness   The niceness of the transcoder processes. 0 runs them with normal priority.
+     * @return Whether the file was transcoded.
+     * @throws IOException If an I/O error occurs.
+     */
+    public boolean preTranscode(Parameters parameters, int niceness) throws IOException {
+        if (transcodeCacheService.getCachedLength(parameters.getCacheKey()) != null) {
+            return false;
+        }
+        parameters.setNiceness(niceness);
+        return transcodeCacheService.store(parameters.getCacheKey(), createTranscodedInputStream(parameters));
+    }
+
     /**
      * Returns a possibly transcoded, downsampled and/or split input stream for the given music file and player combination.
      *
@@ -276,17 +345,36 @@ public class TranscodingService {
      *
      * Otherwise, a normal input stream to the original file is returned.
      *
+     * Transcoded streams are served from the transcode cache if possible, and are written to it otherwise.
+     * If the cached file was evicted since the parameters were created, their expected length and whether ranges
+     * are allowed are updated for the live transcoding.
+     *
      * @param parameters As returned by {@link #getParameters}.
      * @return A possible transcoded or downsampled input stream.
+     * @throws TranscoderExecutionService.TranscoderBusyException If too many transcoders are running.
      * @throws IOException If an I/O error occurs.
      */
     public InputStream getTranscodedInputStream(Parameters parameters) throws IOException {
         try {
 
+            if (parameters.getCacheKey() != null) {
+                InputStream cached = transcodeCacheService.open(parameters.getCacheKey());
+                if (cached != null) {
+                    return cached;
+                }
+                // evicted since the parameters were created, the length of the live transcoding is unknown
+                parameters.setExpectedLength(getExpectedLength(parameters));
+                parameters.setRangeAllowed(isRangeAllowed(parameters));
+                return transcodeCacheService.tee(parameters.getCacheKey(), createTranscodedInputStream(parameters));
+            }
+
             if (parameters.getTranscoding() != null) {
                 return createTranscodedInputStream(parameters);
             }
 
+        } catch (TranscoderExecutionService.TranscoderBusyException x) {
+            LOG.warn("Transcoder rejected for {} in folder {}: {}", parameters.getMediaFile().getPath(), parameters.getMediaFile().getFolder().getId(), x.getMessage());
+            throw x;
         } catch (IOException x) {
             LOG.warn("Transcoder failed for {} in folder {}. Using original file", parameters.getMediaFile().getPath(), parameters.getMediaFile().getFolder().getId(), x);
         } catch (Exception x) {
@@ -326,18 +414,22 @@ public class TranscodingService {
         Integer maxBitRate = parameters.getMaxBitRate();
         VideoTranscodingSettings videoTranscodingSettings = parameters.getVideoTranscodingSettings();
         MediaFile mediaFile = parameters.getMediaFile();
+        int niceness = parameters.getNiceness();
+        int steps = 1 + (transcoding.getStep2() != null ? 1 : 0) + (transcoding.getStep3() != null ? 1 : 0);
 
-        TranscodeInputStream in = createTranscodeInputStream(transcoding.getStep1(), maxBitRate, videoTranscodingSettings, mediaFile, null);
+        try (TranscoderExecutionService.Admission admission = transcoderExecutionService.admit(steps)) {
+            TranscodeInputStream in = createTranscodeInputStream(transcoding.getStep1(), maxBitRate, videoTranscodingSettings, mediaFile, null, admission, niceness);
 
-        if (transcoding.getStep2() != null) {
-            in = createTranscodeInputStream(transcoding.getStep2(), maxBitRate, videoTranscodingSettings, mediaFile, in);
-        }
+            if (transcoding.getStep2() != null) {
+                in = createTranscodeInputStream(transcoding.getStep2(), maxBitRate, videoTranscodingSettings, mediaFile, in, admission, niceness);
+            }
 
-        if (transcoding.getStep3() != null) {
-            in = createTranscodeInputStream(transcoding.getStep3(), maxBitRate, videoTranscodingSettings, mediaFile, in);
-        }
+            if (transcoding.getStep3() != null) {
+                in = createTranscodeInputStream(transcoding.getStep3(), maxBitRate, videoTranscodingSettings, mediaFile, in, admission, niceness);
+            }
 
-        return in;
+            return in;
+        }
     }
 
     /**
@@ -363,11 +455,14 @@ public class TranscodingService {
      * @param videoTranscodingSettings Parameters used when transcoding video. May be {@code null}.
      * @param mediaFile                The media file.
      * @param in                       Data to feed to the process.  May be {@code null}.
+     * @param admission                Reserved transcoder processes, one of which is started.
+     * @param niceness                 The niceness of the process. 0 runs it with normal priority.
      * @return The newly created input stream.
      */
     private TranscodeInputStream createTranscodeInputStream(String command, Integer maxBitRate,
                                                             VideoTranscodingSettings videoTranscodingSettings,
-                                                            MediaFile mediaFile, InputStream in) throws IOException {
+                                                            MediaFile mediaFile, InputStream in,
+                                                            TranscoderExecutionService.Admission admission, int niceness) throws IOException {
 
         // Work-around for filename character encoding problem on Windows.
         // Create temporary file, and feed this to the transcoder.
@@ -405,7 +500,7 @@ public class TranscodingService {
                 Optional.ofNullable(videoTranscodingSettings).map(VideoTranscodingSettings::getOutputFilename).orElse(null));
 
         ProcessBuilder builder = transformTranscodingVariables(command, vars);
-        return new TranscodeInputStream(builder, in, tmpFile);
+        return admission.start(builder, in, tmpFile, niceness);
     }
 
     public ProcessBuilder transformTranscodingVariables(String command, Map<String, String> vars) {
@@ -556,6 +651,18 @@ public class TranscodingService {
         return settingsService.resolveTranscodeExecutable(executable, null) != null;
     }
 
+    /**
+     * Returns the key of the transcode cache for the given parameters, or {@code null} if the output is not cached.
+     * Video is not cached, since its output depends on the requested size and time offset.
+     */
+    private String getCacheKey(Parameters parameters) {
+        if (!transcodeCacheService.isEnabled() || !parameters.isTranscode()
+                || parameters.getVideoTranscodingSettings() != null || parameters.getMediaFile().isVideo()) {
+            return null;
+        }
+        return TranscodeCacheService.createKey(parameters.getMediaFile(), parameters.getTranscoding(), parameters.getMaxBitRate());
+    }
+
     /**
      * Returns the length (or predicted/expected length) of a (possibly padded) media stream
      */
@@ -674,6 +781,8 @@ public class TranscodingService {
         private final VideoTranscodingSettings videoTranscodingSettings;
         private Integer maxBitRate;
         private Transcoding transcoding;
+        private String cacheKey;
+        private int niceness;
 
         public Parameters(MediaFile mediaFile, VideoTranscodingSettings videoTranscodingSettings) {
             this.mediaFile = mediaFile;
@@ -721,6 +830,22 @@ public class TranscodingService {
             return mediaFile;
         }
 
+        public String getCacheKey() {
+            return cacheKey;
+        }
+
+        public void setCacheKey(String cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+
+        public int getNiceness() {
+            return niceness;
+        }
+
+        public void setNiceness(int niceness) {
+            this.niceness = niceness;
+        }
+
         public Integer getMaxBitRate() {
             return maxBitRate;
         }
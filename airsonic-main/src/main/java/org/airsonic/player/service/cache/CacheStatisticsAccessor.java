@@ -0,0 +1,84 @@
+package org.airsonic.player.service.cache;
+
+import org.ehcache.core.spi.service.ServiceFactory;
+import org.ehcache.core.spi.service.StatisticsService;
+import org.ehcache.core.statistics.CacheStatistics;
+import org.ehcache.spi.service.Service;
+import org.ehcache.spi.service.ServiceCreationConfiguration;
+import org.ehcache.spi.service.ServiceDependencies;
+import org.ehcache.spi.service.ServiceProvider;
+
+/**
+ * Gives access to the statistics service of an Ehcache cache manager, which the JSR-107 cache manager does not
+ * expose. The accessor is started by the cache manager it is configured in through {@link #getConfiguration()}.
+ */
+@ServiceDependencies(StatisticsService.class)
+public class CacheStatisticsAccessor implements Service {
+
+    private final Configuration configuration = new Configuration();
+
+    private volatile StatisticsService statisticsService;
+
+    /**
+     * Returns the configuration to add to the cache manager configuration.
+     */
+    public ServiceCreationConfiguration<CacheStatisticsAccessor, Void> getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Returns the statistics of a cache, including the statistics of its tiers.
+     *
+     * @param name the name of the cache
+     * @return the statistics, which are updated while the cache is used
+     * @throws IllegalStateException if the cache manager is not initialized
+     */
+    public CacheStatistics getCacheStatistics(String name) {
+        StatisticsService service = statisticsService;
+        if (service == null) {
+            throw new IllegalStateException("The cache manager is not initialized");
+        }
+        return service.getCacheStatistics(name);
+    }
+
+    @Override
+    public void start(ServiceProvider<Service> serviceProvider) {
+        statisticsService = serviceProvider.getService(StatisticsService.class);
+    }
+
+    @Override
+    public void stop() {
+        statisticsService = null;
+    }
+
+    private class Configuration implements ServiceCreationConfiguration<CacheStatisticsAccessor, Void> {
+
+        @Override
+        public Class<CacheStatisticsAccessor> getServiceType() {
+            return CacheStatisticsAccessor.class;
+        }
+
+        CacheStatisticsAccessor getAccessor() {
+            return CacheStatisticsAccessor.this;
+        }
+    }
+
+    /**
+     * Hands the configured accessor to the cache manager. Registered in META-INF/services.
+     */
+    public static class Factory implements ServiceFactory<CacheStatisticsAccessor> {
+
+        @Override
+        public CacheStatisticsAccessor create(ServiceCreationConfiguration<CacheStatisticsAccessor, ?> configuration) {
+            if (configuration instanceof Configuration) {
+                return ((Configuration) configuration).getAccessor();
+            }
+            return new CacheStatisticsAccessor();
+        }
+
+        @Override
+        public Class<CacheStatisticsAccessor> getServiceType() {
+            return CacheStatisticsAccessor.class;
+        }
+    }
+}
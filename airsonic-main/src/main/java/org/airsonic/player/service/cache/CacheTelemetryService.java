@@ -0,0 +1,255 @@
+package org.airsonic.player.service.cache;
+
+import com.codahale.metrics.Histogram;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.airsonic.player.config.AirsonicCacheConfig;
+import org.airsonic.player.monitor.MetricsManager;
+import org.airsonic.player.util.Util;
+import org.ehcache.core.statistics.CacheStatistics;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the statistics of the caches in the background and publishes them as metrics, instead of listening to
+ * every cache event. The counters and the evictions per sampling interval are published to the meter registry and,
+ * if metrics are activated, to JMX through the {@link MetricsManager}. The events of a single cache can be traced on
+ * demand through the cachetelemetry endpoint.
+ *
+ * @see AirsonicCacheConfig#getTelemetryInterval()
+ */
+@Component
+public class CacheTelemetryService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CacheTelemetryService.class);
+
+    private final CacheManager cacheManager;
+
+    // by cache name
+    private final Map<String, Sampler> samplers = new TreeMap<>();
+    private final Map<String, CacheTracer> tracers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Util.getDaemonThreadfactory("cache-telemetry"));
+
+    public CacheTelemetryService(CacheManager cacheManager, CacheStatisticsAccessor cacheStatisticsAccessor,
+            AirsonicCacheConfig cacheConfig, MeterRegistry meterRegistry, MetricsManager metricsManager) {
+        this.cacheManager = cacheManager;
+        for (String name : cacheManager.getCacheNames()) {
+            samplers.put(name, new Sampler(name, cacheStatisticsAccessor.getCacheStatistics(name), meterRegistry, metricsManager));
+        }
+        int interval = cacheConfig.getTelemetryInterval();
+        if (interval > 0) {
+            executor.scheduleWithFixedDelay(this::sample, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Publishes the statistics of all caches since the last sample.
+     */
+    public synchronized void sample() {
+        try {
+            samplers.values().forEach(Sampler::sample);
+        } catch (Exception e) {
+            LOG.warn("Failed to sample the cache statistics", e);
+        }
+    }
+
+    /**
+     * Starts or stops logging the events of the given cache at debug level. The events are logged asynchronously, so
+     * that the operations on the cache do not wait for the log.
+     *
+     * @param name    the name of the cache
+     * @param enabled whether the events are logged
+     * @return whether the cache exists
+     */
+    public boolean setTracing(String name, boolean enabled) {
+        org.ehcache.Cache<Object, Object> cache = getEhcache(name);
+        if (cache == null) {
+            return false;
+        }
+        if (enabled) {
+            tracers.computeIfAbsent(name, n -> {
+                CacheTracer tracer = new CacheTracer(n);
+                cache.getRuntimeConfiguration().registerCacheEventListener(tracer, EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.allOf(EventType.class));
+                return tracer;
+            });
+            LOG.info("Tracing the events of cache {}", name);
+        } else {
+            CacheTracer tracer = tracers.remove(name);
+            if (tracer != null) {
+                cache.getRuntimeConfiguration().deregisterCacheEventListener(tracer);
+                LOG.info("Stopped tracing the events of cache {}", name);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the names of the caches whose events are logged.
+     */
+    public Set<String> getTracedCaches() {
+        return tracers.keySet();
+    }
+
+    /**
+     * Returns the statistics of the caches as of the last sample.
+     */
+    public synchronized Map<String, Map<String, Object>> getSampledStatistics() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        samplers.forEach((name, sampler) -> {
+            Map<String, Object> statistics = new LinkedHashMap<>();
+            statistics.put("hits", sampler.hits);
+            statistics.put("misses", sampler.misses);
+            statistics.put("puts", sampler.puts);
+            statistics.put("removals", sampler.removals);
+            statistics.put("evictions", sampler.evictions);
+            statistics.put("expirations", sampler.expirations);
+            statistics.put("traced", tracers.containsKey(name));
+            result.put(name, statistics);
+        });
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private org.ehcache.Cache<Object, Object> getEhcache(String name) {
+        Cache<Object, Object> cache = cacheManager.getCache(name);
+        return cache == null ? null : cache.unwrap(org.ehcache.Cache.class);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        new TreeMap<>(tracers).keySet().forEach(name -> setTracing(name, false));
+    }
+
+    /**
+     * Turns the cumulative statistics of a cache into metrics.
+     */
+    private static class Sampler {
+
+        private final CacheStatistics statistics;
+
+        private final Counter hitCounter;
+        private final Counter missCounter;
+        private final Counter putCounter;
+        private final Counter removalCounter;
+        private final Counter evictionCounter;
+        private final Counter expirationCounter;
+        private final DistributionSummary evictionSummary;
+        private final Histogram evictionHistogram;
+
+        // cumulative values of the last sample
+        private long hits;
+        private long misses;
+        private long puts;
+        private long removals;
+        private long evictions;
+        private long expirations;
+
+        Sampler(String name, CacheStatistics statistics, MeterRegistry meterRegistry, MetricsManager metricsManager) {
+            this.statistics = statistics;
+            this.hitCounter = Counter.builder("airsonic.cache.gets").tags("cache", name, "result", "hit")
+                    .description("Sampled cache gets which found an entry").register(meterRegistry);
+            this.missCounter = Counter.builder("airsonic.cache.gets").tags("cache", name, "result", "miss")
+                    .description("Sampled cache gets which found no entry").register(meterRegistry);
+            this.putCounter = Counter.builder("airsonic.cache.puts").tag("cache", name)
+                    .description("Sampled cache puts").register(meterRegistry);
+            this.removalCounter = Counter.builder("airsonic.cache.removals").tag("cache", name)
+                    .description("Sampled cache removals").register(meterRegistry);
+            this.evictionCounter = Counter.builder("airsonic.cache.evictions").tag("cache", name)
+                    .description("Sampled cache evictions").register(meterRegistry);
+            this.expirationCounter = Counter.builder("airsonic.cache.expirations").tag("cache", name)
+                    .description("Sampled cache expirations").register(meterRegistry);
+            this.evictionSummary = DistributionSummary.builder("airsonic.cache.evictions.sampled").tag("cache", name)
+                    .description("Cache evictions per sampling interval").publishPercentileHistogram()
+                    .register(meterRegistry);
+            this.evictionHistogram = metricsManager.histogram(CacheTelemetryService.class, name + ".evictions");
+            metricsManager.gauge(CacheTelemetryService.class, name + ".hitPercentage", statistics::getCacheHitPercentage);
+        }
+
+        void sample() {
+            hits = increment(hitCounter, hits, statistics.getCacheHits());
+            misses = increment(missCounter, misses, statistics.getCacheMisses());
+            puts = increment(putCounter, puts, statistics.getCachePuts());
+            removals = increment(removalCounter, removals, statistics.getCacheRemovals());
+            long evicted = statistics.getCacheEvictions() - evictions;
+            evictions = increment(evictionCounter, evictions, statistics.getCacheEvictions());
+            expirations = increment(expirationCounter, expirations, statistics.getCacheExpirations());
+            evictionSummary.record(Math.max(evicted, 0));
+            evictionHistogram.update(Math.max(evicted, 0));
+        }
+
+        private static long increment(Counter counter, long last, long current) {
+            // the statistics restart if they are cleared
+            counter.increment(Math.max(current - last, 0));
+            return current;
+        }
+    }
+
+    /**
+     * Logs the events of a cache at debug level.
+     */
+    private static class CacheTracer implements CacheEventListener<Object, Object> {
+
+        private static final Logger LOG = LoggerFactory.getLogger(CacheTracer.class);
+
+        private final String name;
+
+        CacheTracer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onEvent(CacheEvent<?, ?> cacheEvent) {
+            LOG.debug("Cache: {} | Key: {} | EventType: {} | Old value: {} | New value: {}", name, cacheEvent.getKey(),
+                    cacheEvent.getType(), cacheEvent.getOldValue(), cacheEvent.getNewValue());
+        }
+    }
+
+    @Component
+    @Endpoint(id = "cachetelemetry")
+    public static class CacheTelemetryEndpoint {
+        @Autowired
+        private CacheTelemetryService cacheTelemetryService;
+
+        @ReadOperation
+        public WebEndpointResponse<Map<String, Map<String, Object>>> info() {
+            return new WebEndpointResponse<>(cacheTelemetryService.getSampledStatistics());
+        }
+
+        @WriteOperation
+        public WebEndpointResponse<Set<String>> trace(@Selector String cache, boolean enabled) {
+            if (!cacheTelemetryService.setTracing(cache, enabled)) {
+                return new WebEndpointResponse<>(WebEndpointResponse.STATUS_NOT_FOUND);
+            }
+            return new WebEndpointResponse<>(cacheTelemetryService.getTracedCaches());
+        }
+    }
+}
@@ -1,15 +1,31 @@
 package org.airsonic.player.service.cache;
 
+import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MusicFolder;
 import org.airsonic.player.spring.CacheConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import javax.cache.CacheManager;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 
 @Component
@@ -17,14 +33,25 @@ public class MediaFileCache {
 
     private final CacheManager cacheManager;
 
-    public MediaFileCache(CacheManager cacheManager) {
+    private static final Logger LOG = LoggerFactory.getLogger(MediaFileCache.class);
+
+    // bounds the memory used to count browsed directories
+    private static final int MAX_BROWSED_DIRECTORIES = 10000;
+
+    private final Path browsedDirectoriesFile;
+
+    public MediaFileCache(CacheManager cacheManager, AirsonicHomeConfig homeConfig) {
         this.cacheManager = cacheManager;
         this.cacheManager.enableStatistics(CacheConfiguration.MEDIA_FILE_PATH_CACHE, true);
         this.cacheManager.enableStatistics(CacheConfiguration.MEDIA_FILE_ID_CACHE, true);
+        this.browsedDirectoriesFile = homeConfig.getAirsonicHome().resolve("browsed-directories.txt");
     }
 
     private final AtomicBoolean enabled = new AtomicBoolean(true);
 
+    // number of browses by directory id
+    private final Map<Integer, LongAdder> browseCounts = new ConcurrentHashMap<>();
+
     public void clear() {
         cacheManager.getCache(CacheConfiguration.MEDIA_FILE_PATH_CACHE).clear();
         cacheManager.getCache(CacheConfiguration.MEDIA_FILE_ID_CACHE).clear();
@@ -69,6 +96,19 @@ public class MediaFileCache {
                 mediaFile);
     }
 
+    /**
+     * Caches the given media file by its path and, if it is stored, by its id.
+     *
+     * @param mediaFile the media file to cache
+     */
+    public void putMediaFile(MediaFile mediaFile) {
+        if (mediaFile == null) {
+            return;
+        }
+        putMediaFileByPath(mediaFile.getRelativePath(), mediaFile.getFolder(), mediaFile.getStartPosition(), mediaFile);
+        putMediaFileById(mediaFile.getId(), mediaFile);
+    }
+
     public void removeMediaFile(MediaFile mediaFile) {
         if (isDisabled() || mediaFile == null) {
             return;
@@ -81,6 +121,69 @@ public class MediaFileCache {
         }
     }
 
+    /**
+     * Counts a browse of the given directory, so that its media files are cached after a restart.
+     *
+     * @param directory the browsed directory
+     */
+    public void recordBrowse(MediaFile directory) {
+        if (directory == null || directory.getId() == null) {
+            return;
+        }
+        LongAdder count = browseCounts.get(directory.getId());
+        if (count == null) {
+            if (browseCounts.size() >= MAX_BROWSED_DIRECTORIES) {
+                return;
+            }
+            count = browseCounts.computeIfAbsent(directory.getId(), k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Returns the ids of the most browsed directories, including the browses before the last restart.
+     *
+     * @param count the maximum number of directories
+     * @return the directory ids, most browsed first
+     */
+    public List<Integer> getMostBrowsedDirectories(int count) {
+        return browseCounts.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Integer, LongAdder> e) -> e.getValue().sum()).reversed())
+                .limit(count)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    @PostConstruct
+    public void loadBrowsedDirectories() {
+        if (!Files.exists(browsedDirectoriesFile)) {
+            return;
+        }
+        try (Stream<String> lines = Files.lines(browsedDirectoriesFile)) {
+            lines.map(line -> StringUtils.split(line, ' ')).filter(parts -> parts.length == 2).forEach(parts -> {
+                try {
+                    browseCounts.computeIfAbsent(Integer.valueOf(parts[0]), k -> new LongAdder()).add(Long.parseLong(parts[1]));
+                } catch (NumberFormatException e) {
+                    LOG.debug("Ignoring invalid browsed directory {}", String.join(" ", parts));
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            LOG.warn("Could not read browsed directories from {}", browsedDirectoriesFile, e);
+        }
+    }
+
+    @PreDestroy
+    public void saveBrowsedDirectories() {
+        List<String> lines = browseCounts.entrySet().stream()
+                .map(e -> e.getKey() + " " + e.getValue().sum())
+                .collect(Collectors.toList());
+        try {
+            Files.write(browsedDirectoriesFile, lines);
+        } catch (IOException e) {
+            LOG.warn("Could not write browsed directories to {}", browsedDirectoriesFile, e);
+        }
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled.set(enabled);
     }
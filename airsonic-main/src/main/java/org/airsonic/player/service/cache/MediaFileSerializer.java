@@ -0,0 +1,217 @@
+package org.airsonic.player.service.cache;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.MusicFolder;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+/**
+ * Stores media files and their music folder outside the heap. Transient state, e.g. the starred date, is not stored.
+ */
+public class MediaFileSerializer implements Serializer<MediaFile> {
+
+    public MediaFileSerializer(ClassLoader classLoader) {
+    }
+
+    @Override
+    public ByteBuffer serialize(MediaFile mediaFile) throws SerializerException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeInteger(out, mediaFile.getId());
+            writeString(out, mediaFile.getPath());
+            writeFolder(out, mediaFile.getFolder());
+            writeString(out, mediaFile.getMediaType() == null ? null : mediaFile.getMediaType().name());
+            writeDouble(out, mediaFile.getStartPosition());
+            writeString(out, mediaFile.getFormat());
+            writeString(out, mediaFile.getTitle());
+            writeString(out, mediaFile.getAlbumName());
+            writeString(out, mediaFile.getArtist());
+            writeString(out, mediaFile.getAlbumArtist());
+            writeInteger(out, mediaFile.getDiscNumber());
+            writeInteger(out, mediaFile.getTrackNumber());
+            writeInteger(out, mediaFile.getYear());
+            writeString(out, mediaFile.getGenre());
+            writeInteger(out, mediaFile.getBitRate());
+            out.writeBoolean(mediaFile.isVariableBitRate());
+            writeDouble(out, mediaFile.getDuration());
+            writeLong(out, mediaFile.getFileSize());
+            writeInteger(out, mediaFile.getWidth());
+            writeInteger(out, mediaFile.getHeight());
+            writeString(out, mediaFile.getParentPath());
+            writeString(out, mediaFile.getIndexPath());
+            out.writeInt(mediaFile.getPlayCount());
+            writeInstant(out, mediaFile.getLastPlayed());
+            writeString(out, mediaFile.getComment());
+            writeInstant(out, mediaFile.getCreated());
+            writeInstant(out, mediaFile.getChanged());
+            writeInstant(out, mediaFile.getLastScanned());
+            writeInstant(out, mediaFile.getChildrenLastUpdated());
+            out.writeBoolean(mediaFile.isPresent());
+            out.writeInt(mediaFile.getVersion());
+            writeString(out, mediaFile.getMusicBrainzReleaseId());
+            writeString(out, mediaFile.getMusicBrainzRecordingId());
+        } catch (IOException e) {
+            throw new SerializerException(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Override
+    public MediaFile read(ByteBuffer binary) throws SerializerException {
+        byte[] data = new byte[binary.remaining()];
+        binary.get(data);
+        MediaFile mediaFile = new MediaFile();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            mediaFile.setId(readInteger(in));
+            mediaFile.setPath(readString(in));
+            mediaFile.setFolder(readFolder(in));
+            String mediaType = readString(in);
+            mediaFile.setMediaType(mediaType == null ? null : MediaType.valueOf(mediaType));
+            mediaFile.setStartPosition(readDouble(in));
+            mediaFile.setFormat(readString(in));
+            mediaFile.setTitle(readString(in));
+            mediaFile.setAlbumName(readString(in));
+            mediaFile.setArtist(readString(in));
+            mediaFile.setAlbumArtist(readString(in));
+            mediaFile.setDiscNumber(readInteger(in));
+            mediaFile.setTrackNumber(readInteger(in));
+            mediaFile.setYear(readInteger(in));
+            mediaFile.setGenre(readString(in));
+            mediaFile.setBitRate(readInteger(in));
+            mediaFile.setVariableBitRate(in.readBoolean());
+            mediaFile.setDuration(readDouble(in));
+            mediaFile.setFileSize(readLong(in));
+            mediaFile.setWidth(readInteger(in));
+            mediaFile.setHeight(readInteger(in));
+            mediaFile.setParentPath(readString(in));
+            mediaFile.setIndexPath(readString(in));
+            mediaFile.setPlayCount(in.readInt());
+            mediaFile.setLastPlayed(readInstant(in));
+            mediaFile.setComment(readString(in));
+            mediaFile.setCreated(readInstant(in));
+            mediaFile.setChanged(readInstant(in));
+            mediaFile.setLastScanned(readInstant(in));
+            mediaFile.setChildrenLastUpdated(readInstant(in));
+            mediaFile.setPresent(in.readBoolean());
+            mediaFile.setVersion(in.readInt());
+            mediaFile.setMusicBrainzReleaseId(readString(in));
+            mediaFile.setMusicBrainzRecordingId(readString(in));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new SerializerException(e);
+        }
+        return mediaFile;
+    }
+
+    @Override
+    public boolean equals(MediaFile object, ByteBuffer binary) throws SerializerException {
+        return object.equals(read(binary));
+    }
+
+    private static void writeFolder(DataOutput out, MusicFolder folder) throws IOException {
+        out.writeBoolean(folder != null);
+        if (folder != null) {
+            writeInteger(out, folder.getId());
+            writeString(out, folder.getPath() == null ? null : folder.getPath().toString());
+            writeString(out, folder.getName());
+            writeString(out, folder.getType() == null ? null : folder.getType().name());
+            out.writeBoolean(folder.isEnabled());
+            writeInstant(out, folder.getChanged());
+            out.writeBoolean(folder.isDeleted());
+            writeInstant(out, folder.getLastScanned());
+        }
+    }
+
+    private static MusicFolder readFolder(DataInput in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Integer id = readInteger(in);
+        String path = readString(in);
+        String name = readString(in);
+        String type = readString(in);
+        MusicFolder folder = new MusicFolder(id, path == null ? null : Paths.get(path), name,
+                type == null ? null : MusicFolder.Type.valueOf(type), in.readBoolean(), readInstant(in));
+        folder.setDeleted(in.readBoolean());
+        folder.setLastScanned(readInstant(in));
+        return folder;
+    }
+
+    // writeUTF is limited to 64 KB, which long comments may exceed
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInteger(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeDouble(DataOutput out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeInstant(DataOutput out, Instant value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getEpochSecond());
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        return in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service.hls;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.service.TranscodeCacheService;
+import org.airsonic.player.util.DiskLruIndex;
+import org.airsonic.player.util.FileUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size bounded on-disk store of transcoded HLS segments, shared by all HLS sessions. Segments are stored by the
+ * media file, its modification time and the settings and command of the transcoding, so that players watching the same video
+ * with the same settings, seeking back or watching it again are served without transcoding.
+ * The least recently used segments are evicted when the store exceeds its maximum size.
+ *
+ * @see AirsonicTranscodeConfig#getHlsCacheSize()
+ */
+@Service
+public class HlsSegmentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HlsSegmentStore.class);
+
+    private static final String SEGMENT_EXTENSION = ".ts";
+
+    // stored segments by relative path
+    private final DiskLruIndex files;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public HlsSegmentStore(AirsonicHomeConfig homeConfig, AirsonicTranscodeConfig transcodeConfig, MeterRegistry meterRegistry) {
+        this.files = new DiskLruIndex(homeConfig.getAirsonicHome().resolve("hls-cache"),
+                Optional.ofNullable(transcodeConfig.getHlsCacheSize()).orElse(0L) * 1024L * 1024L);
+        this.hits = Counter.builder("airsonic.hls.cache.requests").tag("result", "hit")
+                .description("HLS segments served from the store").register(meterRegistry);
+        this.misses = Counter.builder("airsonic.hls.cache.requests").tag("result", "miss")
+                .description("HLS segments which had to be transcoded").register(meterRegistry);
+        Gauge.builder("airsonic.hls.cache.size", this, HlsSegmentStore::getSize).baseUnit("bytes")
+                .description("Size of the stored HLS segments").register(meterRegistry);
+        Gauge.builder("airsonic.hls.cache.entries", this, HlsSegmentStore::getEntryCount)
+                .description("Number of stored HLS segments").register(meterRegistry);
+    }
+
+    /**
+     * Loads the segments left by a previous run, least recently used first, and removes everything else.
+     */
+    @PostConstruct
+    public void init() {
+        Path directory = files.getDirectory();
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = new ArrayList<>();
+            try (Stream<Path> videos = Files.list(directory)) {
+                for (Path video : videos.collect(Collectors.toList())) {
+                    if (!Files.isDirectory(video)) {
+                        FileUtil.delete(video);
+                        continue;
+                    }
+                    try (Stream<Path> videoFiles = Files.list(video)) {
+                        List<Path> videoSegments = videoFiles.collect(Collectors.toList());
+                        for (Path file : videoSegments) {
+                            if (Files.isRegularFile(file) && getIndex(file) != null) {
+                                segments.add(file);
+                            } else {
+                                FileUtil.delete(file);
+                            }
+                        }
+                        if (videoSegments.isEmpty()) {
+                            Files.deleteIfExists(video);
+                        }
+                    }
+                }
+            }
+            files.load(segments);
+            LOG.info("HLS segment store contains {} segments with {} bytes", getEntryCount(), getSize());
+        } catch (IOException e) {
+            LOG.warn("Failed to initialize HLS segment store {}", directory, e);
+        }
+    }
+
+    private static Integer getIndex(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SEGMENT_EXTENSION)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the key of the segments of a video. The key changes whenever the media file, the settings of the
+     * transcoding or its command are changed, but not with the player.
+     *
+     * @param mediaFile   The video.
+     * @param sessionKey  The settings of the transcoding.
+     * @param transcoding The transcoding which produces the segments.
+     * @return the key, which is also the name of the directory containing the segments
+     */
+    public static String createKey(MediaFile mediaFile, HlsSession.Key sessionKey, Transcoding transcoding) {
+        long changed = Optional.ofNullable(mediaFile.getChanged()).map(Instant::toEpochMilli).orElse(0L);
+        return String.format("%d-%d-%s-%d-%s-%s-%08x", sessionKey.getMediaFileId(), changed, sessionKey.getSize(),
+                sessionKey.getMaxBitRate(), Optional.ofNullable(sessionKey.getAudioTrack()).orElse(0),
+                sessionKey.getDuration(), TranscodeCacheService.getCommandHash(transcoding))
+                .replaceAll("[^A-Za-z0-9.\\-]", "_");
+    }
+
+    private static String getName(String key, int index) {
+        return key + "/" + index + SEGMENT_EXTENSION;
+    }
+
+    /**
+     * Returns a stored segment, and records whether it was found.
+     *
+     * @param key   The key of the video.
+     * @param index The index of the segment.
+     * @return the segment file, or {@code null} if the segment is not stored
+     */
+    public Path getSegment(String key, int index) {
+        Path segment = findSegment(key, index);
+        if (segment != null) {
+            hits.increment();
+            files.touch(getName(key, index));
+        } else {
+            misses.increment();
+        }
+        return segment;
+    }
+
+    /**
+     * Returns a stored segment and marks it as recently used.
+     */
+    Path findSegment(String key, int index) {
+        String name = getName(key, index);
+        return files.get(name) == null ? null : files.resolve(name);
+    }
+
+    /**
+     * Returns whether a segment is stored, without marking it as recently used.
+     */
+    public boolean contains(String key, int index) {
+        return files.contains(getName(key, index));
+    }
+
+    /**
+     * Moves a completely transcoded segment into the store, and wakes up the threads waiting for it.
+     *
+     * @param key     The key of the video.
+     * @param index   The index of the segment.
+     * @param segment The segment file, which is moved or deleted.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void putSegment(String key, int index, Path segment) throws IOException {
+        if (contains(key, index)) {
+            // produced by another session
+            Files.deleteIfExists(segment);
+            return;
+        }
+        String name = getName(key, index);
+        Path target = files.resolve(name);
+        Files.createDirectories(target.getParent());
+        Files.move(segment, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        files.put(name, Files.size(target));
+        LOG.debug("Stored HLS segment {}", name);
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until a segment is stored, or the timeout elapses.
+     *
+     * @param key           The key of the video.
+     * @param index         The index of the segment.
+     * @param timeoutMillis The maximum time to wait.
+     * @throws InterruptedException If the thread is interrupted.
+     */
+    public synchronized void awaitSegment(String key, int index, long timeoutMillis) throws InterruptedException {
+        if (timeoutMillis > 0 && !contains(key, index)) {
+            wait(timeoutMillis);
+        }
+    }
+
+    public long getSize() {
+        return files.getSize();
+    }
+
+    public int getEntryCount() {
+        return files.getEntryCount();
+    }
+}
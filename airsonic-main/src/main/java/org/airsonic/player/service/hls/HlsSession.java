@@ -1,31 +1,38 @@
 package org.airsonic.player.service.hls;
 
-import com.google.common.io.MoreFiles;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.VideoTranscodingSettings;
-import org.airsonic.player.io.InputStreamReaderThread;
 import org.airsonic.player.io.TranscodeInputStream;
+import org.airsonic.player.service.PathWatcherService;
+import org.airsonic.player.service.TranscoderExecutionService;
 import org.airsonic.player.service.TranscodingService;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.Util;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Objects;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+/**
+ * A transcoder producing the segments of a video for a player. Completed segments are read from the playlist which
+ * the transcoder rewrites after each segment, whenever its directory changes, and are moved into the
+ * {@link HlsSegmentStore}, which wakes up the requests waiting for them. Segments which are already stored, e.g.
+ * because another player watched the video, are not transcoded again.
+ */
 public class HlsSession {
     private final Logger LOG;
 
@@ -33,155 +40,346 @@ public class HlsSession {
 
     private static final long SESSION_TIMEOUT_SECONDS = 120L;
 
+    // the playlist is also read periodically while waiting, in case file system events are missed or delayed
+    private static final long PLAYLIST_POLL_MILLIS = 1000L;
+
+    private static final String PLAYLIST = "out.m3u8";
+
+    private static final String END_OF_PLAYLIST = "#EXT-X-ENDLIST";
+
     private final Key sessionKey;
 
     private final MediaFile mediaFile;
 
     private final TranscodingService transcodingService;
 
+    private final TranscoderExecutionService transcoderExecutionService;
+
+    private final PathWatcherService pathWatcherService;
+
+    private final HlsSegmentStore segmentStore;
+
     private final Path hlsRootDirectory;
 
-    private Process process;
+    private final int prefetchSegments;
+
+    // changes when the transcoding command is edited, guarded by this
+    private volatile String segmentKey;
+
+    private final int lastSegmentIndex;
+
+    private volatile Run run;
+
+    private int runCount;
 
     private ScheduledFuture<?> destroySessionFuture;
 
-    public HlsSession(Key sessionKey, MediaFile mediaFile, TranscodingService transcodingService, Path hlsRootDirectory) {
+    public HlsSession(Key sessionKey, MediaFile mediaFile, TranscodingService transcodingService,
+            TranscoderExecutionService transcoderExecutionService, PathWatcherService pathWatcherService,
+            HlsSegmentStore segmentStore, Path hlsRootDirectory, int prefetchSegments) {
         this.LOG = LoggerFactory.getLogger(HlsSession.class.toString() + "-" + sessionKey.id());
         this.LOG.info("Creating HLS session {}: {}", sessionKey.id(), sessionKey);
         this.sessionKey = sessionKey;
         this.mediaFile = mediaFile;
         this.transcodingService = transcodingService;
+        this.transcoderExecutionService = transcoderExecutionService;
+        this.pathWatcherService = pathWatcherService;
+        this.segmentStore = segmentStore;
         this.hlsRootDirectory = hlsRootDirectory;
+        this.prefetchSegments = prefetchSegments;
+        this.segmentKey = createSegmentKey();
+        Double duration = mediaFile.getDuration();
+        this.lastSegmentIndex = duration == null || sessionKey.getDuration() == null || sessionKey.getDuration() <= 0
+                ? Integer.MAX_VALUE : (int) Math.ceil(duration / sessionKey.getDuration()) - 1;
     }
 
     public Path waitForSegment(int segmentIndex, long timeoutMillis) throws Exception {
         this.LOG.debug("Requesting hls segment {}", segmentIndex);
         scheduleSessionDestruction();
-        Path segment = getSegment(segmentIndex);
+        refreshSegmentKey();
+        Path segment = segmentStore.getSegment(segmentKey, segmentIndex);
         if (segment != null) {
             this.LOG.debug("Segment {} already produced.", segmentIndex);
+            prefetch(segmentIndex);
             return segment;
         }
-        if (!isProcessAlive()) {
-            startProcess(segmentIndex);
-        } else {
-            Integer latestCompleted = getLatestCompletedSegmentIndex();
-            if (latestCompleted != null
-                    && (segmentIndex < latestCompleted.intValue() || segmentIndex > latestCompleted.intValue() + 2)) {
-                destroySession();
-                startProcess(segmentIndex);
+        ensureProcess(segmentIndex);
+        this.LOG.debug("Segment {} not yet produced. Waiting.", segmentIndex);
+        long timeout = currentTimeMillis() + timeoutMillis;
+        while ((segment = segmentStore.findSegment(segmentKey, segmentIndex)) == null && isProcessAlive()) {
+            long remaining = timeout - currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            segmentStore.awaitSegment(segmentKey, segmentIndex, Math.min(remaining, PLAYLIST_POLL_MILLIS));
+            Run current = run;
+            if (current != null && !segmentStore.contains(segmentKey, segmentIndex)) {
+                refreshCompletedSegments(current);
             }
         }
-        long timeout = currentTimeMillis() + timeoutMillis;
-        while (segment == null && currentTimeMillis() < timeout && isProcessAlive()) {
-            this.LOG.debug("Segment {} not yet produced. Waiting.", segmentIndex);
-            Thread.sleep(2000L);
-            segment = getSegment(segmentIndex);
+        if (segment == null && run != null) {
+            // the final playlist may have been written just before the transcoder exited
+            refreshCompletedSegments(run);
+            segment = segmentStore.findSegment(segmentKey, segmentIndex);
         }
         if (segment != null) {
             this.LOG.debug("Segment {} produced.", segmentIndex);
+            prefetch(segmentIndex);
         } else {
             this.LOG.warn("Timed out for segment {}", segmentIndex);
         }
         return segment;
     }
 
+    private String createSegmentKey() {
+        return HlsSegmentStore.createKey(mediaFile, sessionKey, transcodingService.getHlsTranscoding(mediaFile));
+    }
+
+    /**
+     * Switches to the segments of the current transcoding command and stops the transcoder, if the command was
+     * edited since the session was created.
+     */
+    private synchronized void refreshSegmentKey() {
+        String key = createSegmentKey();
+        if (!key.equals(segmentKey)) {
+            this.LOG.info("HLS transcoding changed. Segments are transcoded again");
+            if (run != null) {
+                stop(run);
+            }
+            segmentKey = key;
+        }
+    }
+
+    /**
+     * Starts the transcoder at the given segment, unless the running transcoder will produce it soon.
+     */
+    private synchronized void ensureProcess(int segmentIndex) throws IOException {
+        if (segmentStore.contains(segmentKey, segmentIndex)) {
+            return;
+        }
+        Run current = run;
+        if (!isProcessAlive()) {
+            refreshExitedRun(current);
+            if (segmentStore.contains(segmentKey, segmentIndex)) {
+                return;
+            }
+            startProcess(segmentIndex);
+            return;
+        }
+        int position = current.segments.isEmpty() ? current.startIndex : current.segments.last();
+        if (segmentIndex < current.startIndex || segmentIndex > position + prefetchSegments) {
+            startProcess(segmentIndex);
+        }
+    }
+
+    /**
+     * Resumes transcoding if the segments following the given one are not all stored and no transcoder is running.
+     */
+    private synchronized void prefetch(int segmentIndex) {
+        Run current = run;
+        if (!isProcessAlive()) {
+            refreshExitedRun(current);
+        }
+        if (isProcessAlive() || (current != null && current.complete && current.startIndex <= segmentIndex)) {
+            return;
+        }
+        for (int i = segmentIndex + 1; i <= Math.min(segmentIndex + prefetchSegments, lastSegmentIndex); i++) {
+            if (!segmentStore.contains(segmentKey, i)) {
+                try {
+                    this.LOG.debug("Resuming transcoding at segment {}", i);
+                    startProcess(i);
+                } catch (Exception e) {
+                    this.LOG.debug("Failed to resume transcoding at segment {}", i, e);
+                }
+                return;
+            }
+        }
+    }
+
     private synchronized void scheduleSessionDestruction() {
         if (this.destroySessionFuture != null)
             this.destroySessionFuture.cancel(false);
         this.destroySessionFuture = EXECUTOR.schedule(() -> this.destroySession(), SESSION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
     }
 
-    public void destroySession() {
+    /**
+     * Stops the transcoder and deletes its work files. Stored segments are kept.
+     */
+    public synchronized void destroySession() {
         this.LOG.debug("Destroying hls session");
-        killProcess();
-        FileUtil.delete(getDirectory());
+        pathWatcherService.invalidateWatcher(getWatcherId());
+        if (run != null) {
+            stop(run);
+            run = null;
+        }
+        FileUtil.delete(getSessionDirectory());
     }
 
-    private Path getSegment(int segmentIndex) {
-        SortedSet<Integer> segmentIndexes = getCompletedSegmentIndexes();
-        return segmentIndexes.contains(Integer.valueOf(segmentIndex)) ? getDirectory().resolve(segmentIndex + ".ts") : null;
+    /**
+     * Reads the playlist of a transcoder, which lists a segment once it is completely written, and stores the
+     * listed segments.
+     */
+    private void refreshCompletedSegments(Run run) {
+        synchronized (run) {
+            // a stopped transcoder may list the segment it was interrupted in
+            if (run.stopped) {
+                return;
+            }
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(run.directory.resolve(PLAYLIST));
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                LOG.debug("Could not read playlist of hls session", e);
+                return;
+            }
+            for (String line : lines) {
+                line = line.trim();
+                if (END_OF_PLAYLIST.equals(line)) {
+                    run.complete = true;
+                } else if (!line.isEmpty() && !line.startsWith("#") && "ts".equals(FilenameUtils.getExtension(line))) {
+                    storeSegment(run, line);
+                }
+            }
+            // stop transcoding segments which are already stored
+            if (!run.segments.isEmpty() && segmentStore.contains(segmentKey, run.segments.last() + 1)
+                    && run.process != null && run.process.isAlive()) {
+                this.LOG.debug("Segment {} already stored. Stopping transcoder", run.segments.last() + 1);
+                stop(run);
+            }
+        }
     }
 
-    private Integer getLatestCompletedSegmentIndex() {
-        SortedSet<Integer> completed = getCompletedSegmentIndexes();
-        return completed.isEmpty() ? null : completed.last();
+    /**
+     * Reads the final playlist of a transcoder which exited, as the exit may not have been handled yet.
+     */
+    private void refreshExitedRun(Run run) {
+        if (run != null && run.process != null && !run.process.isAlive()) {
+            refreshCompletedSegments(run);
+        }
     }
 
-    private SortedSet<Integer> getCompletedSegmentIndexes() {
-        try (Stream<Path> children = Files.list(getDirectory())) {
-            SortedSet<Integer> result = children.filter(Files::isRegularFile)
-                    .filter(c -> "ts".equals(MoreFiles.getFileExtension(c))).map(MoreFiles::getNameWithoutExtension)
-                    .map(Integer::valueOf).collect(Collectors.toCollection(() -> new TreeSet<>()));
-            if (!result.isEmpty() && isProcessAlive()) {
-                result.remove(result.last());
-            }
-            return result;
+    private void storeSegment(Run run, String name) {
+        int index;
+        try {
+            index = Integer.parseInt(FilenameUtils.getBaseName(name));
+        } catch (NumberFormatException e) {
+            LOG.debug("Ignoring unexpected segment {}", name);
+            return;
+        }
+        if (run.segments.contains(index)) {
+            return;
+        }
+        try {
+            segmentStore.putSegment(segmentKey, index, run.directory.resolve(FilenameUtils.getName(name)));
+            run.segments.add(index);
         } catch (IOException e) {
-            LOG.warn("Could not retrieve directory list for {} to find segment files", getDirectory(), e);
+            LOG.warn("Failed to store hls segment {}", name, e);
+        }
+    }
+
+    private void onDirectoryChanged(Run run, WatchEvent<Path> event) {
+        if (event.context() == null || PLAYLIST.equals(event.context().toString())) {
+            refreshCompletedSegments(run);
+        }
+    }
 
-            return Collections.emptySortedSet();
+    private void onProcessExit(Run run) {
+        refreshCompletedSegments(run);
+        if (run != this.run) {
+            FileUtil.delete(run.directory);
         }
     }
 
-    private Path getDirectory() {
-        Path dir = getHlsRootDirectory().resolve(this.sessionKey.id());
-        if (!Files.exists(dir)) {
+    private void stop(Run run) {
+        synchronized (run) {
+            run.stopped = true;
+        }
+        if (run.process != null && run.process.isAlive()) {
+            this.LOG.info("Killing hls process");
             try {
-                dir = Files.createDirectories(dir);
-                LOG.info("Created hls cache {}", dir);
+                run.process.destroy();
             } catch (Exception e) {
-                LOG.error("Failed to create hls cache {}", dir, e);
+                this.LOG.error("Failed to kill hls process", e);
             }
         }
+    }
 
-        return dir;
+    private String getWatcherId() {
+        return "hls-" + this.sessionKey.id();
+    }
+
+    private Path getSessionDirectory() {
+        return getHlsRootDirectory().resolve(this.sessionKey.id());
     }
 
     public Path getHlsRootDirectory() {
         return hlsRootDirectory;
     }
 
+    /**
+     * Starts a transcoder at the given segment, which writes into a directory of its own, so that a stopped
+     * transcoder does not interfere with the new one.
+     */
     private void startProcess(int segmentIndex) throws IOException {
+        Run previous = run;
+        if (previous != null) {
+            stop(previous);
+            if (previous.process == null || !previous.process.isAlive()) {
+                FileUtil.delete(previous.directory);
+            }
+        }
+        Path directory = Files.createDirectories(getSessionDirectory().resolve(String.valueOf(++runCount)));
+        Run current = new Run(segmentIndex, directory);
+        try {
+            pathWatcherService.setWatcher(getWatcherId(), directory, (d, e) -> onDirectoryChanged(current, e), null,
+                    (d, e) -> onDirectoryChanged(current, e), (d, e) -> onDirectoryChanged(current, e));
+        } catch (IOException e) {
+            LOG.warn("Could not watch {}. Segments are looked for periodically", directory, e);
+        }
         String[] size = StringUtils.split(this.sessionKey.getSize(), "x");
         VideoTranscodingSettings vts = new VideoTranscodingSettings(
                 Integer.valueOf(size[0]), Integer.valueOf(size[1]),
                 segmentIndex * this.sessionKey.getDuration(), this.sessionKey.getDuration(),
                 (this.sessionKey.getAudioTrack() == null) ? 1 : this.sessionKey.getAudioTrack(), segmentIndex,
-                getDirectory().resolve("%d.ts").toString(), getDirectory().resolve("out.m3u8").toString());
+                directory.resolve("%d.ts").toString(), directory.resolve(PLAYLIST).toString());
         TranscodingService.Parameters parameters = transcodingService.getParameters(mediaFile, null, this.sessionKey.getMaxBitRate(), "ts", vts);
         TranscodeInputStream in = (TranscodeInputStream) transcodingService.getTranscodedInputStream(parameters);
 
-        process = in.getProcess();
-        (new InputStreamReaderThread(process.getInputStream(), getClass().getSimpleName(), true)).start();
-    }
-
-    private void killProcess() {
-        if (this.process != null) {
-            this.LOG.info("Killing hls process");
-            try {
-                this.process.destroy();
-            } catch (Exception e) {
-                this.LOG.error("Failed to kill hls process", e);
-            }
-        }
+        current.process = in.getProcess();
+        run = current;
+        current.process.onExit().thenRun(() -> onProcessExit(current));
+        transcoderExecutionService.drain(in, getClass().getSimpleName());
     }
 
     private boolean isProcessAlive() {
-        if (this.process == null)
-            return false;
-        try {
-            this.process.exitValue();
-            return false;
-        } catch (IllegalThreadStateException e) {
-            return true;
-        }
+        Run current = run;
+        return current != null && !current.stopped && current.process != null && current.process.isAlive();
     }
 
     private long currentTimeMillis() {
         return System.nanoTime() / 1000000L;
     }
 
+    /**
+     * A transcoder started at a segment.
+     */
+    private static class Run {
+        private final int startIndex;
+        private final Path directory;
+        // the segments stored by this run
+        private final NavigableSet<Integer> segments = new ConcurrentSkipListSet<>();
+        private volatile Process process;
+        private volatile boolean complete;
+        private volatile boolean stopped;
+
+        Run(int startIndex, Path directory) {
+            this.startIndex = startIndex;
+            this.directory = directory;
+        }
+    }
+
     public static class Key {
         private final int mediaFileId;
         private final String playerId;
@@ -21,11 +21,13 @@
 package org.airsonic.player.service.search;
 
 import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicScanConfig;
 import org.airsonic.player.domain.*;
 import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.repository.AlbumRepository;
 import org.airsonic.player.repository.ArtistRepository;
 import org.airsonic.player.repository.MediaFileRepository;
+import org.airsonic.player.service.TaskSchedulingService;
 import org.airsonic.player.util.FileUtil;
 import org.airsonic.player.util.Util;
 import org.apache.lucene.document.Document;
@@ -37,14 +39,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -81,7 +90,9 @@ public class IndexManager {
             ArtistRepository artistRepository,
             AlbumRepository albumRepository,
             MediaFileRepository mediaFileRepository,
-            AirsonicHomeConfig homeConfig
+            AirsonicHomeConfig homeConfig,
+            AirsonicScanConfig scanConfig,
+            TaskSchedulingService taskService
     ) {
         this.analyzerFactory = analyzerFactory;
         this.documentFactory = documentFactory;
@@ -89,6 +100,8 @@ public class IndexManager {
         this.albumRepository = albumRepository;
         this.mediaFileRepository = mediaFileRepository;
         this.homeConfig = homeConfig;
+        this.scanConfig = scanConfig;
+        this.taskService = taskService;
         this.rootIndexDirectory = homeConfig.getAirsonicHome().resolve(INDEX_ROOT_DIR_NAME.concat(Integer.toString(INDEX_VERSION)));
     }
 
@@ -99,12 +112,16 @@ public class IndexManager {
     private final AlbumRepository albumRepository;
     private final MediaFileRepository mediaFileRepository;
     private final AirsonicHomeConfig homeConfig;
+    private final AirsonicScanConfig scanConfig;
+    private final TaskSchedulingService taskService;
 
     /**
      * Literal name of index top directory.
      */
     private static final String INDEX_ROOT_DIR_NAME = "index";
 
+    private static final String REFRESH_TASK_NAME = "searchindex-RefreshTask";
+
     /**
      * File for index directory.
      */
@@ -117,8 +134,16 @@ public class IndexManager {
 
     private Map<IndexType, SearcherManager> searchers = new ConcurrentHashMap<>();
 
+    /**
+     * Writers are opened by the first scan and kept open, searchers then read their changes in near real time.
+     */
     private Map<IndexType, IndexWriter> writers = new ConcurrentHashMap<>();
 
+    /**
+     * Number of indexing sessions between startIndexing and stopIndexing.
+     */
+    private final AtomicInteger indexingSessions = new AtomicInteger();
+
     public void index(Album album) {
         Term primarykey = documentFactory.createPrimarykey(album);
         Document document = documentFactory.createAlbumId3Document(album);
@@ -157,16 +182,83 @@ public class IndexManager {
         }
     }
 
+    /**
+     * Removes the document of the given media file from the index.
+     *
+     * @param mediaFile media file no longer present
+     */
+    public void delete(MediaFile mediaFile) {
+        Term primarykey = documentFactory.createPrimarykey(mediaFile);
+        IndexType indexType = mediaFile.isFile() ? IndexType.SONG : mediaFile.isAlbum() ? IndexType.ALBUM : IndexType.ARTIST;
+        try {
+            writers.get(indexType).deleteDocuments(primarykey);
+        } catch (Exception x) {
+            LOG.error("Failed to delete search index for mediaFile {}", mediaFile, x);
+        }
+    }
+
+    /**
+     * Removes the document of the given album from the index.
+     *
+     * @param album album no longer present
+     */
+    public void delete(Album album) {
+        Term primarykey = documentFactory.createPrimarykey(album);
+        try {
+            writers.get(IndexType.ALBUM_ID3).deleteDocuments(primarykey);
+        } catch (Exception x) {
+            LOG.error("Failed to delete search index for album {}", album, x);
+        }
+    }
+
+    /**
+     * Opens the writers of all indexes, unless they are already open, and starts an indexing session.
+     * Searchers of an index are replaced by near real time searchers of its writer.
+     * Every call must be followed by {@link #stopIndexing(MediaLibraryStatistics)}.
+     *
+     * @return false if the writers could not be opened or if another indexing session is in progress
+     */
     public final boolean startIndexing() {
-        return EnumSet.allOf(IndexType.class).parallelStream().map(x -> {
+        boolean alone = indexingSessions.getAndIncrement() == 0;
+        boolean started = EnumSet.allOf(IndexType.class).parallelStream().map(x -> {
             try {
-                writers.put(x, createIndexWriter(x));
-            } catch (IOException e) {
+                writers.computeIfAbsent(x, k -> {
+                    try {
+                        IndexWriter writer = createIndexWriter(k);
+                        SearcherManager previous = searchers.put(k, new SearcherManager(writer, null));
+                        if (previous != null) {
+                            previous.close();
+                        }
+                        return writer;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
                 LOG.error("Failed to create search index for {}", x, e);
                 return false;
             }
             return true;
         }).reduce(true, (a, b) -> a && b);
+
+        if (started && taskService.getScheduledTask(REFRESH_TASK_NAME) == null) {
+            Duration interval = Duration.ofSeconds(scanConfig.getIndexRefreshInterval());
+            taskService.scheduleAtFixedRate(REFRESH_TASK_NAME, this::refreshSearchers, Instant.now().plus(interval), interval, false);
+        }
+        return started && alone;
+    }
+
+    /**
+     * Makes the uncommitted changes of the writers visible to searches.
+     */
+    public void refreshSearchers() {
+        writers.keySet().forEach(indexType -> Optional.ofNullable(searchers.get(indexType)).ifPresent(s -> {
+            try {
+                s.maybeRefresh();
+            } catch (IOException e) {
+                LOG.warn("Failed to refresh SearcherManager : [{}]", indexType, e);
+            }
+        }));
     }
 
     private IndexWriter createIndexWriter(IndexType indexType) throws IOException {
@@ -224,43 +316,59 @@ public class IndexManager {
     }
 
     /**
-     * Close Writer of all indexes and update SearcherManager.
-     * Called at the end of the Scan flow.
+     * Commit the writers of all indexes and update SearcherManager, and ends the indexing session.
+     * Called at the end of the Scan flow. The writers are kept open.
      */
     public void stopIndexing(MediaLibraryStatistics statistics) {
         EnumSet.allOf(IndexType.class).parallelStream().forEach(indexType -> stopIndexing(indexType, statistics));
+        indexingSessions.updateAndGet(n -> Math.max(n - 1, 0));
     }
 
     /**
-     * Close Writer of specified index and refresh SearcherManager.
+     * Commit Writer of specified index and refresh SearcherManager.
      */
     private void stopIndexing(IndexType type, MediaLibraryStatistics statistics) {
-        writers.computeIfPresent(type, (tw, w) -> {
-            try (IndexWriter writer = w) {
-                Map<String,String> userData = Util.objectToStringMap(statistics);
-                writer.setLiveCommitData(userData.entrySet());
-                boolean updated = (-1 != writer.commit());
-                LOG.trace("Success to create or update search index : [{}]", tw);
-
-                if (updated) {
-                    searchers.computeIfPresent(tw, (ts, s) -> {
-                        try {
-                            s.maybeRefresh();
-                            LOG.trace("SearcherManager has been refreshed : [{}]", ts);
-                            return s;
-                        } catch (IOException e) {
-                            LOG.error("Failed to refresh SearcherManager : [{}]", ts, e);
-                            return null; //remove from map
-                        }
-                    });
-                }
-            } catch (IOException e) {
-                LOG.error("Failed to create search index for {}.", tw, e);
+        IndexWriter writer = writers.get(type);
+        if (writer == null) {
+            return;
+        }
+        try {
+            Map<String,String> userData = Util.objectToStringMap(statistics);
+            writer.setLiveCommitData(userData.entrySet());
+            boolean updated = (-1 != writer.commit());
+            LOG.trace("Success to create or update search index : [{}]", type);
+
+            if (updated) {
+                searchers.computeIfPresent(type, (ts, s) -> {
+                    try {
+                        s.maybeRefresh();
+                        LOG.trace("SearcherManager has been refreshed : [{}]", ts);
+                        return s;
+                    } catch (IOException e) {
+                        LOG.error("Failed to refresh SearcherManager : [{}]", ts, e);
+                        return null; //remove from map
+                    }
+                });
             }
+        } catch (IOException e) {
+            LOG.error("Failed to create search index for {}.", type, e);
+        }
+    }
 
-            //remove from map
-            return null;
+    /**
+     * Close the writers, committing their pending changes.
+     */
+    @PreDestroy
+    public void close() {
+        taskService.unscheduleTask(REFRESH_TASK_NAME);
+        writers.forEach((type, writer) -> {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close index writer for {}", type, e);
+            }
         });
+        writers.clear();
     }
 
     /**
@@ -269,6 +377,18 @@ public class IndexManager {
      */
     public MediaLibraryStatistics getStatistics() {
         Set<MediaLibraryStatistics> stats = EnumSet.allOf(IndexType.class).parallelStream().map(t -> {
+            IndexWriter writer = writers.get(t);
+            if (writer != null) {
+                // near real time readers do not carry the commit data
+                Map<String, String> userData = new HashMap<>();
+                Optional.ofNullable(writer.getLiveCommitData()).ifPresent(data -> data.forEach(e -> userData.put(e.getKey(), e.getValue())));
+                try {
+                    return Util.stringMapToValidObject(MediaLibraryStatistics.class, userData);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Exception encountered while fetching index commit data for {}", t, e);
+                    return null;
+                }
+            }
             IndexSearcher searcher = getSearcher(t);
             if (searcher == null) {
                 LOG.trace("No index for type {}", t);
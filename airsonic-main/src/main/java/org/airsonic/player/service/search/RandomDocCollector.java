@@ -0,0 +1,151 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.service.search;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Collects a uniformly distributed random sample of the matching documents by reservoir sampling.
+ * Memory is bounded by the sample size, whatever the number of hits.
+ */
+final class RandomDocCollector extends SimpleCollector {
+
+    /**
+     * Returns a manager whose collectors sample the slices of an index, and which merges their samples into a
+     * uniformly distributed sample of all matching documents.
+     *
+     * @param sampleSize maximum number of documents to collect
+     * @param random     source of randomness
+     */
+    static CollectorManager<RandomDocCollector, RandomDocCollector> manager(int sampleSize, Random random) {
+        return new CollectorManager<>() {
+
+            @Override
+            public RandomDocCollector newCollector() {
+                return new RandomDocCollector(sampleSize, random);
+            }
+
+            @Override
+            public RandomDocCollector reduce(Collection<RandomDocCollector> collectors) {
+                return merge(List.copyOf(collectors), sampleSize, random);
+            }
+        };
+    }
+
+    /**
+     * Merges samples of disjoint sets of documents. Each document of the result is drawn from a sample with a
+     * probability proportional to the hits of that sample which were not drawn yet.
+     */
+    private static RandomDocCollector merge(List<RandomDocCollector> collectors, int sampleSize, Random random) {
+        if (collectors.size() == 1) {
+            return collectors.get(0);
+        }
+        int[][] docs = new int[collectors.size()][];
+        int[] drawn = new int[collectors.size()];
+        long[] remaining = new long[collectors.size()];
+        long hits = 0;
+        for (int i = 0; i < collectors.size(); i++) {
+            docs[i] = collectors.get(i).getDocs();
+            remaining[i] = collectors.get(i).hits;
+            hits += remaining[i];
+        }
+        RandomDocCollector merged = new RandomDocCollector(sampleSize, random);
+        merged.hits = hits;
+        int size = (int) Math.min(hits, merged.reservoir.length);
+        long left = hits;
+        for (int n = 0; n < size; n++) {
+            long pos = random.nextLong(left);
+            int i = 0;
+            while (pos >= remaining[i]) {
+                pos -= remaining[i++];
+            }
+            merged.reservoir[n] = docs[i][drawn[i]++];
+            remaining[i]--;
+            left--;
+        }
+        return merged;
+    }
+
+    private final int[] reservoir;
+    private final Random random;
+    private int docBase;
+    private long hits;
+
+    /**
+     * @param sampleSize maximum number of documents to collect
+     * @param random     source of randomness
+     */
+    RandomDocCollector(int sampleSize, Random random) {
+        this.reservoir = new int[Math.max(0, sampleSize)];
+        this.random = random;
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) {
+        docBase = context.docBase;
+    }
+
+    @Override
+    public void collect(int doc) {
+        hits++;
+        if (hits <= reservoir.length) {
+            reservoir[(int) hits - 1] = docBase + doc;
+        } else {
+            long pos = random.nextLong(hits);
+            if (pos < reservoir.length) {
+                reservoir[(int) pos] = docBase + doc;
+            }
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * Returns the collected documents in random order.
+     *
+     * @return top level doc ids
+     */
+    int[] getDocs() {
+        int[] docs = Arrays.copyOf(reservoir, (int) Math.min(hits, reservoir.length));
+        // the order of a reservoir is not random
+        for (int i = docs.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int doc = docs[i];
+            docs[i] = docs[j];
+            docs[j] = doc;
+        }
+        return docs;
+    }
+
+    long getTotalHits() {
+        return hits;
+    }
+}
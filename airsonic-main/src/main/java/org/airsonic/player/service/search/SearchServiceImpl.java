@@ -33,7 +33,6 @@ import org.springframework.stereotype.Service;
 import java.io.IOException;
 import java.util.*;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
 import static org.airsonic.player.service.search.IndexType.*;
 import static org.springframework.util.ObjectUtils.isEmpty;
@@ -93,6 +92,9 @@ public class SearchServiceImpl implements SearchService {
 
     /**
      * Common processing of random method.
+     * Documents are sampled while searching, so memory does not depend on the number of hits.
+     * Documents of entities no longer stored are skipped, and the sample is enlarged until
+     * enough entities are found or every hit was tried.
      *
      * @param count Number of albums to return.
      * @param id2ListCallBack Callback to get D from id and store it in List
@@ -101,18 +103,24 @@ public class SearchServiceImpl implements SearchService {
             int count, IndexSearcher searcher, Query query, BiConsumer<List<D>, Integer> id2ListCallBack)
             throws IOException {
 
-        List<Integer> docs = Arrays
-                .stream(searcher.search(query, Integer.MAX_VALUE).scoreDocs)
-                .map(sd -> sd.doc)
-                .collect(Collectors.toList());
-
         List<D> result = new ArrayList<>();
+        Set<Integer> tried = new HashSet<>();
         StoredFields storedFields = searcher.storedFields();
-        while (!docs.isEmpty() && result.size() < count) {
-            int randomPos = random.nextInt(docs.size());
-            Document document = storedFields.document(docs.get(randomPos));
-            id2ListCallBack.accept(result, util.getId.apply(document));
-            docs.remove(randomPos);
+        for (int sampleSize = count; result.size() < count; sampleSize *= 2) {
+            RandomDocCollector sample = searcher.search(query, RandomDocCollector.manager(sampleSize, random));
+            for (int doc : sample.getDocs()) {
+                if (result.size() >= count) {
+                    break;
+                }
+                if (tried.add(doc)) {
+                    Document document = storedFields.document(doc);
+                    id2ListCallBack.accept(result, util.getId.apply(document));
+                }
+            }
+            if (sample.getTotalHits() <= sampleSize || sampleSize > Integer.MAX_VALUE / 2) {
+                // every hit was tried
+                break;
+            }
         }
 
         return result;
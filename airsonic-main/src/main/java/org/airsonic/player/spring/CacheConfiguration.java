@@ -1,25 +1,29 @@
 package org.airsonic.player.spring;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.airsonic.player.config.AirsonicCacheConfig;
 import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.CoverArt;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.Playlist;
 import org.airsonic.player.domain.User;
 import org.airsonic.player.domain.UserSettings;
+import org.airsonic.player.service.cache.CacheStatisticsAccessor;
+import org.airsonic.player.service.cache.MediaFileSerializer;
 import org.airsonic.player.service.cache.PlaylistCache.PlaylistUserList;
+import org.ehcache.config.ResourceType;
 import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.ConfigurationBuilder;
 import org.ehcache.config.builders.ExpiryPolicyBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.EntryUnit;
-import org.ehcache.event.CacheEvent;
-import org.ehcache.event.CacheEventListener;
-import org.ehcache.event.EventType;
-import org.ehcache.impl.config.event.DefaultCacheEventListenerConfiguration;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.statistics.TierStatistics;
 import org.ehcache.impl.config.persistence.DefaultPersistenceConfiguration;
 import org.ehcache.jsr107.EhcacheCachingProvider;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.AdviceMode;
@@ -30,7 +34,7 @@ import javax.cache.Caching;
 import javax.cache.spi.CachingProvider;
 
 import java.time.Duration;
-import java.util.EnumSet;
+import java.util.Map;
 
 @Configuration
 @EnableCaching(proxyTargetClass = true, mode = AdviceMode.ASPECTJ) // AspectJ used so classes calling methods on self can benefit from the cache
@@ -47,72 +51,116 @@ public class CacheConfiguration {
 
     @Autowired
     private AirsonicHomeConfig homeConfig;
+    @Autowired
+    private AirsonicCacheConfig cacheConfig;
+
+    @Bean
+    public CacheStatisticsAccessor cacheStatisticsAccessor() {
+        return new CacheStatisticsAccessor();
+    }
+
     @Bean
-    public javax.cache.CacheManager jCacheCacheManager() {
+    public javax.cache.CacheManager jCacheCacheManager(CacheStatisticsAccessor cacheStatisticsAccessor) {
         CachingProvider provider = Caching.getCachingProvider("org.ehcache.jsr107.EhcacheCachingProvider");
         EhcacheCachingProvider ehcacheCachingProvider = (EhcacheCachingProvider) provider;
         return ehcacheCachingProvider.getCacheManager(
                 ehcacheCachingProvider.getDefaultURI(),
-                createConfig(provider.getDefaultClassLoader()));
+                createConfig(provider.getDefaultClassLoader(), cacheStatisticsAccessor));
     }
 
-    private org.ehcache.config.Configuration createConfig(final ClassLoader cl) {
+    private org.ehcache.config.Configuration createConfig(final ClassLoader cl, CacheStatisticsAccessor cacheStatisticsAccessor) {
         ResourcePoolsBuilder pools = ResourcePoolsBuilder.newResourcePoolsBuilder()
                 .heap(1000L, EntryUnit.ENTRIES);
-        // If needed, but will need to register serializers for the objects being stored
-        // .offheap(10L, MemoryUnit.MB)
-        // .disk(20, MemoryUnit.MB, false);
-
-        DefaultCacheEventListenerConfiguration cacheLogging = new DefaultCacheEventListenerConfiguration(EnumSet.allOf(EventType.class), CacheLogger.class);
+        // media files are kept outside the heap with a registered serializer, so that large libraries fit
+        ResourcePoolsBuilder mediaFilePools = ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(cacheConfig.getMediaFileHeapEntries(), EntryUnit.ENTRIES);
+        if (cacheConfig.getMediaFileOffHeapSize() > 0) {
+            mediaFilePools = mediaFilePools.offheap(cacheConfig.getMediaFileOffHeapSize(), MemoryUnit.MB);
+        }
 
         return ConfigurationBuilder.newConfigurationBuilder()
                 .withService(new DefaultPersistenceConfiguration(homeConfig.getAirsonicHome().resolve("cache").toFile()))
+                .withService(cacheStatisticsAccessor.getConfiguration())
                 .withCache(USER_CACHE,
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, User.class, pools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2))))
                 .withCache(USER_SETTINGS_CACHE,
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, UserSettings.class, pools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2))))
                 .withCache(MEDIA_FILE_PATH_CACHE,
-                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, MediaFile.class, pools)
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, MediaFile.class, mediaFilePools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2)))
-                                .withService(cacheLogging))
+                                .withValueSerializer(MediaFileSerializer.class)
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2))))
                 .withCache(MEDIA_FILE_ID_CACHE,
-                        CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, MediaFile.class, pools)
+                        CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, MediaFile.class, mediaFilePools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2)))
-                                .withService(cacheLogging))
+                                .withValueSerializer(MediaFileSerializer.class)
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofHours(2))))
                 .withCache(COVER_ART_CACHE,
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, CoverArt.class, pools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2)))
-                                .withService(cacheLogging))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(2))))
                 .withCache(PLAYLIST_CACHE,
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, Playlist.class, pools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10)))
-                                .withService(cacheLogging))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10))))
                 .withCache(PLAYLIST_USERS_CACHE,
                         CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, PlaylistUserList.class, pools)
                                 .withClassLoader(cl)
-                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10)))
-                                .withService(cacheLogging))
+                                .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofDays(10))))
                 .build();
     }
 
-    public static class CacheLogger implements CacheEventListener<Object, Object> {
-        private static final Logger LOG = LoggerFactory.getLogger(CacheLogger.class);
+    /**
+     * Publishes the hits and misses of every tier of the caches, e.g. of the media files on and off the heap.
+     */
+    @Bean
+    public MeterBinder cacheTierMetrics(javax.cache.CacheManager jCacheCacheManager, CacheStatisticsAccessor cacheStatisticsAccessor) {
+        return registry -> {
+            for (String name : jCacheCacheManager.getCacheNames()) {
+                org.ehcache.Cache<?, ?> cache = jCacheCacheManager.getCache(name).unwrap(org.ehcache.Cache.class);
+                Map<String, TierStatistics> tierStatistics = cacheStatisticsAccessor.getCacheStatistics(name).getTierStatistics();
+                for (ResourceType<?> type : cache.getRuntimeConfiguration().getResourcePools().getResourceTypeSet()) {
+                    String tier = getTierName(type);
+                    if (tier == null) {
+                        continue;
+                    }
+                    TierStatistics statistics = tierStatistics.get(tier);
+                    if (statistics == null) {
+                        continue;
+                    }
+                    FunctionCounter.builder("cache.tier.gets", statistics, TierStatistics::getHits)
+                            .tags("cache", name, "tier", tier, "result", "hit")
+                            .description("The number of gets served by the cache tier").register(registry);
+                    FunctionCounter.builder("cache.tier.gets", statistics, TierStatistics::getMisses)
+                            .tags("cache", name, "tier", tier, "result", "miss")
+                            .description("The number of gets not served by the cache tier").register(registry);
+                    FunctionCounter.builder("cache.tier.evictions", statistics, TierStatistics::getEvictions)
+                            .tags("cache", name, "tier", tier)
+                            .description("The number of entries evicted from the cache tier").register(registry);
+                    Gauge.builder("cache.tier.size", statistics, TierStatistics::getMappings)
+                            .tags("cache", name, "tier", tier)
+                            .description("The number of entries in the cache tier").register(registry);
+                    Gauge.builder("cache.tier.occupied", statistics, TierStatistics::getOccupiedByteSize)
+                            .tags("cache", name, "tier", tier).baseUnit(BaseUnits.BYTES)
+                            .description("The bytes occupied by the cache tier, if it is sized in bytes").register(registry);
+                }
+            }
+        };
+    }
 
-        @Override
-        public void onEvent(CacheEvent<?, ?> cacheEvent) {
-            LOG.debug("Cache Key: {} | EventType: {} | Old value: {} | New value: {}", cacheEvent.getKey(),
-                    cacheEvent.getType(), cacheEvent.getOldValue(), cacheEvent.getNewValue());
+    private static String getTierName(ResourceType<?> type) {
+        if (type == ResourceType.Core.HEAP) {
+            return "OnHeap";
+        } else if (type == ResourceType.Core.OFFHEAP) {
+            return "OffHeap";
+        } else if (type == ResourceType.Core.DISK) {
+            return "Disk";
         }
+        return null;
     }
 
 }
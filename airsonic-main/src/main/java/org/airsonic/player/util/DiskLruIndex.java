@@ -0,0 +1,168 @@
+/*
+ This file is part of Airsonic.
+
+ Airsonic is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ Airsonic is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with Airsonic.  If not, see <http://www.gnu.org/licenses/>.
+
+ Copyright 2024 (C) Y.Tory
+ */
+
+package org.airsonic.player.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded index of the files below a directory, in least recently used order. The least recently used files
+ * are deleted when the total size exceeds the maximum size. The access order is kept across restarts by the
+ * modification time of the files.
+ */
+public class DiskLruIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskLruIndex.class);
+
+    private final Path directory;
+    private final long maxSize;
+
+    // lengths of the files by name relative to the directory, in access order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * @param directory The directory containing the files.
+     * @param maxSize   The maximum total size of the files in bytes.
+     */
+    public DiskLruIndex(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Adds files left by a previous run, least recently modified first.
+     *
+     * @param files Files below the directory.
+     * @throws IOException If an I/O error occurs.
+     */
+    public void load(List<Path> files) throws IOException {
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing(DiskLruIndex::getLastModified));
+        for (Path file : sorted) {
+            put(getName(file), Files.size(file));
+        }
+    }
+
+    private static FileTime getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private String getName(Path file) {
+        return directory.relativize(file).toString().replace('\\', '/');
+    }
+
+    /**
+     * Returns the file of the given name.
+     */
+    public Path resolve(String name) {
+        return directory.resolve(name);
+    }
+
+    /**
+     * Returns the length of a file and marks it as recently used.
+     *
+     * @param name The name of the file relative to the directory.
+     * @return the length in bytes, or {@code null} if the file is not indexed
+     */
+    public synchronized Long get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Returns whether a file is indexed, without marking it as recently used.
+     */
+    public synchronized boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Adds a file which was completely written, and evicts the least recently used files if necessary.
+     *
+     * @param name   The name of the file relative to the directory.
+     * @param length The length of the file in bytes.
+     */
+    public synchronized void put(String name, long length) {
+        Long previous = entries.put(name, length);
+        size += length - (previous == null ? 0 : previous);
+        evict();
+    }
+
+    /**
+     * Removes a file from the index, e.g. because it was deleted by someone else.
+     */
+    public synchronized void remove(String name) {
+        Long previous = entries.remove(name);
+        if (previous != null) {
+            size -= previous;
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            FileUtil.delete(directory.resolve(eldest.getKey()));
+            LOG.debug("Evicted {} from {}", eldest.getKey(), directory);
+        }
+    }
+
+    /**
+     * Updates the modification time of a file which was used, to keep the access order across restarts.
+     */
+    public void touch(String name) {
+        Path file = directory.resolve(name);
+        try {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            LOG.debug("Failed to touch {}", file, e);
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
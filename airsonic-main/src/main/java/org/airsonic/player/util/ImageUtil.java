@@ -20,9 +20,17 @@
  */
 package org.airsonic.player.util;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
 
 public final class ImageUtil {
 
@@ -66,30 +74,71 @@ public final class ImageUtil {
         return thumb;
     }
 
+    /**
+     * Scale an image to a square of the given size, keeping its aspect ratio. A non-square image is centered on a
+     * black background. The image is resampled in a single bicubic step, so it should be no more than a few times the
+     * given size, see {@link #read(InputStream, int)}.
+     *
+     * @param image The image to scale.
+     * @param size The desired width and height.
+     * @return The scaled image.
+     */
     public static BufferedImage scaleToSquare(BufferedImage image, int size) {
         int w = image.getWidth();
         int h = image.getHeight();
         int scale = Math.max(w, h);
+        int width = Math.max((int) Math.round((double) w * size / scale), 1);
+        int height = Math.max((int) Math.round((double) h * size / scale), 1);
 
-        BufferedImage squareImage = new BufferedImage(scale, scale, BufferedImage.TYPE_INT_RGB);
-        squareImage.getGraphics().drawImage(image, (scale - w) / 2, (scale - h) / 2, null);
+        BufferedImage squareImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = squareImage.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2.drawImage(image, (size - width) / 2, (size - height) / 2, width, height, null);
+        g2.dispose();
 
-        do {
-            scale /= 2;
-            if (scale < size) {
-                scale = size;
-            }
-            BufferedImage temp = new BufferedImage(scale, scale, BufferedImage.TYPE_INT_RGB);
-            Graphics2D g2 = temp.createGraphics();
-            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g2.drawImage(squareImage, 0, 0, temp.getWidth(), temp.getHeight(), null);
-            g2.dispose();
+        return squareImage;
+    }
 
-            squareImage = temp;
-        } while (scale != size);
+    /**
+     * Read an image which is to be scaled to the given size. A large image is decoded with source subsampling, i.e.
+     * only every n-th pixel of every n-th row is decoded, so that the decoded image is between two and four times the
+     * given size. This avoids decoding the full raster of, e.g., a 3000x3000 cover only to scale it down to 300x300.
+     *
+     * @param in The image data.
+     * @param size The size the image is to be scaled to.
+     * @return The image, or null if the format isn't supported.
+     * @throws IOException If the image could not be decoded.
+     */
+    public static BufferedImage read(InputStream in, int size) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            if (stream == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = getSubsampling(Math.max(reader.getWidth(0), reader.getHeight(0)), size);
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
 
-        return squareImage;
+    /**
+     * Returns the largest subsampling which keeps an image of the given size at least twice the target size.
+     */
+    static int getSubsampling(int imageSize, int targetSize) {
+        return Math.max(imageSize / (Math.max(targetSize, 1) * 2), 1);
     }
 
 }
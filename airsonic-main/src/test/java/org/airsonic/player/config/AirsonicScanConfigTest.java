@@ -70,6 +70,21 @@ public class AirsonicScanConfigTest {
             assertEquals(expectedParallelism, scanConfig.getParallelism());
         }
 
+        @Test
+        public void testWriteBatchSizeProperty() {
+            assertEquals(Integer.valueOf(50), scanConfig.getWriteBatchSize());
+        }
+
+        @Test
+        public void testWatchDelayProperty() {
+            assertEquals(Integer.valueOf(5), scanConfig.getWatchDelay());
+        }
+
+        @Test
+        public void testIndexRefreshIntervalProperty() {
+            assertEquals(Integer.valueOf(10), scanConfig.getIndexRefreshInterval());
+        }
+
         @Test
         public void testInvalidProperties() {
             AirsonicScanConfig invalidConfig = new AirsonicScanConfig();
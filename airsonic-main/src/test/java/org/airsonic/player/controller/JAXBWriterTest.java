@@ -0,0 +1,176 @@
+package org.airsonic.player.controller;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.subsonic.restapi.Child;
+import org.subsonic.restapi.Directory;
+import org.subsonic.restapi.Response;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JAXBWriterTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {"xml", "json", "jsonp"})
+    public void streamedResponseMatchesSerializedResponse(String format) throws Exception {
+        JAXBWriter writer = new JAXBWriter();
+        MockHttpServletRequest request = createRequest(format);
+        Response response = createDirectoryResponse(writer, 10);
+
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        writer.writeResponse(request, httpResponse, response);
+        Entry<String, String> serialized = writer.serializeForType(request, response);
+
+        assertEquals(serialized.getKey(), httpResponse.getContentType());
+        assertEquals(serialized.getValue(), httpResponse.getContentAsString());
+        if ("jsonp".equals(format)) {
+            assertTrue(serialized.getValue().startsWith("callback("));
+            assertTrue(serialized.getValue().endsWith(");"));
+        }
+    }
+
+    @Test
+    public void formattedOutputIsOptIn() throws Exception {
+        AtomicBoolean formatted = new AtomicBoolean(false);
+        JAXBWriter writer = new JAXBWriter(formatted::get);
+        MockHttpServletRequest request = createRequest("xml");
+        Response response = createDirectoryResponse(writer, 2);
+
+        assertTrue(writer.serializeForType(request, response).getValue().lines().count() <= 2);
+
+        // pooled marshallers pick up a changed setting
+        formatted.set(true);
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        writer.writeResponse(request, httpResponse, response);
+        assertTrue(httpResponse.getContentAsString().lines().count() > 4);
+    }
+
+    @Test
+    public void failureInBufferIsReplacedByErrorResponse() throws Exception {
+        JAXBWriter writer = new JAXBWriter();
+        MockHttpServletRequest request = createRequest("xml");
+        Response response = createFailingDirectoryResponse(writer);
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        httpResponse.setBufferSize(1024 * 1024);
+
+        writer.writeResponse(request, httpResponse, response);
+
+        String expected = writer.serializeForType(request,
+                writer.createErrorResponse(SubsonicRESTController.ErrorCode.GENERIC, "Failed to write response")).getValue();
+        assertEquals(expected, httpResponse.getContentAsString());
+    }
+
+    @Test
+    public void failureAfterCommitIsThrown() throws Exception {
+        JAXBWriter writer = new JAXBWriter();
+        MockHttpServletRequest request = createRequest("xml");
+        Response response = createFailingDirectoryResponse(writer);
+        MockHttpServletResponse httpResponse = new MockHttpServletResponse();
+        httpResponse.setBufferSize(1024);
+
+        assertThrows(RuntimeException.class, () -> writer.writeResponse(request, httpResponse, response));
+        assertTrue(httpResponse.isCommitted());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"xml", "json"})
+    public void responseIsWrittenIncrementally(String format) throws Exception {
+        JAXBWriter writer = new JAXBWriter();
+        MockHttpServletRequest request = createRequest(format);
+        Response response = createDirectoryResponse(writer, 5000);
+        RecordingOutputStream out = new RecordingOutputStream();
+        HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+        when(httpResponse.getOutputStream()).thenReturn(out);
+
+        writer.writeResponse(request, httpResponse, response);
+
+        // the output stream receives many small chunks instead of one serialized document
+        long total = writer.serializeForType(request, response).getValue().getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(total, out.total);
+        assertTrue(out.writes > 1, "written in " + out.writes + " chunks");
+        assertTrue(out.largest < total / 10, "largest chunk " + out.largest + " of " + total + " bytes");
+    }
+
+    private static MockHttpServletRequest createRequest(String format) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter("f", format);
+        request.setParameter("callback", "callback");
+        return request;
+    }
+
+    private static Response createDirectoryResponse(JAXBWriter writer, int children) {
+        Directory directory = new Directory();
+        directory.setId("1");
+        directory.setName("directory");
+        for (int i = 0; i < children; i++) {
+            Child child = new Child();
+            child.setId(String.valueOf(i));
+            child.setTitle("title " + i);
+            child.setArtist("artist");
+            child.setAlbum("album");
+            child.setIsDir(false);
+            directory.getChild().add(child);
+        }
+        Response response = writer.createResponse(true);
+        response.setDirectory(directory);
+        return response;
+    }
+
+    /**
+     * Creates a response whose marshalling fails at its last child, after the other children were written.
+     */
+    private static Response createFailingDirectoryResponse(JAXBWriter writer) {
+        Response response = createDirectoryResponse(writer, 1000);
+        Child child = new Child();
+        child.setId("failing");
+        child.setCreated(mock(XMLGregorianCalendar.class, invocation -> {
+            throw new IllegalStateException("Failing date");
+        }));
+        response.getDirectory().getChild().add(child);
+        return response;
+    }
+
+    private static class RecordingOutputStream extends ServletOutputStream {
+
+        private int writes;
+        private long largest;
+        private long total;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            largest = Math.max(largest, len);
+            total += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
@@ -13,20 +13,117 @@
  */
 package org.airsonic.player.controller;
 
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.PlayQueue;
+import org.airsonic.player.domain.Player;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.domain.User;
+import org.airsonic.player.domain.User.Role;
+import org.airsonic.player.service.MediaFileService;
+import org.airsonic.player.service.PlayerService;
+import org.airsonic.player.service.SecurityService;
+import org.airsonic.player.service.StatusService;
+import org.airsonic.player.service.TranscoderExecutionService.TranscoderBusyException;
 import org.airsonic.player.service.TranscodingService;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.awt.Dimension;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
  * @author Sindre Mehus
  * @version $Id$
  */
+@ExtendWith(MockitoExtension.class)
 public class StreamControllerTestCase {
 
+    @Mock
+    private SecurityService securityService;
+    @Mock
+    private PlayerService playerService;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private TranscodingService transcodingService;
+    @Mock
+    private StatusService statusService;
+    @InjectMocks
+    private StreamController streamController;
+
+    private TranscodingService.Parameters mockTranscodedFile(Path tempDir) throws Exception {
+        Files.createFile(tempDir.resolve("song.flac"));
+        User user = new User("user", null);
+        user.setRoles(Set.of(Role.STREAM));
+        Player player = new Player();
+        player.setUsername("user");
+        player.setPlayQueue(new PlayQueue());
+        MediaFile file = new MediaFile();
+        file.setId(123);
+        file.setFolder(new MusicFolder(tempDir, "Music", MusicFolder.Type.MEDIA, true, Instant.now()));
+        file.setPath("song.flac");
+        file.setChanged(Instant.now());
+        TranscodingService.Parameters parameters = new TranscodingService.Parameters(file, null);
+        parameters.setTranscoding(new Transcoding());
+
+        when(securityService.getCurrentUsername(any())).thenReturn("user");
+        when(securityService.getUserByName("user")).thenReturn(user);
+        when(securityService.isFolderAccessAllowed(file, "user")).thenReturn(true);
+        when(playerService.getPlayer(any(), any(), eq("user"), eq(false), eq(true))).thenReturn(player);
+        when(mediaFileService.getMediaFile(123)).thenReturn(file);
+        when(transcodingService.getParameters(eq(file), eq(player), isNull(), isNull(), isNull())).thenReturn(parameters);
+        return parameters;
+    }
+
+    @Test
+    public void testTranscoderBusyIsServiceUnavailable(@TempDir Path tempDir) throws Exception {
+        TranscodingService.Parameters parameters = mockTranscodedFile(tempDir);
+        when(transcodingService.getTranscodedInputStream(parameters)).thenThrow(new TranscoderBusyException(1));
+
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(streamController).build();
+        mvc.perform(get("/stream").param("id", "123"))
+                .andExpect(status().isServiceUnavailable());
+
+        // the stream is not reported as active
+        verifyNoInteractions(statusService);
+    }
+
+    @Test
+    public void testNotModifiedDoesNotStartTranscoder(@TempDir Path tempDir) throws Exception {
+        TranscodingService.Parameters parameters = mockTranscodedFile(tempDir);
+        parameters.setExpectedLength(1000L);
+        parameters.setRangeAllowed(true);
+
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(streamController).build();
+        mvc.perform(get("/stream").param("id", "123").header("If-None-Match", "\"1000\""))
+                .andExpect(status().isNotModified());
+
+        verify(transcodingService, never()).getTranscodedInputStream(any());
+        verifyNoInteractions(statusService);
+    }
+
     @Test
     public void testGetRequestedVideoSize() {
         StreamController controller = new StreamController();
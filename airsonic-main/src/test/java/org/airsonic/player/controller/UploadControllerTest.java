@@ -23,9 +23,11 @@ import org.airsonic.player.config.AirsonicHomeConfig;
 import org.airsonic.player.domain.Player;
 import org.airsonic.player.domain.TransferStatus;
 import org.airsonic.player.domain.User;
+import org.airsonic.player.io.BandwidthLimiter;
+import org.airsonic.player.service.BandwidthScheduler;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
 import org.airsonic.player.service.PlayerService;
 import org.airsonic.player.service.SecurityService;
-import org.airsonic.player.service.SettingsService;
 import org.airsonic.player.service.StatusService;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -92,7 +94,7 @@ class UploadControllerTest {
     private PlayerService playerService;
 
     @MockBean
-    private SettingsService settingsService;
+    private BandwidthScheduler bandwidthScheduler;
 
     @MockBean
     private SimpMessagingTemplate brokerTemplate;
@@ -115,6 +117,11 @@ class UploadControllerTest {
     @Mock
     TransferStatus mockedStatus;
 
+    private static BandwidthLimiter createLimiter(double rate) {
+        RateLimiter rateLimiter = RateLimiter.create(rate);
+        return (status, bytes) -> rateLimiter.acquire(bytes);
+    }
+
     @BeforeAll
     public static void setup() {
         System.setProperty("airsonic.home", tempDir.toString());
@@ -148,7 +155,7 @@ class UploadControllerTest {
         when(mockedUser.isAdminRole()).thenReturn(isAdmin);
         when(mockedUser.isUploadRole()).thenReturn(isUploadRole);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(10.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(10.0));
 
         // Create request
         MockMultipartFile file1 = new MockMultipartFile("file", "test.txt", "text/plain", "Test file".getBytes());
@@ -200,7 +207,7 @@ class UploadControllerTest {
         when(mockedUser.isAdminRole()).thenReturn(false);
         when(mockedUser.isUploadRole()).thenReturn(false);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(10.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(10.0));
 
         // Create request
         MockMultipartFile file1 = new MockMultipartFile("file", "test.txt", "text/plain", "Test file".getBytes());
@@ -258,7 +265,7 @@ class UploadControllerTest {
         when(mockedUser.isUploadRole()).thenReturn(true);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
         doThrow(new AccessDeniedException(uploadPath.toString(), null, "Specified location is not in writable music folder")).when(securityService).checkUploadAllowed(eq(uploadPath), eq(false));
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(10.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(10.0));
 
         // Create request
         MockMultipartFile file1 = new MockMultipartFile("file", "test.txt", "text/plain", "Test file".getBytes());
@@ -310,7 +317,7 @@ class UploadControllerTest {
         when(mockedUser.isAdminRole()).thenReturn(true);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
         doThrow(new AccessDeniedException(uploadPath.toString(), null, "Specified location is not in writable music folder")).when(securityService).checkUploadAllowed(eq(uploadPath), eq(false));
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(10.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(10.0));
 
         // Create request
         MockMultipartFile file1 = new MockMultipartFile("file", "test.txt", "text/plain", "Test file".getBytes());
@@ -363,7 +370,7 @@ class UploadControllerTest {
         when(mockedUser.getUsername()).thenReturn("user");
         when(mockedUser.isAdminRole()).thenReturn(true);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(10.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(10.0));
         doThrow(new FileAlreadyExistsException(uploadPath.toString(), null, "File already exists")).when(securityService).checkUploadAllowed(eq(uploadPath), eq(true));
 
         // Create request
@@ -418,7 +425,7 @@ class UploadControllerTest {
         when(mockedUser.getUsername()).thenReturn("user");
         when(mockedUser.isAdminRole()).thenReturn(true);
         when(securityService.getCurrentUser(any())).thenReturn(mockedUser);
-        when(settingsService.getUploadBitrateLimiter()).thenReturn(RateLimiter.create(1000.0));
+        when(bandwidthScheduler.getLimiter(TrafficClass.UPLOAD)).thenReturn(createLimiter(1000.0));
 
         // Create request
         MockMultipartFile file1 = new MockMultipartFile("file", fileName, "text/plain", resource.getInputStream().readAllBytes());
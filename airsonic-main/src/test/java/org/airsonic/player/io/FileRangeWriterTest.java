@@ -0,0 +1,118 @@
+package org.airsonic.player.io;
+
+import org.airsonic.player.domain.TransferStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class FileRangeWriterTest {
+
+    private static final MediaType FLAC = MediaType.parseMediaType("audio/flac");
+
+    @TempDir
+    private Path tempDir;
+
+    private Path file;
+    private byte[] data;
+    private TransferStatus status;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        data = new byte[FileRangeWriter.CHUNK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        file = Files.write(tempDir.resolve("song.flac"), data);
+        status = new TransferStatus(null);
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+    }
+
+    @Test
+    public void wholeFileIsWrittenInChunks() throws Exception {
+        BandwidthLimiter limiter = mock(BandwidthLimiter.class);
+
+        new FileRangeWriter(file, 0, limiter, status).write(request, response, FLAC);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("audio/flac", response.getContentType());
+        assertEquals(data.length, response.getContentLengthLong());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertArrayEquals(data, response.getContentAsByteArray());
+        assertEquals(data.length, status.getBytesTransferred());
+        verify(limiter, times(2)).acquire(status, FileRangeWriter.CHUNK_SIZE);
+        verify(limiter).acquire(status, 100);
+    }
+
+    @Test
+    public void singleRangeIsWritten() throws Exception {
+        request.addHeader("Range", "bytes=10-19");
+
+        new FileRangeWriter(file, 0, null, status).write(request, response, FLAC);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/" + data.length, response.getHeader("Content-Range"));
+        assertEquals(10, response.getContentLengthLong());
+        assertArrayEquals(Arrays.copyOfRange(data, 10, 20), response.getContentAsByteArray());
+        assertEquals(10, status.getBytesTransferred());
+    }
+
+    @Test
+    public void multipleRangesAreWrittenAsMultipart() throws Exception {
+        request.addHeader("Range", "bytes=0-1,-2");
+
+        new FileRangeWriter(file, 0, null, status).write(request, response, FLAC);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().substring("multipart/byteranges; boundary=".length());
+        String body = response.getContentAsString(StandardCharsets.ISO_8859_1);
+        int last = data.length - 1;
+        String expected = "\r\n--" + boundary + "\r\nContent-Type: audio/flac\r\nContent-Range: bytes 0-1/" + data.length
+                + "\r\n\r\n" + new String(Arrays.copyOfRange(data, 0, 2), StandardCharsets.ISO_8859_1)
+                + "\r\n--" + boundary + "\r\nContent-Type: audio/flac\r\nContent-Range: bytes " + (last - 1) + "-" + last
+                + "/" + data.length + "\r\n\r\n" + new String(Arrays.copyOfRange(data, last - 1, data.length), StandardCharsets.ISO_8859_1)
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, body);
+        assertEquals(4, status.getBytesTransferred());
+    }
+
+    @Test
+    public void unsatisfiableRangeIsRejected() throws Exception {
+        request.addHeader("Range", "bytes=" + data.length + "-");
+
+        new FileRangeWriter(file, 0, null, status).write(request, response, FLAC);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + data.length, response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void rangesAreRelativeToOffset() throws Exception {
+        request.addHeader("Range", "bytes=0-9");
+
+        new FileRangeWriter(file, 1000, null, status).write(request, response, FLAC);
+
+        assertEquals("bytes 0-9/" + (data.length - 1000), response.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 1010), response.getContentAsByteArray());
+        assertEquals(1000, status.getBytesSkipped());
+    }
+}
@@ -7,23 +7,37 @@ import org.airsonic.player.io.PipeStreams.MonitoredInputStream;
 import org.airsonic.player.io.PipeStreams.MonitoredResource;
 import org.airsonic.player.io.PipeStreams.PipedInputStream;
 import org.airsonic.player.io.PipeStreams.PipedOutputStream;
+import org.airsonic.player.io.PipeStreams.RingPipedInputStream;
+import org.airsonic.player.io.PipeStreams.RingPipedOutputStream;
 import org.airsonic.player.util.FileUtil;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.fail;
 
 public class PipeStreamsTest {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PipeStreamsTest.class);
+
     // this test will sporadically fail with the built-in JDK Piped*Stream classes,
     // thus we use our own
     @Test
@@ -92,7 +106,8 @@ public class PipeStreamsTest {
     @Test
     public void testMonitoredResource() throws Exception {
         TransferStatus status = new TransferStatus(null);
-        RateLimiter limit = RateLimiter.create(4.0);
+        RateLimiter rateLimiter = RateLimiter.create(4.0);
+        BandwidthLimiter limit = (s, bytes) -> rateLimiter.acquire(bytes);
         Path file = Paths.get(Resources.getResource("MEDIAS/piano.mp3").toURI());
         Set<String> eventSet = new HashSet<>();
         Resource r = new MonitoredResource(new FileSystemResource(file), limit, () -> status, s -> {
@@ -144,4 +159,135 @@ public class PipeStreamsTest {
 
         assertThat(eventSet).containsOnly("inputStreamOpened", "statusClosed");
     }
+
+    @Test
+    public void testRingPipeStreams() throws Exception {
+        byte[] b = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17 };
+        TransferStatus status = new TransferStatus(null);
+
+        // the buffer is rounded up to 8 bytes, so the writes wrap around it
+        try (RingPipedInputStream pin = new RingPipedInputStream(5, false);
+                MonitoredInputStream min = new MonitoredInputStream(pin, null, () -> status, s -> {}, (i, s) -> {})) {
+            RingPipedOutputStream pout = new RingPipedOutputStream(pin);
+
+            CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                try (RingPipedOutputStream po = pout) {
+                    po.write(b, 4, 12);
+                    po.write(0xff);
+                } catch (IOException e) {
+                    fail("Should not throw IOException");
+                }
+            });
+
+            byte[] b2 = new byte[2];
+            assertThat(min.readNBytes(b2, 0, 2)).isEqualTo(2);
+            assertThat(b2).containsExactly(4, 5);
+
+            assertThat(min.skip(4)).isGreaterThan(0).isLessThanOrEqualTo(4);
+            min.skipNBytes(4 - status.getBytesSkipped());
+            assertThat(status.getBytesSkipped()).isEqualTo(4);
+
+            assertThat(min.readNBytes(b2, 0, 2)).isEqualTo(2);
+            assertThat(b2).containsExactly(10, 11);
+            assertThat(min.read()).isEqualTo(12);
+            assertThat(min.readAllBytes()).containsExactly(13, 14, 15, 0xff);
+            assertThat(status.getBytesTransferred()).isEqualTo(9);
+
+            assertThat(min.read()).isEqualTo(-1);
+            assertThat(min.read(b2)).isEqualTo(-1);
+            writer.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRingPipeClosedByReader() throws Exception {
+        RingPipedInputStream pin = new RingPipedInputStream(16, true);
+        RingPipedOutputStream pout = new RingPipedOutputStream(pin);
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try {
+                // blocks once the buffer is full, until the reader closes the pipe
+                pout.write(new byte[64]);
+                fail("Should throw IOException");
+            } catch (IOException e) {
+                assertThat(e).hasMessage("Broken pipe");
+            }
+        });
+
+        assertThat(pin.read(new byte[4])).isEqualTo(4);
+        pin.close();
+        writer.get(10, TimeUnit.SECONDS);
+        assertThatThrownBy(() -> pout.write(1)).isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> new RingPipedOutputStream(pin)).hasMessage("Pipe already connected");
+    }
+
+    // compares the lock-based and the lock-free pipes, the throughput and the average latency of a chunk are logged
+    @Tag("benchmark")
+    @ParameterizedTest
+    @ValueSource(ints = { 4 * 1024, 64 * 1024 })
+    public void testPipeThroughput(int chunkSize) throws Exception {
+        long total = 64L * 1024 * 1024;
+
+        for (int i = 0; i < 2; i++) {
+            PipedInputStream pin = new PipedInputStream(null, 0x10000);
+            long locked = pump(pin, new PipedOutputStream(pin), chunkSize, total);
+
+            RingPipedInputStream heap = new RingPipedInputStream(0x10000, false);
+            long ring = pump(heap, new RingPipedOutputStream(heap), chunkSize, total);
+
+            RingPipedInputStream direct = new RingPipedInputStream(0x10000, true);
+            long ringDirect = pump(direct, new RingPipedOutputStream(direct), chunkSize, total);
+
+            // the first round warms up
+            if (i == 1) {
+                long chunks = total / chunkSize;
+                LOG.info("{} byte chunks: locked {} MB/s {} ns/chunk, ring {} MB/s {} ns/chunk, direct ring {} MB/s {} ns/chunk",
+                        chunkSize, throughput(total, locked), locked / chunks, throughput(total, ring), ring / chunks,
+                        throughput(total, ringDirect), ringDirect / chunks);
+            }
+        }
+    }
+
+    /**
+     * Writes <code>total</code> bytes through the pipe in chunks, verifying them on the reading side.
+     *
+     * @return the time in nanoseconds
+     */
+    private static long pump(InputStream in, OutputStream out, int chunkSize, long total) throws Exception {
+        byte[] data = new byte[chunkSize];
+        for (int i = 0; i < chunkSize; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        CRC32 expected = new CRC32();
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (OutputStream o = out) {
+                for (long written = 0; written < total; written += chunkSize) {
+                    o.write(data);
+                    expected.update(data);
+                }
+            } catch (IOException e) {
+                fail("Should not throw IOException");
+            }
+        });
+
+        long start = System.nanoTime();
+        CRC32 actual = new CRC32();
+        byte[] b = new byte[chunkSize];
+        long read = 0;
+        try (InputStream i = in) {
+            for (int n; (n = i.read(b)) != -1; read += n) {
+                actual.update(b, 0, n);
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        writer.get(60, TimeUnit.SECONDS);
+        assertThat(read).isEqualTo(total);
+        assertThat(actual.getValue()).isEqualTo(expected.getValue());
+        return time;
+    }
+
+    private static long throughput(long bytes, long nanos) {
+        return bytes * 1_000_000_000 / Math.max(nanos, 1) / 1024 / 1024;
+    }
 }
@@ -0,0 +1,97 @@
+package org.airsonic.player.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.airsonic.player.io.ShoutCastInputStream.META_DATA_INTERVAL;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ShoutCastInputStreamTest {
+
+    @Test
+    public void metaDataIsInsertedAfterEachInterval() throws IOException {
+        byte[] data = createData(META_DATA_INTERVAL * 2 + 100);
+        AtomicReference<String> title = new AtomicReference<>("Title");
+        byte[] titleBlock = createBlock("StreamTitle='Title';");
+
+        byte[] result;
+        try (InputStream in = new ShoutCastInputStream(new ByteArrayInputStream(data), title::get)) {
+            result = in.readAllBytes();
+        }
+
+        int offset = 0;
+        assertArrayEquals(Arrays.copyOfRange(data, 0, META_DATA_INTERVAL), Arrays.copyOfRange(result, offset, offset += META_DATA_INTERVAL));
+        assertArrayEquals(titleBlock, Arrays.copyOfRange(result, offset, offset += titleBlock.length));
+        assertArrayEquals(Arrays.copyOfRange(data, META_DATA_INTERVAL, META_DATA_INTERVAL * 2), Arrays.copyOfRange(result, offset, offset += META_DATA_INTERVAL));
+        // unchanged title
+        assertEquals(0, result[offset++]);
+        assertArrayEquals(Arrays.copyOfRange(data, META_DATA_INTERVAL * 2, data.length), Arrays.copyOfRange(result, offset, result.length));
+    }
+
+    @Test
+    public void changedTitleIsSent() throws IOException {
+        byte[] data = createData(META_DATA_INTERVAL * 2);
+        AtomicReference<String> title = new AtomicReference<>("First");
+
+        try (InputStream in = new ShoutCastInputStream(new ByteArrayInputStream(data), title::get)) {
+            in.readNBytes(META_DATA_INTERVAL);
+            assertArrayEquals(createBlock("StreamTitle='First';"), in.readNBytes(createBlock("StreamTitle='First';").length));
+            title.set("It's second");
+            in.readNBytes(META_DATA_INTERVAL);
+            assertArrayEquals(createBlock("StreamTitle='Its second';"), in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void singleBytesAreFramed() throws IOException {
+        byte[] data = createData(META_DATA_INTERVAL + 1);
+
+        try (InputStream in = new ShoutCastInputStream(new ByteArrayInputStream(data), () -> "Title")) {
+            for (int i = 0; i < META_DATA_INTERVAL; i++) {
+                assertEquals(data[i] & 0xff, in.read());
+            }
+            byte[] block = createBlock("StreamTitle='Title';");
+            assertEquals(block.length, in.available());
+            for (byte b : block) {
+                assertEquals(b & 0xff, in.read());
+            }
+            assertEquals(data[META_DATA_INTERVAL] & 0xff, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void skippedBytesAreNotCounted() throws IOException {
+        byte[] data = createData(META_DATA_INTERVAL + 1000);
+
+        try (InputStream in = new ShoutCastInputStream(new ByteArrayInputStream(data), () -> "Title")) {
+            assertEquals(1000, in.skip(1000));
+            assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), in.readNBytes(META_DATA_INTERVAL));
+            assertEquals(createBlock("StreamTitle='Title';").length, in.readAllBytes().length);
+        }
+    }
+
+    private static byte[] createBlock(String metaData) {
+        byte[] bytes = metaData.getBytes(StandardCharsets.UTF_8);
+        int length = (bytes.length + 15) / 16;
+        byte[] block = new byte[1 + length * 16];
+        block[0] = (byte) length;
+        System.arraycopy(bytes, 0, block, 1, bytes.length);
+        return block;
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
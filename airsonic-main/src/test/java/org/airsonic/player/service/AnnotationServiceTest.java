@@ -0,0 +1,109 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFileAnnotations;
+import org.airsonic.player.domain.entity.UserRating;
+import org.airsonic.player.repository.StarredMediaFileRepository;
+import org.airsonic.player.repository.StarredMediaFileRepository.StarredDate;
+import org.airsonic.player.repository.UserRatingRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AnnotationServiceTest {
+
+    @Mock
+    private StarredMediaFileRepository starredMediaFileRepository;
+    @Mock
+    private UserRatingRepository userRatingRepository;
+
+    private AnnotationService annotationService;
+
+    @BeforeEach
+    public void setup() {
+        annotationService = new AnnotationService(starredMediaFileRepository, userRatingRepository);
+    }
+
+    @Test
+    public void loadsStarredDatesAndRatingsOfAllFiles() {
+        MediaFile starred = createMediaFile(1);
+        MediaFile rated = createMediaFile(2);
+        MediaFile plain = createMediaFile(3);
+        Instant now = Instant.now();
+        when(starredMediaFileRepository.findStarredDates(eq("user"), anyIterable())).thenReturn(List.of(starredDate(1, now)));
+        when(userRatingRepository.findByMediaFileIdIn(anyIterable())).thenReturn(List.of(
+                new UserRating("user", 2, 5), new UserRating("other", 2, 2), new UserRating("other", 1, 3)));
+
+        MediaFileAnnotations annotations = annotationService.getAnnotations(List.of(starred, rated, plain), "user");
+
+        assertEquals(now, annotations.getStarredDate(starred));
+        assertNull(annotations.getStarredDate(rated));
+        assertEquals(5, annotations.getUserRating(rated));
+        assertEquals(3.5, annotations.getAverageRating(rated));
+        assertNull(annotations.getUserRating(starred));
+        assertEquals(3.0, annotations.getAverageRating(starred));
+        assertNull(annotations.getAverageRating(plain));
+        verify(starredMediaFileRepository).findStarredDates(eq("user"), anyIterable());
+        verify(userRatingRepository).findByMediaFileIdIn(anyIterable());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void queriesInChunks() {
+        List<MediaFile> mediaFiles = new ArrayList<>();
+        IntStream.range(0, 2500).forEach(i -> mediaFiles.add(createMediaFile(i)));
+        // duplicates are queried once
+        mediaFiles.add(createMediaFile(0));
+
+        annotationService.getAnnotations(mediaFiles, "user");
+
+        ArgumentCaptor<Iterable<Integer>> captor = ArgumentCaptor.forClass(Iterable.class);
+        verify(userRatingRepository, times(3)).findByMediaFileIdIn(captor.capture());
+        assertEquals(List.of(1000, 1000, 500), captor.getAllValues().stream().map(ids -> ((List<Integer>) ids).size()).toList());
+        verify(starredMediaFileRepository, times(3)).findStarredDates(eq("user"), anyIterable());
+    }
+
+    @Test
+    public void skipsStarredDatesWithoutUser() {
+        annotationService.getAnnotations(List.of(createMediaFile(1)), null);
+
+        verify(starredMediaFileRepository, never()).findStarredDates(any(), any());
+        verify(userRatingRepository).findByMediaFileIdIn(anyIterable());
+    }
+
+    private static MediaFile createMediaFile(int id) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        return mediaFile;
+    }
+
+    private static StarredDate starredDate(int mediaFileId, Instant created) {
+        return new StarredDate() {
+            @Override
+            public Integer getMediaFileId() {
+                return mediaFileId;
+            }
+
+            @Override
+            public Instant getCreated() {
+                return created;
+            }
+        };
+    }
+}
@@ -0,0 +1,186 @@
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.domain.Player;
+import org.airsonic.player.domain.TransferStatus;
+import org.airsonic.player.domain.UserSettings;
+import org.airsonic.player.io.BandwidthLimiter;
+import org.airsonic.player.service.BandwidthScheduler.Throughput;
+import org.airsonic.player.service.BandwidthScheduler.TrafficClass;
+import org.airsonic.player.service.BandwidthScheduler.UserThroughput;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class BandwidthSchedulerTest {
+
+    private static final int KB = 1024;
+
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private PersonalSettingsService personalSettingsService;
+
+    private final UserSettings userSettings = new UserSettings("user");
+    private MeterRegistry meterRegistry;
+    private BandwidthScheduler scheduler;
+
+    @BeforeEach
+    public void setup() {
+        when(personalSettingsService.getUserSettings("user")).thenReturn(userSettings);
+        meterRegistry = new SimpleMeterRegistry();
+        scheduler = new BandwidthScheduler(settingsService, personalSettingsService, meterRegistry);
+    }
+
+    @Test
+    public void unlimitedTransfersDontWait() {
+        BandwidthLimiter limiter = scheduler.getLimiter(TrafficClass.DOWNLOAD);
+        TransferStatus status = createStatus(1, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(status, 64 * KB);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(100.0 * 64 * KB, meterRegistry.get("airsonic.bandwidth.bytes").tag("class", "download").counter().count());
+        assertEquals(0, meterRegistry.get("airsonic.bandwidth.throttled").tag("class", "download").timer().count());
+    }
+
+    @Test
+    public void userLimitThrottlesTransfers() {
+        // 1000 Kbit/s are 1000 KB per second, which are paid back after the first chunk
+        userSettings.setBandwidthLimit(1000);
+        TransferStatus status = createStatus(1, 0);
+
+        long elapsed = transfer(scheduler.getLimiter(TrafficClass.DOWNLOAD), status, 3, 500 * KB);
+
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(900), "elapsed " + elapsed);
+        assertEquals(2, meterRegistry.get("airsonic.bandwidth.throttled").tag("class", "download").timer().count());
+    }
+
+    @Test
+    public void playerLimitThrottlesTransfers() {
+        TransferStatus status = createStatus(1, 1000);
+
+        long elapsed = transfer(scheduler.getLimiter(TrafficClass.STREAM), status, 3, 500 * KB);
+
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(900), "elapsed " + elapsed);
+        // other players are not limited
+        assertTrue(transfer(scheduler.getLimiter(TrafficClass.STREAM), createStatus(2, 0), 3, 500 * KB)
+                < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void uploadsUseTheUploadLimit() {
+        when(settingsService.getDownloadBitrateLimit()).thenReturn(1000L);
+
+        assertTrue(transfer(scheduler.getLimiter(TrafficClass.UPLOAD), createStatus(1, 0), 3, 500 * KB)
+                < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void streamsTakeTheLargerShareOfTheGlobalLimit() throws Exception {
+        when(settingsService.getDownloadBitrateLimit()).thenReturn(2000L);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong streamed = new AtomicLong();
+        AtomicLong downloaded = new AtomicLong();
+
+        CompletableFuture<Void> stream = CompletableFuture.runAsync(() -> pump(TrafficClass.STREAM, createStatus(1, 0), running, streamed));
+        CompletableFuture<Void> download = CompletableFuture.runAsync(() -> pump(TrafficClass.DOWNLOAD, createStatus(2, 0), running, downloaded));
+        Thread.sleep(1500);
+        running.set(false);
+        stream.get(10, TimeUnit.SECONDS);
+        download.get(10, TimeUnit.SECONDS);
+
+        // the weights are 8 to 2
+        assertTrue(downloaded.get() > 0);
+        assertTrue(streamed.get() > 2 * downloaded.get(), "streamed " + streamed + ", downloaded " + downloaded);
+    }
+
+    @Test
+    public void throughputIsAveragedOverCompletedSeconds() {
+        Throughput throughput = new Throughput();
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        throughput.add(TrafficClass.STREAM, 5000, 100 * second);
+        throughput.add(TrafficClass.STREAM, 5000, 101 * second + 10);
+        throughput.add(TrafficClass.DOWNLOAD, 1000, 101 * second);
+        // the current second isn't completed
+        throughput.add(TrafficClass.STREAM, 5000, 102 * second);
+
+        assertEquals(2000, throughput.get(TrafficClass.STREAM, 102 * second));
+        assertEquals(200, throughput.get(TrafficClass.DOWNLOAD, 102 * second));
+        assertEquals(0, throughput.get(TrafficClass.UPLOAD, 102 * second));
+        // old seconds are dropped
+        assertEquals(1000, throughput.get(TrafficClass.STREAM, 107 * second));
+        assertEquals(0, throughput.get(TrafficClass.STREAM, 110 * second));
+    }
+
+    @Test
+    public void userThroughputsAreListed() {
+        scheduler.getLimiter(TrafficClass.STREAM).acquire(createStatus(1, 0), KB);
+
+        List<UserThroughput> throughputs = scheduler.getUserThroughputs();
+
+        // the transfer of the current second isn't counted yet
+        assertTrue(throughputs.isEmpty());
+        assertEquals(1, meterRegistry.find("airsonic.bandwidth.throughput").tag("class", "stream").gauges().size());
+        // the metrics don't grow with the users
+        assertTrue(meterRegistry.find("airsonic.bandwidth.throughput").tagKeys("user").gauges().isEmpty());
+    }
+
+    @Test
+    public void throughputIsIdleAfterAveragedSeconds() {
+        Throughput throughput = new Throughput();
+        long second = TimeUnit.SECONDS.toNanos(1);
+
+        throughput.add(TrafficClass.STREAM, 5000, 100 * second);
+
+        assertFalse(throughput.isIdle(100 * second));
+        assertFalse(throughput.isIdle(105 * second));
+        assertTrue(throughput.isIdle(106 * second));
+    }
+
+    private void pump(TrafficClass trafficClass, TransferStatus status, AtomicBoolean running, AtomicLong bytes) {
+        BandwidthLimiter limiter = scheduler.getLimiter(trafficClass);
+        while (running.get()) {
+            limiter.acquire(status, 16 * KB);
+            bytes.addAndGet(16 * KB);
+        }
+    }
+
+    private static long transfer(BandwidthLimiter limiter, TransferStatus status, int chunks, int chunkSize) {
+        long start = System.nanoTime();
+        for (int i = 0; i < chunks; i++) {
+            limiter.acquire(status, chunkSize);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static TransferStatus createStatus(int playerId, long bandwidthLimit) {
+        Player player = new Player();
+        player.setId(playerId);
+        player.setUsername("user");
+        player.setBandwidthLimit(bandwidthLimit);
+        return new TransferStatus(player);
+    }
+}
@@ -0,0 +1,87 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicCacheConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.service.cache.MediaFileCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class CachePrewarmServiceTest {
+
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private MediaFolderService mediaFolderService;
+    @Mock
+    private MediaFileCache mediaFileCache;
+
+    private AirsonicCacheConfig cacheConfig;
+    private CachePrewarmService prewarmService;
+
+    @BeforeEach
+    public void setup() {
+        cacheConfig = new AirsonicCacheConfig();
+        cacheConfig.setPrewarmDirectories(10);
+        prewarmService = new CachePrewarmService(mediaFileService, mediaFolderService, mediaFileCache, cacheConfig);
+    }
+
+    @AfterEach
+    public void teardown() {
+        prewarmService.shutdown();
+    }
+
+    @Test
+    public void playedAlbumsAndBrowsedDirectoriesAreCachedWithChildren() {
+        MediaFile album = createMediaFile(1, true);
+        MediaFile browsed = createMediaFile(2, true);
+        MediaFile song = createMediaFile(3, true);
+        MediaFile removed = createMediaFile(4, false);
+        when(mediaFileService.getMostRecentlyPlayedAlbums(eq(0), eq(10), any())).thenReturn(List.of(album));
+        // the album is also browsed, but cached once
+        when(mediaFileCache.getMostBrowsedDirectories(10)).thenReturn(List.of(1, 2, 4, 5));
+        when(mediaFileService.getMediaFile(1)).thenReturn(album);
+        when(mediaFileService.getMediaFile(2)).thenReturn(browsed);
+        when(mediaFileService.getMediaFile(4)).thenReturn(removed);
+        when(mediaFileService.getChildrenOf(album, true, true, false, true)).thenReturn(List.of(song));
+        when(mediaFileService.getChildrenOf(browsed, true, true, false, true)).thenReturn(List.of());
+
+        assertEquals(3, prewarmService.prewarm());
+
+        verify(mediaFileCache).putMediaFile(album);
+        verify(mediaFileCache).putMediaFile(browsed);
+        verify(mediaFileCache).putMediaFile(song);
+        verify(mediaFileCache, never()).putMediaFile(removed);
+    }
+
+    @Test
+    public void nothingIsCachedWhenDisabled() {
+        cacheConfig.setPrewarmDirectories(0);
+
+        assertEquals(0, prewarmService.prewarm());
+        verifyNoInteractions(mediaFileService, mediaFileCache);
+    }
+
+    private static MediaFile createMediaFile(int id, boolean present) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setPath(Paths.get("dir" + id).toString());
+        mediaFile.setPresent(present);
+        return mediaFile;
+    }
+}
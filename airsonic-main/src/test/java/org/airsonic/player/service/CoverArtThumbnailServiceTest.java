@@ -0,0 +1,232 @@
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicCoverArtConfig;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.dto.AlbumCoverArtRequest;
+import org.airsonic.player.domain.dto.CoverArtRequest;
+import org.airsonic.player.service.CoverArtThumbnailService.CachedImage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import javax.imageio.ImageIO;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class CoverArtThumbnailServiceTest {
+
+    @Mock
+    private CoverArtCreateService coverArtCreateService;
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private AirsonicHomeConfig homeConfig;
+
+    @TempDir
+    private Path tempDir;
+
+    private AirsonicCoverArtConfig coverArtConfig;
+    private MeterRegistry meterRegistry;
+    private CoverArtThumbnailService thumbnailService;
+
+    private final Album album = new Album();
+
+    @BeforeEach
+    public void setup() {
+        when(homeConfig.getAirsonicHome()).thenReturn(tempDir);
+        when(settingsService.getCoverArtConcurrency()).thenReturn(2);
+        when(settingsService.getCoverArtQuality()).thenReturn(90);
+        coverArtConfig = new AirsonicCoverArtConfig();
+        meterRegistry = new SimpleMeterRegistry();
+        thumbnailService = new CoverArtThumbnailService(coverArtCreateService, settingsService, homeConfig, coverArtConfig, meterRegistry);
+        album.setId(1);
+        album.setLastScanned(Instant.now().minusSeconds(60));
+    }
+
+    @AfterEach
+    public void teardown() {
+        thumbnailService.shutdown();
+    }
+
+    @Test
+    public void concurrentRequestsCreateTheImageOnce() throws Exception {
+        CountDownLatch created = new CountDownLatch(1);
+        when(coverArtCreateService.createImage(any(), anyInt())).then(invocation -> {
+            created.await(10, TimeUnit.SECONDS);
+            return new BufferedImage(30, 30, BufferedImage.TYPE_INT_RGB);
+        });
+        CoverArtRequest request = new AlbumCoverArtRequest(null, album);
+
+        List<CompletableFuture<Path>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return thumbnailService.getThumbnail(request, 30);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        Thread.sleep(200);
+        created.countDown();
+
+        Path thumbnail = futures.get(0).get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<Path> future : futures) {
+            assertEquals(thumbnail, future.get(10, TimeUnit.SECONDS));
+        }
+        verify(coverArtCreateService, times(1)).createImage(request, 30);
+        assertEquals(30, ImageIO.read(thumbnail.toFile()).getWidth());
+        assertEquals(tempDir.resolve("thumbs").resolve("30"), thumbnail.getParent());
+        try (var files = Files.list(thumbnail.getParent())) {
+            assertEquals(1, files.count());
+        }
+        assertEquals(1, meterRegistry.get("airsonic.coverart.thumbnails.creation").timer().count());
+
+        // cached
+        assertEquals(thumbnail, thumbnailService.getThumbnail(request, 30));
+        verify(coverArtCreateService, times(1)).createImage(request, 30);
+    }
+
+    @Test
+    public void obsoleteImageIsCreatedAgain() throws Exception {
+        when(coverArtCreateService.createImage(any(), anyInt())).thenReturn(new BufferedImage(30, 30, BufferedImage.TYPE_INT_RGB));
+        CoverArtRequest request = new AlbumCoverArtRequest(null, album);
+        thumbnailService.getThumbnail(request, 30);
+
+        album.setLastScanned(Instant.now().plusSeconds(60));
+        thumbnailService.getThumbnail(request, 30);
+
+        verify(coverArtCreateService, times(2)).createImage(request, 30);
+    }
+
+    @Test
+    public void failedImageIsNotCached() throws Exception {
+        CoverArtRequest request = new AlbumCoverArtRequest(null, album);
+
+        assertThrows(IOException.class, () -> thumbnailService.getThumbnail(request, 30));
+
+        try (var files = Files.list(tempDir.resolve("thumbs").resolve("30"))) {
+            assertEquals(0, files.count());
+        }
+        // the next request tries again
+        when(coverArtCreateService.createImage(any(), anyInt())).thenReturn(new BufferedImage(30, 30, BufferedImage.TYPE_INT_RGB));
+        Path thumbnail = thumbnailService.getThumbnail(request, 30);
+        assertTrue(Files.exists(thumbnail));
+        assertFalse(Files.exists(thumbnail.resolveSibling(thumbnail.getFileName() + ".part")));
+    }
+
+    @Test
+    public void smallImagesAreServedFromMemory() throws Exception {
+        when(coverArtCreateService.createImage(any(), anyInt())).then(invocation ->
+                new BufferedImage(invocation.getArgument(1), invocation.getArgument(1), BufferedImage.TYPE_INT_RGB));
+        CoverArtRequest request = new AlbumCoverArtRequest(null, album);
+
+        CachedImage image = thumbnailService.getCachedImage(request, 160);
+        assertEquals("image/png", image.getContentType());
+        assertArrayEquals(Files.readAllBytes(thumbnailService.getThumbnail(request, 160)), image.getData());
+        assertSame(image, thumbnailService.getCachedImage(request, 160));
+        assertEquals(image.getData().length, thumbnailService.getMemorySize());
+
+        // too large for memory, so streamed from the cache file
+        CachedImage large = thumbnailService.getCachedImage(request, 600);
+        assertNull(large.getData());
+        assertEquals(Files.size(thumbnailService.getThumbnail(request, 600)), large.getLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        large.writeTo(out);
+        assertEquals(large.getLength(), out.size());
+        assertEquals(600, ImageIO.read(new ByteArrayInputStream(out.toByteArray())).getWidth());
+        assertEquals(image.getData().length, thumbnailService.getMemorySize());
+
+        assertEquals(1.0, meterRegistry.get("airsonic.coverart.memory.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("airsonic.coverart.memory.requests").tag("result", "miss").counter().count());
+        assertEquals(0.5, meterRegistry.get("airsonic.coverart.memory.hit.ratio").gauge().value());
+    }
+
+    @Test
+    public void obsoleteImageInMemoryIsCreatedAgain() throws Exception {
+        when(coverArtCreateService.createImage(any(), anyInt())).thenReturn(new BufferedImage(30, 30, BufferedImage.TYPE_INT_RGB));
+        CoverArtRequest request = new AlbumCoverArtRequest(null, album);
+        CachedImage image = thumbnailService.getCachedImage(request, 30);
+
+        album.setLastScanned(Instant.now().plusSeconds(60));
+
+        assertNotSame(image, thumbnailService.getCachedImage(request, 30));
+        verify(coverArtCreateService, times(2)).createImage(request, 30);
+    }
+
+    @Test
+    public void leastRecentlyUsedImagesAreDroppedFromMemory() throws Exception {
+        when(coverArtCreateService.createImage(any(), anyInt())).thenReturn(createNoise(300));
+        coverArtConfig.setMemoryCacheSize(1L);
+        thumbnailService.shutdown();
+        thumbnailService = new CoverArtThumbnailService(coverArtCreateService, settingsService, homeConfig, coverArtConfig, meterRegistry);
+
+        List<CachedImage> images = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Album other = new Album();
+            other.setId(i);
+            other.setLastScanned(album.getLastScanned());
+            images.add(thumbnailService.getCachedImage(new AlbumCoverArtRequest(null, other), 300));
+        }
+
+        long imageSize = images.get(0).getData().length;
+        assertTrue(imageSize * 10 > 1024 * 1024, "image size " + imageSize);
+        assertTrue(thumbnailService.getMemorySize() <= 1024 * 1024);
+        Album last = new Album();
+        last.setId(9);
+        last.setLastScanned(album.getLastScanned());
+        assertSame(images.get(9), thumbnailService.getCachedImage(new AlbumCoverArtRequest(null, last), 300));
+        Album first = new Album();
+        first.setId(0);
+        first.setLastScanned(album.getLastScanned());
+        assertNotSame(images.get(0), thumbnailService.getCachedImage(new AlbumCoverArtRequest(null, first), 300));
+    }
+
+    private static BufferedImage createNoise(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(size);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+}
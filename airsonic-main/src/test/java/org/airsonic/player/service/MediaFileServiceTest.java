@@ -18,27 +18,50 @@
  */
 package org.airsonic.player.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicParallelismConfig;
+import org.airsonic.player.config.AirsonicScanConfig;
 import org.airsonic.player.domain.MediaFile;
 import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.domain.MusicFolder;
 import org.airsonic.player.repository.MediaFileRepository;
+import org.airsonic.player.repository.MusicFileInfoRepository;
 import org.airsonic.player.service.cache.MediaFileCache;
 import org.airsonic.player.service.metadata.MetaDataParserFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import jakarta.persistence.EntityManager;
+
+import java.io.File;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -55,6 +78,15 @@ public class MediaFileServiceTest {
     private MediaFileCache mediaFileCache;
     @Mock
     private MediaFolderService mediaFolderService;
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private MusicFileInfoRepository musicFileInfoRepository;
+    @Mock
+    private EntityManager entityManager;
+    @Spy
+    private ParallelExecutionService parallelExecutionService = new ParallelExecutionService(new AirsonicParallelismConfig(),
+            new AirsonicScanConfig(), new SimpleMeterRegistry());
 
     @InjectMocks
     private MediaFileService mediaFileService;
@@ -70,7 +102,7 @@ public class MediaFileServiceTest {
 
     @BeforeEach
     public void setUp() {
-        when(mockedFolder.getPath()).thenReturn(CLASS_PATH.resolve("MEDIAS"));
+        lenient().when(mockedFolder.getPath()).thenReturn(CLASS_PATH.resolve("MEDIAS"));
     }
 
     @Test
@@ -98,4 +130,135 @@ public class MediaFileServiceTest {
         verify(mediaFileRepository).save(base);
         verify(coverArtService).persistIfNeeded(eq(base));
     }
+
+    @Test
+    public void descendantsAreReadWithOneQueryInDepthFirstOrder() {
+        MediaFile artist = createMediaFile("Artist", "", MediaType.DIRECTORY);
+        List<MediaFile> subtree = List.of(
+                createMediaFile("Artist/B", "Artist", MediaType.ALBUM),
+                createMediaFile("Artist/A/2.mp3", "Artist/A", MediaType.MUSIC),
+                createMediaFile("Artist/song.mp3", "Artist", MediaType.MUSIC),
+                createMediaFile("Artist/A", "Artist", MediaType.ALBUM),
+                createMediaFile("Artist/B/1.mp3", "Artist/B", MediaType.MUSIC),
+                createMediaFile("Artist/A/1.mp3", "Artist/A", MediaType.MUSIC),
+                createMediaFile("Artist/.hidden.mp3", "Artist", MediaType.MUSIC),
+                createMediaFile("Artist/notes.txt", "Artist", MediaType.MUSIC),
+                createMediaFile("Artist/.hidden", "Artist", MediaType.DIRECTORY),
+                createMediaFile("Artist/.hidden/3.mp3", "Artist/.hidden", MediaType.MUSIC));
+        when(settingsService.isFastCacheEnabled()).thenReturn(true);
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        when(settingsService.getVideoFileTypesSet()).thenReturn(Set.of("mp4"));
+        when(mediaFileRepository.findByFolderAndPathStartsWithAndPresentTrue(mockedFolder, "Artist" + File.separator, Sort.by("startPosition")))
+                .thenReturn(subtree);
+
+        List<String> sorted = mediaFileService.getDescendantsOf(artist, true).stream().map(MediaFile::getPath).collect(Collectors.toList());
+        List<String> unsorted = mediaFileService.getDescendantsOf(artist, false).stream().map(MediaFile::getPath).collect(Collectors.toList());
+
+        // each directory completely before the next one, and sorted directories before files
+        assertEquals(List.of("Artist/A/1.mp3", "Artist/A/2.mp3", "Artist/B/1.mp3", "Artist/song.mp3"), sorted);
+        assertEquals(List.of("Artist/B/1.mp3", "Artist/song.mp3", "Artist/A/2.mp3", "Artist/A/1.mp3"), unsorted);
+        verify(mediaFileRepository, times(2)).findByFolderAndPathStartsWithAndPresentTrue(any(), any(), any());
+    }
+
+    @Test
+    public void randomSongsAreSampledFromTheSubtree() {
+        MediaFile album = createMediaFile("Album", "", MediaType.ALBUM);
+        List<MediaFile> songs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            songs.add(createMediaFile("Album/" + i + ".mp3", "Album", MediaType.MUSIC));
+        }
+        songs.add(createMediaFile("Album/video.mp4", "Album", MediaType.VIDEO));
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        when(settingsService.getVideoFileTypesSet()).thenReturn(Set.of("mp4"));
+        when(mediaFileRepository.streamByFolderAndPathStartsWithAndPresentTrue(eq(mockedFolder), eq("Album" + File.separator), any()))
+                .then(invocation -> songs.stream());
+
+        List<MediaFile> random = mediaFileService.getRandomSongsForParent(album, 10);
+
+        assertEquals(10, random.size());
+        assertEquals(10, random.stream().distinct().count());
+        assertTrue(random.stream().allMatch(MediaFile::isAudio));
+        assertEquals(100, mediaFileService.getRandomSongsForParent(album, 200).size());
+    }
+
+    @Test
+    public void streamedDescendantsAreNotRetainedByTheTransaction() {
+        MediaFile album = createMediaFile("Album", "", MediaType.ALBUM);
+        List<MediaFile> subtree = new ArrayList<>();
+        subtree.add(createMediaFile("Album/CD1", "Album", MediaType.DIRECTORY));
+        for (int i = 0; i < 100; i++) {
+            subtree.add(createMediaFile("Album/CD1/" + i + ".mp3", "Album/CD1", MediaType.MUSIC));
+        }
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        when(mediaFileRepository.streamByFolderAndPathStartsWithAndPresentTrue(eq(mockedFolder), eq("Album" + File.separator), any()))
+                .then(invocation -> subtree.stream());
+        List<MediaFile> detached = new ArrayList<>();
+        doAnswer(invocation -> detached.add(invocation.getArgument(0))).when(entityManager).detach(any());
+
+        List<MediaFile> passed = new ArrayList<>();
+        mediaFileService.forEachDescendantOf(album, file -> {
+            // the file is detached after the action only
+            assertFalse(detached.contains(file));
+            passed.add(file);
+        });
+
+        assertEquals(100, passed.size());
+        // every read entity is detached, including the directories which are not passed
+        assertEquals(subtree, detached);
+    }
+
+    @Test
+    public void onlyChangedChildrenArePersistedInOneBatch(@TempDir Path tempDir) throws Exception {
+        Instant modified = Instant.parse("2024-01-01T00:00:00Z");
+        Files.createDirectories(tempDir.resolve("Album"));
+        for (String name : List.of("unchanged.mp3", "changed.mp3", "new.mp3", "notes.txt")) {
+            Files.write(tempDir.resolve("Album").resolve(name), new byte[10]);
+            Files.setLastModifiedTime(tempDir.resolve("Album").resolve(name), FileTime.from(modified));
+        }
+        MusicFolder folder = new MusicFolder(1, tempDir, "Music", MusicFolder.Type.MEDIA, true, modified);
+        MediaFile album = createMediaFile(folder, 1, "Album", "", MediaType.ALBUM, modified);
+        album.setChildrenLastUpdated(Instant.ofEpochMilli(1));
+        MediaFile unchanged = createMediaFile(folder, 2, "Album" + File.separator + "unchanged.mp3", "Album", MediaType.MUSIC, modified);
+        MediaFile changed = createMediaFile(folder, 3, "Album" + File.separator + "changed.mp3", "Album", MediaType.MUSIC, modified.minusSeconds(60));
+        MediaFile deleted = createMediaFile(folder, 4, "Album" + File.separator + "deleted.mp3", "Album", MediaType.MUSIC, modified);
+        when(settingsService.getMusicFileTypesSet()).thenReturn(Set.of("mp3"));
+        when(settingsService.getVideoFileTypesSet()).thenReturn(Set.of("mp4"));
+        when(mediaFolderService.getMusicFolderForFile(any(), eq(true), eq(true))).thenReturn(Optional.of(folder));
+        when(mediaFileRepository.findByFolderAndParentPath(folder, "Album", Sort.by("startPosition")))
+                .thenReturn(List.of(unchanged, changed, deleted));
+        when(mediaFileRepository.findAllById(any())).thenReturn(List.of(album, changed));
+
+        List<MediaFile> children = mediaFileService.getChildrenOf(album, true, false, true, false);
+
+        assertEquals(List.of("changed", "new", "unchanged"),
+                children.stream().map(MediaFile::getName).collect(Collectors.toList()));
+        assertEquals(modified, changed.getChanged());
+        // the changed and the new file and the album are read with one query and saved, the unchanged file is not
+        verify(mediaFileRepository).findAllById(any());
+        verify(mediaFileRepository, never()).existsById(any());
+        verify(mediaFileRepository).save(album);
+        verify(mediaFileRepository).save(changed);
+        verify(mediaFileRepository, never()).save(unchanged);
+        verify(mediaFileRepository).save(deleted);
+        verify(mediaFileRepository, times(4)).save(any());
+        assertFalse(deleted.isPresent());
+    }
+
+    private MediaFile createMediaFile(MusicFolder folder, int id, String path, String parentPath, MediaType mediaType, Instant changed) {
+        MediaFile mediaFile = createMediaFile(path, parentPath, mediaType);
+        mediaFile.setId(id);
+        mediaFile.setFolder(folder);
+        mediaFile.setChanged(changed);
+        mediaFile.setPresent(true);
+        return mediaFile;
+    }
+
+    private MediaFile createMediaFile(String path, String parentPath, MediaType mediaType) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setPath(path);
+        mediaFile.setParentPath(parentPath);
+        mediaFile.setMediaType(mediaType);
+        mediaFile.setFolder(mockedFolder);
+        return mediaFile;
+    }
 }
@@ -101,7 +101,7 @@ public class MediaScannerServiceTest {
             invocation.callRealMethod();
             Thread.sleep(10000);
             return null;
-        }).when(mediaFileService).setMemoryCacheEnabled(anyBoolean());
+        }).when(mediaFileService).setScanning(anyBoolean());
 
         // Add the "loop" folder to the database
         Path musicFolderFile = MusicFolderTestData.resolveMusicLoopFolderPath();
@@ -125,7 +125,7 @@ public class MediaScannerServiceTest {
             invocation.callRealMethod();
             Thread.sleep(10000);
             return null;
-        }).when(mediaFileService).setMemoryCacheEnabled(anyBoolean());
+        }).when(mediaFileService).setScanning(anyBoolean());
 
         // Add the "loop" folder to the database
         Path musicFolderFile = MusicFolderTestData.resolveMusicLoopFolderPath();
@@ -1,15 +1,35 @@
 package org.airsonic.player.service;
 
 import org.airsonic.player.config.AirsonicScanConfig;
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
 import org.airsonic.player.domain.MediaLibraryStatistics;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
 import org.airsonic.player.service.search.IndexManager;
+import org.airsonic.player.util.FileUtil;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -38,16 +58,97 @@ public class MediaScannerServiceUnitTest {
     IndexManager indexManager;
     @Mock
     AirsonicScanConfig scanConfig;
+    @Mock
+    private MusicIndexService musicIndexService;
 
     @Test
     public void neverScanned() {
         when(settingsService.getIndexCreationInterval()).thenReturn(-1);
         when(settingsService.getIndexCreationHour()).thenReturn(-1);
         when(indexManager.getStatistics()).thenReturn(null);
-        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistFileService, mediaFileService, mediaFolderService, coverArtService, artistService, albumService, taskService, messagingTemplate, scanConfig);
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistFileService, mediaFileService, mediaFolderService, coverArtService, artistService, albumService, taskService, messagingTemplate, scanConfig, musicIndexService);
         assertTrue(mediaScannerService.neverScanned());
 
         when(indexManager.getStatistics()).thenReturn(new MediaLibraryStatistics());
         assertFalse(mediaScannerService.neverScanned());
     }
+
+    @Test
+    public void isUnchangedDirectory(@TempDir Path tempDir) throws Exception {
+        when(settingsService.getIndexCreationInterval()).thenReturn(-1);
+        when(settingsService.getIndexCreationHour()).thenReturn(-1);
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistFileService, mediaFileService, mediaFolderService, coverArtService, artistService, albumService, taskService, messagingTemplate, scanConfig, musicIndexService);
+
+        Files.createDirectory(tempDir.resolve("album"));
+        MediaFile directory = new MediaFile();
+        directory.setFolder(new MusicFolder(1, tempDir, "music", Type.MEDIA, true, Instant.now()));
+        directory.setPath("album");
+        Instant lastModified = FileUtil.lastModified(directory.getFullPath());
+        directory.setChanged(lastModified);
+        directory.setChildrenLastUpdated(lastModified);
+        Instant checkpoint = lastModified.plus(1, ChronoUnit.HOURS);
+
+        // no checkpoint
+        assertFalse(mediaScannerService.isUnchangedDirectory(directory, null));
+        assertTrue(mediaScannerService.isUnchangedDirectory(directory, checkpoint));
+
+        // modified after the checkpoint
+        assertFalse(mediaScannerService.isUnchangedDirectory(directory, lastModified.minus(1, ChronoUnit.HOURS)));
+
+        // children never read
+        directory.setChildrenLastUpdated(Instant.ofEpochMilli(1));
+        assertFalse(mediaScannerService.isUnchangedDirectory(directory, checkpoint));
+        directory.setChildrenLastUpdated(lastModified);
+
+        // modified since it has been stored
+        directory.setChanged(lastModified.minus(1, ChronoUnit.HOURS));
+        assertFalse(mediaScannerService.isUnchangedDirectory(directory, checkpoint));
+    }
+
+    @Test
+    public void removedAlbumDirectoryIsDeletedFromIndexAndRecounted(@TempDir Path tempDir) {
+        when(settingsService.getIndexCreationInterval()).thenReturn(-1);
+        when(settingsService.getIndexCreationHour()).thenReturn(-1);
+        when(scanConfig.getParallelism()).thenReturn(2);
+        when(scanConfig.getWriteBatchSize()).thenReturn(10);
+        when(indexManager.getStatistics()).thenReturn(new MediaLibraryStatistics());
+        MediaScannerService mediaScannerService = new MediaScannerService(settingsService, indexManager, playlistFileService, mediaFileService, mediaFolderService, coverArtService, artistService, albumService, taskService, messagingTemplate, scanConfig, musicIndexService);
+
+        MusicFolder folder = new MusicFolder(1, tempDir, "music", Type.MEDIA, true, Instant.now());
+        MediaFile artistDirectory = createMediaFile(folder, 1, "Artist", MediaType.DIRECTORY);
+        MediaFile albumDirectory = createMediaFile(folder, 2, "Artist/Album", MediaType.ALBUM);
+        MediaFile song = createMediaFile(folder, 3, "Artist/Album/song.mp3", MediaType.MUSIC);
+        song.setAlbumArtist("Artist");
+        song.setAlbumName("Album");
+        Album album = new Album();
+        album.setArtist("Artist");
+        album.setName("Album");
+        album.setSongCount(1);
+        album.setPresent(true);
+        when(mediaFileService.getMediaFile(eq(Paths.get("Artist")), eq(folder), anyBoolean())).thenReturn(artistDirectory);
+        // the album directory is stored before the rescan, but no longer on disk
+        when(mediaFileService.getStoredChildrenOf(artistDirectory)).thenReturn(List.of(albumDirectory), List.of());
+        when(mediaFileService.getChildrenOf(any(), eq(true), eq(true), eq(false), eq(false))).thenReturn(List.of());
+        when(mediaFileService.getStoredDescendantsOf(albumDirectory)).thenReturn(List.of(song));
+        when(albumService.getAlbumByArtistAndName("Artist", "Album")).thenReturn(Optional.of(album));
+        when(mediaFileService.getSongsForAlbum("Artist", "Album")).thenReturn(List.of());
+
+        assertTrue(mediaScannerService.scanDirectories(folder, Set.of(Paths.get("Artist"))));
+
+        verify(indexManager).delete(albumDirectory);
+        verify(indexManager).delete(song);
+        verify(indexManager).delete(album);
+        assertEquals(0, album.getSongCount());
+        assertFalse(album.isPresent());
+    }
+
+    private static MediaFile createMediaFile(MusicFolder folder, int id, String path, MediaType mediaType) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setFolder(folder);
+        mediaFile.setPath(path);
+        mediaFile.setMediaType(mediaType);
+        mediaFile.setPresent(true);
+        return mediaFile;
+    }
 }
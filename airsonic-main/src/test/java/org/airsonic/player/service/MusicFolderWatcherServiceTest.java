@@ -0,0 +1,146 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicScanConfig;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchEvent.Kind;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class MusicFolderWatcherServiceTest {
+
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private MediaFolderService mediaFolderService;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private MediaScannerService mediaScannerService;
+    @Mock
+    private AirsonicScanConfig scanConfig;
+
+    @TempDir
+    private Path tempDir;
+
+    private MusicFolder musicFolder;
+    private MusicFolderWatcherService watcherService;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        Files.createDirectory(tempDir.resolve("album"));
+        musicFolder = new MusicFolder(1, tempDir, "music", Type.MEDIA, true, Instant.now());
+        when(mediaFolderService.getAllMusicFolders()).thenReturn(List.of(musicFolder));
+        when(mediaFolderService.getMusicFolderById(1)).thenReturn(musicFolder);
+        when(scanConfig.getWatchDelay()).thenReturn(1);
+        when(mediaFileService.isExcluded(any())).thenAnswer(invocation -> invocation.<Path>getArgument(0).getFileName().toString().startsWith("."));
+        watcherService = createWatcherService(new PathWatcherService());
+    }
+
+    private MusicFolderWatcherService createWatcherService(PathWatcherService pathWatcherService) {
+        return new MusicFolderWatcherService(settingsService, mediaFolderService, mediaFileService, mediaScannerService,
+                pathWatcherService, scanConfig);
+    }
+
+    @Test
+    public void scansChangedDirectory() throws Exception {
+        when(settingsService.getWatchMusicFolders()).thenReturn(true);
+        when(mediaScannerService.scanDirectories(any(), any())).thenReturn(true);
+        watcherService.schedule();
+
+        // wait until watchers are registered
+        verify(mediaFolderService, timeout(5000)).getAllMusicFolders();
+        Thread.sleep(500);
+        Files.createFile(tempDir.resolve("album").resolve("song.mp3"));
+
+        verify(mediaScannerService, timeout(10000)).scanDirectories(eq(musicFolder), eq(Set.of(Paths.get("album"))));
+    }
+
+    @Test
+    public void retriesWhileScanning() throws Exception {
+        when(settingsService.getWatchMusicFolders()).thenReturn(true);
+        when(mediaScannerService.scanDirectories(any(), any())).thenReturn(false, true);
+        watcherService.schedule();
+
+        verify(mediaFolderService, timeout(5000)).getAllMusicFolders();
+        Thread.sleep(500);
+        Files.createFile(tempDir.resolve("song.mp3"));
+
+        verify(mediaScannerService, timeout(15000).times(2)).scanDirectories(eq(musicFolder), eq(Set.of(Paths.get(""))));
+    }
+
+    @Test
+    public void hiddenDirectoriesAreNotWatched() throws Exception {
+        Files.createDirectories(tempDir.resolve(".hidden").resolve("album"));
+        when(settingsService.getWatchMusicFolders()).thenReturn(true);
+        watcherService.schedule();
+
+        verify(mediaFolderService, timeout(5000)).getAllMusicFolders();
+        Thread.sleep(500);
+
+        assertEquals(Set.of(tempDir, tempDir.resolve("album")), watcherService.getWatchedDirectories());
+        assertTrue(watcherService.getUnwatchedFolders().isEmpty());
+    }
+
+    @Test
+    public void fallsBackToScheduledScansIfDirectoryCannotBeWatched() throws Exception {
+        PathWatcherService pathWatcherService = new PathWatcherService() {
+            @Override
+            public void setWatcher(String id, Path watchable, Map<Kind<? extends Object>, BiConsumer<Path, WatchEvent<Path>>> fnMap) throws IOException {
+                if (watchable.endsWith("album")) {
+                    throw new IOException("User limit of inotify watches reached");
+                }
+                super.setWatcher(id, watchable, fnMap);
+            }
+        };
+        watcherService = createWatcherService(pathWatcherService);
+        when(settingsService.getWatchMusicFolders()).thenReturn(true);
+        watcherService.schedule();
+
+        verify(mediaFolderService, timeout(5000)).getAllMusicFolders();
+        Thread.sleep(500);
+
+        assertEquals(Set.of(1), watcherService.getUnwatchedFolders());
+        assertTrue(watcherService.getWatchedDirectories().isEmpty());
+        Files.createFile(tempDir.resolve("song.mp3"));
+        Thread.sleep(2000);
+        verify(mediaScannerService, never()).scanDirectories(any(), any());
+    }
+
+    @Test
+    public void ignoresChangesWhenDisabled() throws Exception {
+        when(settingsService.getWatchMusicFolders()).thenReturn(false);
+        watcherService.schedule();
+
+        verify(settingsService, timeout(5000)).getWatchMusicFolders();
+        Files.createFile(tempDir.resolve("album").resolve("song.mp3"));
+        Thread.sleep(2000);
+
+        verify(mediaScannerService, never()).scanDirectories(any(), any());
+    }
+}
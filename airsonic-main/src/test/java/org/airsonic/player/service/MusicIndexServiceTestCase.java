@@ -19,12 +19,30 @@
  */
 package org.airsonic.player.service;
 
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolderContent;
 import org.airsonic.player.domain.MusicIndex;
 import org.junit.jupiter.api.Test;
 
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
 
 /**
  * Unit test of {@link MusicIndex}.
@@ -78,4 +96,89 @@ public class MusicIndexServiceTestCase {
         assertEquals("Y", indexes.get(3).getPrefixes().get(1));
         assertEquals("Z", indexes.get(3).getPrefixes().get(2));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMusicFolderContentSnapshot() {
+        SettingsService settingsService = mock(SettingsService.class);
+        MediaFileService mediaFileService = mock(MediaFileService.class);
+        MusicIndexService service = new MusicIndexService();
+        service.setSettingsService(settingsService);
+        service.setMediaFileService(mediaFileService);
+
+        when(settingsService.getIndexString()).thenReturn("A B");
+        when(settingsService.getIgnoredArticles()).thenReturn("The");
+        when(settingsService.getIgnoredArticlesAsArray()).thenReturn(new String[] {"The"});
+        when(settingsService.getShortcutsAsArray()).thenReturn(new String[0]);
+        when(settingsService.getLocale()).thenReturn(Locale.ENGLISH);
+        MusicFolder folder = new MusicFolder(1, Paths.get("music"), "music", MusicFolder.Type.MEDIA, true, Instant.now());
+        MediaFile root = new MediaFile();
+        MediaFile artist = new MediaFile();
+        artist.setPath("Abba");
+        when(mediaFileService.getMediaFile(eq(Paths.get("")), eq(folder), anyBoolean())).thenReturn(root);
+        when(mediaFileService.getChildrenOf(eq(root), eq(false), eq(true), eq(true), anyBoolean())).thenReturn(List.of(artist));
+
+        MusicFolderContent content = service.getMusicFolderContent(List.of(folder), false);
+        assertEquals(1, content.getIndexedArtists().size());
+        assertSame(content, service.getMusicFolderContent(List.of(folder), false));
+        verify(mediaFileService, times(1)).getChildrenOf(eq(root), eq(false), eq(true), eq(true), anyBoolean());
+
+        // a changed index setting rebuilds the snapshot
+        when(settingsService.getIndexString()).thenReturn("A B C");
+        MusicFolderContent changed = service.getMusicFolderContent(List.of(folder), false);
+        assertNotSame(content, changed);
+        assertSame(changed, service.getMusicFolderContent(List.of(folder), false));
+
+        // as do scans and refreshes
+        service.invalidate();
+        assertNotSame(changed, service.getMusicFolderContent(List.of(folder), false));
+        MusicFolderContent refreshed = service.getMusicFolderContent(List.of(folder), true);
+        assertSame(refreshed, service.getMusicFolderContent(List.of(folder), false));
+        verify(mediaFileService, times(4)).getChildrenOf(eq(root), eq(false), eq(true), eq(true), anyBoolean());
+    }
+
+    @Test
+    public void testSnapshotIsBuiltOnceWithoutBlockingOtherFolders() throws Exception {
+        SettingsService settingsService = mock(SettingsService.class);
+        MediaFileService mediaFileService = mock(MediaFileService.class);
+        MusicIndexService service = new MusicIndexService();
+        service.setSettingsService(settingsService);
+        service.setMediaFileService(mediaFileService);
+        when(settingsService.getIndexString()).thenReturn("A B");
+        when(settingsService.getIgnoredArticlesAsArray()).thenReturn(new String[0]);
+        when(settingsService.getShortcutsAsArray()).thenReturn(new String[0]);
+        when(settingsService.getLocale()).thenReturn(Locale.ENGLISH);
+        MusicFolder slowFolder = new MusicFolder(1, Paths.get("slow"), "slow", MusicFolder.Type.MEDIA, true, Instant.now());
+        MusicFolder fastFolder = new MusicFolder(2, Paths.get("fast"), "fast", MusicFolder.Type.MEDIA, true, Instant.now());
+        MediaFile slowRoot = new MediaFile();
+        slowRoot.setPath("slow");
+        MediaFile fastRoot = new MediaFile();
+        fastRoot.setPath("fast");
+        when(mediaFileService.getMediaFile(eq(Paths.get("")), eq(slowFolder), anyBoolean())).thenReturn(slowRoot);
+        when(mediaFileService.getMediaFile(eq(Paths.get("")), eq(fastFolder), anyBoolean())).thenReturn(fastRoot);
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(mediaFileService.getChildrenOf(eq(slowRoot), eq(false), eq(true), eq(true), anyBoolean())).thenAnswer(invocation -> {
+            building.countDown();
+            release.await();
+            return List.of();
+        });
+        when(mediaFileService.getChildrenOf(eq(fastRoot), eq(false), eq(true), eq(true), anyBoolean())).thenReturn(List.of());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<MusicFolderContent> first = executor.submit(() -> service.getMusicFolderContent(List.of(slowFolder), false));
+            assertTrue(building.await(10, TimeUnit.SECONDS));
+            Future<MusicFolderContent> second = executor.submit(() -> service.getMusicFolderContent(List.of(slowFolder), false));
+
+            // the snapshots of other music folders are built meanwhile
+            assertNotNull(service.getMusicFolderContent(List.of(fastFolder), false));
+
+            release.countDown();
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            verify(mediaFileService, times(1)).getChildrenOf(eq(slowRoot), eq(false), eq(true), eq(true), anyBoolean());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
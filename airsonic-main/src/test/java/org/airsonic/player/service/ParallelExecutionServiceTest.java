@@ -0,0 +1,207 @@
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicParallelismConfig;
+import org.airsonic.player.config.AirsonicScanConfig;
+import org.airsonic.player.service.ParallelExecutionService.Workload;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelExecutionServiceTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelExecutionServiceTest.class);
+
+    private MeterRegistry meterRegistry;
+    private ParallelExecutionService executionService;
+
+    @BeforeEach
+    public void setup() {
+        AirsonicParallelismConfig parallelismConfig = new AirsonicParallelismConfig();
+        parallelismConfig.setBrowse(4);
+        parallelismConfig.setScan(4);
+        parallelismConfig.setCoverArt(2);
+        parallelismConfig.setSequentialThreshold(8);
+        AirsonicScanConfig scanConfig = new AirsonicScanConfig();
+        scanConfig.setParallelism(4);
+        meterRegistry = new SimpleMeterRegistry();
+        executionService = new ParallelExecutionService(parallelismConfig, scanConfig, meterRegistry);
+    }
+
+    @AfterEach
+    public void teardown() {
+        executionService.shutdown();
+    }
+
+    @Test
+    public void smallInputIsProcessedInCallingThread() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        List<Integer> result = executionService.execute(Workload.BROWSE, List.of(1, 2, 3), s -> s.peek(i -> threads.add(Thread.currentThread().getName()))
+                .map(i -> i * 2).collect(Collectors.toList()));
+
+        assertEquals(List.of(2, 4, 6), result);
+        assertEquals(Set.of(Thread.currentThread().getName()), threads);
+        assertEquals(1, meterRegistry.get("airsonic.parallel.tasks").tag("pool", "browse").tag("mode", "sequential").timer().count());
+        assertEquals(0, meterRegistry.get("airsonic.parallel.tasks").tag("pool", "browse").tag("mode", "parallel").timer().count());
+    }
+
+    @Test
+    public void largeInputIsProcessedInPoolOfWorkload() {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> source = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+        List<Integer> result = executionService.execute(Workload.COVER_ART, source, s -> s.peek(i -> threads.add(Thread.currentThread().getName()))
+                .map(i -> i * 2).collect(Collectors.toList()));
+
+        assertEquals(source.stream().map(i -> i * 2).collect(Collectors.toList()), result);
+        assertTrue(threads.stream().allMatch(t -> t.startsWith("coverart-worker-")), threads.toString());
+        assertEquals(2, executionService.getParallelism(Workload.COVER_ART));
+        assertEquals(1, meterRegistry.get("airsonic.parallel.tasks").tag("pool", "coverart").tag("mode", "parallel").timer().count());
+    }
+
+    @Test
+    public void workOfDedicatedPoolStaysInThatPool() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<Integer> source = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        ForkJoinPool scanner = new ForkJoinPool(2, p -> {
+            var worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            worker.setName("scanner-" + worker.getPoolIndex());
+            return worker;
+        }, null, true);
+        try {
+            scanner.submit(() -> executionService.execute(Workload.BROWSE, source, s -> s.peek(i -> threads.add(Thread.currentThread().getName()))
+                    .collect(Collectors.toList()))).get(10, TimeUnit.SECONDS);
+        } finally {
+            scanner.shutdownNow();
+        }
+
+        assertTrue(!threads.isEmpty() && threads.stream().allMatch(t -> t.startsWith("scanner-")), threads.toString());
+    }
+
+    @Test
+    public void browseRunsWhileScanPoolIsSaturated() throws Exception {
+        CountDownLatch scanBlocked = new CountDownLatch(4);
+        CountDownLatch scanReleased = new CountDownLatch(1);
+        List<Integer> scanSource = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        CompletableFuture<Integer> scan = CompletableFuture.supplyAsync(() -> executionService.execute(Workload.SCAN, scanSource,
+                s -> s.mapToInt(i -> {
+                    scanBlocked.countDown();
+                    try {
+                        scanReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return i;
+                }).sum()));
+        try {
+            // every worker of the scan pool is blocked
+            assertTrue(scanBlocked.await(10, TimeUnit.SECONDS));
+
+            Set<String> threads = ConcurrentHashMap.newKeySet();
+            List<Integer> browseSource = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+            List<Integer> result = CompletableFuture.supplyAsync(() -> executionService.execute(Workload.BROWSE, browseSource,
+                    s -> s.peek(i -> threads.add(Thread.currentThread().getName())).collect(Collectors.toList())))
+                    .get(10, TimeUnit.SECONDS);
+
+            assertEquals(browseSource, result);
+            assertTrue(threads.stream().noneMatch(t -> t.startsWith("scan-worker-")), threads.toString());
+        } finally {
+            scanReleased.countDown();
+        }
+        assertEquals(4950, scan.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Compares the latency of browsing while a scan runs, when both share one pool like the common pool, and when they
+     * run in their own pools. The work of both blocks like reading files.
+     */
+    @Tag("benchmark")
+    @Test
+    public void browseLatencyUnderScanLoad() throws Exception {
+        ForkJoinPool shared = new ForkJoinPool(4);
+        try {
+            List<Long> sharedLatencies = measureBrowseLatencies(
+                    source -> shared.submit(() -> readAll(source.parallelStream())).join(),
+                    source -> shared.submit(() -> readAll(source.parallelStream())).join());
+            List<Long> dedicatedLatencies = measureBrowseLatencies(
+                    source -> executionService.execute(Workload.SCAN, source, ParallelExecutionServiceTest::readAll),
+                    source -> executionService.execute(Workload.BROWSE, source, ParallelExecutionServiceTest::readAll));
+
+            LOG.info("Browse latency under scan load: shared pool p50 {} ms p99 {} ms, dedicated pools p50 {} ms p99 {} ms",
+                    percentile(sharedLatencies, 50), percentile(sharedLatencies, 99),
+                    percentile(dedicatedLatencies, 50), percentile(dedicatedLatencies, 99));
+        } finally {
+            shared.shutdownNow();
+        }
+    }
+
+    private static List<Long> measureBrowseLatencies(Consumer<List<Integer>> scan, Consumer<List<Integer>> browse) throws Exception {
+        List<Integer> scanSource = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+        List<Integer> browseSource = IntStream.range(0, 40).boxed().collect(Collectors.toList());
+        AtomicBoolean scanning = new AtomicBoolean(true);
+        ExecutorService scanners = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            scanners.execute(() -> {
+                while (scanning.get()) {
+                    scan.accept(scanSource);
+                }
+            });
+        }
+        try {
+            Thread.sleep(50);
+            List<Long> latencies = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                long start = System.nanoTime();
+                browse.accept(browseSource);
+                latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            return latencies;
+        } finally {
+            scanning.set(false);
+            scanners.shutdown();
+            assertTrue(scanners.awaitTermination(30, TimeUnit.SECONDS));
+        }
+    }
+
+    private static int readAll(Stream<Integer> source) {
+        return source.mapToInt(i -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }).sum();
+    }
+
+    private static long percentile(List<Long> latencies, int percentile) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        return sorted.get(Math.min(sorted.size() * percentile / 100, sorted.size() - 1));
+    }
+}
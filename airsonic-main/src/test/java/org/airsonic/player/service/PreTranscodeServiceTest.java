@@ -0,0 +1,171 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig.PreTranscodeSource;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.domain.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PreTranscodeServiceTest {
+
+    @Mock
+    private TranscodingService transcodingService;
+    @Mock
+    private TranscodeCacheService transcodeCacheService;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private MediaFolderService mediaFolderService;
+    @Mock
+    private MediaScannerService mediaScannerService;
+    @Mock
+    private UserService userService;
+    @Mock
+    private TaskSchedulingService taskService;
+
+    private AirsonicTranscodeConfig transcodeConfig;
+    private PreTranscodeService preTranscodeService;
+
+    private final List<Transcoding> transcodings = List.of(new Transcoding(1, "mp3 audio", "flac", "mp3", "ffmpeg", null, null, true));
+    private MediaFile album;
+    private MediaFile song;
+
+    @BeforeEach
+    public void setup() {
+        transcodeConfig = new AirsonicTranscodeConfig();
+        transcodeConfig.setPreTranscodeProfiles(List.of("mp3:128", "invalid"));
+        transcodeConfig.setPreTranscodeSources(List.of(PreTranscodeSource.NEWEST, PreTranscodeSource.STARRED));
+        preTranscodeService = new PreTranscodeService(transcodingService, transcodeCacheService, mediaFileService,
+                mediaFolderService, mediaScannerService, userService, taskService, transcodeConfig);
+
+        album = createMediaFile(1, MediaType.ALBUM);
+        song = createMediaFile(2, MediaType.MUSIC);
+        when(transcodeCacheService.isEnabled()).thenReturn(true);
+        when(transcodeCacheService.getMaxSize()).thenReturn(512L * 1024 * 1024);
+        when(transcodeCacheService.getCachedLength(any())).thenReturn(null);
+        when(transcodingService.getAllTranscodings()).thenReturn(transcodings);
+        when(mediaFileService.getNewestAlbums(eq(0), eq(20), any())).thenReturn(List.of(album));
+        when(userService.getAllUsers()).thenReturn(List.of(new User("user", null)));
+        when(mediaFileService.getStarredAlbums(eq(0), eq(20), eq("user"), any())).thenReturn(List.of(album));
+        when(mediaFileService.getChildrenOf(album, true, false, false)).thenReturn(List.of(song, createMediaFile(3, MediaType.VIDEO)));
+    }
+
+    @AfterEach
+    public void teardown() {
+        preTranscodeService.shutdown();
+    }
+
+    @Test
+    public void songsOfAlbumsAreTranscodedOnce() throws Exception {
+        TranscodingService.Parameters parameters = createParameters("key");
+        when(transcodingService.getPreTranscodeParameters(song, transcodings, "mp3", 128)).thenReturn(parameters);
+        CountDownLatch done = new CountDownLatch(1);
+        when(transcodingService.preTranscode(parameters, 10)).then(invocation -> {
+            done.countDown();
+            return true;
+        });
+
+        // the album is listed by two sources, but its song is queued once
+        assertEquals(1, preTranscodeService.queueJobs());
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        verify(transcodingService, times(1)).getPreTranscodeParameters(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void cachedSongsAreSkipped() throws Exception {
+        when(transcodingService.getPreTranscodeParameters(song, transcodings, "mp3", 128)).thenReturn(createParameters("key"));
+        when(transcodeCacheService.getCachedLength("key")).thenReturn(100L);
+
+        assertEquals(0, preTranscodeService.queueJobs());
+        verify(transcodingService, never()).preTranscode(any(), anyInt());
+    }
+
+    @Test
+    public void albumsBeyondCacheShareAreSkipped() throws Exception {
+        // 2 albums of 3 songs with 200 bytes each, but only 500 bytes may be pre-transcoded
+        when(transcodeCacheService.getMaxSize()).thenReturn(1000L);
+        MediaFile nextAlbum = createMediaFile(10, MediaType.ALBUM);
+        List<MediaFile> songs = List.of(createMediaFile(4, MediaType.MUSIC), createMediaFile(5, MediaType.MUSIC),
+                createMediaFile(6, MediaType.MUSIC));
+        MediaFile nextSong = createMediaFile(11, MediaType.MUSIC);
+        when(mediaFileService.getNewestAlbums(eq(0), eq(20), any())).thenReturn(List.of(album, nextAlbum));
+        when(mediaFileService.getStarredAlbums(eq(0), eq(20), eq("user"), any())).thenReturn(List.of());
+        when(mediaFileService.getChildrenOf(album, true, false, false)).thenReturn(songs);
+        when(mediaFileService.getChildrenOf(nextAlbum, true, false, false)).thenReturn(List.of(nextSong));
+        for (MediaFile s : songs) {
+            TranscodingService.Parameters parameters = createParameters(s, "key" + s.getId());
+            parameters.setExpectedLength(200L);
+            when(transcodingService.getPreTranscodeParameters(s, transcodings, "mp3", 128)).thenReturn(parameters);
+        }
+
+        assertEquals(2, preTranscodeService.queueJobs());
+        verify(mediaFileService, never()).getChildrenOf(nextAlbum, true, false, false);
+
+        // the transcoded songs are cached by now and still count
+        when(transcodeCacheService.getCachedLength("key4")).thenReturn(200L);
+        when(transcodeCacheService.getCachedLength("key5")).thenReturn(200L);
+        assertEquals(0, preTranscodeService.queueJobs());
+        verify(transcodingService, never()).getPreTranscodeParameters(nextSong, transcodings, "mp3", 128);
+    }
+
+    @Test
+    public void nothingIsQueuedWhileScanning() {
+        when(mediaScannerService.isScanning()).thenReturn(true);
+
+        assertEquals(0, preTranscodeService.queueJobs());
+        verifyNoInteractions(mediaFileService);
+    }
+
+    @Test
+    public void scheduledOnlyWithProfiles() {
+        preTranscodeService.schedule();
+        verify(taskService).scheduleTask(eq("pretranscode-Task"), any());
+
+        transcodeConfig.setPreTranscodeProfiles(List.of());
+        preTranscodeService.schedule();
+        verify(taskService).unscheduleTask("pretranscode-Task");
+    }
+
+    private TranscodingService.Parameters createParameters(String key) {
+        return createParameters(song, key);
+    }
+
+    private TranscodingService.Parameters createParameters(MediaFile song, String key) {
+        TranscodingService.Parameters parameters = new TranscodingService.Parameters(song, null, 128);
+        parameters.setTranscoding(transcodings.get(0));
+        parameters.setCacheKey(key);
+        return parameters;
+    }
+
+    private static MediaFile createMediaFile(int id, MediaType mediaType) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setMediaType(mediaType);
+        mediaFile.setPath(Paths.get("file" + id).toString());
+        return mediaFile;
+    }
+}
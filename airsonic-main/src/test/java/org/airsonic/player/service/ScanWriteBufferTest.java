@@ -0,0 +1,165 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.domain.Album;
+import org.airsonic.player.domain.Artist;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MusicFolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ScanWriteBufferTest {
+
+    @Mock
+    private MediaFileService mediaFileService;
+    @Mock
+    private AlbumService albumService;
+    @Mock
+    private ArtistService artistService;
+
+    private final MusicFolder folder = new MusicFolder(1, Paths.get("music"), "music", MusicFolder.Type.MEDIA, true, Instant.now());
+
+    @Test
+    public void writesInBatches() {
+        List<Integer> batchSizes = new ArrayList<>();
+        doAnswer(invocation -> {
+            batchSizes.add(invocation.<List<?>>getArgument(0).size());
+            return null;
+        }).when(mediaFileService).updateMediaFiles(anyList());
+
+        try (ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10)) {
+            for (int i = 0; i < 95; i++) {
+                buffer.updateMediaFile(new MediaFile());
+            }
+            buffer.flush();
+            assertEquals(95, batchSizes.stream().mapToInt(Integer::intValue).sum());
+            assertTrue(batchSizes.stream().allMatch(size -> size <= 10));
+        }
+    }
+
+    @Test
+    public void keepsOrderAndCallsBackAfterWrite() {
+        Album album = new Album();
+        Artist artist = new Artist("artist");
+        MediaFile mediaFile = createMediaFile("song");
+        AtomicInteger callbacks = new AtomicInteger();
+
+        try (ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10)) {
+            buffer.updateMediaFile(mediaFile);
+            buffer.saveAlbum(album, a -> {
+                verify(albumService).saveAll(List.of(album));
+                callbacks.incrementAndGet();
+            });
+            buffer.saveArtist(artist, a -> callbacks.incrementAndGet());
+            // the same instance is written only once per batch, in its latest state
+            buffer.updateMediaFile(mediaFile);
+            buffer.updateMediaFile(mediaFile);
+        }
+
+        assertEquals(2, callbacks.get());
+        InOrder inOrder = inOrder(mediaFileService, albumService, artistService);
+        inOrder.verify(mediaFileService).updateMediaFiles(List.of(mediaFile));
+        inOrder.verify(albumService).saveAll(List.of(album));
+        inOrder.verify(artistService).saveAll(List.of(artist));
+        inOrder.verify(mediaFileService, atLeastOnce()).updateMediaFiles(List.of(mediaFile));
+    }
+
+    @Test
+    public void writesTheStateAtTheTimeOfQueueing() {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(1);
+        mediaFile.setTitle("queued");
+        List<String> written = new ArrayList<>();
+        doAnswer(invocation -> {
+            invocation.<List<MediaFile>>getArgument(0).forEach(m -> written.add(m.getTitle()));
+            return null;
+        }).when(mediaFileService).updateMediaFiles(anyList());
+
+        try (ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10)) {
+            buffer.updateMediaFile(mediaFile);
+            // the scanner goes on changing the instance, whether or not it has been written yet
+            mediaFile.setTitle("changed");
+        }
+
+        assertEquals(List.of("queued"), written);
+    }
+
+    @Test
+    public void newAlbumIsInsertedOnce() {
+        Album album = new Album();
+        album.setName("album");
+        List<Integer> writtenIds = new ArrayList<>();
+        doAnswer(invocation -> {
+            invocation.<List<Album>>getArgument(0).forEach(a -> {
+                writtenIds.add(a.getId());
+                if (a.getId() == null) {
+                    a.setId(42);
+                }
+            });
+            return null;
+        }).when(albumService).saveAll(anyList());
+
+        try (ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10)) {
+            buffer.saveAlbum(album, saved -> assertEquals(42, saved.getId()));
+            buffer.updateMediaFile(new MediaFile());
+            // copied before the first copy was written, so it carries no id yet
+            buffer.saveAlbum(album, null);
+        }
+
+        assertEquals(42, album.getId());
+        assertEquals(Arrays.asList(null, 42), writtenIds);
+    }
+
+    @Test
+    public void fallsBackToSingleWritesOnFailure() {
+        MediaFile good = createMediaFile("good");
+        MediaFile bad = createMediaFile("bad");
+        doAnswer(invocation -> {
+            if (invocation.<List<?>>getArgument(0).contains(bad)) {
+                throw new IllegalStateException("constraint violation");
+            }
+            return null;
+        }).when(mediaFileService).updateMediaFiles(anyList());
+
+        try (ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10)) {
+            buffer.updateMediaFile(good);
+            buffer.updateMediaFile(bad);
+        }
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<MediaFile>> captor = ArgumentCaptor.forClass(List.class);
+        verify(mediaFileService, atLeast(2)).updateMediaFiles(captor.capture());
+        // good is written whether it shared the failing batch or not
+        assertTrue(captor.getAllValues().contains(List.of(good)));
+        assertEquals(List.of(bad), captor.getValue());
+    }
+
+    @Test
+    public void rejectsWritesAfterClose() {
+        ScanWriteBuffer buffer = new ScanWriteBuffer(mediaFileService, albumService, artistService, 10);
+        buffer.close();
+        assertThrows(IllegalStateException.class, () -> buffer.updateMediaFile(new MediaFile()));
+    }
+
+    private MediaFile createMediaFile(String path) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setPath(path);
+        mediaFile.setFolder(folder);
+        return mediaFile;
+    }
+}
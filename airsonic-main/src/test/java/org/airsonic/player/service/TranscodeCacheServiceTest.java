@@ -0,0 +1,192 @@
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.Transcoding;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TranscodeCacheServiceTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Mock
+    private AirsonicHomeConfig homeConfig;
+
+    @TempDir
+    private Path tempDir;
+
+    private MeterRegistry meterRegistry;
+    private TranscodeCacheService cacheService;
+
+    @BeforeEach
+    public void setup() {
+        when(homeConfig.getAirsonicHome()).thenReturn(tempDir);
+        meterRegistry = new SimpleMeterRegistry();
+        cacheService = createCacheService(1);
+    }
+
+    private TranscodeCacheService createCacheService(long cacheSize) {
+        AirsonicTranscodeConfig transcodeConfig = new AirsonicTranscodeConfig();
+        transcodeConfig.setCacheSize(cacheSize);
+        TranscodeCacheService service = new TranscodeCacheService(homeConfig, transcodeConfig, meterRegistry);
+        service.init();
+        return service;
+    }
+
+    @Test
+    public void completelyReadStreamIsCached() throws IOException {
+        byte[] data = createData(1000);
+        try (InputStream in = cacheService.tee("key", new ByteArrayInputStream(data))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        assertEquals(1000L, cacheService.getCachedLength("key"));
+        try (InputStream in = cacheService.open("key")) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        assertEquals(1.0, meterRegistry.get("airsonic.transcode.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("airsonic.transcode.cache.requests").tag("result", "miss").counter().count());
+        assertEquals(1000.0, meterRegistry.get("airsonic.transcode.cache.bytes").tag("operation", "read").counter().count());
+        assertEquals(1000.0, meterRegistry.get("airsonic.transcode.cache.bytes").tag("operation", "write").counter().count());
+        assertEquals(1000.0, meterRegistry.get("airsonic.transcode.cache.size").gauge().value());
+    }
+
+    @Test
+    public void skippedDataIsCached() throws IOException {
+        byte[] data = createData(20000);
+        try (InputStream in = cacheService.tee("key", new ByteArrayInputStream(data))) {
+            assertEquals(15000, in.skip(15000));
+            in.readAllBytes();
+        }
+
+        try (InputStream in = cacheService.open("key")) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void partiallyReadStreamIsDiscarded() throws IOException {
+        try (InputStream in = cacheService.tee("key", new ByteArrayInputStream(createData(1000)))) {
+            in.readNBytes(10);
+        }
+
+        assertNull(cacheService.getCachedLength("key"));
+        assertNull(cacheService.open("key"));
+        try (var files = Files.list(tempDir.resolve("transcode-cache"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void concurrentStreamIsNotCachedTwice() throws IOException {
+        InputStream first = cacheService.tee("key", new ByteArrayInputStream(createData(10)));
+        InputStream source = new ByteArrayInputStream(createData(10));
+
+        assertSame(source, cacheService.tee("key", source));
+        first.close();
+    }
+
+    @Test
+    public void storedStreamIsCachedWithoutCountingMiss() throws IOException {
+        byte[] data = createData(1000);
+
+        assertTrue(cacheService.store("key", new ByteArrayInputStream(data)));
+
+        try (InputStream in = cacheService.open("key")) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        assertEquals(0.0, meterRegistry.get("airsonic.transcode.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreEvicted() throws IOException {
+        cache("first", MB / 3);
+        cache("second", MB / 3);
+        cache("third", MB / 3);
+        // use the first file, so that the second one is the least recently used
+        cacheService.open("first").close();
+
+        cache("fourth", MB / 3);
+
+        assertEquals(MB / 3, cacheService.getCachedLength("first"));
+        assertNull(cacheService.getCachedLength("second"));
+        assertFalse(Files.exists(tempDir.resolve("transcode-cache").resolve("second")));
+        assertEquals(3, cacheService.getEntryCount());
+        assertEquals(MB / 3 * 3, cacheService.getSize());
+    }
+
+    @Test
+    public void cachedFilesAreLoadedOnStartup() throws IOException {
+        cache("key", 100);
+        Files.write(tempDir.resolve("transcode-cache").resolve("other.part"), createData(10));
+
+        TranscodeCacheService restarted = createCacheService(1);
+
+        assertEquals(100L, restarted.getCachedLength("key"));
+        assertEquals(100, restarted.getSize());
+        assertFalse(Files.exists(tempDir.resolve("transcode-cache").resolve("other.part")));
+    }
+
+    @Test
+    public void keyChangesWithMediaFileAndTranscoding() {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(1);
+        mediaFile.setChanged(Instant.ofEpochMilli(1000));
+        Transcoding transcoding = new Transcoding(2, "mp3 audio", "flac", "mp3", "ffmpeg -i %s -ab %bk -", null, null, true);
+
+        String key = TranscodeCacheService.createKey(mediaFile, transcoding, 128);
+        assertTrue(key.startsWith("1-1000-2-"));
+        assertTrue(key.endsWith("-128.mp3"));
+        assertNotEquals(key, TranscodeCacheService.createKey(mediaFile, transcoding, 192));
+
+        transcoding.setStep1("ffmpeg -i %s -ab %bk -ac 2 -");
+        assertNotEquals(key, TranscodeCacheService.createKey(mediaFile, transcoding, 128));
+
+        mediaFile.setChanged(Instant.ofEpochMilli(2000));
+        assertTrue(TranscodeCacheService.createKey(mediaFile, transcoding, 128).startsWith("1-2000-2-"));
+    }
+
+    @Test
+    public void disabledCache() {
+        assertFalse(createCacheService(0).isEnabled());
+        assertTrue(cacheService.isEnabled());
+    }
+
+    private void cache(String key, int length) throws IOException {
+        try (InputStream in = cacheService.tee(key, new ByteArrayInputStream(createData(length)))) {
+            in.readAllBytes();
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,131 @@
+package org.airsonic.player.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.io.TranscodeInputStream;
+import org.airsonic.player.service.TranscoderExecutionService.Admission;
+import org.airsonic.player.service.TranscoderExecutionService.TranscoderBusyException;
+import org.airsonic.player.util.LambdaUtils;
+import org.airsonic.player.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+public class TranscoderExecutionServiceTest {
+
+    private MeterRegistry meterRegistry;
+    private TranscoderExecutionService executionService;
+
+    @BeforeEach
+    public void setup() {
+        assumeFalse(Util.isWindows());
+        AirsonicTranscodeConfig transcodeConfig = new AirsonicTranscodeConfig();
+        transcodeConfig.setMaxProcesses(2);
+        transcodeConfig.setAdmissionTimeout(1);
+        meterRegistry = new SimpleMeterRegistry();
+        executionService = new TranscoderExecutionService(transcodeConfig, meterRegistry);
+    }
+
+    @AfterEach
+    public void teardown() {
+        if (executionService != null) {
+            executionService.shutdown();
+        }
+    }
+
+    @Test
+    public void transcodingIsRejectedWhenAllProcessesRun() throws Exception {
+        InputStream first;
+        try (Admission admission = executionService.admit(2)) {
+            first = admission.start(new ProcessBuilder("cat"), null, null, 0);
+        }
+
+        // one process runs, and the unused one was released
+        try (Admission admission = executionService.admit(1)) {
+            // nothing started
+        }
+        assertThrows(TranscoderBusyException.class, () -> executionService.admit(2));
+        assertEquals(1.0, meterRegistry.get("airsonic.transcode.processes.rejected").counter().count());
+
+        // closing stdin lets the process exit
+        first.close();
+        executionService.admit(2).close();
+    }
+
+    @Test
+    public void transcodingIsRejectedAtOnceWhenQueueIsFull() throws Exception {
+        AirsonicTranscodeConfig transcodeConfig = new AirsonicTranscodeConfig();
+        transcodeConfig.setMaxProcesses(1);
+        transcodeConfig.setAdmissionTimeout(30);
+        transcodeConfig.setAdmissionQueueLength(1);
+        executionService.shutdown();
+        meterRegistry = new SimpleMeterRegistry();
+        executionService = new TranscoderExecutionService(transcodeConfig, meterRegistry);
+
+        Admission running = executionService.admit(1);
+        CompletableFuture<Admission> queued = CompletableFuture.supplyAsync(LambdaUtils.uncheckSupplier(() -> executionService.admit(1)));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (meterRegistry.get("airsonic.transcode.processes.waiting").gauge().value() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // the queue is full, so the request thread is not held for the admission timeout
+        long start = System.nanoTime();
+        assertThrows(TranscoderBusyException.class, () -> executionService.admit(1));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+        assertEquals(1.0, meterRegistry.get("airsonic.transcode.processes.rejected").counter().count());
+
+        // the queued transcoding is admitted once the running one is done
+        running.close();
+        queued.get(10, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void inputIsPumpedAndProcessesAreMeasured() throws Exception {
+        byte[] data = "hello transcoder".getBytes(StandardCharsets.UTF_8);
+        TranscodeInputStream in;
+        try (Admission admission = executionService.admit(1)) {
+            in = admission.start(new ProcessBuilder("cat"), new ByteArrayInputStream(data), null, 0);
+        }
+
+        assertEquals("hello transcoder", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        in.getProcess().waitFor(10, TimeUnit.SECONDS);
+        in.close();
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executionService.getActiveProcessCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executionService.getActiveProcessCount());
+        assertEquals(1, meterRegistry.get("airsonic.transcode.process.wall").tag("executable", "cat").timer().count());
+        assertEquals(1, meterRegistry.get("airsonic.transcode.process.cpu").tag("executable", "cat").timer().count());
+    }
+
+    @Test
+    public void processesAreStartedWithNiceness() throws Exception {
+        ProcessBuilder processBuilder = new ProcessBuilder("/bin/cat");
+        try (Admission admission = executionService.admit(1)) {
+            admission.start(processBuilder, new ByteArrayInputStream(new byte[0]), null, 5).close();
+        }
+
+        assertEquals(List.of("nice", "-n", "5", "/bin/cat"), processBuilder.command());
+        long deadline = System.currentTimeMillis() + 10000;
+        while (executionService.getActiveProcessCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, meterRegistry.get("airsonic.transcode.process.wall").tag("executable", "cat").timer().count());
+    }
+}
@@ -0,0 +1,55 @@
+package org.airsonic.player.service;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.service.TranscoderExecutionService.TranscoderBusyException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class TranscodingServiceTest {
+
+    @Mock
+    private SettingsService settingsService;
+    @Mock
+    private TranscodeCacheService transcodeCacheService;
+    @Mock
+    private TranscoderExecutionService transcoderExecutionService;
+    @InjectMocks
+    private TranscodingService transcodingService;
+
+    @Test
+    public void evictedCacheEntryIsTranscodedWithEstimatedLength() throws Exception {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setFolder(new MusicFolder(1, Paths.get("music"), "music", MusicFolder.Type.MEDIA, true, Instant.now()));
+        mediaFile.setPath("song.flac");
+        mediaFile.setDuration(10.0);
+        TranscodingService.Parameters parameters = new TranscodingService.Parameters(mediaFile, null, 128);
+        parameters.setTranscoding(new Transcoding(null, "mp3", "flac", "mp3", "ffmpeg -i %s -b:a %bk -f mp3 -", null, null, true));
+        parameters.setCacheKey("key");
+        // as created while the transcoding was cached
+        parameters.setExpectedLength(123L);
+        parameters.setRangeAllowed(true);
+
+        when(transcodeCacheService.open("key")).thenReturn(null);
+        when(transcoderExecutionService.admit(1)).thenThrow(new TranscoderBusyException(1));
+
+        assertThrows(TranscoderBusyException.class, () -> transcodingService.getTranscodedInputStream(parameters));
+
+        // 10 seconds at 128 kbps
+        assertEquals(160000L, parameters.getExpectedLength());
+        assertTrue(parameters.isRangeAllowed());
+    }
+}
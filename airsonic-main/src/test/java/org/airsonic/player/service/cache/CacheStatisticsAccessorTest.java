@@ -0,0 +1,53 @@
+package org.airsonic.player.service.cache;
+
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.core.statistics.CacheStatistics;
+import org.ehcache.core.statistics.TierStatistics;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.junit.jupiter.api.Test;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import java.net.URI;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CacheStatisticsAccessorTest {
+
+    @Test
+    public void tierStatisticsOfJCacheAreAccessible() {
+        CacheStatisticsAccessor accessor = new CacheStatisticsAccessor();
+        assertThrows(IllegalStateException.class, () -> accessor.getCacheStatistics("testCache"));
+
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider("org.ehcache.jsr107.EhcacheCachingProvider");
+        try (CacheManager cacheManager = provider.getCacheManager(URI.create("cache-statistics-accessor-test"), ConfigurationBuilder.newConfigurationBuilder()
+                .withService(accessor.getConfiguration())
+                .withCache("testCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, String.class,
+                        ResourcePoolsBuilder.newResourcePoolsBuilder().heap(2, EntryUnit.ENTRIES).offheap(1, MemoryUnit.MB)))
+                .build())) {
+            Cache<Integer, String> cache = cacheManager.getCache("testCache", Integer.class, String.class);
+            for (int i = 0; i < 5; i++) {
+                cache.put(i, "value" + i);
+            }
+            cache.get(0);
+            cache.get(-1);
+
+            CacheStatistics statistics = accessor.getCacheStatistics("testCache");
+            assertEquals(5, statistics.getCachePuts());
+            assertEquals(1, statistics.getCacheHits());
+            assertEquals(1, statistics.getCacheMisses());
+            TierStatistics offHeap = statistics.getTierStatistics().get("OffHeap");
+            assertEquals(5, offHeap.getMappings());
+            assertEquals(1, offHeap.getHits());
+            assertEquals(1, offHeap.getMisses());
+        }
+        assertThrows(IllegalStateException.class, () -> accessor.getCacheStatistics("testCache"));
+    }
+}
@@ -0,0 +1,98 @@
+package org.airsonic.player.service.cache;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicCacheConfig;
+import org.airsonic.player.monitor.MetricsManager;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ConfigurationBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheTelemetryServiceTest {
+
+    private CacheManager cacheManager;
+    private MeterRegistry meterRegistry;
+    private CacheTelemetryService telemetryService;
+
+    @BeforeEach
+    public void setup() {
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider("org.ehcache.jsr107.EhcacheCachingProvider");
+        CacheStatisticsAccessor cacheStatisticsAccessor = new CacheStatisticsAccessor();
+        cacheManager = provider.getCacheManager(URI.create("cache-telemetry-test"), ConfigurationBuilder.newConfigurationBuilder()
+                .withService(cacheStatisticsAccessor.getConfiguration())
+                .withCache("testCache", CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, String.class,
+                        ResourcePoolsBuilder.newResourcePoolsBuilder().heap(2, EntryUnit.ENTRIES)))
+                .build());
+        MetricsManager metricsManager = new MetricsManager();
+        ReflectionTestUtils.setField(metricsManager, "env", new MockEnvironment());
+        AirsonicCacheConfig cacheConfig = new AirsonicCacheConfig();
+        cacheConfig.setTelemetryInterval(0);
+        meterRegistry = new SimpleMeterRegistry();
+        telemetryService = new CacheTelemetryService(cacheManager, cacheStatisticsAccessor, cacheConfig, meterRegistry, metricsManager);
+    }
+
+    @AfterEach
+    public void teardown() {
+        telemetryService.shutdown();
+        cacheManager.close();
+    }
+
+    @Test
+    public void statisticsAreSampled() {
+        Cache<Integer, String> cache = cacheManager.getCache("testCache", Integer.class, String.class);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, "value" + i);
+        }
+        cache.get(-1);
+
+        // nothing is published before the first sample
+        assertEquals(0.0, meterRegistry.get("airsonic.cache.puts").tag("cache", "testCache").counter().count());
+
+        telemetryService.sample();
+        telemetryService.sample();
+
+        assertEquals(5.0, meterRegistry.get("airsonic.cache.puts").tag("cache", "testCache").counter().count());
+        assertEquals(1.0, meterRegistry.get("airsonic.cache.gets").tags("cache", "testCache", "result", "miss").counter().count());
+        double evictions = meterRegistry.get("airsonic.cache.evictions").tag("cache", "testCache").counter().count();
+        assertTrue(evictions >= 3.0);
+        DistributionSummary evictionSummary = meterRegistry.get("airsonic.cache.evictions.sampled").tag("cache", "testCache").summary();
+        assertEquals(2, evictionSummary.count());
+        assertEquals(evictions, evictionSummary.totalAmount());
+
+        Map<String, Object> statistics = telemetryService.getSampledStatistics().get("testCache");
+        assertEquals(5L, statistics.get("puts"));
+        assertEquals(false, statistics.get("traced"));
+    }
+
+    @Test
+    public void tracingIsEnabledPerCache() {
+        assertTrue(telemetryService.setTracing("testCache", true));
+        assertTrue(telemetryService.setTracing("testCache", true));
+        assertEquals(Set.of("testCache"), telemetryService.getTracedCaches());
+        cacheManager.getCache("testCache", Integer.class, String.class).put(1, "value");
+
+        assertTrue(telemetryService.setTracing("testCache", false));
+        assertTrue(telemetryService.getTracedCaches().isEmpty());
+        assertFalse(telemetryService.setTracing("unknownCache", true));
+    }
+}
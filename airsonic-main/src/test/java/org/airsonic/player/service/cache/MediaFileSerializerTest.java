@@ -0,0 +1,112 @@
+package org.airsonic.player.service.cache;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.CacheManagerBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.config.units.EntryUnit;
+import org.ehcache.config.units.MemoryUnit;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MediaFileSerializerTest {
+
+    private final MediaFileSerializer serializer = new MediaFileSerializer(getClass().getClassLoader());
+
+    @Test
+    public void allPersistedFieldsAreRestored() {
+        MediaFile mediaFile = createMediaFile(1, "artist/album/song.flac");
+        mediaFile.setTitle("Sönġ " + "x".repeat(1000));
+        mediaFile.setAlbumName("Album");
+        mediaFile.setTrackNumber(3);
+        mediaFile.setDuration(123.5);
+        mediaFile.setFileSize(4567L);
+        mediaFile.setVariableBitRate(true);
+        mediaFile.setPlayCount(7);
+        mediaFile.setLastPlayed(Instant.ofEpochMilli(1000));
+        mediaFile.setChanged(Instant.ofEpochMilli(2000));
+        mediaFile.setPresent(true);
+        mediaFile.setVersion(4);
+
+        MediaFile restored = serializer.read(serializer.serialize(mediaFile));
+
+        assertEquals(mediaFile, restored);
+        assertEquals(1, restored.getId());
+        assertEquals(MediaType.MUSIC, restored.getMediaType());
+        assertEquals(mediaFile.getTitle(), restored.getTitle());
+        assertEquals("Album", restored.getAlbumName());
+        assertEquals(3, restored.getTrackNumber());
+        assertEquals(123.5, restored.getDuration());
+        assertEquals(4567L, restored.getFileSize());
+        assertTrue(restored.isVariableBitRate());
+        assertEquals(7, restored.getPlayCount());
+        assertEquals(Instant.ofEpochMilli(1000), restored.getLastPlayed());
+        assertEquals(Instant.ofEpochMilli(2000), restored.getChanged());
+        assertTrue(restored.isPresent());
+        assertEquals(4, restored.getVersion());
+        assertEquals(mediaFile.getFolder().getPath(), restored.getFolder().getPath());
+        assertEquals("Music", restored.getFolder().getName());
+    }
+
+    @Test
+    public void nullFieldsAreRestored() {
+        MediaFile mediaFile = createMediaFile(null, "artist");
+        mediaFile.setMediaType(null);
+
+        MediaFile restored = serializer.read(serializer.serialize(mediaFile));
+
+        assertNull(restored.getId());
+        assertNull(restored.getMediaType());
+        assertNull(restored.getTitle());
+        assertNull(restored.getYear());
+        assertNull(restored.getLastPlayed());
+        assertFalse(restored.isPresent());
+    }
+
+    @Test
+    public void equalsComparesSerializedForm() {
+        MediaFile mediaFile = createMediaFile(1, "artist/album");
+        ByteBuffer binary = serializer.serialize(mediaFile);
+
+        assertTrue(serializer.equals(mediaFile, binary.duplicate()));
+        assertFalse(serializer.equals(createMediaFile(1, "artist/other"), binary.duplicate()));
+    }
+
+    @Test
+    public void mediaFilesAreStoredOffHeap() {
+        try (org.ehcache.CacheManager cacheManager = CacheManagerBuilder.newCacheManagerBuilder().build(true)) {
+            org.ehcache.Cache<Integer, MediaFile> cache = cacheManager.createCache("mediaFiles",
+                    CacheConfigurationBuilder.newCacheConfigurationBuilder(Integer.class, MediaFile.class,
+                            ResourcePoolsBuilder.newResourcePoolsBuilder().heap(1, EntryUnit.ENTRIES).offheap(1, MemoryUnit.MB))
+                            .withValueSerializer(MediaFileSerializer.class));
+            for (int i = 0; i < 10; i++) {
+                cache.put(i, createMediaFile(i, "artist/album" + i));
+            }
+
+            // only one media file fits on the heap, the others are read from the off-heap tier
+            for (int i = 0; i < 10; i++) {
+                assertEquals("artist/album" + i, cache.get(i).getPath());
+            }
+        }
+    }
+
+    private static MediaFile createMediaFile(Integer id, String path) {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setId(id);
+        mediaFile.setPath(path);
+        mediaFile.setFolder(new MusicFolder(1, Paths.get("/music"), "Music", Type.MEDIA, true, Instant.ofEpochMilli(0)));
+        mediaFile.setMediaType(MediaType.MUSIC);
+        return mediaFile;
+    }
+}
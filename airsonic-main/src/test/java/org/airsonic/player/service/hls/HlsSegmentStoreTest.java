@@ -0,0 +1,148 @@
+package org.airsonic.player.service.hls;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.Transcoding;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class HlsSegmentStoreTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Mock
+    private AirsonicHomeConfig homeConfig;
+
+    @TempDir
+    private Path tempDir;
+
+    private MeterRegistry meterRegistry;
+    private HlsSegmentStore segmentStore;
+
+    @BeforeEach
+    public void setup() {
+        when(homeConfig.getAirsonicHome()).thenReturn(tempDir);
+        meterRegistry = new SimpleMeterRegistry();
+        segmentStore = createSegmentStore();
+    }
+
+    private HlsSegmentStore createSegmentStore() {
+        AirsonicTranscodeConfig transcodeConfig = new AirsonicTranscodeConfig();
+        transcodeConfig.setHlsCacheSize(1L);
+        HlsSegmentStore store = new HlsSegmentStore(homeConfig, transcodeConfig, meterRegistry);
+        store.init();
+        return store;
+    }
+
+    @Test
+    public void storedSegmentIsFound() throws IOException {
+        store("video", 3, 100);
+
+        assertEquals(tempDir.resolve("hls-cache/video/3.ts"), segmentStore.getSegment("video", 3));
+        assertNull(segmentStore.getSegment("video", 4));
+        assertNull(segmentStore.getSegment("other", 3));
+        assertEquals(1.0, meterRegistry.get("airsonic.hls.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(2.0, meterRegistry.get("airsonic.hls.cache.requests").tag("result", "miss").counter().count());
+        assertEquals(100.0, meterRegistry.get("airsonic.hls.cache.size").gauge().value());
+    }
+
+    @Test
+    public void segmentStoredTwiceIsKeptOnce() throws IOException {
+        store("video", 0, 100);
+        Path duplicate = store("video", 0, 50);
+
+        assertFalse(Files.exists(duplicate));
+        assertEquals(100, Files.size(segmentStore.getSegment("video", 0)));
+        assertEquals(1, segmentStore.getEntryCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedSegmentsAreEvicted() throws IOException {
+        store("video", 0, MB / 3);
+        store("video", 1, MB / 3);
+        store("video", 2, MB / 3);
+        // use the first segment, so that the second one is the least recently used
+        segmentStore.getSegment("video", 0);
+
+        store("video", 3, MB / 3);
+
+        assertTrue(segmentStore.contains("video", 0));
+        assertFalse(segmentStore.contains("video", 1));
+        assertFalse(Files.exists(tempDir.resolve("hls-cache/video/1.ts")));
+        assertEquals(MB / 3 * 3, segmentStore.getSize());
+    }
+
+    @Test
+    public void storedSegmentsAreLoadedOnStartup() throws IOException {
+        store("video", 0, 100);
+        Files.writeString(tempDir.resolve("hls-cache/video/out.m3u8"), "#EXTM3U");
+
+        HlsSegmentStore restarted = createSegmentStore();
+
+        assertTrue(restarted.contains("video", 0));
+        assertEquals(100, restarted.getSize());
+        assertFalse(Files.exists(tempDir.resolve("hls-cache/video/out.m3u8")));
+    }
+
+    @Test
+    public void waitingThreadIsWokenUpWhenSegmentIsStored() throws Exception {
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                store("video", 0, 100);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+
+        long start = System.nanoTime();
+        segmentStore.awaitSegment("video", 0, 10000L);
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertTrue(segmentStore.contains("video", 0));
+    }
+
+    @Test
+    public void keyChangesWithMediaFileSettingsAndCommandButNotWithPlayer() {
+        MediaFile mediaFile = new MediaFile();
+        mediaFile.setChanged(Instant.ofEpochMilli(1000));
+        Transcoding transcoding = new Transcoding(null, "hls", "mkv", "ts", "ffmpeg -i %s", null, null, true);
+
+        String key = HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "player", 1000, "640x480", 10, null), transcoding);
+        assertTrue(key.startsWith("1-1000-640x480-1000-0-10-"));
+        assertEquals(key, HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "other", 1000, "640x480", 10, null), transcoding));
+        assertNotEquals(key, HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "player", 1000, "640x480", 10, 2), transcoding));
+
+        Transcoding edited = new Transcoding(null, "hls", "mkv", "ts", "ffmpeg -re -i %s", null, null, true);
+        assertNotEquals(key, HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "player", 1000, "640x480", 10, null), edited));
+
+        mediaFile.setChanged(Instant.ofEpochMilli(2000));
+        assertNotEquals(key, HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "player", 1000, "640x480", 10, null), transcoding));
+    }
+
+    private Path store(String key, int index, int length) throws IOException {
+        Path segment = Files.write(tempDir.resolve("segment-" + System.nanoTime() + ".ts"), new byte[length]);
+        segmentStore.putSegment(key, index, segment);
+        return segment;
+    }
+}
@@ -0,0 +1,217 @@
+package org.airsonic.player.service.hls;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicTranscodeConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.Transcoding;
+import org.airsonic.player.domain.VideoTranscodingSettings;
+import org.airsonic.player.io.TranscodeInputStream;
+import org.airsonic.player.service.PathWatcherService;
+import org.airsonic.player.service.TranscoderExecutionService;
+import org.airsonic.player.service.TranscodingService;
+import org.airsonic.player.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class HlsSessionTest {
+
+    @Mock
+    private TranscodingService transcodingService;
+    @Mock
+    private AirsonicHomeConfig homeConfig;
+
+    @TempDir
+    private Path tempDir;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<HlsSession> sessions = new ArrayList<>();
+    private final List<Process> processes = new CopyOnWriteArrayList<>();
+    private PathWatcherService pathWatcherService;
+    private TranscoderExecutionService transcoderExecutionService;
+    private HlsSegmentStore segmentStore;
+    private MediaFile mediaFile;
+    private Transcoding transcoding;
+
+    // number of segments the fake transcoder produces, whether it completes the playlist and what it does afterwards
+    private int segmentCount;
+    private boolean complete;
+    private String ending;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        assumeFalse(Util.isWindows());
+        pathWatcherService = new PathWatcherService();
+        transcoderExecutionService = new TranscoderExecutionService(new AirsonicTranscodeConfig(), new SimpleMeterRegistry());
+        when(homeConfig.getAirsonicHome()).thenReturn(tempDir);
+        segmentStore = new HlsSegmentStore(homeConfig, new AirsonicTranscodeConfig(), new SimpleMeterRegistry());
+        segmentStore.init();
+        mediaFile = new MediaFile();
+        mediaFile.setId(1);
+        segmentCount = 1;
+        transcoding = new Transcoding(null, "hls", "mkv", "ts", "ffmpeg -i %s", null, null, true);
+        when(transcodingService.getHlsTranscoding(mediaFile)).thenAnswer(invocation -> transcoding);
+        ending = "sleep 30";
+        when(transcodingService.getParameters(any(), isNull(), anyInt(), eq("ts"), any()))
+                .thenAnswer(invocation -> new TranscodingService.Parameters(null, invocation.getArgument(4)));
+        when(transcodingService.getTranscodedInputStream(any())).thenAnswer(invocation -> {
+            VideoTranscodingSettings settings = ((TranscodingService.Parameters) invocation.getArgument(0)).getVideoTranscodingSettings();
+            TranscodeInputStream in = new TranscodeInputStream(new ProcessBuilder("sh", "-c", createTranscoderScript(settings)),
+                    null, null, executor);
+            processes.add(in.getProcess());
+            return in;
+        });
+    }
+
+    /**
+     * Writes segments and a playlist like ffmpeg does.
+     */
+    private String createTranscoderScript(VideoTranscodingSettings settings) {
+        Path playlist = Path.of(settings.getOutputFilename());
+        StringBuilder script = new StringBuilder("sleep 0.2; echo '#EXTM3U' > " + playlist + ".tmp; ");
+        for (int i = settings.getHlsSegmentIndex(); i < settings.getHlsSegmentIndex() + segmentCount; i++) {
+            script.append("echo segment").append(i).append(" > ").append(playlist.resolveSibling(i + ".ts")).append("; ");
+            script.append("printf '#EXTINF:10.0,\\n").append(i).append(".ts\\n' >> ").append(playlist).append(".tmp; ");
+            script.append("cp ").append(playlist).append(".tmp ").append(playlist).append(".tmp2; mv ")
+                    .append(playlist).append(".tmp2 ").append(playlist).append("; ");
+        }
+        if (complete) {
+            script.append("echo '#EXT-X-ENDLIST' >> ").append(playlist).append(".tmp; mv ").append(playlist).append(".tmp ")
+                    .append(playlist).append("; ");
+        }
+        return script.append(ending).toString();
+    }
+
+    private HlsSession createSession(String playerId) {
+        HlsSession session = new HlsSession(new HlsSession.Key(1, playerId, 1000, "640x480", 10, null), mediaFile,
+                transcodingService, transcoderExecutionService, pathWatcherService, segmentStore, tempDir.resolve("hls"), 2);
+        sessions.add(session);
+        return session;
+    }
+
+    private String getSegmentKey() {
+        return HlsSegmentStore.createKey(mediaFile, new HlsSession.Key(1, "player", 1000, "640x480", 10, null), transcoding);
+    }
+
+    private Path getStoredSegment(int index) {
+        return tempDir.resolve("hls-cache").resolve(getSegmentKey()).resolve(index + ".ts");
+    }
+
+    @AfterEach
+    public void teardown() {
+        sessions.forEach(HlsSession::destroySession);
+        executor.shutdownNow();
+        transcoderExecutionService.shutdown();
+    }
+
+    @Test
+    public void waitingRequestIsWokenUpWhenSegmentIsListed() throws Exception {
+        long start = System.nanoTime();
+        assertEquals(getStoredSegment(0), createSession("player").waitForSegment(0, 10000L));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000L);
+        assertEquals("segment0\n", Files.readString(getStoredSegment(0)));
+    }
+
+    @Test
+    public void transcoderIsRestartedOnlyBeyondPrefetchedSegments() throws Exception {
+        HlsSession session = createSession("player");
+        session.waitForSegment(0, 10000L);
+
+        // the running transcoder produces the segment soon
+        assertNull(session.waitForSegment(2, 100L));
+        verify(transcodingService, times(1)).getTranscodedInputStream(any());
+
+        assertNull(session.waitForSegment(5, 100L));
+        verify(transcodingService, times(2)).getTranscodedInputStream(any());
+    }
+
+    @Test
+    public void stoppedTranscoderIsResumedAfterLastSegment() throws Exception {
+        segmentCount = 2;
+        ending = "exit 0";
+        HlsSession session = createSession("player");
+        session.waitForSegment(0, 10000L);
+        processes.get(0).waitFor(10, TimeUnit.SECONDS);
+
+        assertEquals(getStoredSegment(1), session.waitForSegment(1, 10000L));
+
+        ArgumentCaptor<VideoTranscodingSettings> settings = ArgumentCaptor.forClass(VideoTranscodingSettings.class);
+        verify(transcodingService, times(2)).getParameters(any(), isNull(), anyInt(), eq("ts"), settings.capture());
+        assertEquals(List.of(0, 2), settings.getAllValues().stream().map(VideoTranscodingSettings::getHlsSegmentIndex).toList());
+    }
+
+    @Test
+    public void completedTranscodingIsNotResumed() throws Exception {
+        complete = true;
+        ending = "exit 0";
+        HlsSession session = createSession("player");
+        session.waitForSegment(0, 10000L);
+        processes.get(0).waitFor(10, TimeUnit.SECONDS);
+
+        assertEquals(getStoredSegment(0), session.waitForSegment(0, 10000L));
+        verify(transcodingService, times(1)).getTranscodedInputStream(any());
+    }
+
+    @Test
+    public void segmentsAreSharedBySessions() throws Exception {
+        mediaFile.setDuration(10.0);
+        createSession("player").waitForSegment(0, 10000L);
+
+        assertEquals(getStoredSegment(0), createSession("other").waitForSegment(0, 10000L));
+        verify(transcodingService, times(1)).getTranscodedInputStream(any());
+    }
+
+    @Test
+    public void transcoderIsStoppedAtStoredSegments() throws Exception {
+        Path segment = Files.writeString(tempDir.resolve("1.ts"), "stored");
+        segmentStore.putSegment(getSegmentKey(), 1, segment);
+
+        createSession("player").waitForSegment(0, 10000L);
+
+        assertTrue(processes.get(0).waitFor(10, TimeUnit.SECONDS));
+        assertEquals("stored", Files.readString(getStoredSegment(1)));
+    }
+
+    @Test
+    public void segmentsAreTranscodedAgainAfterCommandIsEdited() throws Exception {
+        HlsSession session = createSession("player");
+        Path before = session.waitForSegment(0, 10000L);
+
+        transcoding = new Transcoding(null, "hls", "mkv", "ts", "ffmpeg -re -i %s", null, null, true);
+        Path after = session.waitForSegment(0, 10000L);
+
+        assertEquals(getStoredSegment(0), after);
+        assertNotEquals(before, after);
+        verify(transcodingService, times(2)).getTranscodedInputStream(any());
+        assertTrue(processes.get(0).waitFor(10, TimeUnit.SECONDS));
+    }
+}
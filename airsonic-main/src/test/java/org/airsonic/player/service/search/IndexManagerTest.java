@@ -0,0 +1,136 @@
+package org.airsonic.player.service.search;
+
+import org.airsonic.player.config.AirsonicHomeConfig;
+import org.airsonic.player.config.AirsonicScanConfig;
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.MediaFile.MediaType;
+import org.airsonic.player.domain.MediaLibraryStatistics;
+import org.airsonic.player.domain.MusicFolder;
+import org.airsonic.player.domain.MusicFolder.Type;
+import org.airsonic.player.repository.AlbumRepository;
+import org.airsonic.player.repository.ArtistRepository;
+import org.airsonic.player.repository.MediaFileRepository;
+import org.airsonic.player.service.TaskSchedulingService;
+import org.apache.lucene.search.IndexSearcher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class IndexManagerTest {
+
+    @Mock
+    private ArtistRepository artistRepository;
+    @Mock
+    private AlbumRepository albumRepository;
+    @Mock
+    private MediaFileRepository mediaFileRepository;
+    @Mock
+    private AirsonicHomeConfig homeConfig;
+    @Mock
+    private AirsonicScanConfig scanConfig;
+    @Mock
+    private TaskSchedulingService taskService;
+
+    @TempDir
+    private Path tempDir;
+
+    private IndexManager indexManager;
+
+    private MusicFolder musicFolder;
+
+    @BeforeEach
+    public void setup() {
+        when(homeConfig.getAirsonicHome()).thenReturn(tempDir);
+        when(scanConfig.getIndexRefreshInterval()).thenReturn(10);
+        indexManager = new IndexManager(new AnalyzerFactory(), new DocumentFactory(), artistRepository, albumRepository,
+                mediaFileRepository, homeConfig, scanConfig, taskService);
+        indexManager.initializeIndexDirectory();
+        musicFolder = new MusicFolder(1, tempDir, "music", Type.MEDIA, true, Instant.now());
+    }
+
+    @AfterEach
+    public void teardown() {
+        indexManager.close();
+    }
+
+    @Test
+    public void changesAreSearchableBeforeCommit() {
+        MediaFile song = new MediaFile();
+        song.setId(1);
+        song.setMediaType(MediaType.MUSIC);
+        song.setTitle("title");
+
+        indexManager.startIndexing();
+        verify(taskService).scheduleAtFixedRate(eq("searchindex-RefreshTask"), any(), any(), any(), eq(false));
+        indexManager.index(song, musicFolder);
+        assertEquals(0, countSongs());
+
+        indexManager.refreshSearchers();
+        assertEquals(1, countSongs());
+
+        indexManager.delete(song);
+        indexManager.refreshSearchers();
+        assertEquals(0, countSongs());
+    }
+
+    @Test
+    public void writersAreKeptAcrossScans() {
+        MediaLibraryStatistics statistics = new MediaLibraryStatistics();
+        statistics.incrementSongs(3);
+
+        indexManager.startIndexing();
+        indexManager.stopIndexing(statistics);
+        assertEquals(statistics, indexManager.getStatistics());
+
+        // a second scan reuses the open writers
+        MediaFile song = new MediaFile();
+        song.setId(2);
+        song.setMediaType(MediaType.MUSIC);
+        indexManager.startIndexing();
+        indexManager.index(song, musicFolder);
+        indexManager.stopIndexing(statistics);
+        assertEquals(1, countSongs());
+    }
+
+    @Test
+    public void startIndexingReportsSessionInProgress() {
+        MediaLibraryStatistics statistics = new MediaLibraryStatistics();
+
+        // a scan holds the writers
+        assertTrue(indexManager.startIndexing());
+        assertFalse(indexManager.startIndexing());
+        indexManager.stopIndexing(statistics);
+        indexManager.stopIndexing(statistics);
+
+        // the writers are still open, but no session is in progress
+        assertTrue(indexManager.startIndexing());
+        indexManager.stopIndexing(statistics);
+    }
+
+    private int countSongs() {
+        IndexSearcher searcher = indexManager.getSearcher(IndexType.SONG);
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            indexManager.release(IndexType.SONG, searcher);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.airsonic.player.service.search;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RandomDocCollectorTest {
+
+    private Directory directory;
+    private DirectoryReader reader;
+    private IndexSearcher searcher;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 1000; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("parity", i % 2 == 0 ? "even" : "odd", Field.Store.NO));
+                writer.addDocument(doc);
+                // several segments
+                if (i % 300 == 0) {
+                    writer.commit();
+                }
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void samplesDistinctMatchingDocs() throws Exception {
+        RandomDocCollector collector = searcher.search(new TermQuery(new Term("parity", "even")),
+                RandomDocCollector.manager(10, new Random(1)));
+
+        int[] docs = collector.getDocs();
+        assertEquals(500, collector.getTotalHits());
+        assertEquals(10, docs.length);
+        assertEquals(10, Arrays.stream(docs).distinct().count());
+        assertTrue(Arrays.stream(docs).allMatch(doc -> doc % 2 == 0));
+    }
+
+    @Test
+    public void returnsAllDocsIfFewerHits() throws Exception {
+        RandomDocCollector collector = searcher.search(new MatchAllDocsQuery(), RandomDocCollector.manager(2000, new Random(1)));
+
+        int[] docs = collector.getDocs();
+        assertEquals(1000, docs.length);
+        assertEquals(1000, Arrays.stream(docs).distinct().count());
+    }
+
+    @Test
+    public void samplesUniformly() throws Exception {
+        assertUniform(searcher);
+    }
+
+    @Test
+    public void samplesOfSlicesAreMergedUniformly() throws Exception {
+        // one slice per segment, searched concurrently
+        IndexSearcher slicedSearcher = new IndexSearcher(reader, Runnable::run) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return slices(leaves, 1, 1);
+            }
+        };
+        assertTrue(slicedSearcher.getSlices().length > 1);
+
+        RandomDocCollector collector = slicedSearcher.search(new TermQuery(new Term("parity", "odd")),
+                RandomDocCollector.manager(10, new Random(1)));
+        int[] docs = collector.getDocs();
+        assertEquals(500, collector.getTotalHits());
+        assertEquals(10, Arrays.stream(docs).distinct().count());
+        assertTrue(Arrays.stream(docs).allMatch(doc -> doc % 2 == 1));
+
+        assertUniform(slicedSearcher);
+    }
+
+    private static void assertUniform(IndexSearcher searcher) throws Exception {
+        Random random = new Random(1);
+        int[] counts = new int[1000];
+        for (int i = 0; i < 2000; i++) {
+            RandomDocCollector collector = searcher.search(new MatchAllDocsQuery(), RandomDocCollector.manager(5, random));
+            Arrays.stream(collector.getDocs()).forEach(doc -> counts[doc]++);
+        }
+        // 10 expected per doc, every part of the index has to be sampled
+        int firstHalf = Arrays.stream(counts, 0, 500).sum();
+        assertTrue(firstHalf > 4500 && firstHalf < 5500, "first half sampled " + firstHalf + " times");
+        assertTrue(Arrays.stream(counts).max().getAsInt() < 40);
+    }
+}
@@ -0,0 +1,104 @@
+package org.airsonic.player.service.search;
+
+import org.airsonic.player.domain.MediaFile;
+import org.airsonic.player.domain.RandomSearchCriteria;
+import org.airsonic.player.service.MediaFileService;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class SearchServiceImplTest {
+
+    @Mock
+    private QueryFactory queryFactory;
+    @Mock
+    private IndexManager indexManager;
+    @Mock
+    private MediaFileService mediaFileService;
+    @Spy
+    private SearchServiceUtilities util = new SearchServiceUtilities();
+    @InjectMocks
+    private SearchServiceImpl searchService;
+
+    private Directory directory;
+    private DirectoryReader reader;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        ReflectionTestUtils.setField(util, "mediaFileService", mediaFileService);
+        directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 100; i++) {
+                Document doc = new Document();
+                doc.add(new StoredField(FieldNames.ID, Integer.toString(i)));
+                writer.addDocument(doc);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        when(indexManager.getSearcher(IndexType.SONG)).thenReturn(new IndexSearcher(reader));
+        // only the last 10 songs of the index are still stored
+        when(mediaFileService.getMediaFile(anyInt())).thenAnswer(invocation -> {
+            int id = invocation.getArgument(0);
+            if (id < 90) {
+                return null;
+            }
+            MediaFile song = new MediaFile();
+            song.setId(id);
+            return song;
+        });
+    }
+
+    @AfterEach
+    public void teardown() throws Exception {
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void randomSongsSkipDocumentsNoLongerStored() throws Exception {
+        RandomSearchCriteria criteria = new RandomSearchCriteria(5, null, null, null, List.of());
+        when(queryFactory.getRandomSongs(criteria)).thenReturn(new MatchAllDocsQuery());
+
+        List<MediaFile> songs = searchService.getRandomSongs(criteria);
+
+        assertEquals(5, songs.size());
+        assertEquals(5, songs.stream().map(MediaFile::getId).distinct().count());
+        assertTrue(songs.stream().allMatch(song -> song.getId() >= 90));
+    }
+
+    @Test
+    public void randomSongsStopWhenHitsRunOut() throws Exception {
+        RandomSearchCriteria criteria = new RandomSearchCriteria(20, null, null, null, List.of());
+        when(queryFactory.getRandomSongs(criteria)).thenReturn(new MatchAllDocsQuery());
+
+        List<MediaFile> songs = searchService.getRandomSongs(criteria);
+
+        assertEquals(10, songs.size());
+        assertEquals(10, songs.stream().map(MediaFile::getId).distinct().count());
+    }
+}
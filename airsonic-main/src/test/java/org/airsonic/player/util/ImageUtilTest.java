@@ -0,0 +1,149 @@
+package org.airsonic.player.util;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class ImageUtilTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageUtilTest.class);
+
+    private static byte[] largeCover;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        largeCover = createJpeg(3000, 3000);
+    }
+
+    @Test
+    public void subsamplingKeepsTwiceTheTargetSize() {
+        assertEquals(1, ImageUtil.getSubsampling(300, 300));
+        assertEquals(1, ImageUtil.getSubsampling(1199, 600));
+        assertEquals(5, ImageUtil.getSubsampling(3000, 300));
+        assertEquals(15, ImageUtil.getSubsampling(3000, 100));
+    }
+
+    @Test
+    public void largeImageIsSubsampled() throws IOException {
+        BufferedImage image = ImageUtil.read(new ByteArrayInputStream(largeCover), 300);
+
+        assertEquals(600, image.getWidth());
+        assertEquals(600, image.getHeight());
+    }
+
+    @Test
+    public void smallImageIsReadCompletely() throws IOException {
+        BufferedImage image = ImageUtil.read(new ByteArrayInputStream(createJpeg(400, 200)), 300);
+
+        assertEquals(400, image.getWidth());
+        assertEquals(200, image.getHeight());
+    }
+
+    @Test
+    public void unsupportedImageIsNotRead() throws IOException {
+        assertNull(ImageUtil.read(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4 }), 300));
+    }
+
+    @Test
+    public void imageIsScaledToCenteredSquare() {
+        BufferedImage image = new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, 800, 400);
+        graphics.dispose();
+
+        BufferedImage square = ImageUtil.scaleToSquare(image, 100);
+
+        assertEquals(100, square.getWidth());
+        assertEquals(100, square.getHeight());
+        assertEquals(Color.BLACK.getRGB(), square.getRGB(50, 10));
+        assertEquals(Color.WHITE.getRGB(), square.getRGB(50, 50));
+        assertEquals(Color.BLACK.getRGB(), square.getRGB(50, 90));
+    }
+
+    // compares the latency and allocated bytes of a thumbnail from a full and from a subsampled decode
+    @Tag("benchmark")
+    @ParameterizedTest
+    @ValueSource(ints = { 100, 200, 300 })
+    public void testThumbnailCost(int size) throws IOException {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+        int rounds = 5;
+
+        for (int i = 0; i < 2; i++) {
+            long allocated = threadBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int j = 0; j < rounds; j++) {
+                ImageUtil.scale(ImageIO.read(new ByteArrayInputStream(largeCover)), size, size);
+            }
+            long fullTime = (System.nanoTime() - start) / rounds;
+            long fullAllocated = (threadBean.getThreadAllocatedBytes(threadId) - allocated) / rounds;
+
+            allocated = threadBean.getThreadAllocatedBytes(threadId);
+            start = System.nanoTime();
+            for (int j = 0; j < rounds; j++) {
+                ImageUtil.scaleToSquare(ImageUtil.read(new ByteArrayInputStream(largeCover), size), size);
+            }
+            long subsampledTime = (System.nanoTime() - start) / rounds;
+            long subsampledAllocated = (threadBean.getThreadAllocatedBytes(threadId) - allocated) / rounds;
+
+            // the first round warms up
+            if (i == 1) {
+                LOG.info("3000x3000 to {}x{}: full decode {} ms and {} KB, subsampled decode {} ms and {} KB", size, size,
+                        fullTime / 1000000, fullAllocated / 1024, subsampledTime / 1000000, subsampledAllocated / 1024);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 100, 200, 300 })
+    public void thumbnailIsScaledFromSubsampledDecode(int size) throws IOException {
+        BufferedImage image = ImageUtil.read(new ByteArrayInputStream(largeCover), size);
+
+        // decoded at no less than twice the thumbnail size, instead of 3000x3000
+        int subsampling = ImageUtil.getSubsampling(3000, size);
+        assertEquals((3000 + subsampling - 1) / subsampling, image.getWidth());
+        assertTrue(image.getWidth() >= 2 * size && image.getWidth() < 3000);
+
+        BufferedImage thumbnail = ImageUtil.scaleToSquare(image, size);
+        assertEquals(size, thumbnail.getWidth());
+        assertEquals(size, thumbnail.getHeight());
+    }
+
+    private static byte[] createJpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.RED, width, height, Color.BLUE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.YELLOW);
+        for (int i = 0; i < width; i += 50) {
+            graphics.drawLine(i, 0, width - i, height);
+        }
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+}